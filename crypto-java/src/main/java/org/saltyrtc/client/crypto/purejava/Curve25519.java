@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+package org.saltyrtc.client.crypto.purejava;
+
+/**
+ * X25519 scalar multiplication (RFC 7748).
+ *
+ * Field elements are represented as 10 signed limbs of alternating 26 and 25 bits
+ * (the "ref10" representation), so that limb products fit into a `long`. The ladder
+ * works on preallocated field elements and does not allocate in its loop.
+ */
+final class Curve25519 {
+    static final int SCALARBYTES = 32;
+    static final int POINTBYTES = 32;
+
+    private static final byte[] BASEPOINT = new byte[POINTBYTES];
+    static {
+        BASEPOINT[0] = 9;
+    }
+
+    private Curve25519() { }
+
+    /**
+     * Compute `q = n * p`. Return `false` if the result is the all-zero point
+     * (i.e. `p` is of low order), like libsodium does.
+     */
+    static boolean scalarMult(byte[] q, byte[] n, byte[] p) {
+        // Clamp scalar
+        final byte[] e = new byte[SCALARBYTES];
+        System.arraycopy(n, 0, e, 0, SCALARBYTES);
+        e[0] &= (byte) 248;
+        e[31] &= 127;
+        e[31] |= 64;
+
+        final int[] x1 = new int[10];
+        final int[] x2 = new int[10];
+        final int[] z2 = new int[10];
+        final int[] x3 = new int[10];
+        final int[] z3 = new int[10];
+        final int[] tmp0 = new int[10];
+        final int[] tmp1 = new int[10];
+
+        fromBytes(x1, p);
+        one(x2);
+        System.arraycopy(x1, 0, x3, 0, 10);
+        one(z3);
+
+        int swap = 0;
+        for (int pos = 254; pos >= 0; pos--) {
+            final int b = (e[pos >>> 3] >>> (pos & 7)) & 1;
+            swap ^= b;
+            cswap(x2, x3, swap);
+            cswap(z2, z3, swap);
+            swap = b;
+
+            sub(tmp0, x3, z3);
+            sub(tmp1, x2, z2);
+            add(x2, x2, z2);
+            add(z2, x3, z3);
+            mul(z3, tmp0, x2);
+            mul(z2, z2, tmp1);
+            sq(tmp0, tmp1);
+            sq(tmp1, x2);
+            add(x3, z3, z2);
+            sub(z2, z3, z2);
+            mul(x2, tmp1, tmp0);
+            sub(tmp1, tmp1, tmp0);
+            sq(z2, z2);
+            mul121666(z3, tmp1);
+            sq(x3, x3);
+            add(tmp0, tmp0, z3);
+            mul(z3, x1, z2);
+            mul(z2, tmp1, tmp0);
+        }
+        cswap(x2, x3, swap);
+        cswap(z2, z3, swap);
+
+        invert(z2, z2);
+        mul(x2, x2, z2);
+        toBytes(q, x2);
+
+        int nonzero = 0;
+        for (int i = 0; i < POINTBYTES; i++) {
+            nonzero |= q[i];
+        }
+        return nonzero != 0;
+    }
+
+    /**
+     * Compute `q = n * basepoint`.
+     */
+    static boolean scalarMultBase(byte[] q, byte[] n) {
+        return scalarMult(q, n, BASEPOINT);
+    }
+
+    private static void one(int[] h) {
+        h[0] = 1;
+        for (int i = 1; i < 10; i++) {
+            h[i] = 0;
+        }
+    }
+
+    private static void add(int[] h, int[] f, int[] g) {
+        for (int i = 0; i < 10; i++) {
+            h[i] = f[i] + g[i];
+        }
+    }
+
+    private static void sub(int[] h, int[] f, int[] g) {
+        for (int i = 0; i < 10; i++) {
+            h[i] = f[i] - g[i];
+        }
+    }
+
+    /**
+     * Swap `f` and `g` if `b == 1`, in constant time.
+     */
+    private static void cswap(int[] f, int[] g, int b) {
+        final int mask = -b;
+        for (int i = 0; i < 10; i++) {
+            final int x = (f[i] ^ g[i]) & mask;
+            f[i] ^= x;
+            g[i] ^= x;
+        }
+    }
+
+    private static long load3(byte[] s, int offset) {
+        return (s[offset] & 0xff)
+            | (s[offset + 1] & 0xff) << 8
+            | (s[offset + 2] & 0xff) << 16;
+    }
+
+    private static long load4(byte[] s, int offset) {
+        return load3(s, offset) | (long) (s[offset + 3] & 0xff) << 24;
+    }
+
+    private static void fromBytes(int[] h, byte[] s) {
+        long h0 = load4(s, 0);
+        long h1 = load3(s, 4) << 6;
+        long h2 = load3(s, 7) << 5;
+        long h3 = load3(s, 10) << 3;
+        long h4 = load3(s, 13) << 2;
+        long h5 = load4(s, 16);
+        long h6 = load3(s, 20) << 7;
+        long h7 = load3(s, 23) << 5;
+        long h8 = load3(s, 26) << 4;
+        long h9 = (load3(s, 29) & 8388607) << 2;
+        long carry;
+
+        carry = (h9 + (1L << 24)) >> 25; h0 += carry * 19; h9 -= carry << 25;
+        carry = (h1 + (1L << 24)) >> 25; h2 += carry; h1 -= carry << 25;
+        carry = (h3 + (1L << 24)) >> 25; h4 += carry; h3 -= carry << 25;
+        carry = (h5 + (1L << 24)) >> 25; h6 += carry; h5 -= carry << 25;
+        carry = (h7 + (1L << 24)) >> 25; h8 += carry; h7 -= carry << 25;
+
+        carry = (h0 + (1L << 25)) >> 26; h1 += carry; h0 -= carry << 26;
+        carry = (h2 + (1L << 25)) >> 26; h3 += carry; h2 -= carry << 26;
+        carry = (h4 + (1L << 25)) >> 26; h5 += carry; h4 -= carry << 26;
+        carry = (h6 + (1L << 25)) >> 26; h7 += carry; h6 -= carry << 26;
+        carry = (h8 + (1L << 25)) >> 26; h9 += carry; h8 -= carry << 26;
+
+        h[0] = (int) h0;
+        h[1] = (int) h1;
+        h[2] = (int) h2;
+        h[3] = (int) h3;
+        h[4] = (int) h4;
+        h[5] = (int) h5;
+        h[6] = (int) h6;
+        h[7] = (int) h7;
+        h[8] = (int) h8;
+        h[9] = (int) h9;
+    }
+
+    private static void toBytes(byte[] s, int[] h) {
+        int h0 = h[0], h1 = h[1], h2 = h[2], h3 = h[3], h4 = h[4];
+        int h5 = h[5], h6 = h[6], h7 = h[7], h8 = h[8], h9 = h[9];
+
+        // Compute q = floor(h / p) in {0, 1} and reduce
+        int q = (19 * h9 + (1 << 24)) >> 25;
+        q = (h0 + q) >> 26;
+        q = (h1 + q) >> 25;
+        q = (h2 + q) >> 26;
+        q = (h3 + q) >> 25;
+        q = (h4 + q) >> 26;
+        q = (h5 + q) >> 25;
+        q = (h6 + q) >> 26;
+        q = (h7 + q) >> 25;
+        q = (h8 + q) >> 26;
+        q = (h9 + q) >> 25;
+        h0 += 19 * q;
+
+        int carry;
+        carry = h0 >> 26; h1 += carry; h0 -= carry << 26;
+        carry = h1 >> 25; h2 += carry; h1 -= carry << 25;
+        carry = h2 >> 26; h3 += carry; h2 -= carry << 26;
+        carry = h3 >> 25; h4 += carry; h3 -= carry << 25;
+        carry = h4 >> 26; h5 += carry; h4 -= carry << 26;
+        carry = h5 >> 25; h6 += carry; h5 -= carry << 25;
+        carry = h6 >> 26; h7 += carry; h6 -= carry << 26;
+        carry = h7 >> 25; h8 += carry; h7 -= carry << 25;
+        carry = h8 >> 26; h9 += carry; h8 -= carry << 26;
+        carry = h9 >> 25; h9 -= carry << 25;
+
+        s[0] = (byte) h0;
+        s[1] = (byte) (h0 >> 8);
+        s[2] = (byte) (h0 >> 16);
+        s[3] = (byte) ((h0 >> 24) | (h1 << 2));
+        s[4] = (byte) (h1 >> 6);
+        s[5] = (byte) (h1 >> 14);
+        s[6] = (byte) ((h1 >> 22) | (h2 << 3));
+        s[7] = (byte) (h2 >> 5);
+        s[8] = (byte) (h2 >> 13);
+        s[9] = (byte) ((h2 >> 21) | (h3 << 5));
+        s[10] = (byte) (h3 >> 3);
+        s[11] = (byte) (h3 >> 11);
+        s[12] = (byte) ((h3 >> 19) | (h4 << 6));
+        s[13] = (byte) (h4 >> 2);
+        s[14] = (byte) (h4 >> 10);
+        s[15] = (byte) (h4 >> 18);
+        s[16] = (byte) h5;
+        s[17] = (byte) (h5 >> 8);
+        s[18] = (byte) (h5 >> 16);
+        s[19] = (byte) ((h5 >> 24) | (h6 << 1));
+        s[20] = (byte) (h6 >> 7);
+        s[21] = (byte) (h6 >> 15);
+        s[22] = (byte) ((h6 >> 23) | (h7 << 3));
+        s[23] = (byte) (h7 >> 5);
+        s[24] = (byte) (h7 >> 13);
+        s[25] = (byte) ((h7 >> 21) | (h8 << 4));
+        s[26] = (byte) (h8 >> 4);
+        s[27] = (byte) (h8 >> 12);
+        s[28] = (byte) ((h8 >> 20) | (h9 << 6));
+        s[29] = (byte) (h9 >> 2);
+        s[30] = (byte) (h9 >> 10);
+        s[31] = (byte) (h9 >> 18);
+    }
+
+    /**
+     * Carry the 64 bit limb products back into the 26/25 bit representation.
+     */
+    private static void carry(int[] h, long h0, long h1, long h2, long h3, long h4,
+                              long h5, long h6, long h7, long h8, long h9) {
+        long carry;
+        carry = (h0 + (1L << 25)) >> 26; h1 += carry; h0 -= carry << 26;
+        carry = (h4 + (1L << 25)) >> 26; h5 += carry; h4 -= carry << 26;
+        carry = (h1 + (1L << 24)) >> 25; h2 += carry; h1 -= carry << 25;
+        carry = (h5 + (1L << 24)) >> 25; h6 += carry; h5 -= carry << 25;
+        carry = (h2 + (1L << 25)) >> 26; h3 += carry; h2 -= carry << 26;
+        carry = (h6 + (1L << 25)) >> 26; h7 += carry; h6 -= carry << 26;
+        carry = (h3 + (1L << 24)) >> 25; h4 += carry; h3 -= carry << 25;
+        carry = (h7 + (1L << 24)) >> 25; h8 += carry; h7 -= carry << 25;
+        carry = (h4 + (1L << 25)) >> 26; h5 += carry; h4 -= carry << 26;
+        carry = (h8 + (1L << 25)) >> 26; h9 += carry; h8 -= carry << 26;
+        carry = (h9 + (1L << 24)) >> 25; h0 += carry * 19; h9 -= carry << 25;
+        carry = (h0 + (1L << 25)) >> 26; h1 += carry; h0 -= carry << 26;
+
+        h[0] = (int) h0;
+        h[1] = (int) h1;
+        h[2] = (int) h2;
+        h[3] = (int) h3;
+        h[4] = (int) h4;
+        h[5] = (int) h5;
+        h[6] = (int) h6;
+        h[7] = (int) h7;
+        h[8] = (int) h8;
+        h[9] = (int) h9;
+    }
+
+    /**
+     * h = f * g. The output may alias the inputs.
+     */
+    private static void mul(int[] h, int[] f, int[] g) {
+        final long f0 = f[0], f1 = f[1], f2 = f[2], f3 = f[3], f4 = f[4];
+        final long f5 = f[5], f6 = f[6], f7 = f[7], f8 = f[8], f9 = f[9];
+        final long g0 = g[0], g1 = g[1], g2 = g[2], g3 = g[3], g4 = g[4];
+        final long g5 = g[5], g6 = g[6], g7 = g[7], g8 = g[8], g9 = g[9];
+        final long g1_19 = 19 * g1, g2_19 = 19 * g2, g3_19 = 19 * g3, g4_19 = 19 * g4, g5_19 = 19 * g5;
+        final long g6_19 = 19 * g6, g7_19 = 19 * g7, g8_19 = 19 * g8, g9_19 = 19 * g9;
+        final long f1_2 = 2 * f1, f3_2 = 2 * f3, f5_2 = 2 * f5, f7_2 = 2 * f7, f9_2 = 2 * f9;
+
+        final long h0 = f0 * g0 + f1_2 * g9_19 + f2 * g8_19 + f3_2 * g7_19 + f4 * g6_19
+            + f5_2 * g5_19 + f6 * g4_19 + f7_2 * g3_19 + f8 * g2_19 + f9_2 * g1_19;
+        final long h1 = f0 * g1 + f1 * g0 + f2 * g9_19 + f3 * g8_19 + f4 * g7_19
+            + f5 * g6_19 + f6 * g5_19 + f7 * g4_19 + f8 * g3_19 + f9 * g2_19;
+        final long h2 = f0 * g2 + f1_2 * g1 + f2 * g0 + f3_2 * g9_19 + f4 * g8_19
+            + f5_2 * g7_19 + f6 * g6_19 + f7_2 * g5_19 + f8 * g4_19 + f9_2 * g3_19;
+        final long h3 = f0 * g3 + f1 * g2 + f2 * g1 + f3 * g0 + f4 * g9_19
+            + f5 * g8_19 + f6 * g7_19 + f7 * g6_19 + f8 * g5_19 + f9 * g4_19;
+        final long h4 = f0 * g4 + f1_2 * g3 + f2 * g2 + f3_2 * g1 + f4 * g0
+            + f5_2 * g9_19 + f6 * g8_19 + f7_2 * g7_19 + f8 * g6_19 + f9_2 * g5_19;
+        final long h5 = f0 * g5 + f1 * g4 + f2 * g3 + f3 * g2 + f4 * g1
+            + f5 * g0 + f6 * g9_19 + f7 * g8_19 + f8 * g7_19 + f9 * g6_19;
+        final long h6 = f0 * g6 + f1_2 * g5 + f2 * g4 + f3_2 * g3 + f4 * g2
+            + f5_2 * g1 + f6 * g0 + f7_2 * g9_19 + f8 * g8_19 + f9_2 * g7_19;
+        final long h7 = f0 * g7 + f1 * g6 + f2 * g5 + f3 * g4 + f4 * g3
+            + f5 * g2 + f6 * g1 + f7 * g0 + f8 * g9_19 + f9 * g8_19;
+        final long h8 = f0 * g8 + f1_2 * g7 + f2 * g6 + f3_2 * g5 + f4 * g4
+            + f5_2 * g3 + f6 * g2 + f7_2 * g1 + f8 * g0 + f9_2 * g9_19;
+        final long h9 = f0 * g9 + f1 * g8 + f2 * g7 + f3 * g6 + f4 * g5
+            + f5 * g4 + f6 * g3 + f7 * g2 + f8 * g1 + f9 * g0;
+
+        carry(h, h0, h1, h2, h3, h4, h5, h6, h7, h8, h9);
+    }
+
+    /**
+     * h = f * f. The output may alias the input.
+     */
+    private static void sq(int[] h, int[] f) {
+        final long f0 = f[0], f1 = f[1], f2 = f[2], f3 = f[3], f4 = f[4];
+        final long f5 = f[5], f6 = f[6], f7 = f[7], f8 = f[8], f9 = f[9];
+        final long f0_2 = 2 * f0, f1_2 = 2 * f1, f2_2 = 2 * f2, f3_2 = 2 * f3, f4_2 = 2 * f4;
+        final long f5_2 = 2 * f5, f6_2 = 2 * f6, f7_2 = 2 * f7;
+        final long f5_38 = 38 * f5, f6_19 = 19 * f6, f7_38 = 38 * f7, f8_19 = 19 * f8, f9_38 = 38 * f9;
+
+        final long h0 = f0 * f0 + f1_2 * f9_38 + f2_2 * f8_19 + f3_2 * f7_38 + f4_2 * f6_19 + f5 * f5_38;
+        final long h1 = f0_2 * f1 + f2 * f9_38 + f3_2 * f8_19 + f4 * f7_38 + f5_2 * f6_19;
+        final long h2 = f0_2 * f2 + f1_2 * f1 + f3_2 * f9_38 + f4_2 * f8_19 + f5_2 * f7_38 + f6 * f6_19;
+        final long h3 = f0_2 * f3 + f1_2 * f2 + f4 * f9_38 + f5_2 * f8_19 + f6 * f7_38;
+        final long h4 = f0_2 * f4 + f1_2 * f3_2 + f2 * f2 + f5_2 * f9_38 + f6_2 * f8_19 + f7 * f7_38;
+        final long h5 = f0_2 * f5 + f1_2 * f4 + f2_2 * f3 + f6 * f9_38 + f7_2 * f8_19;
+        final long h6 = f0_2 * f6 + f1_2 * f5_2 + f2_2 * f4 + f3_2 * f3 + f7_2 * f9_38 + f8 * f8_19;
+        final long h7 = f0_2 * f7 + f1_2 * f6 + f2_2 * f5 + f3_2 * f4 + f8 * f9_38;
+        final long h8 = f0_2 * f8 + f1_2 * f7_2 + f2_2 * f6 + f3_2 * f5_2 + f4 * f4 + f9 * f9_38;
+        final long h9 = f0_2 * f9 + f1_2 * f8 + f2_2 * f7 + f3_2 * f6 + f4_2 * f5;
+
+        carry(h, h0, h1, h2, h3, h4, h5, h6, h7, h8, h9);
+    }
+
+    /**
+     * h = f * 121666.
+     */
+    private static void mul121666(int[] h, int[] f) {
+        carry(h,
+            f[0] * 121666L, f[1] * 121666L, f[2] * 121666L, f[3] * 121666L, f[4] * 121666L,
+            f[5] * 121666L, f[6] * 121666L, f[7] * 121666L, f[8] * 121666L, f[9] * 121666L);
+    }
+
+    /**
+     * out = z^(p - 2). The output may alias the input.
+     */
+    private static void invert(int[] out, int[] z) {
+        final int[] t0 = new int[10];
+        final int[] t1 = new int[10];
+        final int[] t2 = new int[10];
+        final int[] t3 = new int[10];
+        int i;
+
+        sq(t0, z);
+        sq(t1, t0);
+        sq(t1, t1);
+        mul(t1, z, t1);
+        mul(t0, t0, t1);
+        sq(t2, t0);
+        mul(t1, t1, t2);
+        sq(t2, t1);
+        for (i = 1; i < 5; i++) sq(t2, t2);
+        mul(t1, t2, t1);
+        sq(t2, t1);
+        for (i = 1; i < 10; i++) sq(t2, t2);
+        mul(t2, t2, t1);
+        sq(t3, t2);
+        for (i = 1; i < 20; i++) sq(t3, t3);
+        mul(t2, t3, t2);
+        sq(t2, t2);
+        for (i = 1; i < 10; i++) sq(t2, t2);
+        mul(t1, t2, t1);
+        sq(t2, t1);
+        for (i = 1; i < 50; i++) sq(t2, t2);
+        mul(t2, t2, t1);
+        sq(t3, t2);
+        for (i = 1; i < 100; i++) sq(t3, t3);
+        mul(t2, t3, t2);
+        sq(t2, t2);
+        for (i = 1; i < 50; i++) sq(t2, t2);
+        mul(t1, t2, t1);
+        sq(t1, t1);
+        for (i = 1; i < 5; i++) sq(t1, t1);
+        mul(out, t1, t0);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+package org.saltyrtc.client.crypto.purejava;
+
+import static org.saltyrtc.client.crypto.purejava.Salsa20.load32;
+import static org.saltyrtc.client.crypto.purejava.Salsa20.store32;
+
+/**
+ * The Poly1305 one-time authenticator, using 26 bit limbs.
+ *
+ * The one-time key is taken from the first 8 words of a Salsa20 block, which is how
+ * XSalsa20-Poly1305 derives it.
+ */
+final class Poly1305 {
+    static final int TAGBYTES = 16;
+
+    private static final long MASK26 = 0x3ffffff;
+
+    private Poly1305() { }
+
+    /**
+     * Authenticate `length` bytes of `message` and return the tag as 4 words in `tag`.
+     */
+    static void compute(int[] tag, int[] key, byte[] message, int offset, int length) {
+        // r &= 0xffffffc0ffffffc0ffffffc0fffffff
+        final int k0 = key[0], k1 = key[1], k2 = key[2], k3 = key[3];
+        final long r0 = k0 & 0x3ffffff;
+        final long r1 = ((k0 >>> 26) | (k1 << 6)) & 0x3ffff03;
+        final long r2 = ((k1 >>> 20) | (k2 << 12)) & 0x3ffc0ff;
+        final long r3 = ((k2 >>> 14) | (k3 << 18)) & 0x3f03fff;
+        final long r4 = (k3 >>> 8) & 0x00fffff;
+        final long s1 = r1 * 5, s2 = r2 * 5, s3 = r3 * 5, s4 = r4 * 5;
+
+        long h0 = 0, h1 = 0, h2 = 0, h3 = 0, h4 = 0;
+        int position = 0;
+        while (position < length) {
+            final int m0, m1, m2, m3;
+            final long hibit;
+            final int remaining = length - position;
+            if (remaining >= 16) {
+                m0 = load32(message, offset + position);
+                m1 = load32(message, offset + position + 4);
+                m2 = load32(message, offset + position + 8);
+                m3 = load32(message, offset + position + 12);
+                hibit = 1L << 24;
+                position += 16;
+            } else {
+                // Pad the last block with a single 1 byte and zeroes
+                int w0 = 0, w1 = 0, w2 = 0, w3 = 0;
+                for (int i = 0; i <= remaining; i++) {
+                    final int b = i == remaining ? 1 : message[offset + position + i] & 0xff;
+                    final int shift = (i & 3) << 3;
+                    switch (i >>> 2) {
+                        case 0: w0 |= b << shift; break;
+                        case 1: w1 |= b << shift; break;
+                        case 2: w2 |= b << shift; break;
+                        default: w3 |= b << shift; break;
+                    }
+                }
+                m0 = w0;
+                m1 = w1;
+                m2 = w2;
+                m3 = w3;
+                hibit = 0;
+                position = length;
+            }
+
+            // h += m
+            h0 += m0 & MASK26;
+            h1 += ((m0 & 0xffffffffL) >>> 26 | (m1 & 0xffffffffL) << 6) & MASK26;
+            h2 += ((m1 & 0xffffffffL) >>> 20 | (m2 & 0xffffffffL) << 12) & MASK26;
+            h3 += ((m2 & 0xffffffffL) >>> 14 | (m3 & 0xffffffffL) << 18) & MASK26;
+            h4 += ((m3 & 0xffffffffL) >>> 8) | hibit;
+
+            // h *= r
+            final long d0 = h0 * r0 + h1 * s4 + h2 * s3 + h3 * s2 + h4 * s1;
+            long d1 = h0 * r1 + h1 * r0 + h2 * s4 + h3 * s3 + h4 * s2;
+            long d2 = h0 * r2 + h1 * r1 + h2 * r0 + h3 * s4 + h4 * s3;
+            long d3 = h0 * r3 + h1 * r2 + h2 * r1 + h3 * r0 + h4 * s4;
+            long d4 = h0 * r4 + h1 * r3 + h2 * r2 + h3 * r1 + h4 * r0;
+
+            // Partial reduction mod 2^130 - 5
+            long c = d0 >>> 26;
+            h0 = d0 & MASK26;
+            d1 += c;
+            c = d1 >>> 26;
+            h1 = d1 & MASK26;
+            d2 += c;
+            c = d2 >>> 26;
+            h2 = d2 & MASK26;
+            d3 += c;
+            c = d3 >>> 26;
+            h3 = d3 & MASK26;
+            d4 += c;
+            c = d4 >>> 26;
+            h4 = d4 & MASK26;
+            h0 += c * 5;
+            c = h0 >>> 26;
+            h0 &= MASK26;
+            h1 += c;
+        }
+
+        // Full carry
+        long c = h1 >>> 26;
+        h1 &= MASK26;
+        h2 += c;
+        c = h2 >>> 26;
+        h2 &= MASK26;
+        h3 += c;
+        c = h3 >>> 26;
+        h3 &= MASK26;
+        h4 += c;
+        c = h4 >>> 26;
+        h4 &= MASK26;
+        h0 += c * 5;
+        c = h0 >>> 26;
+        h0 &= MASK26;
+        h1 += c;
+
+        // Compute h - p and select it if h >= p, in constant time
+        long g0 = h0 + 5;
+        c = g0 >>> 26;
+        g0 &= MASK26;
+        long g1 = h1 + c;
+        c = g1 >>> 26;
+        g1 &= MASK26;
+        long g2 = h2 + c;
+        c = g2 >>> 26;
+        g2 &= MASK26;
+        long g3 = h3 + c;
+        c = g3 >>> 26;
+        g3 &= MASK26;
+        final long g4 = h4 + c - (1L << 26);
+        final long mask = (g4 >>> 63) - 1; // all ones if g4 >= 0
+        h0 = (h0 & ~mask) | (g0 & mask);
+        h1 = (h1 & ~mask) | (g1 & mask);
+        h2 = (h2 & ~mask) | (g2 & mask);
+        h3 = (h3 & ~mask) | (g3 & mask);
+        h4 = (h4 & ~mask) | (g4 & mask);
+
+        // h = (h + s) % 2^128
+        long f = ((h0 | (h1 << 26)) & 0xffffffffL) + (key[4] & 0xffffffffL);
+        tag[0] = (int) f;
+        f = (((h1 >>> 6) | (h2 << 20)) & 0xffffffffL) + (key[5] & 0xffffffffL) + (f >>> 32);
+        tag[1] = (int) f;
+        f = (((h2 >>> 12) | (h3 << 14)) & 0xffffffffL) + (key[6] & 0xffffffffL) + (f >>> 32);
+        tag[2] = (int) f;
+        f = (((h3 >>> 18) | (h4 << 8)) & 0xffffffffL) + (key[7] & 0xffffffffL) + (f >>> 32);
+        tag[3] = (int) f;
+    }
+
+    /**
+     * Write a tag computed by `compute` to `output`.
+     */
+    static void store(int[] tag, byte[] output, int offset) {
+        for (int i = 0; i < 4; i++) {
+            store32(output, offset + i * 4, tag[i]);
+        }
+    }
+
+    /**
+     * Compare a tag computed by `compute` to the 16 bytes at `offset` in constant time.
+     */
+    static boolean verify(int[] tag, byte[] input, int offset) {
+        int diff = 0;
+        for (int i = 0; i < 4; i++) {
+            diff |= tag[i] ^ load32(input, offset + i * 4);
+        }
+        return diff == 0;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+package org.saltyrtc.client.crypto.purejava;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.crypto.CryptoException;
+import org.saltyrtc.client.crypto.CryptoInstance;
+import org.saltyrtc.client.crypto.CryptoProvider;
+
+import java.util.Arrays;
+
+/**
+ * An implementation of the CryptoInstance interface in plain Java.
+ *
+ * The shared key is precalculated once (like `crypto_box_beforenm`), so encrypting and
+ * decrypting only runs XSalsa20-Poly1305.
+ */
+public class PureJavaCryptoInstance implements CryptoInstance {
+    private static final byte[] ZERO_NONCE = new byte[16];
+
+    @NonNull private final int[] sharedKey = new int[8];
+
+    public PureJavaCryptoInstance(
+        @NonNull byte[] ownPrivateKey,
+        @NonNull byte[] otherPublicKey
+    ) throws CryptoException {
+        // Verify key lengths
+        if (otherPublicKey.length != CryptoProvider.PUBLICKEYBYTES) {
+            throw new CryptoException("Invalid public key length");
+        }
+        if (ownPrivateKey.length != CryptoProvider.PRIVATEKEYBYTES) {
+            throw new CryptoException("Invalid private key length");
+        }
+
+        // Precalculate shared key
+        final byte[] secret = new byte[Curve25519.POINTBYTES];
+        final int[] secretWords = new int[8];
+        try {
+            if (!Curve25519.scalarMult(secret, ownPrivateKey, otherPublicKey)) {
+                throw new CryptoException("Could not precalculate shared key");
+            }
+            Salsa20.loadKey(secret, secretWords);
+            Salsa20.hsalsa20(this.sharedKey, secretWords, ZERO_NONCE, 0);
+        } finally {
+            Arrays.fill(secret, (byte) 0);
+            Arrays.fill(secretWords, 0);
+        }
+    }
+
+    @NonNull
+    @Override
+    public byte[] encrypt(@NonNull byte[] data, @NonNull byte[] nonce) throws CryptoException {
+        final byte[] ciphertext = new byte[data.length + CryptoProvider.BOXOVERHEAD];
+        this.encrypt(data, 0, data.length, nonce, ciphertext, 0);
+        return ciphertext;
+    }
+
+    @NonNull
+    @Override
+    public byte[] decrypt(@NonNull byte[] data, @NonNull byte[] nonce) throws CryptoException {
+        if (data.length < CryptoProvider.BOXOVERHEAD) {
+            throw new CryptoException("Could not decrypt data");
+        }
+        final byte[] plaintext = new byte[data.length - CryptoProvider.BOXOVERHEAD];
+        this.decrypt(data, 0, data.length, nonce, plaintext, 0);
+        return plaintext;
+    }
+
+    @Override
+    public int encrypt(
+        @NonNull byte[] input, int inputOffset, int length, @NonNull byte[] nonce,
+        @NonNull byte[] output, int outputOffset
+    ) throws CryptoException {
+        return PureJavaCryptoProvider.secretBox.get()
+            .seal(this.sharedKey, nonce, input, inputOffset, length, output, outputOffset);
+    }
+
+    @Override
+    public int decrypt(
+        @NonNull byte[] input, int inputOffset, int length, @NonNull byte[] nonce,
+        @NonNull byte[] output, int outputOffset
+    ) throws CryptoException {
+        return PureJavaCryptoProvider.secretBox.get()
+            .open(this.sharedKey, nonce, input, inputOffset, length, output, outputOffset);
+    }
+}
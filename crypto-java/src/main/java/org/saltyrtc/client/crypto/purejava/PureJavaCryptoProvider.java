@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+package org.saltyrtc.client.crypto.purejava;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.crypto.CryptoException;
+import org.saltyrtc.client.crypto.CryptoInstance;
+import org.saltyrtc.client.crypto.CryptoProvider;
+
+import java.security.SecureRandom;
+
+/**
+ * A `CryptoProvider` implemented in plain Java (X25519, XSalsa20-Poly1305).
+ *
+ * It has no native dependencies and is compatible with the NaCl `crypto_box` and
+ * `crypto_secretbox` constructions used by libsodium. Instances are thread safe.
+ */
+public class PureJavaCryptoProvider implements CryptoProvider {
+
+    // Scratch space for the secret box, one per thread
+    static final ThreadLocal<XSalsa20Poly1305> secretBox = new ThreadLocal<XSalsa20Poly1305>() {
+        @Override
+        protected XSalsa20Poly1305 initialValue() {
+            return new XSalsa20Poly1305();
+        }
+    };
+
+    @NonNull private final SecureRandom random;
+
+    public PureJavaCryptoProvider() {
+        this(new SecureRandom());
+    }
+
+    /**
+     * Create a provider that uses the specified source of randomness for key generation.
+     */
+    public PureJavaCryptoProvider(@NonNull SecureRandom random) {
+        this.random = random;
+    }
+
+    @Override
+    public void generateKeypair(@NonNull byte[] publickey, @NonNull byte[] privatekey) throws CryptoException {
+        // Verify key lengths
+        if (publickey.length != CryptoProvider.PUBLICKEYBYTES) {
+            throw new CryptoException("Invalid public key buffer length");
+        }
+        if (privatekey.length != CryptoProvider.PRIVATEKEYBYTES) {
+            throw new CryptoException("Invalid private key buffer length");
+        }
+
+        // Generate keypair
+        this.random.nextBytes(privatekey);
+        if (!Curve25519.scalarMultBase(publickey, privatekey)) {
+            throw new CryptoException("Could not generate keypair");
+        }
+    }
+
+    @NonNull
+    @Override
+    public byte[] derivePublicKey(@NonNull byte[] privateKey) throws CryptoException {
+        // Verify key lengths
+        if (privateKey.length != CryptoProvider.PRIVATEKEYBYTES) {
+            throw new CryptoException("Invalid private key length");
+        }
+
+        // Derive public key from private key
+        final byte[] publicKey = new byte[CryptoProvider.PUBLICKEYBYTES];
+        if (!Curve25519.scalarMultBase(publicKey, privateKey)) {
+            throw new CryptoException("Could not derive public key");
+        }
+        return publicKey;
+    }
+
+    @NonNull
+    @Override
+    public byte[] symmetricEncrypt(@NonNull byte[] data, @NonNull byte[] key, @NonNull byte[] nonce) throws CryptoException {
+        final byte[] output = new byte[data.length + CryptoProvider.BOXOVERHEAD];
+        this.symmetricEncrypt(data, 0, data.length, key, nonce, output, 0);
+        return output;
+    }
+
+    @NonNull
+    @Override
+    public byte[] symmetricDecrypt(@NonNull byte[] data, @NonNull byte[] key, @NonNull byte[] nonce) throws CryptoException {
+        if (data.length < CryptoProvider.BOXOVERHEAD) {
+            throw new CryptoException("Could not decrypt data");
+        }
+        final byte[] output = new byte[data.length - CryptoProvider.BOXOVERHEAD];
+        this.symmetricDecrypt(data, 0, data.length, key, nonce, output, 0);
+        return output;
+    }
+
+    @Override
+    public int symmetricEncrypt(
+        @NonNull byte[] input, int inputOffset, int length, @NonNull byte[] key, @NonNull byte[] nonce,
+        @NonNull byte[] output, int outputOffset
+    ) throws CryptoException {
+        return secretBox.get().seal(loadKey(key), nonce, input, inputOffset, length, output, outputOffset);
+    }
+
+    @Override
+    public int symmetricDecrypt(
+        @NonNull byte[] input, int inputOffset, int length, @NonNull byte[] key, @NonNull byte[] nonce,
+        @NonNull byte[] output, int outputOffset
+    ) throws CryptoException {
+        return secretBox.get().open(loadKey(key), nonce, input, inputOffset, length, output, outputOffset);
+    }
+
+    @NonNull
+    @Override
+    public CryptoInstance getInstance(@NonNull byte[] ownPrivateKey, @NonNull byte[] otherPublicKey) throws CryptoException {
+        return new PureJavaCryptoInstance(ownPrivateKey, otherPublicKey);
+    }
+
+    @NonNull
+    private static int[] loadKey(@NonNull byte[] key) throws CryptoException {
+        if (key.length != CryptoProvider.SYMMKEYBYTES) {
+            throw new CryptoException("Invalid key length");
+        }
+        final int[] keyWords = new int[8];
+        Salsa20.loadKey(key, keyWords);
+        return keyWords;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+package org.saltyrtc.client.crypto.purejava;
+
+/**
+ * The Salsa20 family of functions used by NaCl: HSalsa20 and the XSalsa20 stream cipher.
+ *
+ * Keys are passed around as 8 little-endian words so that precomputed keys don't need to
+ * be decoded again for every message. None of the methods allocate.
+ */
+final class Salsa20 {
+    // "expand 32-byte k"
+    private static final int SIGMA0 = 0x61707865;
+    private static final int SIGMA1 = 0x3320646e;
+    private static final int SIGMA2 = 0x79622d32;
+    private static final int SIGMA3 = 0x6b206574;
+
+    static final int BLOCKBYTES = 64;
+
+    private Salsa20() { }
+
+    static int load32(byte[] src, int offset) {
+        return (src[offset] & 0xff)
+            | (src[offset + 1] & 0xff) << 8
+            | (src[offset + 2] & 0xff) << 16
+            | (src[offset + 3] & 0xff) << 24;
+    }
+
+    static void store32(byte[] dst, int offset, int value) {
+        dst[offset] = (byte) value;
+        dst[offset + 1] = (byte) (value >>> 8);
+        dst[offset + 2] = (byte) (value >>> 16);
+        dst[offset + 3] = (byte) (value >>> 24);
+    }
+
+    /**
+     * Decode a 32 byte key into 8 little-endian words.
+     */
+    static void loadKey(byte[] key, int[] keyWords) {
+        for (int i = 0; i < 8; i++) {
+            keyWords[i] = load32(key, i * 4);
+        }
+    }
+
+    /**
+     * HSalsa20: Derive a subkey from `key` and the 16 byte `input` at `inputOffset`.
+     */
+    static void hsalsa20(int[] out, int[] key, byte[] input, int inputOffset) {
+        int x0 = SIGMA0, x5 = SIGMA1, x10 = SIGMA2, x15 = SIGMA3;
+        int x1 = key[0], x2 = key[1], x3 = key[2], x4 = key[3];
+        int x11 = key[4], x12 = key[5], x13 = key[6], x14 = key[7];
+        int x6 = load32(input, inputOffset);
+        int x7 = load32(input, inputOffset + 4);
+        int x8 = load32(input, inputOffset + 8);
+        int x9 = load32(input, inputOffset + 12);
+
+        for (int i = 0; i < 10; i++) {
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);
+            x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);
+            x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);
+            x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);
+            x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);
+            x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);
+            x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);
+            x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);
+            x15 ^= Integer.rotateLeft(x11 + x7, 18);
+
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);
+            x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);
+            x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);
+            x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);
+            x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);
+            x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);
+            x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7);
+            x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13);
+            x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+
+        out[0] = x0;
+        out[1] = x5;
+        out[2] = x10;
+        out[3] = x15;
+        out[4] = x6;
+        out[5] = x7;
+        out[6] = x8;
+        out[7] = x9;
+    }
+
+    /**
+     * Compute the Salsa20 block `counter` for the given key and 8 byte nonce (as two words).
+     */
+    static void block(int[] out, int[] key, int n0, int n1, long counter) {
+        final int j0 = SIGMA0, j5 = SIGMA1, j10 = SIGMA2, j15 = SIGMA3;
+        final int j1 = key[0], j2 = key[1], j3 = key[2], j4 = key[3];
+        final int j11 = key[4], j12 = key[5], j13 = key[6], j14 = key[7];
+        final int j6 = n0, j7 = n1;
+        final int j8 = (int) counter, j9 = (int) (counter >>> 32);
+
+        int x0 = j0, x1 = j1, x2 = j2, x3 = j3, x4 = j4, x5 = j5, x6 = j6, x7 = j7;
+        int x8 = j8, x9 = j9, x10 = j10, x11 = j11, x12 = j12, x13 = j13, x14 = j14, x15 = j15;
+
+        for (int i = 0; i < 10; i++) {
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);
+            x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);
+            x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);
+            x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);
+            x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);
+            x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);
+            x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);
+            x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);
+            x15 ^= Integer.rotateLeft(x11 + x7, 18);
+
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);
+            x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);
+            x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);
+            x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);
+            x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);
+            x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);
+            x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7);
+            x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13);
+            x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+
+        out[0] = x0 + j0;
+        out[1] = x1 + j1;
+        out[2] = x2 + j2;
+        out[3] = x3 + j3;
+        out[4] = x4 + j4;
+        out[5] = x5 + j5;
+        out[6] = x6 + j6;
+        out[7] = x7 + j7;
+        out[8] = x8 + j8;
+        out[9] = x9 + j9;
+        out[10] = x10 + j10;
+        out[11] = x11 + j11;
+        out[12] = x12 + j12;
+        out[13] = x13 + j13;
+        out[14] = x14 + j14;
+        out[15] = x15 + j15;
+    }
+
+    /**
+     * XOR `length` bytes of `input` with the Salsa20 key stream, skipping the first `skip`
+     * bytes of the stream (0 <= skip < BLOCKBYTES).
+     *
+     * Data is processed front to back, so `input` and `output` may overlap as long as the
+     * output position never runs ahead of the input position.
+     *
+     * @param block Scratch space of 16 words.
+     */
+    static void xor(int[] block, int[] key, int n0, int n1, int skip,
+                    byte[] input, int inputOffset, byte[] output, int outputOffset, int length) {
+        long counter = 0;
+        int position = 0;
+        while (position < length) {
+            block(block, key, n0, n1, counter++);
+            int streamOffset = skip;
+            skip = 0;
+
+            // Whole words
+            while (streamOffset < BLOCKBYTES && (streamOffset & 3) == 0 && length - position >= 4) {
+                final int word = load32(input, inputOffset + position) ^ block[streamOffset >>> 2];
+                store32(output, outputOffset + position, word);
+                streamOffset += 4;
+                position += 4;
+            }
+
+            // Remaining bytes
+            while (streamOffset < BLOCKBYTES && position < length) {
+                final int ks = block[streamOffset >>> 2] >>> ((streamOffset & 3) << 3);
+                output[outputOffset + position] = (byte) (input[inputOffset + position] ^ ks);
+                streamOffset++;
+                position++;
+            }
+        }
+    }
+}
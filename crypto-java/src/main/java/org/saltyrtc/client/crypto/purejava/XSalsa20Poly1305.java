@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+package org.saltyrtc.client.crypto.purejava;
+
+import org.saltyrtc.client.crypto.CryptoException;
+import org.saltyrtc.client.crypto.CryptoProvider;
+
+/**
+ * NaCl `crypto_secretbox` (XSalsa20-Poly1305) in the "easy" format, i.e. the 16 byte
+ * authenticator followed by the ciphertext.
+ *
+ * An instance holds the scratch space for one operation at a time and must not be shared
+ * between threads.
+ */
+final class XSalsa20Poly1305 {
+    static final int KEYBYTES = 32;
+    static final int NONCEBYTES = 24;
+    static final int MACBYTES = Poly1305.TAGBYTES;
+
+    // Scratch space
+    private final int[] subkey = new int[8];
+    private final int[] block = new int[16];
+    private final int[] tag = new int[4];
+
+    /**
+     * Encrypt `length` bytes of `input` into `output` using the 8 word `key`.
+     *
+     * @return The number of bytes written.
+     */
+    int seal(int[] key, byte[] nonce,
+             byte[] input, int inputOffset, int length,
+             byte[] output, int outputOffset) throws CryptoException {
+        checkNonce(nonce);
+        if (length < 0 || output.length - outputOffset < length + MACBYTES) {
+            throw new CryptoException("Output buffer too small");
+        }
+
+        // The key stream is written ahead of the input, so make sure that we never
+        // overwrite input bytes that haven't been read yet.
+        final int writeOffset = outputOffset + MACBYTES;
+        if (input == output && writeOffset > inputOffset && writeOffset < inputOffset + length) {
+            final byte[] copy = new byte[length];
+            System.arraycopy(input, inputOffset, copy, 0, length);
+            input = copy;
+            inputOffset = 0;
+        }
+
+        Salsa20.hsalsa20(this.subkey, key, nonce, 0);
+        final int n0 = Salsa20.load32(nonce, 16);
+        final int n1 = Salsa20.load32(nonce, 20);
+
+        // The first 32 bytes of the key stream are the Poly1305 key
+        Salsa20.xor(this.block, this.subkey, n0, n1, 32, input, inputOffset, output, writeOffset, length);
+        Salsa20.block(this.block, this.subkey, n0, n1, 0);
+        Poly1305.compute(this.tag, this.block, output, writeOffset, length);
+        Poly1305.store(this.tag, output, outputOffset);
+        return length + MACBYTES;
+    }
+
+    /**
+     * Verify and decrypt the `length` byte box in `input` into `output` using the 8 word `key`.
+     *
+     * @return The number of bytes written.
+     * @throws CryptoException if the authenticator does not match.
+     */
+    int open(int[] key, byte[] nonce,
+             byte[] input, int inputOffset, int length,
+             byte[] output, int outputOffset) throws CryptoException {
+        checkNonce(nonce);
+        if (length < MACBYTES) {
+            throw new CryptoException("Ciphertext too short");
+        }
+        final int plaintextLength = length - MACBYTES;
+        if (output.length - outputOffset < plaintextLength) {
+            throw new CryptoException("Output buffer too small");
+        }
+
+        Salsa20.hsalsa20(this.subkey, key, nonce, 0);
+        final int n0 = Salsa20.load32(nonce, 16);
+        final int n1 = Salsa20.load32(nonce, 20);
+
+        // Verify before decrypting
+        Salsa20.block(this.block, this.subkey, n0, n1, 0);
+        Poly1305.compute(this.tag, this.block, input, inputOffset + MACBYTES, plaintextLength);
+        if (!Poly1305.verify(this.tag, input, inputOffset)) {
+            throw new CryptoException("Could not decrypt data");
+        }
+
+        final int readOffset = inputOffset + MACBYTES;
+        if (input == output && outputOffset > readOffset && outputOffset < readOffset + plaintextLength) {
+            final byte[] copy = new byte[plaintextLength];
+            System.arraycopy(input, readOffset, copy, 0, plaintextLength);
+            Salsa20.xor(this.block, this.subkey, n0, n1, 32, copy, 0, output, outputOffset, plaintextLength);
+        } else {
+            Salsa20.xor(this.block, this.subkey, n0, n1, 32, input, readOffset, output, outputOffset, plaintextLength);
+        }
+        return plaintextLength;
+    }
+
+    private static void checkNonce(byte[] nonce) throws CryptoException {
+        if (nonce.length != CryptoProvider.NONCEBYTES) {
+            throw new CryptoException("Invalid nonce length");
+        }
+    }
+}
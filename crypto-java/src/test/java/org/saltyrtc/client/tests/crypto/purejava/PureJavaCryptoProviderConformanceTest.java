@@ -0,0 +1,20 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.tests.crypto.purejava;
+
+import org.saltyrtc.client.crypto.CryptoProvider;
+import org.saltyrtc.client.crypto.purejava.PureJavaCryptoProvider;
+import org.saltyrtc.client.crypto.testkit.CryptoProviderConformanceTest;
+
+public class PureJavaCryptoProviderConformanceTest extends CryptoProviderConformanceTest {
+    @Override
+    protected CryptoProvider createProvider() {
+        return new PureJavaCryptoProvider();
+    }
+}
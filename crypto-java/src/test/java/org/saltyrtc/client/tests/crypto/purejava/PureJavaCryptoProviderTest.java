@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.tests.crypto.purejava;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.saltyrtc.client.crypto.CryptoException;
+import org.saltyrtc.client.crypto.CryptoInstance;
+import org.saltyrtc.client.crypto.CryptoProvider;
+import org.saltyrtc.client.crypto.purejava.PureJavaCryptoProvider;
+import org.saltyrtc.client.helpers.HexHelper;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PureJavaCryptoProviderTest {
+
+    // Test vectors from RFC 7748, section 6.1
+    private static final byte[] ALICE_PRIVATE = HexHelper.hexStringToByteArray("77076d0a7318a57d3c16c17251b26645df4c2f87ebc0992ab177fba51db92c2a");
+    private static final byte[] ALICE_PUBLIC = HexHelper.hexStringToByteArray("8520f0098930a754748b7ddcb43ef75a0dbf3a0d26381af4eba4a98eaa9b4e6a");
+    private static final byte[] BOB_PRIVATE = HexHelper.hexStringToByteArray("5dab087e624a8a4b79e17f8b83800ee66f3bb1292618b6fd1c2f8b27ff88e0eb");
+    private static final byte[] BOB_PUBLIC = HexHelper.hexStringToByteArray("de9edb7d7b7dc1b4d35b61c2ece435373f8343c85b78674dadfc7e146f882b4f");
+
+    private final SecureRandom random = new SecureRandom();
+    private CryptoProvider cryptoProvider;
+
+    @Before
+    public void setUp() {
+        this.cryptoProvider = new PureJavaCryptoProvider();
+    }
+
+    private byte[] randomBytes(int length) {
+        final byte[] bytes = new byte[length];
+        this.random.nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testDerivePublicKey() throws CryptoException {
+        assertArrayEquals(ALICE_PUBLIC, this.cryptoProvider.derivePublicKey(ALICE_PRIVATE));
+        assertArrayEquals(BOB_PUBLIC, this.cryptoProvider.derivePublicKey(BOB_PRIVATE));
+    }
+
+    @Test
+    public void testGenerateKeypair() throws CryptoException {
+        final byte[] publicKey = new byte[CryptoProvider.PUBLICKEYBYTES];
+        final byte[] privateKey = new byte[CryptoProvider.PRIVATEKEYBYTES];
+        this.cryptoProvider.generateKeypair(publicKey, privateKey);
+        assertArrayEquals(publicKey, this.cryptoProvider.derivePublicKey(privateKey));
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testGenerateKeypairInvalidBuffer() throws CryptoException {
+        this.cryptoProvider.generateKeypair(new byte[31], new byte[CryptoProvider.PRIVATEKEYBYTES]);
+    }
+
+    @Test
+    public void testSymmetricVector() throws CryptoException {
+        // Generated with libsodium `crypto_secretbox_easy`
+        final byte[] key = new byte[CryptoProvider.SYMMKEYBYTES];
+        final byte[] nonce = new byte[CryptoProvider.NONCEBYTES];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) i;
+        }
+        for (int i = 0; i < nonce.length; i++) {
+            nonce[i] = (byte) (100 + i);
+        }
+        final byte[] plaintext = "The quick brown fox jumps over the lazy dog. The quick brown fox!".getBytes();
+        final byte[] expected = HexHelper.hexStringToByteArray(
+            "b8c4b5dd7146fc39542bf691c867c39756d1fce94bc3a78adbdd41e658f3cd38" +
+            "58c540878ed3266bd52c2de26ff9e9fcc00ad4742e4de2c49179704c2047b500" +
+            "e1e1db7171ed193d718e246afbd4f11c62");
+        assertArrayEquals(expected, this.cryptoProvider.symmetricEncrypt(plaintext, key, nonce));
+        assertArrayEquals(plaintext, this.cryptoProvider.symmetricDecrypt(expected, key, nonce));
+    }
+
+    @Test
+    public void testSymmetricRoundtrip() throws CryptoException {
+        final byte[] key = this.randomBytes(CryptoProvider.SYMMKEYBYTES);
+        final byte[] nonce = this.randomBytes(CryptoProvider.NONCEBYTES);
+        for (int length = 0; length < 200; length++) {
+            final byte[] plaintext = this.randomBytes(length);
+            final byte[] encrypted = this.cryptoProvider.symmetricEncrypt(plaintext, key, nonce);
+            assertEquals(length + CryptoProvider.BOXOVERHEAD, encrypted.length);
+            assertArrayEquals(plaintext, this.cryptoProvider.symmetricDecrypt(encrypted, key, nonce));
+        }
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testSymmetricDecryptTampered() throws CryptoException {
+        final byte[] key = this.randomBytes(CryptoProvider.SYMMKEYBYTES);
+        final byte[] nonce = this.randomBytes(CryptoProvider.NONCEBYTES);
+        final byte[] encrypted = this.cryptoProvider.symmetricEncrypt("hello".getBytes(), key, nonce);
+        encrypted[encrypted.length - 1] ^= 1;
+        this.cryptoProvider.symmetricDecrypt(encrypted, key, nonce);
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testSymmetricInvalidKey() throws CryptoException {
+        this.cryptoProvider.symmetricEncrypt("hello".getBytes(), new byte[16], new byte[CryptoProvider.NONCEBYTES]);
+    }
+
+    @Test
+    public void testDecryptVector() throws CryptoException {
+        // Same values as in `KeyStoreTest.testDecrypt`
+        final byte[] privateKey = {98, -128, 32, -16, -93, -3, 90, -19, -62, -45, -89, -120, 0, 54, -31, -52, -88, 83, -51, -7, 84, 60, 101, 94, 33, 21, -57, 7, 51, 5, 61, 34};
+        final byte[] nonce = {110, -111, 24, -87, 127, 91, 87, -121, 119, 13, -23, 14, -88, -12, -30, -73, -88, -112, -65, -76, -73, -11, 64, 37};
+        final byte[] otherKey = {34, 81, 26, 50, -112, 8, -78, -80, 76, -66, -91, 31, 122, -98, 102, -24, -56, -40, -2, -115, -110, -23, 95, 47, 51, 25, 77, 59, 59, -11, -120, 100};
+        final byte[] encrypted = {-39, -59, 107, -111, -84, 49, 71, -67, 63, -28, -94, 40, 48, 121, 68, -40, 63, 102, 9, 90, 97};
+        final CryptoInstance instance = this.cryptoProvider.getInstance(privateKey, otherKey);
+        assertArrayEquals("hello".getBytes(), instance.decrypt(encrypted, nonce));
+    }
+
+    @Test
+    public void testAsymmetricRoundtrip() throws CryptoException {
+        final CryptoInstance alice = this.cryptoProvider.getInstance(ALICE_PRIVATE, BOB_PUBLIC);
+        final CryptoInstance bob = this.cryptoProvider.getInstance(BOB_PRIVATE, ALICE_PUBLIC);
+        final byte[] nonce = this.randomBytes(CryptoProvider.NONCEBYTES);
+        for (int length = 0; length < 200; length++) {
+            final byte[] plaintext = this.randomBytes(length);
+            final byte[] encrypted = alice.encrypt(plaintext, nonce);
+            assertArrayEquals(plaintext, bob.decrypt(encrypted, nonce));
+        }
+    }
+
+    @Test
+    public void testAsymmetricInPlace() throws CryptoException {
+        final CryptoInstance alice = this.cryptoProvider.getInstance(ALICE_PRIVATE, BOB_PUBLIC);
+        final byte[] nonce = this.randomBytes(CryptoProvider.NONCEBYTES);
+        final byte[] plaintext = this.randomBytes(100);
+        final byte[] expected = alice.encrypt(plaintext, nonce);
+
+        // Encrypt in-place
+        final byte[] buffer = new byte[CryptoProvider.BOXOVERHEAD + plaintext.length];
+        System.arraycopy(plaintext, 0, buffer, CryptoProvider.BOXOVERHEAD, plaintext.length);
+        final int encryptedLength = alice.encrypt(
+            buffer, CryptoProvider.BOXOVERHEAD, plaintext.length, nonce, buffer, 0);
+        assertEquals(expected.length, encryptedLength);
+        assertArrayEquals(expected, buffer);
+
+        // Decrypt in-place
+        final int decryptedLength = alice.decrypt(
+            buffer, 0, buffer.length, nonce, buffer, CryptoProvider.BOXOVERHEAD);
+        assertEquals(plaintext.length, decryptedLength);
+        assertArrayEquals(plaintext, Arrays.copyOfRange(buffer, CryptoProvider.BOXOVERHEAD, buffer.length));
+    }
+
+    @Test
+    public void testAsymmetricByteBuffers() throws CryptoException {
+        final CryptoInstance alice = this.cryptoProvider.getInstance(ALICE_PRIVATE, BOB_PUBLIC);
+        final CryptoInstance bob = this.cryptoProvider.getInstance(BOB_PRIVATE, ALICE_PUBLIC);
+        final byte[] nonce = this.randomBytes(CryptoProvider.NONCEBYTES);
+        final byte[] plaintext = this.randomBytes(100);
+        final byte[] expected = alice.encrypt(plaintext, nonce);
+
+        // Heap buffers with an offset
+        final ByteBuffer heap = ByteBuffer.allocate(10 + expected.length);
+        heap.position(10);
+        assertEquals(expected.length, alice.encrypt(ByteBuffer.wrap(plaintext), nonce, heap.slice()));
+        assertArrayEquals(expected, Arrays.copyOfRange(heap.array(), 10, heap.capacity()));
+
+        // Direct buffers
+        final ByteBuffer direct = ByteBuffer.allocateDirect(plaintext.length);
+        final ByteBuffer input = ByteBuffer.wrap(expected);
+        assertEquals(plaintext.length, bob.decrypt(input, nonce, direct));
+        assertEquals(0, input.remaining());
+        direct.flip();
+        final byte[] decrypted = new byte[direct.remaining()];
+        direct.get(decrypted);
+        assertArrayEquals(plaintext, decrypted);
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testAsymmetricDecryptTampered() throws CryptoException {
+        final CryptoInstance alice = this.cryptoProvider.getInstance(ALICE_PRIVATE, BOB_PUBLIC);
+        final byte[] nonce = this.randomBytes(CryptoProvider.NONCEBYTES);
+        final byte[] encrypted = alice.encrypt("hello".getBytes(), nonce);
+        encrypted[0] ^= 1;
+        alice.decrypt(encrypted, nonce);
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testLowOrderPublicKey() throws CryptoException {
+        // The all-zero point results in an all-zero shared secret
+        this.cryptoProvider.getInstance(ALICE_PRIVATE, new byte[CryptoProvider.PUBLICKEYBYTES]);
+    }
+}
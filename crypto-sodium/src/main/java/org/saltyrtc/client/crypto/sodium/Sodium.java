@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+package org.saltyrtc.client.crypto.sodium;
+
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+/**
+ * JNA direct mapping of the libsodium functions used by SaltyRTC.
+ *
+ * Direct mapping avoids the reflection and argument conversion of interface mapping.
+ * Message buffers are passed as pointers into native memory so that they are not copied
+ * by JNA on every call.
+ */
+final class Sodium {
+    static final String LIBRARY_NAME = "sodium";
+
+    // Set once the library has been loaded and initialized
+    static final boolean AVAILABLE;
+    static final Throwable LOAD_ERROR;
+
+    static {
+        Throwable error = null;
+        try {
+            Native.register(Sodium.class, LIBRARY_NAME);
+            if (sodium_init() < 0) {
+                error = new IllegalStateException("sodium_init failed");
+            }
+        } catch (UnsatisfiedLinkError | NoClassDefFoundError e) {
+            error = e;
+        }
+        AVAILABLE = error == null;
+        LOAD_ERROR = error;
+    }
+
+    private Sodium() { }
+
+    static native int sodium_init();
+
+    static native int crypto_box_keypair(byte[] pk, byte[] sk);
+
+    static native int crypto_scalarmult_base(byte[] q, byte[] n);
+
+    static native int crypto_box_beforenm(Pointer k, byte[] pk, byte[] sk);
+
+    static native int crypto_box_easy_afternm(Pointer c, Pointer m, long mlen, Pointer n, Pointer k);
+
+    static native int crypto_box_open_easy_afternm(Pointer m, Pointer c, long clen, Pointer n, Pointer k);
+
+    static native int crypto_secretbox_easy(Pointer c, Pointer m, long mlen, Pointer n, Pointer k);
+
+    static native int crypto_secretbox_open_easy(Pointer m, Pointer c, long clen, Pointer n, Pointer k);
+}
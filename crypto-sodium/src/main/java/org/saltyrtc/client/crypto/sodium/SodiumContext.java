@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+package org.saltyrtc.client.crypto.sodium;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.crypto.CryptoException;
+import org.saltyrtc.client.crypto.CryptoProvider;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Native scratch memory, one instance per thread.
+ *
+ * Messages are copied into a direct buffer that is reused for all calls on the same
+ * thread and only grows if a larger message comes along. libsodium is able to encrypt
+ * and decrypt in-place, so the same buffer holds both the input and the output.
+ */
+final class SodiumContext {
+    private static final int INITIAL_CAPACITY = 4096;
+    private static final int KEY_OFFSET = CryptoProvider.NONCEBYTES;
+
+    private static final ThreadLocal<SodiumContext> contexts = new ThreadLocal<SodiumContext>() {
+        @Override
+        protected SodiumContext initialValue() {
+            return new SodiumContext();
+        }
+    };
+
+    // Nonce followed by the secret key
+    @NonNull private final Memory parameters = new Memory(CryptoProvider.NONCEBYTES + CryptoProvider.SYMMKEYBYTES);
+    @NonNull private final Pointer key = this.parameters.share(KEY_OFFSET);
+
+    // Message buffer
+    private ByteBuffer buffer;
+    private Pointer bufferPointer;
+
+    @NonNull
+    static SodiumContext get() {
+        return contexts.get();
+    }
+
+    /**
+     * Return a pointer to the message buffer with room for at least `capacity` bytes.
+     */
+    @NonNull
+    Pointer buffer(int capacity) {
+        if (this.buffer == null || this.buffer.capacity() < capacity) {
+            final int current = this.buffer == null ? INITIAL_CAPACITY / 2 : this.buffer.capacity();
+            this.buffer = ByteBuffer.allocateDirect(Math.max(capacity, current * 2));
+            this.bufferPointer = Native.getDirectBufferPointer(this.buffer);
+        }
+        return this.bufferPointer;
+    }
+
+    /**
+     * Copy the nonce to native memory and return a pointer to it.
+     */
+    @NonNull
+    Pointer nonce(@NonNull byte[] nonce) {
+        this.parameters.write(0, nonce, 0, CryptoProvider.NONCEBYTES);
+        return this.parameters;
+    }
+
+    /**
+     * Copy the secret key to native memory and return a pointer to it.
+     *
+     * Call `clearKey()` once the key is not needed anymore.
+     */
+    @NonNull
+    Pointer key(@NonNull byte[] key) {
+        this.parameters.write(KEY_OFFSET, key, 0, CryptoProvider.SYMMKEYBYTES);
+        return this.key;
+    }
+
+    void clearKey() {
+        this.parameters.setMemory(KEY_OFFSET, CryptoProvider.SYMMKEYBYTES, (byte) 0);
+    }
+
+    /**
+     * Encrypt `length` bytes of `input` with `crypto_secretbox_easy`.
+     *
+     * Note: `crypto_box_easy_afternm` is the same function, so this is used for both the
+     * symmetric and the (precalculated) asymmetric case.
+     */
+    int seal(@NonNull Pointer key, @NonNull byte[] nonce,
+             @NonNull byte[] input, int inputOffset, int length,
+             @NonNull byte[] output, int outputOffset) throws CryptoException {
+        checkNonce(nonce);
+        final int outputLength = length + CryptoProvider.BOXOVERHEAD;
+        if (length < 0 || output.length - outputOffset < outputLength) {
+            throw new CryptoException("Output buffer too small");
+        }
+        final Pointer buffer = this.buffer(outputLength);
+        buffer.write(0, input, inputOffset, length);
+        if (Sodium.crypto_secretbox_easy(buffer, buffer, length, this.nonce(nonce), key) != 0) {
+            throw new CryptoException("Could not encrypt data");
+        }
+        buffer.read(0, output, outputOffset, outputLength);
+        return outputLength;
+    }
+
+    /**
+     * Decrypt the `length` byte box in `input` with `crypto_secretbox_open_easy`.
+     */
+    int open(@NonNull Pointer key, @NonNull byte[] nonce,
+             @NonNull byte[] input, int inputOffset, int length,
+             @NonNull byte[] output, int outputOffset) throws CryptoException {
+        checkNonce(nonce);
+        if (length < CryptoProvider.BOXOVERHEAD) {
+            throw new CryptoException("Could not decrypt data");
+        }
+        final int outputLength = length - CryptoProvider.BOXOVERHEAD;
+        if (output.length - outputOffset < outputLength) {
+            throw new CryptoException("Output buffer too small");
+        }
+        final Pointer buffer = this.buffer(length);
+        buffer.write(0, input, inputOffset, length);
+        if (Sodium.crypto_secretbox_open_easy(buffer, buffer, length, this.nonce(nonce), key) != 0) {
+            throw new CryptoException("Could not decrypt data");
+        }
+        buffer.read(0, output, outputOffset, outputLength);
+        return outputLength;
+    }
+
+    /**
+     * Encrypt the remaining bytes of the direct buffer `input` into the direct buffer
+     * `output` without copying. The positions of both buffers are advanced.
+     */
+    int seal(@NonNull Pointer key, @NonNull byte[] nonce,
+             @NonNull ByteBuffer input, @NonNull ByteBuffer output) throws CryptoException {
+        checkNonce(nonce);
+        final int length = input.remaining();
+        final int outputLength = length + CryptoProvider.BOXOVERHEAD;
+        if (output.remaining() < outputLength) {
+            throw new CryptoException("Output buffer too small");
+        }
+        if (Sodium.crypto_secretbox_easy(pointer(output), pointer(input), length, this.nonce(nonce), key) != 0) {
+            throw new CryptoException("Could not encrypt data");
+        }
+        input.position(input.limit());
+        output.position(output.position() + outputLength);
+        return outputLength;
+    }
+
+    /**
+     * Decrypt the box in the remaining bytes of the direct buffer `input` into the direct
+     * buffer `output` without copying. The positions of both buffers are advanced.
+     */
+    int open(@NonNull Pointer key, @NonNull byte[] nonce,
+             @NonNull ByteBuffer input, @NonNull ByteBuffer output) throws CryptoException {
+        checkNonce(nonce);
+        final int length = input.remaining();
+        if (length < CryptoProvider.BOXOVERHEAD) {
+            throw new CryptoException("Could not decrypt data");
+        }
+        final int outputLength = length - CryptoProvider.BOXOVERHEAD;
+        if (output.remaining() < outputLength) {
+            throw new CryptoException("Output buffer too small");
+        }
+        if (Sodium.crypto_secretbox_open_easy(pointer(output), pointer(input), length, this.nonce(nonce), key) != 0) {
+            throw new CryptoException("Could not decrypt data");
+        }
+        input.position(input.limit());
+        output.position(output.position() + outputLength);
+        return outputLength;
+    }
+
+    private static void checkNonce(@NonNull byte[] nonce) throws CryptoException {
+        if (nonce.length != CryptoProvider.NONCEBYTES) {
+            throw new CryptoException("Invalid nonce length");
+        }
+    }
+
+    /**
+     * Return a pointer to the current position of a direct buffer.
+     */
+    @NonNull
+    static Pointer pointer(@NonNull ByteBuffer buffer) {
+        return Native.getDirectBufferPointer(buffer).share(buffer.position());
+    }
+}
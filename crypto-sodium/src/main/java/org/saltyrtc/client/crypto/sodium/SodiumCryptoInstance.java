@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+package org.saltyrtc.client.crypto.sodium;
+
+import com.sun.jna.Memory;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.crypto.CryptoException;
+import org.saltyrtc.client.crypto.CryptoInstance;
+import org.saltyrtc.client.crypto.CryptoProvider;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An implementation of the CryptoInstance interface for libsodium.
+ *
+ * The shared key is precalculated with `crypto_box_beforenm` and kept in native memory,
+ * so it doesn't need to be passed to libsodium again for every message.
+ */
+public class SodiumCryptoInstance implements CryptoInstance {
+    private static final int BEFORENMBYTES = 32;
+
+    @NonNull private final Memory sharedKey = new Memory(BEFORENMBYTES);
+
+    public SodiumCryptoInstance(
+        @NonNull byte[] ownPrivateKey,
+        @NonNull byte[] otherPublicKey
+    ) throws CryptoException {
+        if (!Sodium.AVAILABLE) {
+            throw new CryptoException("Could not load libsodium", Sodium.LOAD_ERROR);
+        }
+
+        // Verify key lengths
+        if (otherPublicKey.length != CryptoProvider.PUBLICKEYBYTES) {
+            throw new CryptoException("Invalid public key length");
+        }
+        if (ownPrivateKey.length != CryptoProvider.PRIVATEKEYBYTES) {
+            throw new CryptoException("Invalid private key length");
+        }
+
+        // Precalculate shared key
+        if (Sodium.crypto_box_beforenm(this.sharedKey, otherPublicKey, ownPrivateKey) != 0) {
+            this.sharedKey.clear();
+            throw new CryptoException("Could not precalculate shared key");
+        }
+    }
+
+    @NonNull
+    @Override
+    public byte[] encrypt(@NonNull byte[] data, @NonNull byte[] nonce) throws CryptoException {
+        final byte[] ciphertext = new byte[data.length + CryptoProvider.BOXOVERHEAD];
+        this.encrypt(data, 0, data.length, nonce, ciphertext, 0);
+        return ciphertext;
+    }
+
+    @NonNull
+    @Override
+    public byte[] decrypt(@NonNull byte[] data, @NonNull byte[] nonce) throws CryptoException {
+        if (data.length < CryptoProvider.BOXOVERHEAD) {
+            throw new CryptoException("Could not decrypt data");
+        }
+        final byte[] plaintext = new byte[data.length - CryptoProvider.BOXOVERHEAD];
+        this.decrypt(data, 0, data.length, nonce, plaintext, 0);
+        return plaintext;
+    }
+
+    @Override
+    public int encrypt(
+        @NonNull byte[] input, int inputOffset, int length, @NonNull byte[] nonce,
+        @NonNull byte[] output, int outputOffset
+    ) throws CryptoException {
+        return SodiumContext.get().seal(this.sharedKey, nonce, input, inputOffset, length, output, outputOffset);
+    }
+
+    @Override
+    public int decrypt(
+        @NonNull byte[] input, int inputOffset, int length, @NonNull byte[] nonce,
+        @NonNull byte[] output, int outputOffset
+    ) throws CryptoException {
+        return SodiumContext.get().open(this.sharedKey, nonce, input, inputOffset, length, output, outputOffset);
+    }
+
+    @Override
+    public int encrypt(
+        @NonNull ByteBuffer input, @NonNull byte[] nonce, @NonNull ByteBuffer output
+    ) throws CryptoException {
+        if (!input.isDirect() || !output.isDirect()) {
+            return CryptoInstance.super.encrypt(input, nonce, output);
+        }
+        return SodiumContext.get().seal(this.sharedKey, nonce, input, output);
+    }
+
+    @Override
+    public int decrypt(
+        @NonNull ByteBuffer input, @NonNull byte[] nonce, @NonNull ByteBuffer output
+    ) throws CryptoException {
+        if (!input.isDirect() || !output.isDirect()) {
+            return CryptoInstance.super.decrypt(input, nonce, output);
+        }
+        return SodiumContext.get().open(this.sharedKey, nonce, input, output);
+    }
+}
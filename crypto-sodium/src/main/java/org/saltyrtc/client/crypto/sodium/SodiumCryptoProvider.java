@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+package org.saltyrtc.client.crypto.sodium;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.crypto.CryptoException;
+import org.saltyrtc.client.crypto.CryptoInstance;
+import org.saltyrtc.client.crypto.CryptoProvider;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A `CryptoProvider` backed by the system libsodium library (loaded through JNA).
+ *
+ * Each thread gets its own native scratch memory which is reused across calls, so
+ * encrypting and decrypting doesn't allocate native memory. Direct `ByteBuffer`s are
+ * passed to libsodium without copying. Instances are thread safe.
+ */
+public class SodiumCryptoProvider implements CryptoProvider {
+
+    /**
+     * Create a new provider.
+     *
+     * @throws CryptoException if libsodium could not be loaded.
+     */
+    public SodiumCryptoProvider() throws CryptoException {
+        if (!Sodium.AVAILABLE) {
+            throw new CryptoException("Could not load libsodium", Sodium.LOAD_ERROR);
+        }
+    }
+
+    /**
+     * Return whether libsodium could be loaded and initialized.
+     */
+    public static boolean isAvailable() {
+        return Sodium.AVAILABLE;
+    }
+
+    @Override
+    public void generateKeypair(@NonNull byte[] publickey, @NonNull byte[] privatekey) throws CryptoException {
+        // Verify key lengths
+        if (publickey.length != CryptoProvider.PUBLICKEYBYTES) {
+            throw new CryptoException("Invalid public key buffer length");
+        }
+        if (privatekey.length != CryptoProvider.PRIVATEKEYBYTES) {
+            throw new CryptoException("Invalid private key buffer length");
+        }
+
+        // Generate keypair
+        if (Sodium.crypto_box_keypair(publickey, privatekey) != 0) {
+            throw new CryptoException("Could not generate keypair");
+        }
+    }
+
+    @NonNull
+    @Override
+    public byte[] derivePublicKey(@NonNull byte[] privateKey) throws CryptoException {
+        // Verify key lengths
+        if (privateKey.length != CryptoProvider.PRIVATEKEYBYTES) {
+            throw new CryptoException("Invalid private key length");
+        }
+
+        // Derive public key from private key
+        final byte[] publicKey = new byte[CryptoProvider.PUBLICKEYBYTES];
+        if (Sodium.crypto_scalarmult_base(publicKey, privateKey) != 0) {
+            throw new CryptoException("Could not derive public key");
+        }
+        return publicKey;
+    }
+
+    @NonNull
+    @Override
+    public byte[] symmetricEncrypt(@NonNull byte[] data, @NonNull byte[] key, @NonNull byte[] nonce) throws CryptoException {
+        final byte[] output = new byte[data.length + CryptoProvider.BOXOVERHEAD];
+        this.symmetricEncrypt(data, 0, data.length, key, nonce, output, 0);
+        return output;
+    }
+
+    @NonNull
+    @Override
+    public byte[] symmetricDecrypt(@NonNull byte[] data, @NonNull byte[] key, @NonNull byte[] nonce) throws CryptoException {
+        if (data.length < CryptoProvider.BOXOVERHEAD) {
+            throw new CryptoException("Could not decrypt data");
+        }
+        final byte[] output = new byte[data.length - CryptoProvider.BOXOVERHEAD];
+        this.symmetricDecrypt(data, 0, data.length, key, nonce, output, 0);
+        return output;
+    }
+
+    @Override
+    public int symmetricEncrypt(
+        @NonNull byte[] input, int inputOffset, int length, @NonNull byte[] key, @NonNull byte[] nonce,
+        @NonNull byte[] output, int outputOffset
+    ) throws CryptoException {
+        checkKey(key);
+        final SodiumContext context = SodiumContext.get();
+        try {
+            return context.seal(context.key(key), nonce, input, inputOffset, length, output, outputOffset);
+        } finally {
+            context.clearKey();
+        }
+    }
+
+    @Override
+    public int symmetricDecrypt(
+        @NonNull byte[] input, int inputOffset, int length, @NonNull byte[] key, @NonNull byte[] nonce,
+        @NonNull byte[] output, int outputOffset
+    ) throws CryptoException {
+        checkKey(key);
+        final SodiumContext context = SodiumContext.get();
+        try {
+            return context.open(context.key(key), nonce, input, inputOffset, length, output, outputOffset);
+        } finally {
+            context.clearKey();
+        }
+    }
+
+    @Override
+    public int symmetricEncrypt(
+        @NonNull ByteBuffer input, @NonNull byte[] key, @NonNull byte[] nonce, @NonNull ByteBuffer output
+    ) throws CryptoException {
+        if (!input.isDirect() || !output.isDirect()) {
+            return CryptoProvider.super.symmetricEncrypt(input, key, nonce, output);
+        }
+        checkKey(key);
+        final SodiumContext context = SodiumContext.get();
+        try {
+            return context.seal(context.key(key), nonce, input, output);
+        } finally {
+            context.clearKey();
+        }
+    }
+
+    @Override
+    public int symmetricDecrypt(
+        @NonNull ByteBuffer input, @NonNull byte[] key, @NonNull byte[] nonce, @NonNull ByteBuffer output
+    ) throws CryptoException {
+        if (!input.isDirect() || !output.isDirect()) {
+            return CryptoProvider.super.symmetricDecrypt(input, key, nonce, output);
+        }
+        checkKey(key);
+        final SodiumContext context = SodiumContext.get();
+        try {
+            return context.open(context.key(key), nonce, input, output);
+        } finally {
+            context.clearKey();
+        }
+    }
+
+    @NonNull
+    @Override
+    public CryptoInstance getInstance(@NonNull byte[] ownPrivateKey, @NonNull byte[] otherPublicKey) throws CryptoException {
+        return new SodiumCryptoInstance(ownPrivateKey, otherPublicKey);
+    }
+
+    private static void checkKey(@NonNull byte[] key) throws CryptoException {
+        if (key.length != CryptoProvider.SYMMKEYBYTES) {
+            throw new CryptoException("Invalid key length");
+        }
+    }
+}
@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.tests.crypto.sodium;
+
+import org.junit.Assume;
+import org.saltyrtc.client.crypto.CryptoException;
+import org.saltyrtc.client.crypto.CryptoProvider;
+import org.saltyrtc.client.crypto.sodium.SodiumCryptoProvider;
+import org.saltyrtc.client.crypto.testkit.CryptoProviderConformanceTest;
+
+public class SodiumCryptoProviderConformanceTest extends CryptoProviderConformanceTest {
+    @Override
+    protected CryptoProvider createProvider() throws CryptoException {
+        Assume.assumeTrue("libsodium not available", SodiumCryptoProvider.isAvailable());
+        return new SodiumCryptoProvider();
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.tests.crypto.sodium;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.saltyrtc.client.crypto.CryptoException;
+import org.saltyrtc.client.crypto.CryptoInstance;
+import org.saltyrtc.client.crypto.CryptoProvider;
+import org.saltyrtc.client.crypto.sodium.SodiumCryptoProvider;
+import org.saltyrtc.client.helpers.HexHelper;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SodiumCryptoProviderTest {
+
+    // Test vectors from RFC 7748, section 6.1
+    private static final byte[] ALICE_PRIVATE = HexHelper.hexStringToByteArray("77076d0a7318a57d3c16c17251b26645df4c2f87ebc0992ab177fba51db92c2a");
+    private static final byte[] ALICE_PUBLIC = HexHelper.hexStringToByteArray("8520f0098930a754748b7ddcb43ef75a0dbf3a0d26381af4eba4a98eaa9b4e6a");
+    private static final byte[] BOB_PRIVATE = HexHelper.hexStringToByteArray("5dab087e624a8a4b79e17f8b83800ee66f3bb1292618b6fd1c2f8b27ff88e0eb");
+    private static final byte[] BOB_PUBLIC = HexHelper.hexStringToByteArray("de9edb7d7b7dc1b4d35b61c2ece435373f8343c85b78674dadfc7e146f882b4f");
+
+    private final SecureRandom random = new SecureRandom();
+    private CryptoProvider cryptoProvider;
+
+    @Before
+    public void setUp() throws CryptoException {
+        Assume.assumeTrue("libsodium not available", SodiumCryptoProvider.isAvailable());
+        this.cryptoProvider = new SodiumCryptoProvider();
+    }
+
+    private byte[] randomBytes(int length) {
+        final byte[] bytes = new byte[length];
+        this.random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] sequence(int length, int start) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (start + i);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void testDerivePublicKey() throws CryptoException {
+        assertArrayEquals(ALICE_PUBLIC, this.cryptoProvider.derivePublicKey(ALICE_PRIVATE));
+        assertArrayEquals(BOB_PUBLIC, this.cryptoProvider.derivePublicKey(BOB_PRIVATE));
+    }
+
+    @Test
+    public void testGenerateKeypair() throws CryptoException {
+        final byte[] publicKey = new byte[CryptoProvider.PUBLICKEYBYTES];
+        final byte[] privateKey = new byte[CryptoProvider.PRIVATEKEYBYTES];
+        this.cryptoProvider.generateKeypair(publicKey, privateKey);
+        assertArrayEquals(publicKey, this.cryptoProvider.derivePublicKey(privateKey));
+    }
+
+    @Test
+    public void testSharedKeyVector() throws CryptoException {
+        // The shared key of the RFC 7748 key pairs is
+        // 1b27556473e985d462cd51197a9a46c76009549eac6474f206c4ee0844f68389,
+        // so both sides must produce the box generated by `crypto_box_easy_afternm` with it.
+        final byte[] nonce = sequence(CryptoProvider.NONCEBYTES, 0);
+        final byte[] expected = HexHelper.hexStringToByteArray("ba2e1e56b96566ce1dd470d02620a4b16d2b3cc974");
+        final CryptoInstance alice = this.cryptoProvider.getInstance(ALICE_PRIVATE, BOB_PUBLIC);
+        final CryptoInstance bob = this.cryptoProvider.getInstance(BOB_PRIVATE, ALICE_PUBLIC);
+        assertArrayEquals(expected, alice.encrypt("hello".getBytes(), nonce));
+        assertArrayEquals(expected, bob.encrypt("hello".getBytes(), nonce));
+        assertArrayEquals("hello".getBytes(), bob.decrypt(expected, nonce));
+    }
+
+    @Test
+    public void testDecryptVector() throws CryptoException {
+        // Same values as in `KeyStoreTest.testDecrypt`
+        final byte[] privateKey = {98, -128, 32, -16, -93, -3, 90, -19, -62, -45, -89, -120, 0, 54, -31, -52, -88, 83, -51, -7, 84, 60, 101, 94, 33, 21, -57, 7, 51, 5, 61, 34};
+        final byte[] nonce = {110, -111, 24, -87, 127, 91, 87, -121, 119, 13, -23, 14, -88, -12, -30, -73, -88, -112, -65, -76, -73, -11, 64, 37};
+        final byte[] otherKey = {34, 81, 26, 50, -112, 8, -78, -80, 76, -66, -91, 31, 122, -98, 102, -24, -56, -40, -2, -115, -110, -23, 95, 47, 51, 25, 77, 59, 59, -11, -120, 100};
+        final byte[] encrypted = {-39, -59, 107, -111, -84, 49, 71, -67, 63, -28, -94, 40, 48, 121, 68, -40, 63, 102, 9, 90, 97};
+        final CryptoInstance instance = this.cryptoProvider.getInstance(privateKey, otherKey);
+        assertArrayEquals("hello".getBytes(), instance.decrypt(encrypted, nonce));
+    }
+
+    @Test
+    public void testSymmetricVector() throws CryptoException {
+        // Generated with libsodium `crypto_secretbox_easy`
+        final byte[] key = sequence(CryptoProvider.SYMMKEYBYTES, 0);
+        final byte[] nonce = sequence(CryptoProvider.NONCEBYTES, 100);
+        final byte[] plaintext = "The quick brown fox jumps over the lazy dog. The quick brown fox!".getBytes();
+        final byte[] expected = HexHelper.hexStringToByteArray(
+            "b8c4b5dd7146fc39542bf691c867c39756d1fce94bc3a78adbdd41e658f3cd38" +
+            "58c540878ed3266bd52c2de26ff9e9fcc00ad4742e4de2c49179704c2047b500" +
+            "e1e1db7171ed193d718e246afbd4f11c62");
+        assertArrayEquals(expected, this.cryptoProvider.symmetricEncrypt(plaintext, key, nonce));
+        assertArrayEquals(plaintext, this.cryptoProvider.symmetricDecrypt(expected, key, nonce));
+    }
+
+    @Test
+    public void testSymmetricGrowsBuffer() throws CryptoException {
+        // Larger than the initial capacity of the per-thread buffer
+        final byte[] key = this.randomBytes(CryptoProvider.SYMMKEYBYTES);
+        final byte[] nonce = this.randomBytes(CryptoProvider.NONCEBYTES);
+        final byte[] plaintext = this.randomBytes(100000);
+        final byte[] encrypted = this.cryptoProvider.symmetricEncrypt(plaintext, key, nonce);
+        assertArrayEquals(plaintext, this.cryptoProvider.symmetricDecrypt(encrypted, key, nonce));
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testSymmetricDecryptTampered() throws CryptoException {
+        final byte[] key = this.randomBytes(CryptoProvider.SYMMKEYBYTES);
+        final byte[] nonce = this.randomBytes(CryptoProvider.NONCEBYTES);
+        final byte[] encrypted = this.cryptoProvider.symmetricEncrypt("hello".getBytes(), key, nonce);
+        encrypted[encrypted.length - 1] ^= 1;
+        this.cryptoProvider.symmetricDecrypt(encrypted, key, nonce);
+    }
+
+    @Test
+    public void testAsymmetricInPlace() throws CryptoException {
+        final CryptoInstance alice = this.cryptoProvider.getInstance(ALICE_PRIVATE, BOB_PUBLIC);
+        final byte[] nonce = this.randomBytes(CryptoProvider.NONCEBYTES);
+        final byte[] plaintext = this.randomBytes(100);
+        final byte[] expected = alice.encrypt(plaintext, nonce);
+
+        // Encrypt in-place
+        final byte[] buffer = new byte[CryptoProvider.BOXOVERHEAD + plaintext.length];
+        System.arraycopy(plaintext, 0, buffer, CryptoProvider.BOXOVERHEAD, plaintext.length);
+        assertEquals(expected.length, alice.encrypt(
+            buffer, CryptoProvider.BOXOVERHEAD, plaintext.length, nonce, buffer, 0));
+        assertArrayEquals(expected, buffer);
+
+        // Decrypt in-place
+        assertEquals(plaintext.length, alice.decrypt(
+            buffer, 0, buffer.length, nonce, buffer, CryptoProvider.BOXOVERHEAD));
+        assertArrayEquals(plaintext, Arrays.copyOfRange(buffer, CryptoProvider.BOXOVERHEAD, buffer.length));
+    }
+
+    @Test
+    public void testAsymmetricDirectBuffers() throws CryptoException {
+        final CryptoInstance alice = this.cryptoProvider.getInstance(ALICE_PRIVATE, BOB_PUBLIC);
+        final CryptoInstance bob = this.cryptoProvider.getInstance(BOB_PRIVATE, ALICE_PUBLIC);
+        final byte[] nonce = this.randomBytes(CryptoProvider.NONCEBYTES);
+        final byte[] plaintext = this.randomBytes(100);
+
+        // Encrypt
+        final ByteBuffer input = ByteBuffer.allocateDirect(plaintext.length);
+        input.put(plaintext).flip();
+        final ByteBuffer encrypted = ByteBuffer.allocateDirect(plaintext.length + CryptoProvider.BOXOVERHEAD);
+        assertEquals(encrypted.capacity(), alice.encrypt(input, nonce, encrypted));
+        assertEquals(0, input.remaining());
+        assertEquals(0, encrypted.remaining());
+        encrypted.flip();
+        final byte[] box = new byte[encrypted.remaining()];
+        encrypted.duplicate().get(box);
+        assertArrayEquals(alice.encrypt(plaintext, nonce), box);
+
+        // Decrypt
+        final ByteBuffer decrypted = ByteBuffer.allocateDirect(plaintext.length);
+        assertEquals(plaintext.length, bob.decrypt(encrypted, nonce, decrypted));
+        decrypted.flip();
+        final byte[] result = new byte[decrypted.remaining()];
+        decrypted.get(result);
+        assertArrayEquals(plaintext, result);
+    }
+
+    @Test
+    public void testSymmetricHeapBuffers() throws CryptoException {
+        final byte[] key = this.randomBytes(CryptoProvider.SYMMKEYBYTES);
+        final byte[] nonce = this.randomBytes(CryptoProvider.NONCEBYTES);
+        final byte[] plaintext = this.randomBytes(50);
+        final ByteBuffer encrypted = ByteBuffer.allocate(plaintext.length + CryptoProvider.BOXOVERHEAD);
+        this.cryptoProvider.symmetricEncrypt(ByteBuffer.wrap(plaintext), key, nonce, encrypted);
+        assertArrayEquals(this.cryptoProvider.symmetricEncrypt(plaintext, key, nonce), encrypted.array());
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testLowOrderPublicKey() throws CryptoException {
+        this.cryptoProvider.getInstance(ALICE_PRIVATE, new byte[CryptoProvider.PUBLICKEYBYTES]);
+    }
+}
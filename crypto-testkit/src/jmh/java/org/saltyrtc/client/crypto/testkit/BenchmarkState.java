@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+package org.saltyrtc.client.crypto.testkit;
+
+import org.saltyrtc.client.crypto.CryptoProvider;
+
+final class BenchmarkState {
+    private BenchmarkState() { }
+
+    /**
+     * Load the provider with the specified name or fail the benchmark.
+     */
+    static CryptoProvider provider(String name) {
+        final CryptoProvider provider = CryptoProviders.find(name);
+        if (provider == null) {
+            throw new IllegalStateException("CryptoProvider " + name + " not found on the classpath");
+        }
+        return provider;
+    }
+}
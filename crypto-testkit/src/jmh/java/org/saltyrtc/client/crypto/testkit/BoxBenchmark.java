@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+package org.saltyrtc.client.crypto.testkit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.saltyrtc.client.crypto.CryptoException;
+import org.saltyrtc.client.crypto.CryptoInstance;
+import org.saltyrtc.client.crypto.CryptoProvider;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encryption and decryption with a precalculated shared key (box) and with a secret key
+ * (secret box), using both the allocating and the in-place API.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoxBenchmark {
+    @Param({"PureJavaCryptoProvider", "SodiumCryptoProvider"})
+    public String provider;
+
+    @Param({"64", "1024", "65536"})
+    public int size;
+
+    private CryptoProvider cryptoProvider;
+    private CryptoInstance instance;
+    private final byte[] nonce = new byte[CryptoProvider.NONCEBYTES];
+    private final byte[] key = new byte[CryptoProvider.SYMMKEYBYTES];
+    private byte[] plaintext;
+    private byte[] box;
+    private byte[] secretBox;
+    private byte[] buffer;
+
+    @Setup
+    public void setup() throws CryptoException {
+        final SecureRandom random = new SecureRandom();
+        this.cryptoProvider = BenchmarkState.provider(this.provider);
+
+        final byte[] publicKey = new byte[CryptoProvider.PUBLICKEYBYTES];
+        final byte[] privateKey = new byte[CryptoProvider.PRIVATEKEYBYTES];
+        this.cryptoProvider.generateKeypair(publicKey, privateKey);
+        this.instance = this.cryptoProvider.getInstance(privateKey, publicKey);
+
+        random.nextBytes(this.nonce);
+        random.nextBytes(this.key);
+        this.plaintext = new byte[this.size];
+        random.nextBytes(this.plaintext);
+        this.box = this.instance.encrypt(this.plaintext, this.nonce);
+        this.secretBox = this.cryptoProvider.symmetricEncrypt(this.plaintext, this.key, this.nonce);
+        this.buffer = new byte[this.size + CryptoProvider.BOXOVERHEAD];
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws CryptoException {
+        return this.instance.encrypt(this.plaintext, this.nonce);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws CryptoException {
+        return this.instance.decrypt(this.box, this.nonce);
+    }
+
+    @Benchmark
+    public byte[] encryptInto() throws CryptoException {
+        this.instance.encrypt(this.plaintext, 0, this.size, this.nonce, this.buffer, 0);
+        return this.buffer;
+    }
+
+    @Benchmark
+    public byte[] decryptInto() throws CryptoException {
+        this.instance.decrypt(this.box, 0, this.box.length, this.nonce, this.buffer, 0);
+        return this.buffer;
+    }
+
+    @Benchmark
+    public byte[] symmetricEncrypt() throws CryptoException {
+        return this.cryptoProvider.symmetricEncrypt(this.plaintext, this.key, this.nonce);
+    }
+
+    @Benchmark
+    public byte[] symmetricDecrypt() throws CryptoException {
+        return this.cryptoProvider.symmetricDecrypt(this.secretBox, this.key, this.nonce);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+package org.saltyrtc.client.crypto.testkit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.saltyrtc.client.crypto.CryptoException;
+import org.saltyrtc.client.crypto.CryptoInstance;
+import org.saltyrtc.client.crypto.CryptoProvider;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Key generation and shared key precalculation (`getInstance`).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyBenchmark {
+    @Param({"PureJavaCryptoProvider", "SodiumCryptoProvider"})
+    public String provider;
+
+    private CryptoProvider cryptoProvider;
+    private final byte[] publicKey = new byte[CryptoProvider.PUBLICKEYBYTES];
+    private final byte[] privateKey = new byte[CryptoProvider.PRIVATEKEYBYTES];
+    private final byte[] otherPublicKey = new byte[CryptoProvider.PUBLICKEYBYTES];
+
+    @Setup
+    public void setup() throws CryptoException {
+        this.cryptoProvider = BenchmarkState.provider(this.provider);
+        this.cryptoProvider.generateKeypair(this.publicKey, this.privateKey);
+        this.cryptoProvider.generateKeypair(this.otherPublicKey, new byte[CryptoProvider.PRIVATEKEYBYTES]);
+    }
+
+    @Benchmark
+    public byte[] generateKeypair() throws CryptoException {
+        this.cryptoProvider.generateKeypair(this.publicKey, this.privateKey);
+        return this.publicKey;
+    }
+
+    @Benchmark
+    public byte[] derivePublicKey() throws CryptoException {
+        return this.cryptoProvider.derivePublicKey(this.privateKey);
+    }
+
+    @Benchmark
+    public CryptoInstance getInstance() throws CryptoException {
+        return this.cryptoProvider.getInstance(this.privateKey, this.otherPublicKey);
+    }
+}
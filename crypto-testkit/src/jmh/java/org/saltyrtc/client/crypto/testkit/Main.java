@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+package org.saltyrtc.client.crypto.testkit;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.saltyrtc.client.crypto.CryptoProvider;
+
+import java.util.List;
+
+/**
+ * Run the benchmarks for every `CryptoProvider` found on the classpath, instead of the
+ * providers listed in the `@Param` annotations.
+ *
+ * Usage: `Main [benchmark regex]`
+ */
+public class Main {
+    public static void main(String[] args) throws RunnerException {
+        final List<CryptoProvider> providers = CryptoProviders.discover();
+        if (providers.isEmpty()) {
+            System.err.println("No CryptoProvider found on the classpath");
+            System.exit(1);
+        }
+        final String[] names = new String[providers.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = providers.get(i).getClass().getName();
+        }
+        final Options options = new OptionsBuilder()
+            .include(args.length > 0 ? args[0] : Main.class.getPackage().getName() + ".*Benchmark")
+            .param("provider", names)
+            .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+package org.saltyrtc.client.crypto.testkit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.crypto.CryptoException;
+import org.saltyrtc.client.crypto.CryptoInstance;
+import org.saltyrtc.client.crypto.CryptoProvider;
+import org.saltyrtc.client.helpers.HexHelper;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Conformance tests for `CryptoProvider` implementations.
+ *
+ * To check a provider, subclass this test in your test sources and implement
+ * `createProvider()`:
+ *
+ *     public class MyCryptoProviderTest extends CryptoProviderConformanceTest {
+ *         protected CryptoProvider createProvider() {
+ *             return new MyCryptoProvider();
+ *         }
+ *     }
+ *
+ * The known-answer vectors are taken from RFC 7748 or were generated with libsodium.
+ */
+public abstract class CryptoProviderConformanceTest {
+
+    // Key pairs from RFC 7748, section 6.1
+    protected static final byte[] ALICE_PRIVATE = HexHelper.hexStringToByteArray("77076d0a7318a57d3c16c17251b26645df4c2f87ebc0992ab177fba51db92c2a");
+    protected static final byte[] ALICE_PUBLIC = HexHelper.hexStringToByteArray("8520f0098930a754748b7ddcb43ef75a0dbf3a0d26381af4eba4a98eaa9b4e6a");
+    protected static final byte[] BOB_PRIVATE = HexHelper.hexStringToByteArray("5dab087e624a8a4b79e17f8b83800ee66f3bb1292618b6fd1c2f8b27ff88e0eb");
+    protected static final byte[] BOB_PUBLIC = HexHelper.hexStringToByteArray("de9edb7d7b7dc1b4d35b61c2ece435373f8343c85b78674dadfc7e146f882b4f");
+
+    // `crypto_box_easy` of "hello" between Alice and Bob, nonce 00 01 02 .. 17
+    private static final byte[] BOX_HELLO = HexHelper.hexStringToByteArray("ba2e1e56b96566ce1dd470d02620a4b16d2b3cc974");
+
+    // `crypto_secretbox_easy` with key 00 01 02 .. 1f and nonce 64 65 66 .. 7b
+    private static final byte[] SECRETBOX_PLAINTEXT = "The quick brown fox jumps over the lazy dog. The quick brown fox!".getBytes();
+    private static final byte[] SECRETBOX_CIPHERTEXT = HexHelper.hexStringToByteArray(
+        "b8c4b5dd7146fc39542bf691c867c39756d1fce94bc3a78adbdd41e658f3cd38" +
+        "58c540878ed3266bd52c2de26ff9e9fcc00ad4742e4de2c49179704c2047b500" +
+        "e1e1db7171ed193d718e246afbd4f11c62");
+
+    private static final int[] LENGTHS = {0, 1, 15, 16, 17, 31, 32, 33, 63, 64, 65, 127, 128, 129, 1000, 65536};
+
+    private final SecureRandom random = new SecureRandom();
+    protected CryptoProvider cryptoProvider;
+
+    /**
+     * Create the provider under test.
+     */
+    @NonNull
+    protected abstract CryptoProvider createProvider() throws CryptoException;
+
+    @Before
+    public void setUpProvider() throws CryptoException {
+        this.cryptoProvider = this.createProvider();
+    }
+
+    protected byte[] randomBytes(int length) {
+        final byte[] bytes = new byte[length];
+        this.random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] sequence(int length, int start) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (start + i);
+        }
+        return bytes;
+    }
+
+    // Key generation
+
+    @Test
+    public void testScalarMultBaseVectors() throws CryptoException {
+        assertArrayEquals(ALICE_PUBLIC, this.cryptoProvider.derivePublicKey(ALICE_PRIVATE));
+        assertArrayEquals(BOB_PUBLIC, this.cryptoProvider.derivePublicKey(BOB_PRIVATE));
+    }
+
+    @Test
+    public void testGenerateKeypair() throws CryptoException {
+        final byte[] publicKey1 = new byte[CryptoProvider.PUBLICKEYBYTES];
+        final byte[] privateKey1 = new byte[CryptoProvider.PRIVATEKEYBYTES];
+        final byte[] publicKey2 = new byte[CryptoProvider.PUBLICKEYBYTES];
+        final byte[] privateKey2 = new byte[CryptoProvider.PRIVATEKEYBYTES];
+        this.cryptoProvider.generateKeypair(publicKey1, privateKey1);
+        this.cryptoProvider.generateKeypair(publicKey2, privateKey2);
+        assertArrayEquals(publicKey1, this.cryptoProvider.derivePublicKey(privateKey1));
+        assertFalse(Arrays.equals(privateKey1, privateKey2));
+        assertFalse(Arrays.equals(publicKey1, publicKey2));
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testGenerateKeypairInvalidPublicKeyBuffer() throws CryptoException {
+        this.cryptoProvider.generateKeypair(new byte[CryptoProvider.PUBLICKEYBYTES - 1], new byte[CryptoProvider.PRIVATEKEYBYTES]);
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testGenerateKeypairInvalidPrivateKeyBuffer() throws CryptoException {
+        this.cryptoProvider.generateKeypair(new byte[CryptoProvider.PUBLICKEYBYTES], new byte[CryptoProvider.PRIVATEKEYBYTES + 1]);
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testDerivePublicKeyInvalidLength() throws CryptoException {
+        this.cryptoProvider.derivePublicKey(new byte[CryptoProvider.PRIVATEKEYBYTES - 1]);
+    }
+
+    // Box
+
+    @Test
+    public void testBoxVector() throws CryptoException {
+        final byte[] nonce = sequence(CryptoProvider.NONCEBYTES, 0);
+        final CryptoInstance alice = this.cryptoProvider.getInstance(ALICE_PRIVATE, BOB_PUBLIC);
+        final CryptoInstance bob = this.cryptoProvider.getInstance(BOB_PRIVATE, ALICE_PUBLIC);
+        assertArrayEquals(BOX_HELLO, alice.encrypt("hello".getBytes(), nonce));
+        assertArrayEquals(BOX_HELLO, bob.encrypt("hello".getBytes(), nonce));
+        assertArrayEquals("hello".getBytes(), alice.decrypt(BOX_HELLO, nonce));
+        assertArrayEquals("hello".getBytes(), bob.decrypt(BOX_HELLO, nonce));
+    }
+
+    @Test
+    public void testBoxDecryptVector() throws CryptoException {
+        // Same values as in `KeyStoreTest.testDecrypt` of the client library
+        final byte[] privateKey = {98, -128, 32, -16, -93, -3, 90, -19, -62, -45, -89, -120, 0, 54, -31, -52, -88, 83, -51, -7, 84, 60, 101, 94, 33, 21, -57, 7, 51, 5, 61, 34};
+        final byte[] nonce = {110, -111, 24, -87, 127, 91, 87, -121, 119, 13, -23, 14, -88, -12, -30, -73, -88, -112, -65, -76, -73, -11, 64, 37};
+        final byte[] otherKey = {34, 81, 26, 50, -112, 8, -78, -80, 76, -66, -91, 31, 122, -98, 102, -24, -56, -40, -2, -115, -110, -23, 95, 47, 51, 25, 77, 59, 59, -11, -120, 100};
+        final byte[] encrypted = {-39, -59, 107, -111, -84, 49, 71, -67, 63, -28, -94, 40, 48, 121, 68, -40, 63, 102, 9, 90, 97};
+        final CryptoInstance instance = this.cryptoProvider.getInstance(privateKey, otherKey);
+        assertArrayEquals("hello".getBytes(), instance.decrypt(encrypted, nonce));
+    }
+
+    @Test
+    public void testBoxRoundtrip() throws CryptoException {
+        final CryptoInstance alice = this.cryptoProvider.getInstance(ALICE_PRIVATE, BOB_PUBLIC);
+        final CryptoInstance bob = this.cryptoProvider.getInstance(BOB_PRIVATE, ALICE_PUBLIC);
+        for (int length : LENGTHS) {
+            final byte[] nonce = this.randomBytes(CryptoProvider.NONCEBYTES);
+            final byte[] plaintext = this.randomBytes(length);
+            final byte[] encrypted = alice.encrypt(plaintext, nonce);
+            assertEquals(length + CryptoProvider.BOXOVERHEAD, encrypted.length);
+            assertArrayEquals("Length " + length, plaintext, bob.decrypt(encrypted, nonce));
+        }
+    }
+
+    @Test
+    public void testBoxRejectsTamperedCiphertext() throws CryptoException {
+        final byte[] nonce = sequence(CryptoProvider.NONCEBYTES, 0);
+        final CryptoInstance bob = this.cryptoProvider.getInstance(BOB_PRIVATE, ALICE_PUBLIC);
+        for (int i = 0; i < BOX_HELLO.length; i++) {
+            final byte[] tampered = BOX_HELLO.clone();
+            tampered[i] ^= 0x01;
+            try {
+                bob.decrypt(tampered, nonce);
+                fail("Tampered byte " + i + " was not detected");
+            } catch (CryptoException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testBoxRejectsWrongNonce() throws CryptoException {
+        final byte[] nonce = sequence(CryptoProvider.NONCEBYTES, 1);
+        final CryptoInstance bob = this.cryptoProvider.getInstance(BOB_PRIVATE, ALICE_PUBLIC);
+        try {
+            bob.decrypt(BOX_HELLO, nonce);
+            fail("Wrong nonce was not detected");
+        } catch (CryptoException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testBoxRejectsTruncatedCiphertext() throws CryptoException {
+        final byte[] nonce = sequence(CryptoProvider.NONCEBYTES, 0);
+        final CryptoInstance bob = this.cryptoProvider.getInstance(BOB_PRIVATE, ALICE_PUBLIC);
+        for (int length : new int[] {0, 1, CryptoProvider.BOXOVERHEAD - 1, CryptoProvider.BOXOVERHEAD}) {
+            try {
+                bob.decrypt(Arrays.copyOf(BOX_HELLO, length), nonce);
+                fail("Truncated box of length " + length + " was not rejected");
+            } catch (CryptoException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testGetInstanceInvalidPublicKeyLength() throws CryptoException {
+        this.cryptoProvider.getInstance(ALICE_PRIVATE, new byte[CryptoProvider.PUBLICKEYBYTES - 1]);
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testGetInstanceInvalidPrivateKeyLength() throws CryptoException {
+        this.cryptoProvider.getInstance(new byte[CryptoProvider.PRIVATEKEYBYTES + 1], BOB_PUBLIC);
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testGetInstanceRejectsLowOrderPoint() throws CryptoException {
+        // Results in an all-zero shared secret
+        this.cryptoProvider.getInstance(ALICE_PRIVATE, new byte[CryptoProvider.PUBLICKEYBYTES]);
+    }
+
+    @Test
+    public void testBoxInPlace() throws CryptoException {
+        final CryptoInstance alice = this.cryptoProvider.getInstance(ALICE_PRIVATE, BOB_PUBLIC);
+        final byte[] nonce = this.randomBytes(CryptoProvider.NONCEBYTES);
+        final byte[] plaintext = this.randomBytes(100);
+        final byte[] expected = alice.encrypt(plaintext, nonce);
+
+        final byte[] buffer = new byte[CryptoProvider.BOXOVERHEAD + plaintext.length];
+        System.arraycopy(plaintext, 0, buffer, CryptoProvider.BOXOVERHEAD, plaintext.length);
+        assertEquals(expected.length, alice.encrypt(
+            buffer, CryptoProvider.BOXOVERHEAD, plaintext.length, nonce, buffer, 0));
+        assertArrayEquals(expected, buffer);
+
+        assertEquals(plaintext.length, alice.decrypt(
+            buffer, 0, buffer.length, nonce, buffer, CryptoProvider.BOXOVERHEAD));
+        assertArrayEquals(plaintext, Arrays.copyOfRange(buffer, CryptoProvider.BOXOVERHEAD, buffer.length));
+    }
+
+    @Test
+    public void testBoxByteBuffers() throws CryptoException {
+        final CryptoInstance alice = this.cryptoProvider.getInstance(ALICE_PRIVATE, BOB_PUBLIC);
+        final byte[] nonce = this.randomBytes(CryptoProvider.NONCEBYTES);
+        final byte[] plaintext = this.randomBytes(100);
+        final byte[] expected = alice.encrypt(plaintext, nonce);
+
+        for (boolean direct : new boolean[] {false, true}) {
+            final ByteBuffer input = direct ? ByteBuffer.allocateDirect(plaintext.length) : ByteBuffer.allocate(plaintext.length);
+            input.put(plaintext).flip();
+            final ByteBuffer encrypted = direct ? ByteBuffer.allocateDirect(expected.length) : ByteBuffer.allocate(expected.length);
+            assertEquals(expected.length, alice.encrypt(input, nonce, encrypted));
+            assertEquals(0, input.remaining());
+            assertEquals(0, encrypted.remaining());
+            encrypted.flip();
+            final byte[] box = new byte[expected.length];
+            encrypted.duplicate().get(box);
+            assertArrayEquals(expected, box);
+
+            final ByteBuffer decrypted = direct ? ByteBuffer.allocateDirect(plaintext.length) : ByteBuffer.allocate(plaintext.length);
+            assertEquals(plaintext.length, alice.decrypt(encrypted, nonce, decrypted));
+            decrypted.flip();
+            final byte[] result = new byte[plaintext.length];
+            decrypted.get(result);
+            assertArrayEquals(plaintext, result);
+        }
+    }
+
+    // Secret box
+
+    @Test
+    public void testSecretBoxVector() throws CryptoException {
+        final byte[] key = sequence(CryptoProvider.SYMMKEYBYTES, 0);
+        final byte[] nonce = sequence(CryptoProvider.NONCEBYTES, 100);
+        assertArrayEquals(SECRETBOX_CIPHERTEXT, this.cryptoProvider.symmetricEncrypt(SECRETBOX_PLAINTEXT, key, nonce));
+        assertArrayEquals(SECRETBOX_PLAINTEXT, this.cryptoProvider.symmetricDecrypt(SECRETBOX_CIPHERTEXT, key, nonce));
+    }
+
+    @Test
+    public void testSecretBoxRoundtrip() throws CryptoException {
+        final byte[] key = this.randomBytes(CryptoProvider.SYMMKEYBYTES);
+        for (int length : LENGTHS) {
+            final byte[] nonce = this.randomBytes(CryptoProvider.NONCEBYTES);
+            final byte[] plaintext = this.randomBytes(length);
+            final byte[] encrypted = this.cryptoProvider.symmetricEncrypt(plaintext, key, nonce);
+            assertEquals(length + CryptoProvider.BOXOVERHEAD, encrypted.length);
+            assertArrayEquals("Length " + length, plaintext, this.cryptoProvider.symmetricDecrypt(encrypted, key, nonce));
+        }
+    }
+
+    @Test
+    public void testSecretBoxRejectsTamperedCiphertext() {
+        final byte[] key = sequence(CryptoProvider.SYMMKEYBYTES, 0);
+        final byte[] nonce = sequence(CryptoProvider.NONCEBYTES, 100);
+        for (int i = 0; i < SECRETBOX_CIPHERTEXT.length; i++) {
+            final byte[] tampered = SECRETBOX_CIPHERTEXT.clone();
+            tampered[i] ^= 0x80;
+            try {
+                this.cryptoProvider.symmetricDecrypt(tampered, key, nonce);
+                fail("Tampered byte " + i + " was not detected");
+            } catch (CryptoException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testSecretBoxRejectsWrongKey() {
+        final byte[] key = sequence(CryptoProvider.SYMMKEYBYTES, 1);
+        final byte[] nonce = sequence(CryptoProvider.NONCEBYTES, 100);
+        try {
+            this.cryptoProvider.symmetricDecrypt(SECRETBOX_CIPHERTEXT, key, nonce);
+            fail("Wrong key was not detected");
+        } catch (CryptoException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testSecretBoxRejectsTruncatedCiphertext() {
+        final byte[] key = sequence(CryptoProvider.SYMMKEYBYTES, 0);
+        final byte[] nonce = sequence(CryptoProvider.NONCEBYTES, 100);
+        for (int length : new int[] {0, 1, CryptoProvider.BOXOVERHEAD - 1, CryptoProvider.BOXOVERHEAD}) {
+            try {
+                this.cryptoProvider.symmetricDecrypt(Arrays.copyOf(SECRETBOX_CIPHERTEXT, length), key, nonce);
+                fail("Truncated box of length " + length + " was not rejected");
+            } catch (CryptoException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testSecretBoxInvalidKeyLength() throws CryptoException {
+        this.cryptoProvider.symmetricEncrypt(SECRETBOX_PLAINTEXT, new byte[CryptoProvider.SYMMKEYBYTES - 1], new byte[CryptoProvider.NONCEBYTES]);
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testSecretBoxInvalidNonceLength() throws CryptoException {
+        this.cryptoProvider.symmetricEncrypt(SECRETBOX_PLAINTEXT, new byte[CryptoProvider.SYMMKEYBYTES], new byte[CryptoProvider.NONCEBYTES - 1]);
+    }
+
+    @Test
+    public void testSecretBoxInPlace() throws CryptoException {
+        final byte[] key = sequence(CryptoProvider.SYMMKEYBYTES, 0);
+        final byte[] nonce = sequence(CryptoProvider.NONCEBYTES, 100);
+        final int length = SECRETBOX_PLAINTEXT.length;
+
+        final byte[] buffer = new byte[CryptoProvider.BOXOVERHEAD + length];
+        System.arraycopy(SECRETBOX_PLAINTEXT, 0, buffer, CryptoProvider.BOXOVERHEAD, length);
+        assertEquals(buffer.length, this.cryptoProvider.symmetricEncrypt(
+            buffer, CryptoProvider.BOXOVERHEAD, length, key, nonce, buffer, 0));
+        assertArrayEquals(SECRETBOX_CIPHERTEXT, buffer);
+
+        assertEquals(length, this.cryptoProvider.symmetricDecrypt(
+            buffer, 0, buffer.length, key, nonce, buffer, CryptoProvider.BOXOVERHEAD));
+        assertArrayEquals(SECRETBOX_PLAINTEXT, Arrays.copyOfRange(buffer, CryptoProvider.BOXOVERHEAD, buffer.length));
+    }
+
+    @Test
+    public void testSecretBoxByteBuffers() throws CryptoException {
+        final byte[] key = sequence(CryptoProvider.SYMMKEYBYTES, 0);
+        final byte[] nonce = sequence(CryptoProvider.NONCEBYTES, 100);
+        for (boolean direct : new boolean[] {false, true}) {
+            final ByteBuffer input = direct
+                ? ByteBuffer.allocateDirect(SECRETBOX_PLAINTEXT.length)
+                : ByteBuffer.allocate(SECRETBOX_PLAINTEXT.length);
+            input.put(SECRETBOX_PLAINTEXT).flip();
+            final ByteBuffer encrypted = direct
+                ? ByteBuffer.allocateDirect(SECRETBOX_CIPHERTEXT.length)
+                : ByteBuffer.allocate(SECRETBOX_CIPHERTEXT.length);
+            assertEquals(SECRETBOX_CIPHERTEXT.length, this.cryptoProvider.symmetricEncrypt(input, key, nonce, encrypted));
+            encrypted.flip();
+            final byte[] box = new byte[SECRETBOX_CIPHERTEXT.length];
+            encrypted.duplicate().get(box);
+            assertArrayEquals(SECRETBOX_CIPHERTEXT, box);
+
+            final ByteBuffer decrypted = ByteBuffer.allocate(SECRETBOX_PLAINTEXT.length);
+            assertEquals(SECRETBOX_PLAINTEXT.length, this.cryptoProvider.symmetricDecrypt(encrypted, key, nonce, decrypted));
+            assertArrayEquals(SECRETBOX_PLAINTEXT, decrypted.array());
+        }
+    }
+}
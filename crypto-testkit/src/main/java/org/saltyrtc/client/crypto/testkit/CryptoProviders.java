@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+package org.saltyrtc.client.crypto.testkit;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.crypto.CryptoProvider;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Discover `CryptoProvider` implementations on the classpath.
+ *
+ * Providers register themselves in
+ * `META-INF/services/org.saltyrtc.client.crypto.CryptoProvider`. Providers that cannot
+ * be instantiated (e.g. because a native library is missing) are skipped.
+ */
+public final class CryptoProviders {
+    private CryptoProviders() { }
+
+    /**
+     * Return an instance of every provider that could be loaded.
+     */
+    @NonNull
+    public static List<CryptoProvider> discover() {
+        final List<CryptoProvider> providers = new ArrayList<>();
+        final Iterator<CryptoProvider> iterator = ServiceLoader.load(CryptoProvider.class).iterator();
+        while (true) {
+            try {
+                if (!iterator.hasNext()) {
+                    break;
+                }
+                providers.add(iterator.next());
+            } catch (ServiceConfigurationError e) {
+                // Provider not usable in this environment, skip it
+            }
+        }
+        return providers;
+    }
+
+    /**
+     * Return the provider with the specified simple or fully qualified class name,
+     * or null if it could not be loaded.
+     */
+    @Nullable
+    public static CryptoProvider find(@NonNull String name) {
+        for (CryptoProvider provider : discover()) {
+            final Class<?> cls = provider.getClass();
+            if (cls.getName().equals(name) || cls.getSimpleName().equals(name)) {
+                return provider;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.saltyrtc.client.events.EventHandler;
+import org.saltyrtc.client.events.EventRegistry;
+import org.saltyrtc.client.events.SignalingStateChangedEvent;
+import org.saltyrtc.client.signaling.state.SignalingState;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registering, unregistering and notifying event handlers while other handlers are registered.
+ *
+ * The `churn` group mimics waiters that register a one-shot handler for the next state change,
+ * while another thread emits state changes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventRegistryBenchmark {
+    @Param({"0", "10", "100"})
+    public int handlers;
+
+    private final SignalingStateChangedEvent event = new SignalingStateChangedEvent(SignalingState.TASK);
+    private EventRegistry<SignalingStateChangedEvent> registry;
+
+    @Setup
+    public void setup() {
+        this.registry = new EventRegistry<>();
+        for (int i = 0; i < this.handlers; i++) {
+            this.registry.register(event -> false);
+        }
+    }
+
+    @Benchmark
+    public void notifyHandlers() {
+        this.registry.notifyHandlers(this.event);
+    }
+
+    @Benchmark
+    public void registerUnregister() {
+        final EventHandler<SignalingStateChangedEvent> handler = event -> false;
+        this.registry.register(handler);
+        this.registry.unregister(handler);
+    }
+
+    @Benchmark
+    public void registerRemoveItself() {
+        this.registry.register(event -> true);
+        this.registry.notifyHandlers(this.event);
+    }
+
+    @Benchmark
+    public void registerOnce() {
+        this.registry.registerOnce(event -> false);
+        this.registry.notifyHandlers(this.event);
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(3)
+    public void churnWaiters() {
+        this.registry.registerOnce(event -> false);
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    public void churnNotify() {
+        this.registry.notifyHandlers(this.event);
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.saltyrtc.client.SaltyRTC;
+import org.saltyrtc.client.SaltyRTCBuilder;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.crypto.CryptoProvider;
+import org.saltyrtc.client.crypto.purejava.PureJavaCryptoProvider;
+import org.saltyrtc.client.keystore.KeyStore;
+import org.saltyrtc.client.messages.c2c.TaskMessage;
+import org.saltyrtc.client.signaling.SignalingInterface;
+import org.saltyrtc.client.signaling.state.SignalingState;
+import org.saltyrtc.client.tasks.Task;
+import org.saltyrtc.client.transport.loopback.LoopbackServer;
+
+import javax.net.ssl.SSLContext;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handshakes and task messages between two peers connected through a `LoopbackServer`.
+ *
+ * No sockets are involved, so this measures the CPU cost of the protocol: serialisation,
+ * encryption and the client state machines (plus the simulated server).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoopbackBenchmark {
+    private static final String MESSAGE_TYPE = "benchmark";
+
+    @Param({"16", "1024", "16384"})
+    public int payloadSize;
+
+    private CryptoProvider cryptoProvider;
+    private SSLContext sslContext;
+    private LoopbackServer server;
+
+    // Connected peers for the message benchmark
+    private SaltyRTC initiator;
+    private SaltyRTC responder;
+    private BenchmarkTask initiatorTask;
+    private BenchmarkTask responderTask;
+    private TaskMessage message;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        this.cryptoProvider = new PureJavaCryptoProvider();
+        this.sslContext = SSLContext.getDefault();
+        this.server = new LoopbackServer(this.cryptoProvider);
+
+        this.initiatorTask = new BenchmarkTask();
+        this.responderTask = new BenchmarkTask();
+        this.initiator = this.initiator(this.initiatorTask);
+        this.responder = this.responder(this.initiator, this.responderTask);
+        this.connect(this.initiator, this.responder);
+
+        final Map<String, Object> data = new HashMap<>();
+        data.put("p", new byte[this.payloadSize]);
+        this.message = new TaskMessage(MESSAGE_TYPE, data);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.initiator.disconnect();
+        this.responder.disconnect();
+        this.server.close();
+    }
+
+    /**
+     * Server handshake and peer handshake of a new initiator and responder pair.
+     */
+    @Benchmark
+    public void handshake() throws Exception {
+        final SaltyRTC initiator = this.initiator(new BenchmarkTask());
+        final SaltyRTC responder = this.responder(initiator, new BenchmarkTask());
+        this.connect(initiator, responder);
+        initiator.disconnect();
+        responder.disconnect();
+    }
+
+    /**
+     * A task message from the initiator to the responder.
+     */
+    @Benchmark
+    public void taskMessage() throws Exception {
+        this.initiatorTask.signaling.sendTaskMessage(this.message);
+        this.responderTask.received.acquire();
+    }
+
+    /**
+     * A task message from the initiator to the responder, and one back.
+     */
+    @Benchmark
+    public void taskMessageRoundTrip() throws Exception {
+        this.initiatorTask.signaling.sendTaskMessage(this.message);
+        this.responderTask.received.acquire();
+        this.responderTask.signaling.sendTaskMessage(this.message);
+        this.initiatorTask.received.acquire();
+    }
+
+    @NonNull
+    private SaltyRTC initiator(@NonNull Task task) throws Exception {
+        return new SaltyRTCBuilder(this.cryptoProvider)
+            .connectTo("localhost", 8765, this.sslContext)
+            .withTransport(this.server)
+            .withServerKey(this.server.getPublicKey())
+            .withKeyStore(new KeyStore(this.cryptoProvider))
+            .usingTasks(new Task[]{ task })
+            .asInitiator();
+    }
+
+    @NonNull
+    private SaltyRTC responder(@NonNull SaltyRTC initiator, @NonNull Task task) throws Exception {
+        return new SaltyRTCBuilder(this.cryptoProvider)
+            .connectTo("localhost", 8765, this.sslContext)
+            .withTransport(this.server)
+            .withServerKey(this.server.getPublicKey())
+            .withKeyStore(new KeyStore(this.cryptoProvider))
+            .usingTasks(new Task[]{ task })
+            .initiatorInfo(initiator.getPublicPermanentKey(), initiator.getAuthToken())
+            .asResponder();
+    }
+
+    private void connect(@NonNull SaltyRTC initiator, @NonNull SaltyRTC responder) throws Exception {
+        final CountDownLatch done = new CountDownLatch(2);
+        for (SaltyRTC peer : new SaltyRTC[]{ initiator, responder }) {
+            peer.events.signalingStateChanged.register(event -> {
+                if (event.getState() == SignalingState.TASK) {
+                    done.countDown();
+                    return true;
+                }
+                return false;
+            });
+        }
+        initiator.connect();
+        responder.connect();
+        if (!done.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Handshake timed out");
+        }
+    }
+
+    /**
+     * A task that only counts the messages it receives.
+     */
+    private static final class BenchmarkTask implements Task {
+        @NonNull final Semaphore received = new Semaphore(0);
+        @Nullable SignalingInterface signaling;
+
+        @Override
+        public void init(SignalingInterface signaling, Map<Object, Object> data) {
+            this.signaling = signaling;
+        }
+
+        @Override
+        public void onPeerHandshakeDone() {
+            // Nothing to do
+        }
+
+        @Override
+        public void onTaskMessage(TaskMessage message) {
+            this.received.release();
+        }
+
+        @Override
+        public void sendSignalingMessage(byte[] payload) {
+            // Not used
+        }
+
+        @NonNull
+        @Override
+        public String getName() {
+            return "benchmark.tasks.saltyrtc.org";
+        }
+
+        @NonNull
+        @Override
+        public List<String> getSupportedMessageTypes() {
+            return Collections.singletonList(MESSAGE_TYPE);
+        }
+
+        @Nullable
+        @Override
+        public Map<Object, Object> getData() {
+            return null;
+        }
+
+        @Override
+        public void close(int reason) {
+            // Nothing to do
+        }
+    }
+}
@@ -18,14 +18,19 @@ import org.saltyrtc.client.exceptions.InvalidStateException;
 import org.saltyrtc.client.keystore.KeyStore;
 import org.saltyrtc.client.messages.c2c.Application;
 import org.saltyrtc.client.signaling.InitiatorSignaling;
+import org.saltyrtc.client.signaling.OutboundMetrics;
 import org.saltyrtc.client.signaling.ResponderSignaling;
+import org.saltyrtc.client.signaling.SendCallback;
 import org.saltyrtc.client.signaling.Signaling;
+import org.saltyrtc.client.signaling.SignalingOptions;
 import org.saltyrtc.client.signaling.SignalingRole;
 import org.saltyrtc.client.signaling.state.SignalingState;
 import org.saltyrtc.client.tasks.Task;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * The main class used to create a P2P connection through a SaltyRTC signaling server.
@@ -55,11 +60,12 @@ public class SaltyRTC {
              @Nullable Integer wsConnectAttemptsMax,
              @Nullable Boolean wsConnectLinearBackoff,
              @Nullable byte[] serverKey,
-             Task[] tasks, int pingInterval) {
+             Task[] tasks, int pingInterval,
+             @NonNull SignalingOptions options) {
         this.signaling = new InitiatorSignaling(
             this, host, port, sslContext, sslSocketFactory, cryptoProvider,
             wsDualStackMode, wsConnectTimeout, wsConnectAttemptsMax, wsConnectLinearBackoff,
-            permanentKey, null, serverKey, tasks, pingInterval);
+            permanentKey, null, serverKey, tasks, pingInterval, options);
     }
 
     // Internal constructor used by SaltyRTCBuilder.
@@ -73,12 +79,13 @@ public class SaltyRTC {
              @Nullable Integer wsConnectAttemptsMax,
              @Nullable Boolean wsConnectLinearBackoff,
              byte[] initiatorPublicKey, byte[] authToken,
-             @Nullable byte[] serverKey, Task[] tasks, int pingInterval)
+             @Nullable byte[] serverKey, Task[] tasks, int pingInterval,
+             @NonNull SignalingOptions options)
              throws InvalidKeyException {
         this.signaling = new ResponderSignaling(
             this, host, port, sslContext, sslSocketFactory, cryptoProvider,
             wsDualStackMode, wsConnectTimeout, wsConnectAttemptsMax, wsConnectLinearBackoff,
-            permanentKey, initiatorPublicKey, authToken, null, serverKey, tasks, pingInterval);
+            permanentKey, initiatorPublicKey, authToken, null, serverKey, tasks, pingInterval, options);
     }
 
     // Internal constructor used by SaltyRTCBuilder.
@@ -92,20 +99,20 @@ public class SaltyRTC {
              @Nullable Integer wsConnectAttemptsMax,
              @Nullable Boolean wsConnectLinearBackoff,
              byte[] peerTrustedKey, @Nullable byte[] serverKey, Task[] tasks, int pingInterval,
-             SignalingRole role)
+             SignalingRole role, @NonNull SignalingOptions options)
              throws InvalidKeyException {
         switch (role) {
             case Initiator:
                 this.signaling = new InitiatorSignaling(
                     this, host, port, sslContext, sslSocketFactory, cryptoProvider,
                     wsDualStackMode, wsConnectTimeout, wsConnectAttemptsMax, wsConnectLinearBackoff,
-                    permanentKey, peerTrustedKey, serverKey, tasks, pingInterval);
+                    permanentKey, peerTrustedKey, serverKey, tasks, pingInterval, options);
                 break;
             case Responder:
                 this.signaling = new ResponderSignaling(
                     this, host, port, sslContext, sslSocketFactory, cryptoProvider,
                     wsDualStackMode, wsConnectTimeout, wsConnectAttemptsMax, wsConnectLinearBackoff,
-                    permanentKey, null, null, peerTrustedKey, serverKey, tasks, pingInterval);
+                    permanentKey, null, null, peerTrustedKey, serverKey, tasks, pingInterval, options);
                 break;
             default:
                 throw new IllegalArgumentException("Invalid role: " + role);
@@ -131,6 +138,14 @@ public class SaltyRTC {
         return this.signaling.getState();
     }
 
+    /**
+     * Return the counters of the messages written to the server so far.
+     */
+    @NonNull
+    public OutboundMetrics getOutboundMetrics() {
+        return this.signaling.getOutboundMetrics();
+    }
+
     /**
      * Return the negotiated task, or null if no task has been negotiated yet.
      */
@@ -151,10 +166,28 @@ public class SaltyRTC {
         this.signaling.connect();
     }
 
+    /**
+     * Establish the connection to the SaltyRTC server ahead of time, so that `connect` only has
+     * to upgrade it to a WebSocket. This is a no-op if the transport does not support it (see
+     * `TransportFactory.prewarm`).
+     *
+     * Unused connections are closed after a while, so call this shortly before connecting (e.g.
+     * once the user opens the screen that will connect).
+     *
+     * @throws ConnectionException if setting up the connection fails.
+     */
+    public void prewarm() throws ConnectionException {
+        this.signaling.prewarm();
+    }
+
     /**
      * Send an application message to the peer.
      *
-     * @throws ConnectionException if sending the message fails due to connectivity issues.
+     * When the event loop is enabled (see `SaltyRTCBuilder.withEventLoop`), the message is only
+     * enqueued and connectivity issues are logged instead of thrown.
+     *
+     * @throws ConnectionException if sending the message fails due to connectivity issues, or a
+     *   `BackpressureException` if too many messages or bytes are waiting to be written.
      * @throws InvalidStateException if the SaltyRTC instance is not currently in the TASK signaling state.
      */
     public void sendApplicationMessage(Object data) throws ConnectionException, InvalidStateException {
@@ -165,12 +198,52 @@ public class SaltyRTC {
         this.signaling.sendApplication(new Application(data));
     }
 
+    /**
+     * Send an application message to the peer.
+     *
+     * The returned future completes once the message has been handed to the socket, or
+     * completes exceptionally if the message cannot be sent (e.g. with an `InvalidStateException`
+     * outside of the TASK signaling state, or with a `BackpressureException` if a limit of the
+     * outbound queue has been reached, see `SaltyRTCBuilder.withOutboundQueueLimits`).
+     * It may be completed on the WebSocket writing thread. With `BackpressureMode.BLOCK`,
+     * this method may block until there is room in the outbound queue.
+     *
+     * Note: `CompletableFuture` is only available on Android API level 24 or later.
+     */
+    public CompletableFuture<Void> sendApplicationMessageAsync(Object data) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        if (this.signaling.getState() != SignalingState.TASK) {
+            future.completeExceptionally(new InvalidStateException(
+                "Application messages can only be sent in TASK state, not in " + this.signaling.getState().name()));
+            return future;
+        }
+        try {
+            this.signaling.sendApplication(new Application(data), new SendCallback() {
+                @Override
+                public void onSent() {
+                    future.complete(null);
+                }
+
+                @Override
+                public void onFailed(@NonNull Exception e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (ConnectionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
     /**
      * Disconnect from the SaltyRTC server.
      *
      * This is a synchronous operation. The event handlers for the `SignalingStateChangedEvent`
      * will also be called synchronously with the states `CLOSING` and `CLOSED`. Therefore make sure not to call
      * this method again from within your `SignalingStateChangedEvent` event handlers, or deadlocks may occur!
+     *
+     * When the event loop is enabled (see `SaltyRTCBuilder.withEventLoop`), this only enqueues
+     * the disconnect unless called from an event handler.
      */
     public void disconnect() {
         this.signaling.disconnect();
@@ -186,6 +259,7 @@ public class SaltyRTC {
         public final EventRegistry<SignalingConnectionLostEvent> signalingConnectionLost = new EventRegistry<>();
         public final EventRegistry<PeerDisconnectedEvent> peerDisconnected = new EventRegistry<>();
         public final EventRegistry<CloseEvent> close = new EventRegistry<>();
+        public final EventRegistry<ConnectErrorEvent> connectError = new EventRegistry<>();
 
         /**
          * Deregister all event handlers.
@@ -198,6 +272,25 @@ public class SaltyRTC {
             this.signalingConnectionLost.clear();
             this.peerDisconnected.clear();
             this.close.clear();
+            this.connectError.clear();
+        }
+
+        /**
+         * Call the handlers of all events on `executor` instead of the thread emitting the event.
+         *
+         * Events of the same type are delivered in order. Events of different types may be
+         * delivered in parallel if `executor` has more than one thread.
+         *
+         * @param executor The executor, or `null` to call the handlers directly again.
+         */
+        public void setExecutor(@Nullable Executor executor) {
+            this.signalingStateChanged.setExecutor(executor);
+            this.handover.setExecutor(executor);
+            this.applicationData.setExecutor(executor);
+            this.signalingConnectionLost.setExecutor(executor);
+            this.peerDisconnected.setExecutor(executor);
+            this.close.setExecutor(executor);
+            this.connectError.setExecutor(executor);
         }
     }
 
@@ -9,16 +9,23 @@
 package org.saltyrtc.client;
 
 import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
 import org.saltyrtc.client.crypto.CryptoProvider;
 import org.saltyrtc.client.exceptions.InvalidBuilderStateException;
 import org.saltyrtc.client.exceptions.InvalidKeyException;
 import org.saltyrtc.client.helpers.HexHelper;
 import org.saltyrtc.client.keystore.KeyStore;
+import org.saltyrtc.client.retry.RetryPolicy;
+import org.saltyrtc.client.signaling.SignalingOptions;
 import org.saltyrtc.client.signaling.SignalingRole;
 import org.saltyrtc.client.tasks.Task;
+import org.saltyrtc.client.transport.TlsSessionCache;
+import org.saltyrtc.client.transport.TransportFactory;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Builder class to construct a SaltyRTC instance.
@@ -46,6 +53,45 @@ public class SaltyRTCBuilder {
         IPV6_ONLY,
     }
 
+    /**
+     * What happens to application and task messages sent while a limit of the outbound queue
+     * (see `withOutboundQueueLimits`) is reached.
+     *
+     * Messages are held back at most up to the same limits. Messages sent while as many
+     * messages or bytes are held back are rejected with a `BackpressureException` (except for
+     * application messages with `DROP_OLDEST_APPLICATION`, which make room), so the heap used
+     * by the queue stays bounded in every mode.
+     */
+    public enum BackpressureMode {
+        /**
+         * Reject the message with a `BackpressureException`.
+         */
+        REJECT,
+
+        /**
+         * Accept the message, but hold it back until enough data has been written.
+         */
+        AWAIT,
+
+        /**
+         * Block the sending thread until enough data has been written.
+         *
+         * When called from the event loop (see `withEventLoop`), from an event handler,
+         * from a send callback or from anything else run by the transport, messages are held
+         * back like with `AWAIT` instead. Waiting there would stall the connection the
+         * capacity depends on.
+         */
+        BLOCK,
+
+        /**
+         * Accept the message, but drop the oldest application messages that are held back
+         * until there is room for it. Their send callbacks fail with a `BackpressureException`.
+         * If the held back task messages alone reach a limit, the new message is rejected.
+         * Task messages are held back like with `AWAIT`.
+         */
+        DROP_OLDEST_APPLICATION,
+    }
+
     private boolean hasKeyStore = false;
     private boolean hasConnectionInfo = false;
     private boolean hasInitiatorInfo = false;
@@ -63,12 +109,30 @@ public class SaltyRTCBuilder {
     private SSLContext sslContext;
     private SSLSocketFactory sslSocketFactory;
     private SaltyRTCServerInfo serverInfo;
+    // The server of the pool resolved for the instance being built, if `serverInfo` is a pool
+    @Nullable private SaltyRTCServerPool.Server poolServer;
     private byte[] initiatorPublicKey;
     private byte[] authToken;
     private byte[] peerTrustedKey;
     private byte[] serverKey;
     private Task[] tasks;
     private int pingInterval = 0;
+    private Executor handshakeExecutor;
+    private Executor messageExecutor;
+    private Executor eventLoopExecutor;
+    private ThreadFactory threadFactory;
+    private TransportFactory transportFactory;
+    private int maxOutstandingFrames = 0;
+    private long maxOutstandingBytes = 0;
+    private BackpressureMode backpressureMode = BackpressureMode.AWAIT;
+    private long maxFlushDelay = 0;
+    private TlsSessionCache tlsSessionCache;
+    private RetryPolicy retryPolicy = RetryPolicy.IMMEDIATE;
+    private String standbyHost;
+    private int standbyPort;
+    private SSLContext standbySslContext;
+    private long serverHandshakeTimeout = 0;
+    private long peerHandshakeTimeout = 0;
 
     /**
      * Create a new SaltyRTCBuilder instance.
@@ -304,6 +368,69 @@ public class SaltyRTCBuilder {
         return this;
     }
 
+    /**
+     * Wait between connection attempts, as decided by `retryPolicy` (e.g. an
+     * `ExponentialBackoff` or `DecorrelatedJitter`). By default, failed attempts are retried
+     * right away.
+     *
+     * The delays of all instances are tracked by a single timer thread (see
+     * `TimerWheel.getShared`).
+     *
+     * @param retryPolicy The retry policy.
+     */
+    public SaltyRTCBuilder withWebSocketConnectRetryPolicy(@NonNull RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    /**
+     * Limit the time the handshakes may take. By default, they are not limited.
+     *
+     * If the server handshake does not complete in time, the connection is reset with
+     * `CloseCode.TIMEOUT`. The peer handshake time starts once both peers are connected to the
+     * server: An initiator drops responders that do not complete the handshake in time, a
+     * responder resets the connection if the initiator does not. An initiator waiting for
+     * responders to connect is not affected.
+     *
+     * The deadlines of all instances are tracked by a single timer thread (see
+     * `TimerWheel.getShared`).
+     *
+     * @param serverHandshakeTimeout Time in milliseconds, or 0 to not limit it.
+     * @param peerHandshakeTimeout Time in milliseconds, or 0 to not limit it.
+     * @throws IllegalArgumentException if a timeout is negative.
+     */
+    public SaltyRTCBuilder withHandshakeTimeouts(long serverHandshakeTimeout, long peerHandshakeTimeout) {
+        if (serverHandshakeTimeout < 0 || peerHandshakeTimeout < 0) {
+            throw new IllegalArgumentException("Handshake timeouts must not be negative");
+        }
+        this.serverHandshakeTimeout = serverHandshakeTimeout;
+        this.peerHandshakeTimeout = peerHandshakeTimeout;
+        return this;
+    }
+
+    /**
+     * Keep a connection to a standby server open while connected to the SaltyRTC server. If
+     * the server closes the connection with `CloseCode.GOING_AWAY` or the connection is lost
+     * before the task has been started, the session continues on the standby connection
+     * without waiting for DNS, TCP and TLS: The server and peer handshakes start over with the
+     * standby server. The lost server then becomes the standby server.
+     *
+     * The standby server must serve the same paths as the server (e.g. by sharing its state)
+     * and, if a server key has been set, use the same permanent key.
+     *
+     * @param host The standby server host.
+     * @param port The standby server port.
+     * @param sslContext The SSL context used to create the encrypted WebSocket connection.
+     * @throws IllegalArgumentException Thrown if the host string is invalid.
+     */
+    public SaltyRTCBuilder withStandbyServer(String host, int port, SSLContext sslContext) {
+        this.validateHost(host);
+        this.standbyHost = host;
+        this.standbyPort = port;
+        this.standbySslContext = sslContext;
+        return this;
+    }
+
     /**
      * Override the default WebSocket dual stack mode (which is to try both IPv4 and IPv6).
      *
@@ -314,6 +441,155 @@ public class SaltyRTCBuilder {
         return this;
     }
 
+    /**
+     * Decrypt handshake messages from responders and derive their keys on `executor` instead of
+     * the WebSocket thread (initiator only).
+     *
+     * Messages of each responder are still processed in order, but the handshakes of many
+     * responders may run in parallel. Use an executor with a bounded number of threads, e.g.
+     * `Executors.newFixedThreadPool(n)`. It must not reject tasks while the client is connected
+     * and is not shut down by SaltyRTC. The `CryptoProvider` must be thread safe.
+     *
+     * @param executor The executor for the handshake work.
+     */
+    public SaltyRTCBuilder withHandshakeExecutor(@NonNull Executor executor) {
+        this.handshakeExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Decrypt and decode signaling messages from the peer on `executor` instead of the WebSocket
+     * thread once the handshake is done.
+     *
+     * The WebSocket thread still validates the nonces, and messages are dispatched to the task
+     * and event handlers in the order they have been received (while holding the same lock as
+     * the WebSocket thread). The executor is not shut down by SaltyRTC, and the `CryptoProvider`
+     * must be thread safe.
+     *
+     * @param executor The executor for incoming signaling messages.
+     */
+    public SaltyRTCBuilder withMessageExecutor(@NonNull Executor executor) {
+        this.messageExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Let a single event loop running on `executor` own all signaling state.
+     *
+     * WebSocket events and calls like `connect`, `disconnect` and `sendApplicationMessage` are
+     * only enqueued (without blocking) and then processed one after another by the event loop.
+     * Therefore these calls become asynchronous: Errors are logged instead of thrown, unless
+     * the call is made from the event loop itself (e.g. from an event handler, which is always
+     * called on the event loop).
+     *
+     * Any executor can be used, at most one of its threads is used at a time. It may also be
+     * the executor passed to `withHandshakeExecutor` or `withMessageExecutor`, their tasks
+     * never wait for the event loop.
+     *
+     * @param executor The executor running the event loop.
+     */
+    public SaltyRTCBuilder withEventLoop(@NonNull Executor executor) {
+        this.eventLoopExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Create the threads that connect the WebSocket with `threadFactory`, e.g. to use virtual
+     * threads on Java 21 and later (`Thread.ofVirtual().factory()`).
+     *
+     * Note: The default transport (nv-websocket-client) always uses platform threads for
+     * reading and writing.
+     *
+     * @param threadFactory The thread factory.
+     */
+    public SaltyRTCBuilder withThreadFactory(@NonNull ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+        return this;
+    }
+
+    /**
+     * Connect to the server through transports created by `transportFactory` instead of the
+     * default nv-websocket-client based transport.
+     *
+     * @param transportFactory The transport factory.
+     */
+    public SaltyRTCBuilder withTransport(@NonNull TransportFactory transportFactory) {
+        this.transportFactory = transportFactory;
+        return this;
+    }
+
+    /**
+     * Limit the number of bytes that may wait to be written to the WebSocket.
+     *
+     * Once the limit is reached, application and task messages are either rejected or held
+     * back until enough data has been written, depending on `mode`. Use
+     * `SaltyRTC.sendApplicationMessageAsync` to learn when a message has been written.
+     *
+     * @param maxBytes A positive number of bytes. Set it to 0 for no limit.
+     * @param mode Whether to reject or hold back messages once the limit is reached.
+     */
+    public SaltyRTCBuilder withMaxOutstandingBytes(long maxBytes, @NonNull BackpressureMode mode) {
+        return this.withOutboundQueueLimits(0, maxBytes, mode);
+    }
+
+    /**
+     * Limit the number of messages and bytes that may wait to be written to the WebSocket.
+     *
+     * Once a limit is reached, application and task messages are handled according to `mode`.
+     * See `SaltyRTC.getOutboundMetrics` for the current state of the queue.
+     *
+     * @param maxFrames A positive number of messages. Set it to 0 for no limit.
+     * @param maxBytes A positive number of bytes. Set it to 0 for no limit.
+     * @param mode What happens to messages sent once a limit is reached.
+     */
+    public SaltyRTCBuilder withOutboundQueueLimits(int maxFrames, long maxBytes, @NonNull BackpressureMode mode) {
+        if (maxFrames < 0) {
+            throw new IllegalArgumentException("Maximum outstanding frames may not be negative");
+        }
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Maximum outstanding bytes may not be negative");
+        }
+        this.maxOutstandingFrames = maxFrames;
+        this.maxOutstandingBytes = maxBytes;
+        this.backpressureMode = mode;
+        return this;
+    }
+
+    /**
+     * Coalesce the messages written to the WebSocket.
+     *
+     * Messages sent while an incoming message is being handled (e.g. `client-hello` and
+     * `client-auth` in response to `server-hello`) are flushed together once it has been
+     * handled, instead of one by one. This saves TLS records and system calls. Messages sent
+     * at other times are still flushed right away. See `SaltyRTC.getOutboundMetrics` for the
+     * average number of messages per flush.
+     *
+     * @param maxDelayMs Maximum time in milliseconds a message may be held back while an
+     *   incoming message is still being handled. Set it to 0 to flush every message on its own.
+     *   Enforced by the shared timer (`TimerWheel.getShared`), i.e. rounded up to 20 ms.
+     */
+    public SaltyRTCBuilder withWriteCoalescing(long maxDelayMs) {
+        if (maxDelayMs < 0) {
+            throw new IllegalArgumentException("Maximum flush delay may not be negative");
+        }
+        this.maxFlushDelay = maxDelayMs;
+        return this;
+    }
+
+    /**
+     * Count full and resumed TLS handshakes through `tlsSessionCache`.
+     *
+     * The SSL context passed to `connectTo` is always used as is. To resume TLS sessions, pass
+     * the same context to all instances, or none to share the default context of the JVM. By
+     * default, no cache is used.
+     *
+     * @param tlsSessionCache The cache (e.g. `TlsSessionCache.getDefault()`), or `null`.
+     */
+    public SaltyRTCBuilder withTlsSessionCache(@Nullable TlsSessionCache tlsSessionCache) {
+        this.tlsSessionCache = tlsSessionCache;
+        return this;
+    }
+
     /**
      * Set initiator connection info transferred via a secure data channel.
      *
@@ -359,6 +635,16 @@ public class SaltyRTCBuilder {
      */
     private void processServerInfo(@NonNull SaltyRTCServerInfo serverInfo, byte[] publicKey) {
         final String hexPublicKey = HexHelper.asHex(publicKey);
+        if (serverInfo instanceof SaltyRTCServerPool) {
+            // Resolved once, so that host, port and SSL context belong to the same server
+            final SaltyRTCServerPool.Server server = ((SaltyRTCServerPool) serverInfo).getServer(hexPublicKey);
+            this.poolServer = server;
+            this.host = server.getHost();
+            this.port = server.getPort();
+            this.sslContext = server.getSslContext();
+            this.sslSocketFactory = null;
+            return;
+        }
         this.host = serverInfo.getHost(hexPublicKey);
         this.port = serverInfo.getPort(hexPublicKey);
         this.sslContext = serverInfo.getSSLContext(hexPublicKey);
@@ -368,6 +654,40 @@ public class SaltyRTCBuilder {
         }
     }
 
+    /**
+     * Let the SaltyRTCServerInfo instance (if any) watch a new instance.
+     */
+    @NonNull
+    private SaltyRTC watched(@NonNull SaltyRTC salty) {
+        if (this.poolServer != null) {
+            ((SaltyRTCServerPool) this.serverInfo).watch(salty, this.poolServer);
+        } else if (this.serverInfo != null) {
+            this.serverInfo.watch(salty, this.host, this.port);
+        }
+        return salty;
+    }
+
+    /**
+     * Collect the optional signaling parameters.
+     */
+    private SignalingOptions buildSignalingOptions() {
+        final SignalingOptions options = new SignalingOptions()
+            .setHandshakeExecutor(this.handshakeExecutor)
+            .setMessageExecutor(this.messageExecutor)
+            .setEventLoopExecutor(this.eventLoopExecutor)
+            .setThreadFactory(this.threadFactory)
+            .setOutboundQueueLimits(this.maxOutstandingFrames, this.maxOutstandingBytes, this.backpressureMode)
+            .setMaxFlushDelay(this.maxFlushDelay)
+            .setTlsSessionCache(this.tlsSessionCache)
+            .setRetryPolicy(this.retryPolicy)
+            .setStandbyServer(this.standbyHost, this.standbyPort, this.standbySslContext)
+            .setHandshakeTimeouts(this.serverHandshakeTimeout, this.peerHandshakeTimeout);
+        if (this.transportFactory != null) {
+            options.setTransportFactory(this.transportFactory);
+        }
+        return options;
+    }
+
     /**
      * Return a SaltyRTC instance configured as initiator.
      *
@@ -384,7 +704,7 @@ public class SaltyRTCBuilder {
         }
 
         if (this.hasTrustedPeerKey) {
-            return new SaltyRTC(
+            return this.watched(new SaltyRTC(
                 this.keyStore,
                 this.host,
                 this.port,
@@ -399,10 +719,11 @@ public class SaltyRTCBuilder {
                 this.serverKey,
                 this.tasks,
                 this.pingInterval,
-                SignalingRole.Initiator
-            );
+                SignalingRole.Initiator,
+                this.buildSignalingOptions()
+            ));
         } else {
-            return new SaltyRTC(
+            return this.watched(new SaltyRTC(
                 this.keyStore,
                 this.host,
                 this.port,
@@ -415,8 +736,9 @@ public class SaltyRTCBuilder {
                 this.wsConnectLinearBackoff,
                 this.serverKey,
                 this.tasks,
-                this.pingInterval
-            );
+                this.pingInterval,
+                this.buildSignalingOptions()
+            ));
         }
     }
 
@@ -436,7 +758,7 @@ public class SaltyRTCBuilder {
             if (this.serverInfo != null) {
                 this.processServerInfo(this.serverInfo, this.peerTrustedKey);
             }
-            return new SaltyRTC(
+            return this.watched(new SaltyRTC(
                 this.keyStore,
                 this.host,
                 this.port,
@@ -451,14 +773,15 @@ public class SaltyRTCBuilder {
                 this.serverKey,
                 this.tasks,
                 this.pingInterval,
-                SignalingRole.Responder
-            );
+                SignalingRole.Responder,
+                this.buildSignalingOptions()
+            ));
         } else {
             this.requireInitiatorInfo();
             if (this.serverInfo != null) {
                 this.processServerInfo(this.serverInfo, this.initiatorPublicKey);
             }
-            return new SaltyRTC(
+            return this.watched(new SaltyRTC(
                 this.keyStore,
                 this.host,
                 this.port,
@@ -473,8 +796,9 @@ public class SaltyRTCBuilder {
                 this.authToken,
                 this.serverKey,
                 this.tasks,
-                this.pingInterval
-            );
+                this.pingInterval,
+                this.buildSignalingOptions()
+            ));
         }
     }
 }
@@ -1,5 +1,7 @@
 package org.saltyrtc.client;
 
+import org.saltyrtc.client.annotations.NonNull;
+
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
 
@@ -31,4 +33,15 @@ public interface SaltyRTCServerInfo {
     default SSLSocketFactory getSSLSocketFactory(String initiatorPublicKey) {
         return null;
     }
+
+    /**
+     * Called by the builder with every instance that connects to a server returned by this
+     * object, e.g. to keep track of the health of the servers (see `SaltyRTCServerPool`).
+     *
+     * @param client The new instance. It has not been connected yet.
+     * @param host The host returned by `getHost` for this instance.
+     * @param port The port returned by `getPort` for this instance.
+     */
+    default void watch(@NonNull SaltyRTC client, @NonNull String host, int port) {
+    }
 }
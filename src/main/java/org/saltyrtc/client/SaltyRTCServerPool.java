@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.signaling.CloseCode;
+import org.saltyrtc.client.signaling.state.SignalingState;
+import org.slf4j.Logger;
+
+import javax.net.ssl.SSLContext;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distributes paths over a set of SaltyRTC servers by consistent hashing of the initiator's
+ * public key.
+ *
+ * Every server is placed on a hash ring many times ("virtual nodes"). A path is served by the
+ * first server on the ring after the hash of the initiator's public key. The initiator and the
+ * responder hash the same key, so both end up on the same server without any coordination.
+ * Adding a server to a pool of N servers only moves about 1/(N+1) of the paths.
+ *
+ * The pool watches the instances it has been used for (see `SaltyRTCServerInfo.watch`). A
+ * server is considered unhealthy for a while after a connection attempt to it failed (see
+ * `SaltyRTC.Events.connectError`), or after it closed a connection with
+ * `CloseCode.GOING_AWAY`. New instances are
+ * then connected to the next healthy server on the ring. Note that both peers only end up on
+ * the same server if they agree on the health of the servers, so the time a server is avoided
+ * should be short.
+ *
+ * The builder resolves the server of an instance once (see `getServer`), so that its host,
+ * port and SSL context always belong to the same server. Callers of `getHost`, `getPort` and
+ * `getSSLContext` should do the same, since every call resolves the server again.
+ */
+public class SaltyRTCServerPool implements SaltyRTCServerInfo {
+    private static final Logger LOG = org.slf4j.LoggerFactory.getLogger("SaltyRTC.ServerPool");
+
+    /**
+     * Default number of virtual nodes per server.
+     */
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    /**
+     * Default time a server is avoided after a failure, in milliseconds.
+     */
+    public static final long DEFAULT_UNHEALTHY_TIME = 30000;
+
+    /**
+     * A SaltyRTC server.
+     */
+    public static final class Server {
+        @NonNull private final String host;
+        private final int port;
+        @Nullable private final SSLContext sslContext;
+        // Nanoseconds (see `System.nanoTime`), only meaningful while `unhealthy` is set
+        private volatile long unhealthyUntil;
+        private volatile boolean unhealthy = false;
+
+        /**
+         * @param host The host name of the server.
+         * @param port The port of the server.
+         * @param sslContext The SSL context for connections to it, or null to use the default
+         *   context of the JVM.
+         */
+        public Server(@NonNull String host, int port, @Nullable SSLContext sslContext) {
+            this.host = host;
+            this.port = port;
+            this.sslContext = sslContext;
+        }
+
+        @NonNull
+        public String getHost() {
+            return this.host;
+        }
+
+        public int getPort() {
+            return this.port;
+        }
+
+        @Nullable
+        public SSLContext getSslContext() {
+            return this.sslContext;
+        }
+
+        /**
+         * Return whether the server is in use, i.e. it has not failed recently.
+         */
+        public boolean isHealthy() {
+            return !this.unhealthy || System.nanoTime() - this.unhealthyUntil >= 0;
+        }
+
+        @NonNull
+        private String getId() {
+            return this.host.toLowerCase() + ":" + this.port;
+        }
+
+        @Override
+        public String toString() {
+            return this.host + ":" + this.port;
+        }
+    }
+
+    private final int virtualNodes;
+    private final long unhealthyTime;
+    // Replaced when servers are added or removed
+    @NonNull private volatile TreeMap<Long, Server> ring = new TreeMap<>();
+    @NonNull private volatile List<Server> servers = Collections.emptyList();
+
+    /**
+     * Create a pool with the default number of virtual nodes and unhealthy time.
+     */
+    public SaltyRTCServerPool(@NonNull List<Server> servers) {
+        this(servers, DEFAULT_VIRTUAL_NODES, DEFAULT_UNHEALTHY_TIME);
+    }
+
+    /**
+     * Create a pool.
+     *
+     * @param servers The servers, at least one.
+     * @param virtualNodes Number of times each server is placed on the ring. More virtual nodes
+     *   spread the paths more evenly.
+     * @param unhealthyTime Time a server is avoided after a failure, in milliseconds.
+     */
+    public SaltyRTCServerPool(@NonNull List<Server> servers, int virtualNodes, long unhealthyTime) {
+        if (servers.isEmpty()) {
+            throw new IllegalArgumentException("At least one server is required");
+        }
+        if (virtualNodes < 1 || unhealthyTime < 0) {
+            throw new IllegalArgumentException("Invalid number of virtual nodes or unhealthy time");
+        }
+        this.virtualNodes = virtualNodes;
+        this.unhealthyTime = unhealthyTime;
+        for (Server server : servers) {
+            this.addServer(server);
+        }
+    }
+
+    /**
+     * Add a server. Paths are only moved to the new server, never between existing ones.
+     *
+     * @throws IllegalArgumentException if a server with the same host and port exists already.
+     */
+    public synchronized void addServer(@NonNull Server server) {
+        for (Server existing : this.servers) {
+            if (existing.getId().equals(server.getId())) {
+                throw new IllegalArgumentException("Server " + server + " has already been added");
+            }
+        }
+        final TreeMap<Long, Server> ring = new TreeMap<>(this.ring);
+        for (int i = 0; i < this.virtualNodes; i++) {
+            final long point = hash(server.getId() + "#" + i);
+            // Note: On the (unlikely) collision of two points, the first server keeps it
+            if (!ring.containsKey(point)) {
+                ring.put(point, server);
+            }
+        }
+        final List<Server> servers = new ArrayList<>(this.servers);
+        servers.add(server);
+        this.ring = ring;
+        this.servers = Collections.unmodifiableList(servers);
+    }
+
+    /**
+     * Remove a server. Only the paths it served are moved to other servers.
+     *
+     * @throws IllegalArgumentException if it is the last server.
+     */
+    public synchronized void removeServer(@NonNull Server server) {
+        if (!this.servers.contains(server)) {
+            return;
+        }
+        if (this.servers.size() == 1) {
+            throw new IllegalArgumentException("Cannot remove the last server");
+        }
+        final TreeMap<Long, Server> ring = new TreeMap<>(this.ring);
+        ring.values().removeAll(Collections.singleton(server));
+        final List<Server> servers = new ArrayList<>(this.servers);
+        servers.remove(server);
+        this.ring = ring;
+        this.servers = Collections.unmodifiableList(servers);
+    }
+
+    /**
+     * Return the servers in the order they have been added.
+     */
+    @NonNull
+    public List<Server> getServers() {
+        return this.servers;
+    }
+
+    /**
+     * Return the server for paths of the initiator with the public key `initiatorPublicKey`
+     * (hex encoded): The first healthy server on the ring, or the first server if none is
+     * healthy.
+     */
+    @NonNull
+    public Server getServer(@NonNull String initiatorPublicKey) {
+        final TreeMap<Long, Server> ring = this.ring;
+        final long point = hash(initiatorPublicKey.toLowerCase());
+        final int total = this.servers.size();
+        Server first = null;
+        final List<Server> seen = new ArrayList<>();
+        // Walk the ring from the point of the key, wrapping around once
+        walk:
+        for (Collection<Server> part : Arrays.<Collection<Server>>asList(
+            ring.tailMap(point, true).values(), ring.headMap(point, false).values())) {
+            for (Server server : part) {
+                if (first == null) {
+                    first = server;
+                }
+                if (server.isHealthy()) {
+                    if (server != first) {
+                        LOG.debug("Server " + first + " is unhealthy, using " + server);
+                    }
+                    return server;
+                }
+                if (!seen.contains(server)) {
+                    seen.add(server);
+                    if (seen.size() == total) {
+                        break walk;
+                    }
+                }
+            }
+        }
+        LOG.warn("No healthy server available, using " + first);
+        return first;
+    }
+
+    @Override
+    public String getHost(String initiatorPublicKey) {
+        return this.getServer(initiatorPublicKey).getHost();
+    }
+
+    @Override
+    public int getPort(String initiatorPublicKey) {
+        return this.getServer(initiatorPublicKey).getPort();
+    }
+
+    @Override
+    public SSLContext getSSLContext(String initiatorPublicKey) {
+        return this.getServer(initiatorPublicKey).getSslContext();
+    }
+
+    @Override
+    public void watch(@NonNull SaltyRTC client, @NonNull String host, int port) {
+        final Server server = this.findServer(host, port);
+        if (server == null) {
+            LOG.warn("Server " + host + ":" + port + " is not in the pool, not watching it");
+            return;
+        }
+        this.watch(client, server);
+    }
+
+    /**
+     * Track the health of `server` for `client`.
+     *
+     * The server is marked as unhealthy on the first failed connection attempt, so that
+     * instances created meanwhile use the next server instead of waiting for the retries.
+     */
+    public void watch(@NonNull SaltyRTC client, @NonNull Server server) {
+        client.events.connectError.register(event -> {
+            this.markUnhealthy(server);
+            return false;
+        });
+        client.events.signalingStateChanged.register(event -> {
+            if (event.getState() == SignalingState.SERVER_HANDSHAKE) {
+                this.markHealthy(server);
+            }
+            return false;
+        });
+        client.events.close.register(event -> {
+            if (event.getReason() == CloseCode.GOING_AWAY) {
+                this.markUnhealthy(server);
+            }
+            return false;
+        });
+    }
+
+    @Nullable
+    private Server findServer(@NonNull String host, int port) {
+        final String id = host.toLowerCase() + ":" + port;
+        for (Server server : this.servers) {
+            if (server.getId().equals(id)) {
+                return server;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Avoid `server` for the unhealthy time.
+     */
+    public void markUnhealthy(@NonNull Server server) {
+        LOG.info("Marking server " + server + " as unhealthy");
+        server.unhealthyUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.unhealthyTime);
+        server.unhealthy = true;
+    }
+
+    /**
+     * Use `server` again.
+     */
+    public void markHealthy(@NonNull Server server) {
+        server.unhealthy = false;
+    }
+
+    /**
+     * Return the first 8 bytes of the SHA-256 hash of `value`.
+     */
+    private static long hash(@NonNull String value) {
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        long hash = 0;
+        for (int i = 0; i < 8; i++) {
+            hash = (hash << 8) | (digest[i] & 0xff);
+        }
+        return hash;
+    }
+}
@@ -9,6 +9,8 @@ package org.saltyrtc.client.crypto;
 
 import org.saltyrtc.client.annotations.NonNull;
 
+import java.nio.ByteBuffer;
+
 /**
  * This object can encrypt and decrypt data using the provided public and private keys.
  */
@@ -26,4 +28,120 @@ public interface CryptoInstance {
      */
     @NonNull
     byte[] decrypt(@NonNull byte[] data, @NonNull byte[] nonce) throws CryptoException;
+
+    /**
+     * Encrypt `length` bytes of `input` (starting at `inputOffset`) using asymmetric
+     * encryption and write the resulting box to `output` (starting at `outputOffset`).
+     *
+     * The output needs room for `length + BOXOVERHEAD` bytes. Input and output may be the
+     * same array. To encrypt in-place, leave `BOXOVERHEAD` bytes of space in front of the
+     * plaintext, i.e. use `outputOffset == inputOffset - BOXOVERHEAD`.
+     *
+     * The default implementation delegates to `encrypt(byte[], byte[])` and copies the
+     * result. Implementations should override it to avoid the intermediate allocations.
+     *
+     * @return The number of bytes written to `output`.
+     */
+    default int encrypt(
+        @NonNull byte[] input, int inputOffset, int length, @NonNull byte[] nonce,
+        @NonNull byte[] output, int outputOffset
+    ) throws CryptoException {
+        final byte[] data = new byte[length];
+        System.arraycopy(input, inputOffset, data, 0, length);
+        final byte[] encrypted = this.encrypt(data, nonce);
+        System.arraycopy(encrypted, 0, output, outputOffset, encrypted.length);
+        return encrypted.length;
+    }
+
+    /**
+     * Decrypt the box of `length` bytes in `input` (starting at `inputOffset`) using
+     * asymmetric encryption and write the plaintext to `output` (starting at `outputOffset`).
+     *
+     * The output needs room for `length - BOXOVERHEAD` bytes. Input and output may be the
+     * same array. To decrypt in-place, use `outputOffset == inputOffset + BOXOVERHEAD`.
+     *
+     * The default implementation delegates to `decrypt(byte[], byte[])` and copies the
+     * result. Implementations should override it to avoid the intermediate allocations.
+     *
+     * @return The number of bytes written to `output`.
+     */
+    default int decrypt(
+        @NonNull byte[] input, int inputOffset, int length, @NonNull byte[] nonce,
+        @NonNull byte[] output, int outputOffset
+    ) throws CryptoException {
+        final byte[] data = new byte[length];
+        System.arraycopy(input, inputOffset, data, 0, length);
+        final byte[] decrypted = this.decrypt(data, nonce);
+        System.arraycopy(decrypted, 0, output, outputOffset, decrypted.length);
+        return decrypted.length;
+    }
+
+    /**
+     * Encrypt the remaining bytes of `input` using asymmetric encryption and write the
+     * resulting box to `output`. The positions of both buffers are advanced.
+     *
+     * The default implementation passes buffers that are backed by an array to the offset
+     * based variant and copies all other buffers. Implementations working on native memory
+     * should override it to avoid copying direct buffers.
+     *
+     * @return The number of bytes written to `output`.
+     */
+    default int encrypt(
+        @NonNull ByteBuffer input, @NonNull byte[] nonce, @NonNull ByteBuffer output
+    ) throws CryptoException {
+        final int length = input.remaining();
+        if (output.remaining() < length + CryptoProvider.BOXOVERHEAD) {
+            throw new CryptoException("Output buffer too small");
+        }
+        final int written;
+        if (input.hasArray() && output.hasArray()) {
+            written = this.encrypt(
+                input.array(), input.arrayOffset() + input.position(), length, nonce,
+                output.array(), output.arrayOffset() + output.position());
+        } else {
+            final byte[] data = new byte[length];
+            input.duplicate().get(data);
+            final byte[] encrypted = this.encrypt(data, nonce);
+            output.duplicate().put(encrypted);
+            written = encrypted.length;
+        }
+        input.position(input.limit());
+        output.position(output.position() + written);
+        return written;
+    }
+
+    /**
+     * Decrypt the box in the remaining bytes of `input` using asymmetric encryption and
+     * write the plaintext to `output`. The positions of both buffers are advanced.
+     *
+     * The same rules as in `encrypt(ByteBuffer, byte[], ByteBuffer)` apply.
+     *
+     * @return The number of bytes written to `output`.
+     */
+    default int decrypt(
+        @NonNull ByteBuffer input, @NonNull byte[] nonce, @NonNull ByteBuffer output
+    ) throws CryptoException {
+        final int length = input.remaining();
+        if (length < CryptoProvider.BOXOVERHEAD) {
+            throw new CryptoException("Could not decrypt data");
+        }
+        if (output.remaining() < length - CryptoProvider.BOXOVERHEAD) {
+            throw new CryptoException("Output buffer too small");
+        }
+        final int written;
+        if (input.hasArray() && output.hasArray()) {
+            written = this.decrypt(
+                input.array(), input.arrayOffset() + input.position(), length, nonce,
+                output.array(), output.arrayOffset() + output.position());
+        } else {
+            final byte[] data = new byte[length];
+            input.duplicate().get(data);
+            final byte[] decrypted = this.decrypt(data, nonce);
+            output.duplicate().put(decrypted);
+            written = decrypted.length;
+        }
+        input.position(input.limit());
+        output.position(output.position() + written);
+        return written;
+    }
 }
@@ -9,6 +9,8 @@ package org.saltyrtc.client.crypto;
 
 import org.saltyrtc.client.annotations.NonNull;
 
+import java.nio.ByteBuffer;
+
 /**
  * An abstraction over NaCl.
  */
@@ -53,6 +55,113 @@ public interface CryptoProvider {
     @NonNull
     byte[] symmetricDecrypt(@NonNull byte[] data, @NonNull byte[] key, @NonNull byte[] nonce) throws CryptoException;
 
+    /**
+     * Encrypt `length` bytes of `input` (starting at `inputOffset`) using secret key
+     * encryption and write the resulting box to `output` (starting at `outputOffset`).
+     *
+     * The same in-place rules as in `CryptoInstance#encrypt(byte[], int, int, byte[], byte[], int)`
+     * apply. The default implementation delegates to the allocating variant.
+     *
+     * @return The number of bytes written to `output`.
+     */
+    default int symmetricEncrypt(
+        @NonNull byte[] input, int inputOffset, int length, @NonNull byte[] key, @NonNull byte[] nonce,
+        @NonNull byte[] output, int outputOffset
+    ) throws CryptoException {
+        final byte[] data = new byte[length];
+        System.arraycopy(input, inputOffset, data, 0, length);
+        final byte[] encrypted = this.symmetricEncrypt(data, key, nonce);
+        System.arraycopy(encrypted, 0, output, outputOffset, encrypted.length);
+        return encrypted.length;
+    }
+
+    /**
+     * Decrypt the box of `length` bytes in `input` (starting at `inputOffset`) using secret
+     * key encryption and write the plaintext to `output` (starting at `outputOffset`).
+     *
+     * The same in-place rules as in `CryptoInstance#decrypt(byte[], int, int, byte[], byte[], int)`
+     * apply. The default implementation delegates to the allocating variant.
+     *
+     * @return The number of bytes written to `output`.
+     */
+    default int symmetricDecrypt(
+        @NonNull byte[] input, int inputOffset, int length, @NonNull byte[] key, @NonNull byte[] nonce,
+        @NonNull byte[] output, int outputOffset
+    ) throws CryptoException {
+        final byte[] data = new byte[length];
+        System.arraycopy(input, inputOffset, data, 0, length);
+        final byte[] decrypted = this.symmetricDecrypt(data, key, nonce);
+        System.arraycopy(decrypted, 0, output, outputOffset, decrypted.length);
+        return decrypted.length;
+    }
+
+    /**
+     * Encrypt the remaining bytes of `input` using secret key encryption and write the
+     * resulting box to `output`. The positions of both buffers are advanced.
+     *
+     * The same rules as in `CryptoInstance#encrypt(ByteBuffer, byte[], ByteBuffer)` apply.
+     *
+     * @return The number of bytes written to `output`.
+     */
+    default int symmetricEncrypt(
+        @NonNull ByteBuffer input, @NonNull byte[] key, @NonNull byte[] nonce, @NonNull ByteBuffer output
+    ) throws CryptoException {
+        final int length = input.remaining();
+        if (output.remaining() < length + BOXOVERHEAD) {
+            throw new CryptoException("Output buffer too small");
+        }
+        final int written;
+        if (input.hasArray() && output.hasArray()) {
+            written = this.symmetricEncrypt(
+                input.array(), input.arrayOffset() + input.position(), length, key, nonce,
+                output.array(), output.arrayOffset() + output.position());
+        } else {
+            final byte[] data = new byte[length];
+            input.duplicate().get(data);
+            final byte[] encrypted = this.symmetricEncrypt(data, key, nonce);
+            output.duplicate().put(encrypted);
+            written = encrypted.length;
+        }
+        input.position(input.limit());
+        output.position(output.position() + written);
+        return written;
+    }
+
+    /**
+     * Decrypt the box in the remaining bytes of `input` using secret key encryption and
+     * write the plaintext to `output`. The positions of both buffers are advanced.
+     *
+     * The same rules as in `CryptoInstance#encrypt(ByteBuffer, byte[], ByteBuffer)` apply.
+     *
+     * @return The number of bytes written to `output`.
+     */
+    default int symmetricDecrypt(
+        @NonNull ByteBuffer input, @NonNull byte[] key, @NonNull byte[] nonce, @NonNull ByteBuffer output
+    ) throws CryptoException {
+        final int length = input.remaining();
+        if (length < BOXOVERHEAD) {
+            throw new CryptoException("Could not decrypt data");
+        }
+        if (output.remaining() < length - BOXOVERHEAD) {
+            throw new CryptoException("Output buffer too small");
+        }
+        final int written;
+        if (input.hasArray() && output.hasArray()) {
+            written = this.symmetricDecrypt(
+                input.array(), input.arrayOffset() + input.position(), length, key, nonce,
+                output.array(), output.arrayOffset() + output.position());
+        } else {
+            final byte[] data = new byte[length];
+            input.duplicate().get(data);
+            final byte[] decrypted = this.symmetricDecrypt(data, key, nonce);
+            output.duplicate().put(decrypted);
+            written = decrypted.length;
+        }
+        input.position(input.limit());
+        output.position(output.position() + written);
+        return written;
+    }
+
     /**
      * Create a `CryptoInstance` that can encrypt and decrypt data.
      *
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.events;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+/**
+ * A connection to the server could not be established. Emitted on every failed attempt,
+ * before it is retried.
+ */
+public class ConnectErrorEvent implements Event {
+    @NonNull private final Exception error;
+
+    public ConnectErrorEvent(@NonNull Exception error) {
+        this.error = error;
+    }
+
+    @NonNull
+    public Exception getError() {
+        return this.error;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.events;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * A lock-free set of event handlers, called in registration order.
+ *
+ * The handlers are kept in a singly linked list that is only appended to at the tail. Removing a
+ * handler only marks its node as removed (found through an index), removed nodes are unlinked
+ * while dispatching or once enough of them have accumulated. Thus, adding and removing a handler
+ * never copies the list.
+ *
+ * The last node is never unlinked. Because of this, a node that has been unlinked always has a
+ * successor, so no handler can be appended to it after it has been unlinked.
+ */
+final class EventHandlerList<E extends Event> {
+    // Minimum number of removed nodes before the list is swept
+    private static final int SWEEP_THRESHOLD = 32;
+
+    private static final class Node<E extends Event> {
+        @SuppressWarnings("rawtypes")
+        static final AtomicReferenceFieldUpdater<Node, Node> NEXT =
+            AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<Node> REMOVED =
+            AtomicIntegerFieldUpdater.newUpdater(Node.class, "removed");
+
+        @Nullable final EventHandler<E> handler;
+        final boolean once;
+        @Nullable volatile Node<E> next;
+        volatile int removed;
+
+        Node(@Nullable EventHandler<E> handler, boolean once) {
+            this.handler = handler;
+            this.once = once;
+        }
+
+        boolean isRemoved() {
+            return this.removed != 0;
+        }
+
+        /**
+         * Mark the node as removed. Return whether this call did it.
+         */
+        boolean markRemoved() {
+            return REMOVED.compareAndSet(this, 0, 1);
+        }
+
+        @SuppressWarnings("unchecked")
+        boolean casNext(@Nullable Node<E> expected, @NonNull Node<E> next) {
+            return NEXT.compareAndSet(this, expected, next);
+        }
+    }
+
+    // Sentinel, never removed
+    @NonNull private final Node<E> head = new Node<>(null, false);
+    // The last node or one of its predecessors
+    @NonNull private volatile Node<E> tail = this.head;
+    // Maps each registered handler to its (not removed) node
+    @NonNull private final ConcurrentHashMap<EventHandler<E>, Node<E>> index = new ConcurrentHashMap<>();
+    // Number of nodes removed since the last sweep
+    @NonNull private final AtomicInteger removedSinceSweep = new AtomicInteger(0);
+
+    /**
+     * Add a handler unless it has already been added.
+     *
+     * @param once Remove the handler before it is called the first time.
+     */
+    void add(@NonNull EventHandler<E> handler, boolean once) {
+        final Node<E> node = new Node<>(handler, once);
+        if (this.index.putIfAbsent(handler, node) != null) {
+            return;
+        }
+        for (;;) {
+            final Node<E> last = this.tail;
+            final Node<E> next = last.next;
+            if (next != null) {
+                // Tail is lagging behind
+                this.tail = next;
+            } else if (last.casNext(null, node)) {
+                this.tail = node;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remove a handler.
+     */
+    void remove(@NonNull EventHandler<E> handler) {
+        final Node<E> node = this.index.remove(handler);
+        if (node != null && node.markRemoved()) {
+            this.onRemoved();
+        }
+    }
+
+    /**
+     * Remove all handlers.
+     */
+    void clear() {
+        for (Node<E> node = this.head.next; node != null; node = node.next) {
+            if (node.markRemoved()) {
+                this.index.remove(node.handler, node);
+            }
+        }
+        this.removedSinceSweep.set(0);
+        this.sweep();
+    }
+
+    boolean isEmpty() {
+        return this.index.isEmpty();
+    }
+
+    /**
+     * Call all handlers with `event`. Handlers returning `true` are removed.
+     *
+     * Handlers added while notifying may or may not be called.
+     */
+    void dispatch(E event) {
+        Node<E> pred = this.head;
+        Node<E> node = pred.next;
+        while (node != null) {
+            final Node<E> next = node.next;
+            if (node.isRemoved()) {
+                // Unlink, unless it is the last node
+                if (next != null) {
+                    pred.casNext(node, next);
+                }
+                node = next;
+                continue;
+            }
+            // One-shot handlers are removed before they are called, so they run at most once
+            // even if events are emitted concurrently.
+            if (node.once && !this.remove(node)) {
+                pred = node;
+                node = next;
+                continue;
+            }
+            final boolean removeHandler = node.handler.handle(event);
+            if (removeHandler && !node.once) {
+                this.remove(node);
+            }
+            pred = node;
+            node = next;
+        }
+    }
+
+    /**
+     * Remove `node` (but not a newer node of the same handler). Return whether this call did it.
+     */
+    private boolean remove(@NonNull Node<E> node) {
+        if (!node.markRemoved()) {
+            return false;
+        }
+        this.index.remove(node.handler, node);
+        this.onRemoved();
+        return true;
+    }
+
+    /**
+     * Sweep the list once the number of removed nodes exceeds the number of handlers (or the
+     * threshold). This keeps the cost of removing a handler amortized constant.
+     */
+    private void onRemoved() {
+        final int removed = this.removedSinceSweep.incrementAndGet();
+        if (removed >= SWEEP_THRESHOLD && removed >= this.index.size()) {
+            this.removedSinceSweep.set(0);
+            this.sweep();
+        }
+    }
+
+    /**
+     * Unlink all removed nodes, except the last node.
+     */
+    private void sweep() {
+        Node<E> pred = this.head;
+        Node<E> node = pred.next;
+        while (node != null) {
+            final Node<E> next = node.next;
+            if (node.isRemoved()) {
+                if (next != null) {
+                    pred.casNext(node, next);
+                }
+            } else {
+                pred = node;
+            }
+            node = next;
+        }
+    }
+}
@@ -8,21 +8,57 @@
 
 package org.saltyrtc.client.events;
 
-import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.helpers.SerialExecutor;
+
+import java.util.concurrent.Executor;
 
 /**
  * A registry for event handlers of a specific type.
+ *
+ * By default, handlers are called on the thread that emits the event. If an executor has been
+ * set, handlers are called on that executor instead, one event after another in the order the
+ * events were emitted.
  */
 public class EventRegistry<E extends Event> {
 
-    private final Set<EventHandler<E>> handlers = new CopyOnWriteArraySet<>();
+    private final EventHandlerList<E> handlers = new EventHandlerList<>();
+    @Nullable private volatile Executor executor;
+
+    /**
+     * Call the handlers on `executor` instead of the thread emitting the event.
+     *
+     * Events are still delivered in order. The executor is not shut down by SaltyRTC.
+     *
+     * @param executor The executor, or `null` to call the handlers directly again.
+     */
+    public void setExecutor(@Nullable Executor executor) {
+        this.executor = executor == null ? null : new SerialExecutor(executor);
+    }
+
+    /**
+     * Return whether at least one event handler is registered.
+     *
+     * Use this to avoid creating events nobody is interested in.
+     */
+    public boolean hasHandlers() {
+        return !this.handlers.isEmpty();
+    }
 
     /**
      * Register a new event handler.
      */
     public void register(EventHandler<E> handler) {
-        this.handlers.add(handler);
+        this.handlers.add(handler, false);
+    }
+
+    /**
+     * Register an event handler that is removed after it has been called once.
+     *
+     * The return value of the handler is ignored.
+     */
+    public void registerOnce(EventHandler<E> handler) {
+        this.handlers.add(handler, true);
     }
 
     /**
@@ -42,14 +78,16 @@ public class EventRegistry<E extends Event> {
     /**
      * Notify all handlers about the specified event.
      *
+     * If an executor has been set, this only enqueues the event.
+     *
      * @param event Event instance containing more details.
      */
-    public void notifyHandlers(E event) {
-        for (EventHandler<E> handler : this.handlers) {
-            final boolean removeHandler = handler.handle(event);
-            if (removeHandler) {
-                this.unregister(handler);
-            }
+    public void notifyHandlers(final E event) {
+        final Executor executor = this.executor;
+        if (executor != null) {
+            executor.execute(() -> this.handlers.dispatch(event));
+        } else {
+            this.handlers.dispatch(event);
         }
     }
 
@@ -0,0 +1,19 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.exceptions;
+
+/**
+ * Thrown when a message is rejected because too many bytes are waiting to be written
+ * to the connection.
+ */
+public class BackpressureException extends ConnectionException {
+    public BackpressureException(String s) {
+        super(s);
+    }
+}
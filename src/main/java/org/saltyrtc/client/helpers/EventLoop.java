@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.helpers;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.slf4j.Logger;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single-threaded event loop running on top of another executor.
+ *
+ * Any thread may enqueue tasks without blocking (the queue is lock-free). The tasks are run one
+ * after another in submission order, at most one thread drains the queue at any time. That
+ * thread is borrowed from the underlying executor only while there is work to do.
+ */
+public class EventLoop implements Executor {
+    private static final Logger LOG = org.slf4j.LoggerFactory.getLogger("SaltyRTC.EventLoop");
+
+    @NonNull private final Executor executor;
+    @NonNull private final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    // Number of tasks enqueued but not yet accounted for by the draining thread
+    @NonNull private final AtomicInteger pending = new AtomicInteger(0);
+    @NonNull private final Runnable drain = this::drain;
+
+    // The thread currently draining the queue
+    private volatile Thread thread;
+
+    public EventLoop(@NonNull Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Enqueue a task.
+     *
+     * @throws RejectedExecutionException if the underlying executor rejects running the
+     *         event loop. The task is not run then.
+     */
+    @Override
+    public void execute(@NonNull Runnable task) {
+        this.queue.offer(task);
+        if (this.pending.getAndIncrement() != 0) {
+            return;
+        }
+        try {
+            this.executor.execute(this.drain);
+        } catch (RejectedExecutionException e) {
+            // Roll back, so that the next call schedules the event loop again
+            this.queue.remove(task);
+            if (this.pending.decrementAndGet() != 0) {
+                // Tasks enqueued meanwhile rely on this call to schedule the event loop
+                this.scheduleAfterRejection();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Schedule the event loop for tasks enqueued while scheduling it has been rejected. If
+     * it is rejected again, these tasks are discarded, so that the loop doesn't get stuck.
+     */
+    private void scheduleAfterRejection() {
+        for (;;) {
+            try {
+                this.executor.execute(this.drain);
+                return;
+            } catch (RejectedExecutionException e) {
+                int discarded = 0;
+                while (this.queue.poll() != null) {
+                    discarded++;
+                }
+                LOG.error("Discarded " + discarded + " event loop tasks");
+                // Note: Tasks enqueued meanwhile are discarded by the next round
+                if (this.pending.addAndGet(-discarded) <= 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Run a task on the event loop and wait until it has completed.
+     *
+     * If called from the event loop itself, the task is run directly.
+     */
+    public void executeAndWait(@NonNull final Runnable task) throws InterruptedException {
+        if (this.inEventLoop()) {
+            task.run();
+            return;
+        }
+        final CountDownLatch done = new CountDownLatch(1);
+        this.execute(() -> {
+            try {
+                task.run();
+            } finally {
+                done.countDown();
+            }
+        });
+        done.await();
+    }
+
+    /**
+     * Return whether the calling thread is currently running the event loop.
+     */
+    public boolean inEventLoop() {
+        return this.thread == Thread.currentThread();
+    }
+
+    private void drain() {
+        int missed = 1;
+        for (;;) {
+            this.thread = Thread.currentThread();
+            Runnable task;
+            while ((task = this.queue.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOG.error("Uncaught exception in event loop task", e);
+                }
+            }
+            this.thread = null;
+
+            // Stop once all enqueued tasks have been run, another drain will be scheduled
+            // by the next call to `execute`.
+            missed = this.pending.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.helpers;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An executor that runs its tasks one after another (in submission order) on another executor.
+ *
+ * Tasks of different `SerialExecutor` instances sharing the same underlying executor may run
+ * in parallel.
+ *
+ * Once the underlying executor rejects a task (e.g. because it has been shut down), the tasks
+ * that have not run yet are discarded and so are all tasks submitted afterwards, since they
+ * could not be run in order anymore.
+ */
+public class SerialExecutor implements Executor {
+    /**
+     * Notified when the underlying executor has rejected a task.
+     */
+    public interface RejectionHandler {
+        /**
+         * Called once, after the tasks that have not run yet have been discarded. Called on the
+         * thread that submitted or completed the task preceding the rejected one.
+         */
+        void onRejected(@NonNull RejectedExecutionException e);
+    }
+
+    /**
+     * A task that may complete after it has returned, see `executeAsync`.
+     */
+    public interface AsyncTask {
+        /**
+         * Run the task. `done` must be run once the task has completed, on any thread. If
+         * this method throws, the task counts as completed.
+         */
+        void run(@NonNull Runnable done);
+    }
+
+    @NonNull private final Executor executor;
+    @Nullable private final RejectionHandler rejectionHandler;
+    @NonNull private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    @Nullable private Runnable active;
+    private boolean rejected = false;
+
+    public SerialExecutor(@NonNull Executor executor) {
+        this(executor, null);
+    }
+
+    /**
+     * Create a serial executor that reports rejected tasks to `rejectionHandler` instead of
+     * throwing a `RejectedExecutionException`.
+     */
+    public SerialExecutor(@NonNull Executor executor, @Nullable RejectionHandler rejectionHandler) {
+        this.executor = executor;
+        this.rejectionHandler = rejectionHandler;
+    }
+
+    /**
+     * Enqueue a task.
+     *
+     * @throws RejectedExecutionException if the underlying executor rejects the task (or has
+     *         rejected a previous task) and there is no rejection handler.
+     */
+    @Override
+    public void execute(@NonNull final Runnable task) {
+        this.executeAsync(done -> {
+            try {
+                task.run();
+            } finally {
+                done.run();
+            }
+        });
+    }
+
+    /**
+     * Enqueue a task that completes asynchronously. The next task is only run once the task
+     * has run its completion callback.
+     *
+     * @throws RejectedExecutionException if the underlying executor rejects the task (or has
+     *         rejected a previous task) and there is no rejection handler.
+     */
+    public void executeAsync(@NonNull final AsyncTask task) {
+        final RejectedExecutionException rejection;
+        synchronized (this) {
+            if (this.rejected) {
+                if (this.rejectionHandler == null) {
+                    throw new RejectedExecutionException("A previous task has been rejected");
+                }
+                return;
+            }
+            this.tasks.add(() -> {
+                final AtomicBoolean completed = new AtomicBoolean(false);
+                final Runnable done = () -> {
+                    if (completed.compareAndSet(false, true)) {
+                        this.onTaskCompleted();
+                    }
+                };
+                try {
+                    task.run(done);
+                } catch (RuntimeException | Error e) {
+                    done.run();
+                    throw e;
+                }
+            });
+            if (this.active != null) {
+                return;
+            }
+            rejection = this.scheduleNext();
+        }
+        if (rejection != null) {
+            this.onRejected(rejection);
+        }
+    }
+
+    /**
+     * Return whether no task is running or waiting to be run.
+     */
+    public synchronized boolean isIdle() {
+        return this.active == null && this.tasks.isEmpty();
+    }
+
+    private void onTaskCompleted() {
+        final RejectedExecutionException rejection;
+        synchronized (this) {
+            rejection = this.scheduleNext();
+        }
+        if (rejection != null) {
+            this.onRejected(rejection);
+        }
+    }
+
+    /**
+     * Hand the next task to the underlying executor.
+     *
+     * @return the exception if the task has been rejected.
+     */
+    @Nullable
+    private RejectedExecutionException scheduleNext() {
+        this.active = this.tasks.poll();
+        if (this.active != null) {
+            try {
+                this.executor.execute(this.active);
+            } catch (RejectedExecutionException e) {
+                // Don't leave the queue stuck behind a task that will never run
+                this.active = null;
+                this.tasks.clear();
+                this.rejected = true;
+                return e;
+            }
+        }
+        return null;
+    }
+
+    private void onRejected(@NonNull RejectedExecutionException e) {
+        if (this.rejectionHandler == null) {
+            throw e;
+        }
+        this.rejectionHandler.onRejected(e);
+    }
+}
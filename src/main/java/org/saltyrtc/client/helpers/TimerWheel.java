@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.helpers;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A hashed timer wheel: Runs many coarse timers (e.g. reconnect delays) on a single thread.
+ *
+ * Scheduling and cancelling are cheap and lock-free. Timers are rounded up to the next tick.
+ * The thread only ticks while timers are pending, it blocks while there are none.
+ *
+ * Tasks run on the timer thread and should hand longer work over to another executor.
+ */
+public class TimerWheel {
+    private static final Logger LOG = org.slf4j.LoggerFactory.getLogger("SaltyRTC.TimerWheel");
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    /**
+     * A scheduled task.
+     */
+    public static final class Timeout {
+        @NonNull private final TimerWheel wheel;
+        @NonNull private final Runnable task;
+        // Nanoseconds since the start of the wheel
+        private final long deadline;
+        @NonNull private final AtomicInteger state = new AtomicInteger(PENDING);
+        // Only accessed by the timer thread
+        private long remainingRounds;
+
+        private Timeout(@NonNull TimerWheel wheel, @NonNull Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel the timer. Return false if the task has already run (or is running).
+         */
+        public boolean cancel() {
+            if (this.state.compareAndSet(PENDING, CANCELLED)) {
+                this.wheel.active.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return this.state.get() == CANCELLED;
+        }
+
+        private void expire() {
+            if (!this.state.compareAndSet(PENDING, EXPIRED)) {
+                return;
+            }
+            this.wheel.active.decrementAndGet();
+            try {
+                this.task.run();
+            } catch (RuntimeException e) {
+                LOG.error("Uncaught exception in timer task", e);
+            }
+        }
+    }
+
+    /**
+     * The shared wheel, created on first use.
+     */
+    private static class Shared {
+        @NonNull static final TimerWheel INSTANCE = new TimerWheel(20, 512, runnable -> {
+            final Thread thread = new Thread(runnable, "SaltyRTC-Timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private final long tickDuration;
+    private final int mask;
+    @NonNull private final ArrayList<ArrayList<Timeout>> buckets;
+    @NonNull private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<>();
+    // Number of timers that have neither expired nor been cancelled
+    @NonNull private final AtomicInteger active = new AtomicInteger(0);
+    @NonNull private final Object idle = new Object();
+    private final long startTime = System.nanoTime();
+    private volatile boolean running = true;
+    // Only accessed by the timer thread
+    private long tick = 0;
+
+    /**
+     * Return the wheel shared by all `SaltyRTC` instances. It ticks every 20 milliseconds.
+     */
+    @NonNull
+    public static TimerWheel getShared() {
+        return Shared.INSTANCE;
+    }
+
+    /**
+     * Create a wheel and start its thread.
+     *
+     * @param tickMs Resolution of the timers in milliseconds.
+     * @param wheelSize Number of buckets, rounded up to a power of two. Timers further out than
+     *   `tickMs * wheelSize` wait for more than one revolution.
+     * @param threadFactory Creates the timer thread.
+     */
+    public TimerWheel(long tickMs, int wheelSize, @NonNull ThreadFactory threadFactory) {
+        if (tickMs < 1 || wheelSize < 1 || wheelSize > (1 << 20)) {
+            throw new IllegalArgumentException("Invalid tick duration or wheel size");
+        }
+        this.tickDuration = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.buckets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            this.buckets.add(new ArrayList<Timeout>());
+        }
+        threadFactory.newThread(this::run).start();
+    }
+
+    /**
+     * Run `task` on the timer thread after `delayMs` milliseconds.
+     *
+     * @throws RejectedExecutionException if the wheel has been shut down.
+     */
+    @NonNull
+    public Timeout schedule(@NonNull Runnable task, long delayMs) {
+        if (!this.running) {
+            throw new RejectedExecutionException("Timer wheel has been shut down");
+        }
+        final long deadline = System.nanoTime() - this.startTime + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMs));
+        final Timeout timeout = new Timeout(this, task, deadline);
+        if (this.active.getAndIncrement() == 0) {
+            this.added.add(timeout);
+            synchronized (this.idle) {
+                this.idle.notifyAll();
+            }
+        } else {
+            this.added.add(timeout);
+        }
+        return timeout;
+    }
+
+    /**
+     * Return the number of timers that have neither run nor been cancelled.
+     */
+    public int getPendingTimers() {
+        return this.active.get();
+    }
+
+    /**
+     * Stop the timer thread. Pending timers do not run.
+     */
+    public void shutdown() {
+        this.running = false;
+        synchronized (this.idle) {
+            this.idle.notifyAll();
+        }
+    }
+
+    private void run() {
+        try {
+            while (this.running) {
+                if (this.active.get() == 0) {
+                    this.awaitTimers();
+                    continue;
+                }
+                final long deadline = (this.tick + 1) * this.tickDuration;
+                long remaining;
+                while ((remaining = deadline - (System.nanoTime() - this.startTime)) > 0) {
+                    Thread.sleep(TimeUnit.NANOSECONDS.toMillis(remaining + 999_999));
+                }
+                this.transferAdded();
+                this.expire(this.buckets.get((int) (this.tick & this.mask)), deadline);
+                this.tick++;
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("Timer thread interrupted");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Block until a timer is scheduled. Cancelled timers left in the buckets are dropped.
+     */
+    private void awaitTimers() throws InterruptedException {
+        for (ArrayList<Timeout> bucket : this.buckets) {
+            bucket.clear();
+        }
+        synchronized (this.idle) {
+            while (this.running && this.active.get() == 0) {
+                this.idle.wait();
+            }
+        }
+        // Skip the ticks that have passed meanwhile, the buckets are empty
+        this.tick = Math.max(this.tick, (System.nanoTime() - this.startTime) / this.tickDuration);
+    }
+
+    /**
+     * Move newly scheduled timers to their buckets.
+     */
+    private void transferAdded() {
+        Timeout timeout;
+        while ((timeout = this.added.poll()) != null) {
+            if (timeout.state.get() != PENDING) {
+                continue;
+            }
+            final long ticks = timeout.deadline / this.tickDuration;
+            timeout.remainingRounds = (ticks - this.tick) / this.buckets.size();
+            // Note: Timers that are already due expire with the current tick
+            this.buckets.get((int) (Math.max(ticks, this.tick) & this.mask)).add(timeout);
+        }
+    }
+
+    /**
+     * Run the due timers of a bucket.
+     */
+    private void expire(@NonNull ArrayList<Timeout> bucket, long deadline) {
+        final Iterator<Timeout> iterator = bucket.iterator();
+        final ArrayList<Timeout> due = new ArrayList<>();
+        while (iterator.hasNext()) {
+            final Timeout timeout = iterator.next();
+            if (timeout.state.get() != PENDING) {
+                iterator.remove();
+            } else if (timeout.remainingRounds <= 0 && timeout.deadline <= deadline) {
+                iterator.remove();
+                due.add(timeout);
+            } else {
+                timeout.remainingRounds--;
+            }
+        }
+        // Note: Tasks may schedule new timers
+        for (Timeout timeout : due) {
+            timeout.expire();
+        }
+    }
+}
@@ -101,7 +101,7 @@ public class KeyStore {
      * @throws InvalidKeyException Thrown if the `publicKey` bytes are not a valid public key
      */
     public SharedKeyStore getSharedKeyStore(@NonNull byte[] publicKey) throws InvalidKeyException {
-        return new SharedKeyStore(this.cryptoProvider, this.privateKey, publicKey);
+        return new SharedKeyStore(this.cryptoProvider, this.publicKey, this.privateKey, publicKey);
     }
 
     public byte[] getPublicKey() {
@@ -43,16 +43,38 @@ public class SharedKeyStore {
         @NonNull byte[] localPrivateKey,
         @NonNull byte[] remotePublicKey
     ) throws InvalidKeyException {
+        this(cryptoProvider, derivePublicKey(cryptoProvider, localPrivateKey), localPrivateKey, remotePublicKey);
+    }
+
+    /**
+     * Create a new key store from an existing key pair, without deriving the public key.
+     */
+    public SharedKeyStore(
+        @NonNull CryptoProvider cryptoProvider,
+        @NonNull byte[] localPublicKey,
+        @NonNull byte[] localPrivateKey,
+        @NonNull byte[] remotePublicKey
+    ) throws InvalidKeyException {
+        this.localPublicKey = localPublicKey;
+        this.remotePublicKey = remotePublicKey;
+        LOG.debug("Precalculating shared key");
         try {
-            this.localPublicKey = cryptoProvider.derivePublicKey(localPrivateKey); // TODO: Maybe we should pass in the local pubkey
-            this.remotePublicKey = remotePublicKey;
-            LOG.debug("Precalculating shared key");
             this.cryptoInstance = cryptoProvider.getInstance(localPrivateKey, remotePublicKey);
         } catch (CryptoException e) {
             throw new InvalidKeyException(e.toString());
         }
     }
 
+    @NonNull
+    private static byte[] derivePublicKey(@NonNull CryptoProvider cryptoProvider, @NonNull byte[] privateKey)
+        throws InvalidKeyException {
+        try {
+            return cryptoProvider.derivePublicKey(privateKey);
+        } catch (CryptoException e) {
+            throw new InvalidKeyException(e.toString());
+        }
+    }
+
     /**
      * Encrypt data for the peer. Return Box.
      *
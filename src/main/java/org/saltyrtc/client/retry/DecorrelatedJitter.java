@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.retry;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks a random delay between the base delay and three times the previous delay, up to a
+ * maximum ("decorrelated jitter").
+ *
+ * Delays grow about as fast as with exponential backoff, but clients that failed at the same
+ * time drift apart with every attempt.
+ */
+public class DecorrelatedJitter implements RetryPolicy {
+    private final long baseDelay;
+    private final long maxDelay;
+
+    /**
+     * @param baseDelay Minimum delay in milliseconds.
+     * @param maxDelay Maximum delay in milliseconds.
+     */
+    public DecorrelatedJitter(long baseDelay, long maxDelay) {
+        if (baseDelay < 1 || maxDelay < baseDelay) {
+            throw new IllegalArgumentException("Base delay must be positive and not exceed the maximum delay");
+        }
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    @Override
+    public long nextDelay(int failedAttempts, long previousDelay) {
+        final long upper = Math.min(this.maxDelay, Math.max(this.baseDelay, previousDelay) * 3);
+        return Math.min(this.maxDelay, this.baseDelay + ThreadLocalRandom.current().nextLong(upper - this.baseDelay + 1));
+    }
+}
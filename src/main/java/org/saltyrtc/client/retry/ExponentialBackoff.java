@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.retry;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Doubles the delay after every failed attempt, up to a maximum.
+ *
+ * With jitter, a random delay between 0 and the exponential delay is picked ("full jitter"),
+ * so that clients that failed at the same time don't retry at the same time.
+ */
+public class ExponentialBackoff implements RetryPolicy {
+    private final long baseDelay;
+    private final long maxDelay;
+    private final boolean jitter;
+
+    /**
+     * @param baseDelay Delay after the first failed attempt in milliseconds.
+     * @param maxDelay Maximum delay in milliseconds.
+     * @param jitter Whether to randomize the delays.
+     */
+    public ExponentialBackoff(long baseDelay, long maxDelay, boolean jitter) {
+        if (baseDelay < 1 || maxDelay < baseDelay) {
+            throw new IllegalArgumentException("Base delay must be positive and not exceed the maximum delay");
+        }
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.jitter = jitter;
+    }
+
+    @Override
+    public long nextDelay(int failedAttempts, long previousDelay) {
+        final int exponent = Math.min(Math.max(failedAttempts - 1, 0), 62);
+        final long delay = this.baseDelay > (this.maxDelay >> exponent)
+            ? this.maxDelay : Math.min(this.maxDelay, this.baseDelay << exponent);
+        return this.jitter ? ThreadLocalRandom.current().nextLong(delay + 1) : delay;
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.retry;
+
+/**
+ * Decides how long to wait before retrying to connect to the SaltyRTC server.
+ *
+ * Implementations must be thread safe, a policy may be shared by many `SaltyRTC` instances.
+ */
+public interface RetryPolicy {
+    /**
+     * Retry right away. This is the default.
+     */
+    RetryPolicy IMMEDIATE = (failedAttempts, previousDelay) -> 0;
+
+    /**
+     * Return the delay before the next attempt in milliseconds.
+     *
+     * @param failedAttempts The number of attempts that have failed so far, at least 1.
+     * @param previousDelay The delay before the attempt that failed last, 0 for the first one.
+     */
+    long nextDelay(int failedAttempts, long previousDelay);
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.signaling;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.helpers.EventLoop;
+import org.saltyrtc.client.transport.TransportListener;
+
+/**
+ * Forwards the transport callbacks used by `Signaling` to the event loop.
+ *
+ * The transport threads only enqueue the events, the wrapped listener is called on the
+ * event loop.
+ */
+class EventLoopListener implements TransportListener {
+    @NonNull private final EventLoop eventLoop;
+    @NonNull private final TransportListener listener;
+
+    EventLoopListener(@NonNull EventLoop eventLoop, @NonNull TransportListener listener) {
+        this.eventLoop = eventLoop;
+        this.listener = listener;
+    }
+
+    /**
+     * Run `callback` on the event loop. Errors are passed to `handleCallbackError`, like the
+     * transport would do.
+     */
+    private void enqueue(@NonNull final Runnable callback) {
+        this.eventLoop.execute(() -> {
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                this.listener.handleCallbackError(e);
+            }
+        });
+    }
+
+    @Override
+    public void onConnected() {
+        this.enqueue(this.listener::onConnected);
+    }
+
+    @Override
+    public void onConnectError(@NonNull final Exception e) {
+        this.enqueue(() -> this.listener.onConnectError(e));
+    }
+
+    @Override
+    public void onTextMessage(@NonNull final String text) {
+        this.enqueue(() -> this.listener.onTextMessage(text));
+    }
+
+    @Override
+    public void onBinaryMessage(@NonNull final byte[] data) {
+        this.enqueue(() -> this.listener.onBinaryMessage(data));
+    }
+
+    @Override
+    public void onDisconnected(final int closeCode, @Nullable final String closeReason, final boolean closedByServer) {
+        this.enqueue(() -> this.listener.onDisconnected(closeCode, closeReason, closedByServer));
+    }
+
+    @Override
+    public void onError(@NonNull Exception e) {
+        // Only logs, no need to enqueue
+        this.listener.onError(e);
+    }
+
+    @Override
+    public void handleCallbackError(@NonNull final Throwable cause) {
+        this.enqueue(() -> this.listener.handleCallbackError(cause));
+    }
+}
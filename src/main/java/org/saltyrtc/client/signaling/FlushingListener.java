@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.signaling;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.transport.TransportListener;
+
+/**
+ * Handles each transport callback used by `Signaling` as one turn of the outbound queue, so
+ * that the messages sent in response (e.g. `client-hello` and `client-auth`) are flushed
+ * together.
+ */
+class FlushingListener implements TransportListener {
+    @NonNull private final OutboundQueue outbound;
+    @NonNull private final TransportListener listener;
+
+    FlushingListener(@NonNull OutboundQueue outbound, @NonNull TransportListener listener) {
+        this.outbound = outbound;
+        this.listener = listener;
+    }
+
+    @Override
+    public void onConnected() {
+        this.outbound.beginTurn();
+        try {
+            this.listener.onConnected();
+        } finally {
+            this.outbound.endTurn();
+        }
+    }
+
+    @Override
+    public void onConnectError(@NonNull Exception e) {
+        // Nothing can be sent
+        this.listener.onConnectError(e);
+    }
+
+    @Override
+    public void onTextMessage(@NonNull String text) {
+        this.outbound.beginTurn();
+        try {
+            this.listener.onTextMessage(text);
+        } finally {
+            this.outbound.endTurn();
+        }
+    }
+
+    @Override
+    public void onBinaryMessage(@NonNull byte[] data) {
+        this.outbound.beginTurn();
+        try {
+            this.listener.onBinaryMessage(data);
+        } finally {
+            this.outbound.endTurn();
+        }
+    }
+
+    @Override
+    public void onDisconnected(int closeCode, @Nullable String closeReason, boolean closedByServer) {
+        // Nothing can be sent
+        this.listener.onDisconnected(closeCode, closeReason, closedByServer);
+    }
+
+    @Override
+    public void onError(@NonNull Exception e) {
+        // Only logs
+        this.listener.onError(e);
+    }
+
+    @Override
+    public void handleCallbackError(@NonNull Throwable cause) {
+        this.outbound.beginTurn();
+        try {
+            this.listener.handleCallbackError(cause);
+        } finally {
+            this.outbound.endTurn();
+        }
+    }
+}
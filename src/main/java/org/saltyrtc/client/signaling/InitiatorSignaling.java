@@ -19,6 +19,7 @@ import org.saltyrtc.client.events.SignalingConnectionLostEvent;
 import org.saltyrtc.client.exceptions.*;
 import org.saltyrtc.client.helpers.HexHelper;
 import org.saltyrtc.client.helpers.MessageReader;
+import org.saltyrtc.client.helpers.SerialExecutor;
 import org.saltyrtc.client.helpers.TaskHelper;
 import org.saltyrtc.client.keystore.AuthToken;
 import org.saltyrtc.client.keystore.Box;
@@ -44,6 +45,7 @@ import javax.net.ssl.SSLSocketFactory;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 public class InitiatorSignaling extends Signaling {
 
@@ -72,9 +74,30 @@ public class InitiatorSignaling extends Signaling {
                               @Nullable byte[] expectedServerKey,
                               @NonNull Task[] tasks,
                               int pingInterval) {
+        this(saltyRTC, host, port, sslContext, sslSocketFactory, cryptoProvider,
+             wsDualStackMode, wsConnectTimeout, wsConnectAttemptsMax, wsConnectLinearBackoff,
+             permanentKey, responderTrustedKey, expectedServerKey, tasks, pingInterval,
+             new SignalingOptions());
+    }
+
+    public InitiatorSignaling(SaltyRTC saltyRTC, String host, int port,
+                              @Nullable SSLContext sslContext,
+                              @Nullable SSLSocketFactory sslSocketFactory,
+                              @NonNull CryptoProvider cryptoProvider,
+                              @NonNull SaltyRTCBuilder.DualStackMode wsDualStackMode,
+                              @Nullable Integer wsConnectTimeout,
+                              @Nullable Integer wsConnectAttemptsMax,
+                              @Nullable Boolean wsConnectLinearBackoff,
+                              @NonNull KeyStore permanentKey,
+                              @Nullable byte[] responderTrustedKey,
+                              @Nullable byte[] expectedServerKey,
+                              @NonNull Task[] tasks,
+                              int pingInterval,
+                              @NonNull SignalingOptions options) {
         super(saltyRTC, host, port, sslContext, sslSocketFactory, cryptoProvider,
               wsDualStackMode, wsConnectTimeout, wsConnectAttemptsMax, wsConnectLinearBackoff,
-              permanentKey, responderTrustedKey, expectedServerKey, SignalingRole.Initiator, tasks, pingInterval);
+              permanentKey, responderTrustedKey, expectedServerKey, SignalingRole.Initiator, tasks, pingInterval,
+              options);
         if (responderTrustedKey == null) {
             this.authToken = new AuthToken(cryptoProvider);
         }
@@ -83,16 +106,21 @@ public class InitiatorSignaling extends Signaling {
     /**
      * Handle signaling errors during peer handshake.
      */
-    synchronized void handlePeerHandshakeSignalingError(@NonNull SignalingException e, short source) {
-        // Simply drop the responder
-        Responder responder = this.responders.get(source);
-        if (responder != null) {
-            try {
-                this.dropResponder(responder.getId(), e.getCloseCode());
-            } catch (SignalingException | ConnectionException ee) {
-                ee.printStackTrace();
-                // Ignore, we're handling these errors already
+    void handlePeerHandshakeSignalingError(@NonNull SignalingException e, short source) {
+        this.lock.lock();
+        try {
+            // Simply drop the responder
+            Responder responder = this.responders.get(source);
+            if (responder != null) {
+                try {
+                    this.dropResponder(responder.getId(), e.getCloseCode());
+                } catch (SignalingException | ConnectionException ee) {
+                    ee.printStackTrace();
+                    // Ignore, we're handling these errors already
+                }
             }
+        } finally {
+            this.lock.unlock();
         }
     }
 
@@ -252,100 +280,218 @@ public class InitiatorSignaling extends Signaling {
             }
 
             // Dispatch message
-            final Message msg;
-            switch (responder.handshakeState) {
-                case NEW:
-                    if (this.hasTrustedKey()) {
-                        throw new ProtocolException(
-                            "Handshake state is NEW even though a trusted key is available");
-                    }
-
-                    // Expect token message, encrypted with authentication token.
-                    try {
-                        assert this.authToken != null;
-                        payload = this.authToken.decrypt(box);
-                    } catch (CryptoException e) {
-                        this.getLogger().warn("Could not decrypt token message");
-                        this.dropResponder(responder.getId(), CloseCode.INITIATOR_COULD_NOT_DECRYPT);
-                        return;
-                    }
-                    msg = MessageReader.read(payload);
-                    if (msg instanceof Token) {
-                        this.getLogger().debug("Received token");
-                        this.handleToken((Token) msg, responder);
-                    } else {
-                        throw new ProtocolException("Expected token message, but got " + msg.getType());
-                    }
-                    break;
-                case TOKEN_RECEIVED:
-                    // Expect key message, encrypted with our public permanent key
-                    // and responder private permanent key
-                    try {
-                        final SharedKeyStore permanentSharedKey = responder.getPermanentSharedKey();
-                        assert permanentSharedKey != null;
-                        payload = permanentSharedKey.decrypt(box);
-                    } catch (CryptoException e) {
-                        this.getLogger().warn("Could not decrypt key message");
-                        this.dropResponder(responder.getId(), CloseCode.INITIATOR_COULD_NOT_DECRYPT);
-                        return;
-                    }
-
-                    msg = MessageReader.read(payload);
-                    if (msg instanceof Key) {
-                        this.getLogger().debug("Received key");
-                        this.handleKey((Key) msg, responder);
-                        this.sendKey(responder);
-                    } else {
-                        throw new ProtocolException("Expected key message, but got " + msg.getType());
-                    }
-                    break;
-                case KEY_SENT:
-                    // Expect auth message, encrypted with our public session key
-                    // and responder private session key
-                    try {
-                        // Note: The session key related to the responder is
-                        // responder.keyStore, not this.sessionKey!
-                        final SharedKeyStore sessionSharedKey = responder.getSessionSharedKey();
-                        assert sessionSharedKey != null;
-                        payload = sessionSharedKey.decrypt(box);
-                    } catch (CryptoException e) {
-                        e.printStackTrace();
-                        throw new ProtocolException("Could not decrypt auth message");
-                    }
-
-                    msg = MessageReader.read(payload);
-                    if (msg instanceof ResponderAuth) {
-                        this.getLogger().debug("Received auth");
-                        this.handleAuth((ResponderAuth) msg, responder, nonce);
-                        this.sendAuth(responder, nonce);
-                    } else {
-                        throw new ProtocolException("Expected auth message, but got " + msg.getType());
-                    }
-
-                    // We're connected!
-                    this.responder = responder;
-
-                    // Remove responder from responders list
-                    this.responders.remove(responder.getId());
-
-                    // Drop other responders
-                    this.dropResponders();
-
-                    // Peer handshake done
-                    this.setState(SignalingState.TASK);
-                    this.getLogger().info("Peer handshake done");
-                    this.task.onPeerHandshakeDone();
-
-                    break;
-                default:
-                    throw new InternalException("Unknown or invalid responder handshake state: "
-                        + responder.handshakeState.name());
+            final Executor handshakeExecutor = this.options.getHandshakeExecutor();
+            if (handshakeExecutor != null) {
+                this.offloadResponderMessage(handshakeExecutor, responder, box, nonce);
+            } else {
+                this.onResponderMessage(responder, this.decryptResponderMessage(responder, box), nonce);
             }
         } else {
             throw new ProtocolException("Message source is neither the server nor a responder");
         }
     }
 
+    /**
+     * Decrypt and decode a handshake message from a responder and derive the shared key
+     * announced in it (if any).
+     *
+     * This does not modify any state and may therefore run on the handshake executor.
+     */
+    @NonNull
+    private HandshakeMessage decryptResponderMessage(Responder responder, Box box)
+        throws ValidationError, SerializationError, InternalException, SignalingException {
+        final ResponderHandshakeState state = responder.handshakeState;
+        final byte[] payload;
+        final Message msg;
+        switch (state) {
+            case NEW:
+                if (this.hasTrustedKey()) {
+                    throw new ProtocolException(
+                        "Handshake state is NEW even though a trusted key is available");
+                }
+
+                // Expect token message, encrypted with authentication token.
+                try {
+                    assert this.authToken != null;
+                    payload = this.authToken.decrypt(box);
+                } catch (CryptoException e) {
+                    this.getLogger().warn("Could not decrypt token message");
+                    return new HandshakeMessage(state, null, null);
+                }
+                msg = MessageReader.read(payload);
+                if (!(msg instanceof Token)) {
+                    throw new ProtocolException("Expected token message, but got " + msg.getType());
+                }
+
+                // Precalculate the permanent shared key
+                // Note: Not cached, so that a flood of responders cannot evict the cached keys
+                try {
+                    return new HandshakeMessage(state, msg,
+                        this.permanentKey.getSharedKeyStore(((Token) msg).getKey()));
+                } catch (InvalidKeyException e) {
+                    throw new ProtocolException("Responder sent invalid permanent key in token message", e);
+                }
+            case TOKEN_RECEIVED:
+                // Expect key message, encrypted with our public permanent key
+                // and responder private permanent key
+                try {
+                    final SharedKeyStore permanentSharedKey = responder.getPermanentSharedKey();
+                    assert permanentSharedKey != null;
+                    payload = permanentSharedKey.decrypt(box);
+                } catch (CryptoException e) {
+                    this.getLogger().warn("Could not decrypt key message");
+                    return new HandshakeMessage(state, null, null);
+                }
+                msg = MessageReader.read(payload);
+                if (!(msg instanceof Key)) {
+                    throw new ProtocolException("Expected key message, but got " + msg.getType());
+                }
+
+                // Generate our session key and precalculate the session shared key
+                try {
+                    return new HandshakeMessage(state, msg,
+                        new KeyStore(this.cryptoProvider).getSharedKeyStore(((Key) msg).getKey()));
+                } catch (InvalidKeyException e) {
+                    throw new ProtocolException("Responder sent invalid session key in key message", e);
+                }
+            case KEY_SENT:
+                // Expect auth message, encrypted with our public session key
+                // and responder private session key
+                try {
+                    // Note: The session key related to the responder is
+                    // responder.keyStore, not this.sessionKey!
+                    final SharedKeyStore sessionSharedKey = responder.getSessionSharedKey();
+                    assert sessionSharedKey != null;
+                    payload = sessionSharedKey.decrypt(box);
+                } catch (CryptoException e) {
+                    e.printStackTrace();
+                    throw new ProtocolException("Could not decrypt auth message");
+                }
+                msg = MessageReader.read(payload);
+                if (!(msg instanceof ResponderAuth)) {
+                    throw new ProtocolException("Expected auth message, but got " + msg.getType());
+                }
+                return new HandshakeMessage(state, msg, null);
+            default:
+                throw new InternalException("Unknown or invalid responder handshake state: "
+                    + state.name());
+        }
+    }
+
+    /**
+     * Process a decrypted handshake message from a responder.
+     */
+    private void onResponderMessage(Responder responder, HandshakeMessage message, SignalingChannelNonce nonce)
+        throws ValidationError, SerializationError, InternalException, ConnectionException, SignalingException {
+        if (responder.handshakeState != message.state) {
+            throw new InternalException("Responder handshake state changed from " + message.state.name() +
+                " to " + responder.handshakeState.name() + " while decrypting");
+        }
+
+        // Drop responders that sent something we could not decrypt
+        if (message.msg == null) {
+            this.dropResponder(responder.getId(), CloseCode.INITIATOR_COULD_NOT_DECRYPT);
+            return;
+        }
+
+        switch (message.state) {
+            case NEW:
+                this.getLogger().debug("Received token");
+                assert message.sharedKey != null;
+                this.handleToken(message.sharedKey, responder);
+                break;
+            case TOKEN_RECEIVED:
+                this.getLogger().debug("Received key");
+                assert message.sharedKey != null;
+                this.handleKey(message.sharedKey, responder);
+                this.sendKey(responder);
+                break;
+            case KEY_SENT:
+                this.getLogger().debug("Received auth");
+                this.handleAuth((ResponderAuth) message.msg, responder, nonce);
+                this.sendAuth(responder, nonce);
+
+                // We're connected!
+                this.responder = responder;
+
+                // Remove responder from responders list
+                this.responders.remove(responder.getId());
+
+                // Drop other responders
+                this.dropResponders();
+
+                // Peer handshake done
+                this.setState(SignalingState.TASK);
+                this.getLogger().info("Peer handshake done");
+                this.task.onPeerHandshakeDone();
+
+                break;
+            default:
+                throw new InternalException("Unknown or invalid responder handshake state: "
+                    + message.state.name());
+        }
+    }
+
+    /**
+     * Decrypt a handshake message from a responder on the handshake executor and process it
+     * afterwards.
+     *
+     * Messages from the same responder are handled one after another, so they are processed in
+     * the order they have been received. Messages from different responders are decrypted in
+     * parallel.
+     *
+     * If the executor rejects a task, the responder is dropped: Its handshake cannot continue
+     * without the message.
+     */
+    private void offloadResponderMessage(@NonNull Executor executor, @NonNull final Responder responder,
+                                         @NonNull final Box box, @NonNull final SignalingChannelNonce nonce) {
+        final SerialExecutor.RejectionHandler onRejected = e -> this.runLocked(() -> {
+            this.getLogger().error("Handshake executor rejected a task of responder " + responder.getId());
+            this.tryDropResponder(responder, CloseCode.INTERNAL_ERROR);
+        });
+        responder.getHandshakeExecutor(executor, onRejected).executeAsync(done -> {
+            HandshakeMessage decrypted = null;
+            Exception error = null;
+            try {
+                decrypted = this.decryptResponderMessage(responder, box);
+            } catch (ValidationError | SerializationError | InternalException | SignalingException e) {
+                error = e;
+            }
+            final HandshakeMessage message = decrypted;
+            final Exception decryptError = error;
+            this.runWithMessageLock(() -> {
+                // The responder may have been dropped in the meantime
+                if (this.getState() != SignalingState.PEER_HANDSHAKE
+                    || this.responders.get(responder.getId()) != responder) {
+                    this.getLogger().debug("Ignoring message from dropped responder " + responder.getId());
+                    return;
+                }
+                if (decryptError != null) {
+                    rethrow(decryptError);
+                }
+                assert message != null;
+                this.onResponderMessage(responder, message, nonce);
+            }, nonce, done);
+        });
+    }
+
+    /**
+     * Rethrow an exception caught by `offloadResponderMessage`.
+     */
+    private static void rethrow(@NonNull Exception e)
+        throws ValidationError, SerializationError, InternalException, SignalingException {
+        if (e instanceof ValidationError) {
+            throw (ValidationError) e;
+        } else if (e instanceof SerializationError) {
+            throw (SerializationError) e;
+        } else if (e instanceof SignalingException) {
+            throw (SignalingException) e;
+        } else if (e instanceof InternalException) {
+            throw (InternalException) e;
+        }
+        throw new InternalException(e);
+    }
+
     /**
      * Drop a new responder after a handshake with one responder has already
      * completed.
@@ -405,7 +551,7 @@ public class InitiatorSignaling extends Signaling {
             // Set the public permanent key.
             assert this.peerTrustedKey != null; // Handled by this.hasTrustedKey()
             try {
-                responder.setPermanentSharedKey(this.peerTrustedKey, this.permanentKey);
+                responder.setPermanentSharedKey(this.getPermanentSharedKey(this.peerTrustedKey));
             } catch (InvalidKeyException e) {
                 throw new SignalingException(CloseCode.INTERNAL_ERROR, "Invalid peer trusted key");
             }
@@ -414,12 +560,52 @@ public class InitiatorSignaling extends Signaling {
         // Store responder
         this.responders.put(responderId, responder);
 
+        // Release its slot if the handshake does not complete in time
+        final long timeout = this.options.getPeerHandshakeTimeout();
+        if (timeout > 0) {
+            this.schedule(timeout, () -> this.onPeerHandshakeTimeout(responder));
+        }
+
         // If we almost reached the limit (254 - 2), drop the oldest responder that hasn't sent any valid data so far.
         if (this.responders.size() > 252) {
             this.dropOldestInactiveResponder();
         }
     }
 
+    /**
+     * The time for the handshake with `responder` has passed.
+     */
+    private void onPeerHandshakeTimeout(@NonNull Responder responder) {
+        // Completed, dropped or replaced meanwhile
+        final SignalingState state = this.getState();
+        if (this.responders.get(responder.getId()) != responder ||
+                (state != SignalingState.SERVER_HANDSHAKE && state != SignalingState.PEER_HANDSHAKE)) {
+            return;
+        }
+        this.getLogger().info("Dropping responder " + responder.getId() + ", handshake not completed within " +
+            this.options.getPeerHandshakeTimeout() + " ms (state " + responder.handshakeState + ")");
+        this.tryDropResponder(responder, CloseCode.DROPPED_BY_INITIATOR);
+    }
+
+    /**
+     * Drop `responder` if it is still in the handshake. If the drop-responder message cannot
+     * be sent, the responder is forgotten anyway.
+     */
+    private void tryDropResponder(@NonNull Responder responder, int reason) {
+        // Completed, dropped or replaced meanwhile
+        final SignalingState state = this.getState();
+        if (this.responders.get(responder.getId()) != responder ||
+                (state != SignalingState.SERVER_HANDSHAKE && state != SignalingState.PEER_HANDSHAKE)) {
+            return;
+        }
+        try {
+            this.dropResponder(responder.getId(), reason);
+        } catch (SignalingException | ConnectionException e) {
+            this.getLogger().warn("Could not drop responder " + responder.getId() + ": " + e.getMessage());
+            this.responders.remove(responder.getId());
+        }
+    }
+
     /**
      * Drop the oldest inactive responder.
      */
@@ -443,24 +629,16 @@ public class InitiatorSignaling extends Signaling {
     /**
      * A responder sends his public permanent key.
      */
-    private void handleToken(Token msg, Responder responder) throws ProtocolException {
-        try {
-            responder.setPermanentSharedKey(msg.getKey(), this.permanentKey);
-        } catch (InvalidKeyException e) {
-            throw new ProtocolException("Responder sent invalid permanent key in token message", e);
-        }
+    private void handleToken(SharedKeyStore permanentSharedKey, Responder responder) {
+        responder.setPermanentSharedKey(permanentSharedKey);
         responder.handshakeState = ResponderHandshakeState.TOKEN_RECEIVED;
     }
 
     /**
      * A responder sends his public session key.
      */
-    private void handleKey(Key msg, Responder responder) throws ProtocolException {
-        try {
-            responder.setSessionSharedKey(msg.getKey(), new KeyStore(this.cryptoProvider));
-        } catch (InvalidKeyException e) {
-            throw new ProtocolException("Responder sent invalid session key in key message", e);
-        }
+    private void handleKey(SharedKeyStore sessionSharedKey, Responder responder) {
+        responder.setSessionSharedKey(sessionSharedKey);
         responder.handshakeState = ResponderHandshakeState.KEY_RECEIVED;
     }
 
@@ -549,35 +727,46 @@ public class InitiatorSignaling extends Signaling {
     }
 
     @Override
-    synchronized void handleSendError(short receiver) throws SignalingException {
-        // Validate receiver byte
-        if (!this.isResponderId(receiver)) {
-            throw new ProtocolException("Outgoing c2c messages must have been sent to a responder");
-        }
+    void resetPeers() {
+        // Note: The responders are not dropped, they have lost the connection to the server as well
+        this.responders.clear();
+    }
 
-        boolean notify = false;
-        if (this.responder == null) { // We're not yet authenticated
-            // Get responder
-            final Responder responder = this.responders.get(receiver);
-            if (responder == null) {
-                this.getLogger().warn("Got send-error message for unknown responder " + receiver);
-            } else {
-                notify = true;
-                // Drop information about responder
-                this.responders.remove(receiver);
+    @Override
+    void handleSendError(short receiver) throws SignalingException {
+        this.lock.lock();
+        try {
+            // Validate receiver byte
+            if (!this.isResponderId(receiver)) {
+                throw new ProtocolException("Outgoing c2c messages must have been sent to a responder");
             }
-        } else { // We're authenticated
-            if (this.responder.getId() == receiver) {
-                notify = true;
-                this.resetConnection(CloseCode.PROTOCOL_ERROR);
-            } else {
-                this.getLogger().warn("Got send-error message for unknown responder " + receiver);
+
+            boolean notify = false;
+            if (this.responder == null) { // We're not yet authenticated
+                // Get responder
+                final Responder responder = this.responders.get(receiver);
+                if (responder == null) {
+                    this.getLogger().warn("Got send-error message for unknown responder " + receiver);
+                } else {
+                    notify = true;
+                    // Drop information about responder
+                    this.responders.remove(receiver);
+                }
+            } else { // We're authenticated
+                if (this.responder.getId() == receiver) {
+                    notify = true;
+                    this.resetConnection(CloseCode.PROTOCOL_ERROR);
+                } else {
+                    this.getLogger().warn("Got send-error message for unknown responder " + receiver);
+                }
             }
-        }
 
-        // Notify user application if relevant
-        if (notify) {
-            this.salty.events.signalingConnectionLost.notifyHandlers(new SignalingConnectionLostEvent(receiver));
+            // Notify user application if relevant
+            if (notify && this.salty.events.signalingConnectionLost.hasHandlers()) {
+                this.salty.events.signalingConnectionLost.notifyHandlers(new SignalingConnectionLostEvent(receiver));
+            }
+        } finally {
+            this.lock.unlock();
         }
     }
 
@@ -614,4 +803,23 @@ public class InitiatorSignaling extends Signaling {
         }
     }
 
+    /**
+     * A decrypted handshake message along with the key material derived from it.
+     */
+    private static class HandshakeMessage {
+        // Handshake state of the responder when the message has been decrypted
+        @NonNull final ResponderHandshakeState state;
+        // Decrypted message, or `null` if the message could not be decrypted
+        @Nullable final Message msg;
+        // Precalculated permanent (token) or session (key) shared key
+        @Nullable final SharedKeyStore sharedKey;
+
+        HandshakeMessage(@NonNull ResponderHandshakeState state, @Nullable Message msg,
+                         @Nullable SharedKeyStore sharedKey) {
+            this.state = state;
+            this.msg = msg;
+            this.sharedKey = sharedKey;
+        }
+    }
+
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.signaling;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.transport.TransportListener;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Calls the transport callbacks used by `Signaling` while holding a lock.
+ *
+ * A `ReentrantLock` is used instead of a monitor, so that virtual threads waiting for the lock
+ * (or blocking while holding it) are not pinned to their carrier thread.
+ */
+class LockingListener implements TransportListener {
+    @NonNull private final ReentrantLock lock;
+    @NonNull private final TransportListener listener;
+
+    LockingListener(@NonNull ReentrantLock lock, @NonNull TransportListener listener) {
+        this.lock = lock;
+        this.listener = listener;
+    }
+
+    @Override
+    public void onConnected() {
+        this.lock.lock();
+        try {
+            this.listener.onConnected();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void onConnectError(@NonNull Exception e) {
+        this.lock.lock();
+        try {
+            this.listener.onConnectError(e);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void onTextMessage(@NonNull String text) {
+        this.lock.lock();
+        try {
+            this.listener.onTextMessage(text);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void onBinaryMessage(@NonNull byte[] data) {
+        this.lock.lock();
+        try {
+            this.listener.onBinaryMessage(data);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void onDisconnected(int closeCode, @Nullable String closeReason, boolean closedByServer) {
+        this.lock.lock();
+        try {
+            this.listener.onDisconnected(closeCode, closeReason, closedByServer);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void onError(@NonNull Exception e) {
+        // Only logs, no need to lock
+        this.listener.onError(e);
+    }
+
+    @Override
+    public void handleCallbackError(@NonNull Throwable cause) {
+        this.lock.lock();
+        try {
+            this.listener.handleCallbackError(cause);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.signaling;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The counters behind `OutboundMetrics`. Shared by the outbound queues of all connections
+ * of a signaling instance.
+ */
+class OutboundCounters {
+    @NonNull private final AtomicLong flushes = new AtomicLong(0);
+    @NonNull private final AtomicLong flushedFrames = new AtomicLong(0);
+    @NonNull private final AtomicLong droppedFrames = new AtomicLong(0);
+    @NonNull private final AtomicLong rejectedFrames = new AtomicLong(0);
+
+    void onFlush(int frames) {
+        this.flushes.incrementAndGet();
+        this.flushedFrames.addAndGet(frames);
+    }
+
+    void onDropped() {
+        this.droppedFrames.incrementAndGet();
+    }
+
+    void onRejected() {
+        this.rejectedFrames.incrementAndGet();
+    }
+
+    /**
+     * Return the metrics, combined with the current state of the outbound queue.
+     */
+    @NonNull
+    OutboundMetrics snapshot(int queuedFrames, long queuedBytes, long oldestFrameAge) {
+        return new OutboundMetrics(this.flushes.get(), this.flushedFrames.get(),
+            queuedFrames, queuedBytes, oldestFrameAge, this.droppedFrames.get(), this.rejectedFrames.get());
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.signaling;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+/**
+ * A snapshot of the messages written to the server.
+ *
+ * The counters are accumulated across all connections of a `SaltyRTC` instance, the queue
+ * state refers to the current connection.
+ */
+public class OutboundMetrics {
+    private final long flushes;
+    private final long flushedFrames;
+    private final int queuedFrames;
+    private final long queuedBytes;
+    private final long oldestFrameAge;
+    private final long droppedFrames;
+    private final long rejectedFrames;
+
+    OutboundMetrics(long flushes, long flushedFrames, int queuedFrames, long queuedBytes, long oldestFrameAge,
+                    long droppedFrames, long rejectedFrames) {
+        this.flushes = flushes;
+        this.flushedFrames = flushedFrames;
+        this.queuedFrames = queuedFrames;
+        this.queuedBytes = queuedBytes;
+        this.oldestFrameAge = oldestFrameAge;
+        this.droppedFrames = droppedFrames;
+        this.rejectedFrames = rejectedFrames;
+    }
+
+    /**
+     * Return the number of times messages have been flushed to the transport.
+     *
+     * Without write coalescing, every message is flushed on its own.
+     */
+    public long getFlushes() {
+        return this.flushes;
+    }
+
+    /**
+     * Return the number of messages that have been flushed.
+     */
+    public long getFlushedFrames() {
+        return this.flushedFrames;
+    }
+
+    /**
+     * Return the average number of messages written per flush, or 0 if nothing has been
+     * flushed yet.
+     */
+    public double getAverageFramesPerFlush() {
+        return this.flushes == 0 ? 0 : (double) this.flushedFrames / this.flushes;
+    }
+
+    /**
+     * Return the number of messages that have not been written to the socket yet
+     * (including messages held back because a limit has been reached).
+     */
+    public int getQueuedFrames() {
+        return this.queuedFrames;
+    }
+
+    /**
+     * Return the size in bytes of the messages that have not been written to the socket yet.
+     */
+    public long getQueuedBytes() {
+        return this.queuedBytes;
+    }
+
+    /**
+     * Return how long the oldest message that has not been written yet has been waiting,
+     * in milliseconds, or 0 if there is no such message.
+     */
+    public long getOldestFrameAge() {
+        return this.oldestFrameAge;
+    }
+
+    /**
+     * Return the number of held back application messages that have been dropped
+     * (see `BackpressureMode.DROP_OLDEST_APPLICATION`).
+     */
+    public long getDroppedFrames() {
+        return this.droppedFrames;
+    }
+
+    /**
+     * Return the number of messages that have been rejected with a `BackpressureException`
+     * (see `BackpressureMode.REJECT`).
+     */
+    public long getRejectedFrames() {
+        return this.rejectedFrames;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "OutboundMetrics{" +
+            "flushes=" + this.flushes +
+            ", flushedFrames=" + this.flushedFrames +
+            ", queuedFrames=" + this.queuedFrames +
+            ", queuedBytes=" + this.queuedBytes +
+            ", oldestFrameAge=" + this.oldestFrameAge +
+            ", droppedFrames=" + this.droppedFrames +
+            ", rejectedFrames=" + this.rejectedFrames +
+            "}";
+    }
+}
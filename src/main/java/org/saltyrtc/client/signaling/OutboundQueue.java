@@ -0,0 +1,497 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.signaling;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.exceptions.BackpressureException;
+import org.saltyrtc.client.exceptions.ConnectionException;
+import org.saltyrtc.client.helpers.TimerWheel;
+import org.saltyrtc.client.transport.Transport;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps track of the messages handed to a transport until they have been written to the socket.
+ *
+ * If limits are set, messages are held back (in order) while the number of frames or bytes
+ * handed to the transport is at or above a limit. Whether a message may be added once the
+ * limits have been reached is decided by the caller (see `isFull`, `isBacklogFull` and
+ * `awaitCapacity`), except for droppable messages: They replace the oldest held back
+ * droppable messages, so that no more than the limits are held back.
+ *
+ * If write coalescing is enabled, messages sent during a turn (see `beginTurn`) are only
+ * flushed once the turn has ended, or once the maximum flush delay has passed. Messages sent
+ * outside of a turn are flushed right away.
+ *
+ * Messages are handed to the transport and flushed without holding the lock, by one thread at
+ * a time (see `runTransportOps`), so that transports completing messages synchronously don't
+ * run completion callbacks under the lock.
+ *
+ * The completion callbacks are called by the transport, independently from the signaling
+ * listener. Waiting for capacity from such a callback would never end (see `isInCallback`).
+ */
+class OutboundQueue {
+    // Number of transport callbacks of any queue the current thread is running
+    @NonNull private static final ThreadLocal<int[]> CALLBACK_DEPTH = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    private class Entry implements SendCallback {
+        @NonNull final Transport transport;
+        @NonNull final byte[] payload;
+        @Nullable final SendCallback callback;
+        // Whether the message may be dropped while it is held back
+        final boolean droppable;
+        final long enqueuedAt = System.nanoTime();
+
+        Entry(@NonNull Transport transport, @NonNull byte[] payload, @Nullable SendCallback callback,
+              boolean droppable) {
+            this.transport = transport;
+            this.payload = payload;
+            this.callback = callback;
+            this.droppable = droppable;
+        }
+
+        @Override
+        public void onSent() {
+            final int[] depth = CALLBACK_DEPTH.get();
+            depth[0]++;
+            try {
+                OutboundQueue.this.onSent(this);
+            } finally {
+                depth[0]--;
+            }
+        }
+
+        @Override
+        public void onFailed(@NonNull Exception e) {
+            final int[] depth = CALLBACK_DEPTH.get();
+            depth[0]++;
+            try {
+                // Messages are only left unsent when the connection is being closed
+                OutboundQueue.this.close();
+            } finally {
+                depth[0]--;
+            }
+        }
+    }
+
+    private final int maxFrames;
+    private final long maxBytes;
+    // Whether held back droppable messages are dropped to make room for a new one
+    private final boolean dropOldest;
+    // Maximum time in milliseconds messages sent during a turn may be held back, or 0 to
+    // flush every message on its own
+    private final long maxFlushDelay;
+    @NonNull private final OutboundCounters counters;
+
+    // Guards the state below. Not a monitor, so that virtual threads waiting for capacity
+    // don't pin their carrier thread.
+    @NonNull private final ReentrantLock lock = new ReentrantLock();
+    // Signalled when a message has been written or the queue has been closed
+    @NonNull private final Condition capacity = this.lock.newCondition();
+
+    // Messages handed to the transport, in order
+    @NonNull private final ArrayDeque<Entry> inFlight = new ArrayDeque<>();
+    private long inFlightBytes = 0;
+
+    // Messages held back because the limit has been reached, in order
+    @NonNull private final ArrayDeque<Entry> backlog = new ArrayDeque<>();
+    private long backlogBytes = 0;
+
+    // Number of turns in progress
+    private int turns = 0;
+    // Messages handed to the transport but not flushed yet
+    private int unflushed = 0;
+    @Nullable private Transport unflushedTransport;
+    @Nullable private TimerWheel.Timeout flushTimer;
+
+    // Sends and flushes to be handed to the transports, in order
+    @NonNull private final ArrayList<Runnable> transportOps = new ArrayList<>();
+    // Whether a thread is handing operations to the transports
+    private boolean runningTransportOps = false;
+
+    private boolean closed = false;
+
+    /**
+     * Create an outbound queue.
+     *
+     * @param maxFrames Maximum number of outstanding frames, or 0 for no limit.
+     * @param maxBytes Maximum number of outstanding bytes, or 0 for no limit.
+     * @param dropOldest Whether to drop the oldest held back droppable messages when a
+     *   droppable message is sent while as many messages or bytes are held back as the
+     *   limits allow.
+     * @param maxFlushDelay Maximum delay in milliseconds before messages sent during a turn
+     *   are flushed, or 0 to disable write coalescing.
+     * @param counters The counters to update.
+     */
+    OutboundQueue(int maxFrames, long maxBytes, boolean dropOldest, long maxFlushDelay,
+                  @NonNull OutboundCounters counters) {
+        this.maxFrames = maxFrames;
+        this.maxBytes = maxBytes;
+        this.dropOldest = dropOldest;
+        this.maxFlushDelay = maxFlushDelay;
+        this.counters = counters;
+    }
+
+    /**
+     * Start a turn. Until the turn ends, messages are only flushed once the maximum flush
+     * delay has passed. Turns may overlap, messages are flushed once the last one has ended.
+     */
+    void beginTurn() {
+        this.lock.lock();
+        try {
+            this.turns++;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * End a turn and flush the messages sent during the turn (unless another turn is still
+     * in progress).
+     */
+    void endTurn() {
+        this.lock.lock();
+        try {
+            this.turns--;
+            if (this.turns == 0) {
+                this.flush();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        this.runTransportOps();
+    }
+
+    /**
+     * Return whether the limit of outstanding frames or bytes has been reached.
+     */
+    boolean isFull() {
+        this.lock.lock();
+        try {
+            return this.isFull(this.inFlight.size() + this.backlog.size(), this.inFlightBytes + this.backlogBytes);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Return whether as many frames or bytes as the limits allow are held back already.
+     */
+    boolean isBacklogFull() {
+        this.lock.lock();
+        try {
+            return this.isFull(this.backlog.size(), this.backlogBytes);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private boolean isFull(int frames, long bytes) {
+        return (this.maxFrames > 0 && frames >= this.maxFrames) || (this.maxBytes > 0 && bytes >= this.maxBytes);
+    }
+
+    /**
+     * Return whether the current thread is running a completion callback of a transport.
+     * Such a thread must not wait for capacity, since capacity is only freed by the next
+     * completion callback.
+     */
+    static boolean isInCallback() {
+        return CALLBACK_DEPTH.get()[0] > 0;
+    }
+
+    /**
+     * Wait until the limits of outstanding frames and bytes are no longer reached, or the
+     * queue has been closed.
+     *
+     * @throws BackpressureException if the thread has been interrupted while waiting.
+     */
+    void awaitCapacity() throws BackpressureException {
+        this.lock.lock();
+        try {
+            while (!this.closed && this.isFull()) {
+                this.capacity.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BackpressureException("Interrupted while waiting for outbound capacity");
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Count a message that has been rejected because a limit has been reached.
+     */
+    void onRejected() {
+        this.counters.onRejected();
+    }
+
+    /**
+     * Send `payload` through `transport`, or hold it back until there is capacity.
+     *
+     * @param droppable Whether the message may be dropped while it is held back.
+     * @throws BackpressureException if the message is droppable, but cannot be held back
+     *   because the held back messages that are not droppable already reach a limit.
+     */
+    void send(@NonNull Transport transport, @NonNull byte[] payload, @Nullable SendCallback callback,
+              boolean droppable) throws ConnectionException {
+        final Entry entry = new Entry(transport, payload, callback, droppable);
+        List<Entry> dropped = null;
+        this.lock.lock();
+        try {
+            if (this.closed) {
+                throw new ConnectionException("WebSocket has been closed");
+            }
+            if (!this.backlog.isEmpty() || this.isFull(this.inFlight.size(), this.inFlightBytes)) {
+                if (droppable && this.dropOldest) {
+                    dropped = this.dropOldest();
+                    if (this.isFull(this.backlog.size(), this.backlogBytes)) {
+                        this.counters.onRejected();
+                        throw new BackpressureException("Outbound queue is full, cannot hold back message");
+                    }
+                }
+                this.backlog.add(entry);
+                this.backlogBytes += entry.payload.length;
+            } else {
+                this.write(entry);
+            }
+        } finally {
+            this.lock.unlock();
+            // Note: Also when throwing, droppable messages may have been dropped already
+            if (dropped != null) {
+                failDropped(dropped);
+            }
+        }
+        this.runTransportOps();
+    }
+
+    private static void failDropped(@NonNull List<Entry> dropped) {
+        for (Entry old : dropped) {
+            if (old.callback != null) {
+                old.callback.onFailed(new BackpressureException("Message has been dropped"));
+            }
+        }
+    }
+
+    /**
+     * Drop the oldest held back droppable messages until there is room for one more message
+     * among the held back ones. Requires the lock.
+     */
+    @Nullable
+    private List<Entry> dropOldest() {
+        List<Entry> dropped = null;
+        final Iterator<Entry> iterator = this.backlog.iterator();
+        while (this.isFull(this.backlog.size(), this.backlogBytes) && iterator.hasNext()) {
+            final Entry entry = iterator.next();
+            if (!entry.droppable) {
+                continue;
+            }
+            iterator.remove();
+            this.backlogBytes -= entry.payload.length;
+            this.counters.onDropped();
+            if (dropped == null) {
+                dropped = new ArrayList<>();
+            }
+            dropped.add(entry);
+        }
+        return dropped;
+    }
+
+    /**
+     * Return the metrics, including the current state of the queue.
+     */
+    @NonNull
+    OutboundMetrics getMetrics() {
+        this.lock.lock();
+        try {
+            final Entry oldest = this.inFlight.isEmpty() ? this.backlog.peek() : this.inFlight.peek();
+            final long oldestAge = oldest == null ? 0
+                : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.enqueuedAt);
+            return this.counters.snapshot(
+                this.inFlight.size() + this.backlog.size(), this.inFlightBytes + this.backlogBytes, oldestAge);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Fail all messages that have not been written yet.
+     */
+    void close() {
+        final Entry[] failed;
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.cancelFlushTimer();
+            this.unflushed = 0;
+            this.unflushedTransport = null;
+            this.transportOps.clear();
+            failed = new Entry[this.inFlight.size() + this.backlog.size()];
+            int i = 0;
+            for (Entry entry : this.inFlight) {
+                failed[i++] = entry;
+            }
+            for (Entry entry : this.backlog) {
+                failed[i++] = entry;
+            }
+            this.inFlight.clear();
+            this.backlog.clear();
+            this.inFlightBytes = 0;
+            this.backlogBytes = 0;
+            this.capacity.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+        for (Entry entry : failed) {
+            if (entry.callback != null) {
+                entry.callback.onFailed(new ConnectionException("WebSocket has been closed"));
+            }
+        }
+    }
+
+    private void onSent(@NonNull Entry entry) {
+        this.lock.lock();
+        try {
+            // Messages are written in order. Anything else has already been failed.
+            if (this.inFlight.peek() != entry) {
+                return;
+            }
+            this.inFlight.poll();
+            this.inFlightBytes -= entry.payload.length;
+            this.drainBacklog();
+            if (this.turns == 0) {
+                this.flush();
+            }
+            this.capacity.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+        this.runTransportOps();
+        if (entry.callback != null) {
+            entry.callback.onSent();
+        }
+    }
+
+    /**
+     * Hand `entry` to its transport. Requires the lock.
+     */
+    private void write(@NonNull Entry entry) {
+        this.inFlight.add(entry);
+        this.inFlightBytes += entry.payload.length;
+        this.transportOps.add(() -> entry.transport.send(entry.payload, entry));
+        if (this.maxFlushDelay <= 0) {
+            // Written by the transport right away
+            this.counters.onFlush(1);
+            return;
+        }
+        if (this.unflushedTransport != null && this.unflushedTransport != entry.transport) {
+            this.flush();
+        }
+        this.unflushed++;
+        this.unflushedTransport = entry.transport;
+        if (this.turns == 0) {
+            this.flush();
+        } else if (this.flushTimer == null) {
+            this.flushTimer = TimerWheel.getShared().schedule(() -> {
+                this.lock.lock();
+                try {
+                    this.flush();
+                } finally {
+                    this.lock.unlock();
+                }
+                this.runTransportOps();
+            }, this.maxFlushDelay);
+        }
+    }
+
+    /**
+     * Flush the messages handed to the transport since the last flush. Requires the lock.
+     */
+    private void flush() {
+        if (this.unflushed == 0 || this.unflushedTransport == null) {
+            return;
+        }
+        this.cancelFlushTimer();
+        this.counters.onFlush(this.unflushed);
+        this.transportOps.add(this.unflushedTransport::flush);
+        this.unflushed = 0;
+        this.unflushedTransport = null;
+    }
+
+    private void cancelFlushTimer() {
+        if (this.flushTimer != null) {
+            this.flushTimer.cancel();
+            this.flushTimer = null;
+        }
+    }
+
+    /**
+     * Run the sends and flushes added so far, without holding the lock. If another thread
+     * is doing so already, it also runs the added operations, so that they keep their order.
+     */
+    private void runTransportOps() {
+        this.lock.lock();
+        try {
+            if (this.runningTransportOps || this.transportOps.isEmpty()) {
+                return;
+            }
+            this.runningTransportOps = true;
+        } finally {
+            this.lock.unlock();
+        }
+        try {
+            while (true) {
+                final Runnable[] ops;
+                this.lock.lock();
+                try {
+                    if (this.transportOps.isEmpty()) {
+                        return;
+                    }
+                    ops = this.transportOps.toArray(new Runnable[0]);
+                    this.transportOps.clear();
+                } finally {
+                    this.lock.unlock();
+                }
+                for (Runnable op : ops) {
+                    op.run();
+                }
+            }
+        } finally {
+            this.lock.lock();
+            try {
+                this.runningTransportOps = false;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Write held back messages while the limits allow. Requires the lock.
+     */
+    private void drainBacklog() {
+        while (!this.backlog.isEmpty() && !this.isFull(this.inFlight.size(), this.inFlightBytes)) {
+            final Entry entry = this.backlog.poll();
+            this.backlogBytes -= entry.payload.length;
+            this.write(entry);
+        }
+    }
+}
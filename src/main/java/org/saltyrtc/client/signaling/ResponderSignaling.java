@@ -51,6 +51,8 @@ public class ResponderSignaling extends Signaling {
     private Initiator initiator;
     @Nullable
     private AuthToken authToken = null;
+    // Incremented for every peer handshake, so that expired deadlines of earlier ones are ignored
+    private int peerHandshakeAttempt = 0;
 
     // Logging
     protected Logger getLogger() {
@@ -72,19 +74,42 @@ public class ResponderSignaling extends Signaling {
                               @NonNull Task[] tasks,
                               int pingInterval)
                               throws InvalidKeyException {
+        this(saltyRTC, host, port, sslContext, sslSocketFactory, cryptoProvider,
+             wsDualStackMode, wsConnectTimeout, wsConnectAttemptsMax, wsConnectLinearBackoff,
+             permanentKey, initiatorPublicKey, authToken, initiatorTrustedKey, expectedServerKey,
+             tasks, pingInterval, new SignalingOptions());
+    }
+
+    public ResponderSignaling(SaltyRTC saltyRTC, String host, int port,
+                              @Nullable SSLContext sslContext,
+                              @Nullable SSLSocketFactory sslSocketFactory,
+                              @NonNull CryptoProvider cryptoProvider,
+                              @NonNull SaltyRTCBuilder.DualStackMode wsDualStackMode,
+                              @Nullable Integer wsConnectTimeout,
+                              @Nullable Integer wsConnectAttemptsMax,
+                              @Nullable Boolean wsConnectLinearBackoff,
+                              @NonNull KeyStore permanentKey,
+                              @Nullable byte[] initiatorPublicKey, @Nullable byte[] authToken,
+                              @Nullable byte[] initiatorTrustedKey,
+                              @Nullable byte[] expectedServerKey,
+                              @NonNull Task[] tasks,
+                              int pingInterval,
+                              @NonNull SignalingOptions options)
+                              throws InvalidKeyException {
         super(saltyRTC, host, port, sslContext, sslSocketFactory, cryptoProvider,
               wsDualStackMode, wsConnectTimeout, wsConnectAttemptsMax, wsConnectLinearBackoff,
-              permanentKey, initiatorTrustedKey, expectedServerKey, SignalingRole.Responder, tasks, pingInterval);
+              permanentKey, initiatorTrustedKey, expectedServerKey, SignalingRole.Responder, tasks, pingInterval,
+              options);
         if (initiatorTrustedKey != null) {
             if (initiatorPublicKey != null || authToken != null) {
                 throw new IllegalArgumentException(
                     "Cannot specify both a trusted key and a public key / auth token pair");
             }
-            this.initiator = new Initiator(initiatorTrustedKey, permanentKey);
+            this.initiator = new Initiator(this.getPermanentSharedKey(initiatorTrustedKey));
             // If we trust the initiator, don't send a token message
             this.initiator.handshakeState = InitiatorHandshakeState.TOKEN_SENT;
         } else if (initiatorPublicKey != null && authToken != null) {
-            this.initiator = new Initiator(initiatorPublicKey, permanentKey);
+            this.initiator = new Initiator(this.getPermanentSharedKey(initiatorPublicKey));
             this.authToken = new AuthToken(cryptoProvider, authToken);
         } else {
             throw new IllegalArgumentException(
@@ -195,6 +220,13 @@ public class ResponderSignaling extends Signaling {
     @Override
     protected void initPeerHandshake() throws SignalingException, ConnectionException {
         if (this.initiator.isConnected()) {
+            // Give up if the handshake does not complete in time
+            final long timeout = this.options.getPeerHandshakeTimeout();
+            if (timeout > 0) {
+                final int attempt = ++this.peerHandshakeAttempt;
+                this.schedule(timeout, () -> this.onPeerHandshakeTimeout(attempt));
+            }
+
             // Only send token if we don't trust the initiator
             if (!this.hasTrustedKey()) {
                 this.sendToken();
@@ -203,6 +235,19 @@ public class ResponderSignaling extends Signaling {
         }
     }
 
+    /**
+     * The time for a handshake with the initiator has passed.
+     */
+    private void onPeerHandshakeTimeout(int attempt) {
+        // Completed or started over meanwhile
+        if (attempt != this.peerHandshakeAttempt || this.getState() != SignalingState.PEER_HANDSHAKE) {
+            return;
+        }
+        this.getLogger().warn("Peer handshake not completed within " +
+            this.options.getPeerHandshakeTimeout() + " ms (state " + this.initiator.handshakeState + ")");
+        this.resetConnection(CloseCode.TIMEOUT);
+    }
+
     /**
      * Send our token to the initiator.
      */
@@ -444,20 +489,29 @@ public class ResponderSignaling extends Signaling {
      * A new initiator replaces the old one.
      */
     private void handleNewInitiator(@SuppressWarnings("unused") NewInitiator msg) throws SignalingException, ConnectionException {
-        // Create a new `Initiator` instance with the same public permanent key as the previous initiator.
-        // It must be the same public key, since it's part of the WebSocket path :)
-        try {
-            this.initiator = new Initiator(this.initiator.getPermanentSharedKey().getRemotePublicKey(), this.permanentKey);
-        } catch (InvalidKeyException e) {
-            throw new SignalingException(
-                CloseCode.INTERNAL_ERROR,
-                "Invalid initiator remote public key. This should never happen."
-            );
-        }
+        this.replaceInitiator();
         this.initiator.setConnected(true);
         this.initPeerHandshake();
     }
 
+    /**
+     * Create a new `Initiator` instance with the same public permanent key as the previous
+     * initiator. It must be the same public key, since it's part of the WebSocket path :)
+     * The permanent shared key is reused, only the session state starts over.
+     */
+    private void replaceInitiator() {
+        this.initiator = new Initiator(this.initiator.getPermanentSharedKey());
+    }
+
+    @Override
+    void resetPeers() {
+        this.replaceInitiator();
+        if (this.hasTrustedKey()) {
+            // If we trust the initiator, don't send a token message
+            this.initiator.handshakeState = InitiatorHandshakeState.TOKEN_SENT;
+        }
+    }
+
     @Override
     void handleSendError(short receiver) throws SignalingException {
         if (receiver != Signaling.SALTYRTC_ADDR_INITIATOR) {
@@ -465,7 +519,9 @@ public class ResponderSignaling extends Signaling {
         }
 
         // Notify application
-        this.salty.events.signalingConnectionLost.notifyHandlers(new SignalingConnectionLostEvent(receiver));
+        if (this.salty.events.signalingConnectionLost.hasHandlers()) {
+            this.salty.events.signalingConnectionLost.notifyHandlers(new SignalingConnectionLostEvent(receiver));
+        }
 
         // Reset connection
         this.resetConnection(CloseCode.PROTOCOL_ERROR);
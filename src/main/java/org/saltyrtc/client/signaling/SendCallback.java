@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.signaling;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+/**
+ * Notified once an outgoing message has been handed to the socket, or if it could not be sent.
+ *
+ * The methods are called from the WebSocket writing thread (or the calling thread if the
+ * message could not be sent at all), so they should return quickly.
+ */
+public interface SendCallback {
+    void onSent();
+
+    void onFailed(@NonNull Exception e);
+}
@@ -8,7 +8,6 @@
 
 package org.saltyrtc.client.signaling;
 
-import com.neovisionaries.ws.client.*;
 import org.saltyrtc.chunkedDc.UnsignedHelper;
 import org.saltyrtc.client.SaltyRTC;
 import org.saltyrtc.client.SaltyRTCBuilder;
@@ -20,8 +19,11 @@ import org.saltyrtc.client.crypto.CryptoProvider;
 import org.saltyrtc.client.events.*;
 import org.saltyrtc.client.exceptions.*;
 import org.saltyrtc.client.helpers.ArrayHelper;
+import org.saltyrtc.client.helpers.EventLoop;
 import org.saltyrtc.client.helpers.HexHelper;
 import org.saltyrtc.client.helpers.MessageReader;
+import org.saltyrtc.client.helpers.SerialExecutor;
+import org.saltyrtc.client.helpers.TimerWheel;
 import org.saltyrtc.client.keystore.AuthToken;
 import org.saltyrtc.client.keystore.Box;
 import org.saltyrtc.client.keystore.KeyStore;
@@ -39,6 +41,9 @@ import org.saltyrtc.client.signaling.state.HandoverState;
 import org.saltyrtc.client.signaling.state.ServerHandshakeState;
 import org.saltyrtc.client.signaling.state.SignalingState;
 import org.saltyrtc.client.tasks.Task;
+import org.saltyrtc.client.transport.Transport;
+import org.saltyrtc.client.transport.TransportConfig;
+import org.saltyrtc.client.transport.TransportListener;
 import org.slf4j.Logger;
 
 import javax.net.ssl.SSLContext;
@@ -48,8 +53,12 @@ import java.net.URI;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Base class for initiator and responder signaling.
@@ -67,6 +76,7 @@ public abstract class Signaling implements SignalingInterface {
     static final short SALTYRTC_ADDR_UNKNOWN = 0x00;
     static final short SALTYRTC_ADDR_SERVER = 0x00;
     static final short SALTYRTC_ADDR_INITIATOR = 0x01;
+    private static final int PERMANENT_SHARED_KEYS_MAX = 16;
 
     // Logger
     abstract Logger getLogger();
@@ -76,20 +86,48 @@ public abstract class Signaling implements SignalingInterface {
     private final int port;
     private final SSLContext sslContext;
     private final SSLSocketFactory sslSocketFactory;
-    private WebSocket ws;
+    private Transport ws;
+    @Nullable private TransportConfig wsConfig;
+    // The listener of the transport, and the lock it holds while handling events
+    // (unless the event loop is enabled)
+    private volatile TransportListener wsListener;
+    @Nullable private volatile ReentrantLock wsLock;
+    // Handles the events of the transport, wrapped by `wsListener`
+    private TransportListener wsHandler;
+    @Nullable private volatile OutboundQueue outbound;
+    @NonNull private final OutboundCounters outboundCounters = new OutboundCounters();
     final private int pingInterval;
     final private int wsConnectTimeoutInitial;
     final private int wsConnectAttemptsMax;
     final private boolean wsConnectLinearBackoff;
-    final private DualStackMode wsDualStackMode;
+    @NonNull final private SaltyRTCBuilder.DualStackMode wsDualStackMode;
     private int wsConnectTimeout;
     private int wsConnectAttempt = 0;
+    // Delay before the current connect attempt in milliseconds
+    private long wsConnectRetryDelay = 0;
+    @Nullable private TimerWheel.Timeout wsConnectRetryTimer;
+    // Connection to the standby server (if any)
+    @Nullable private volatile StandbyConnection standby;
+    // Deadline of the current server handshake (if any)
+    @Nullable private volatile TimerWheel.Timeout serverHandshakeTimer;
+    // Incremented for every server handshake, so that expired deadlines of earlier ones are ignored
+    private volatile int serverHandshakeAttempt = 0;
 
     // Crypto
     protected final CryptoProvider cryptoProvider;
 
+    // Tuning options
+    @NonNull final SignalingOptions options;
+
+    // Event loop that owns the signaling state (if enabled)
+    @Nullable private final EventLoop eventLoop;
+
+    // Guards connecting, disconnecting and sending. Not a monitor, so that virtual threads
+    // blocking while holding it are not pinned.
+    final ReentrantLock lock = new ReentrantLock();
+
     // Connection state
-    private SignalingState state = SignalingState.NEW;
+    private volatile SignalingState state = SignalingState.NEW;
     private final HandoverState handoverState = new HandoverState();
 
     // Reference to main class
@@ -101,6 +139,16 @@ public abstract class Signaling implements SignalingInterface {
     // Our keys
     @NonNull final KeyStore permanentKey;
 
+    // Shared keys of our permanent key and the permanent keys of the server and trusted peers
+    // (by hex encoded remote key), kept across reconnects. Guarded by its monitor.
+    @NonNull private final Map<String, SharedKeyStore> permanentSharedKeys =
+        new LinkedHashMap<String, SharedKeyStore>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SharedKeyStore> eldest) {
+                return this.size() > PERMANENT_SHARED_KEYS_MAX;
+            }
+        };
+
     // Peer trusted key or auth token
     @Nullable AuthToken authToken;
     @Nullable byte[] peerTrustedKey;
@@ -130,6 +178,27 @@ public abstract class Signaling implements SignalingInterface {
                      @NonNull SignalingRole role,
                      @NonNull Task[] tasks,
                      int pingInterval) {
+        this(salty, host, port, sslContext, sslSocketFactory, cryptoProvider,
+             wsDualStackMode, wsConnectTimeout, wsConnectAttemptsMax, wsConnectLinearBackoff,
+             permanentKey, peerTrustedKey, expectedServerKey, role, tasks, pingInterval,
+             new SignalingOptions());
+    }
+
+    public Signaling(SaltyRTC salty, String host, int port,
+                     @Nullable SSLContext sslContext,
+                     @Nullable SSLSocketFactory sslSocketFactory,
+                     @NonNull CryptoProvider cryptoProvider,
+                     @NonNull SaltyRTCBuilder.DualStackMode wsDualStackMode,
+                     @Nullable Integer wsConnectTimeout,
+                     @Nullable Integer wsConnectAttemptsMax,
+                     @Nullable Boolean wsConnectLinearBackoff,
+                     @NonNull KeyStore permanentKey,
+                     @Nullable byte[] peerTrustedKey,
+                     @Nullable byte[] expectedServerKey,
+                     @NonNull SignalingRole role,
+                     @NonNull Task[] tasks,
+                     int pingInterval,
+                     @NonNull SignalingOptions options) {
         this.salty = salty;
         this.host = host;
         this.port = port;
@@ -146,26 +215,19 @@ public abstract class Signaling implements SignalingInterface {
         this.tasks = tasks;
         this.server = new Server();
         this.pingInterval = pingInterval;
+        this.options = options;
+        final Executor eventLoopExecutor = options.getEventLoopExecutor();
+        this.eventLoop = eventLoopExecutor == null ? null : new EventLoop(eventLoopExecutor);
 
-        // Convert dual stack mode
-        switch (wsDualStackMode) {
-            case BOTH:
-                this.wsDualStackMode = DualStackMode.BOTH;
-                break;
-            case IPV4_ONLY:
-                this.wsDualStackMode = DualStackMode.IPV4_ONLY;
-                break;
-            case IPV6_ONLY:
-                this.wsDualStackMode = DualStackMode.IPV6_ONLY;
-                break;
-            default:
-                throw new IllegalArgumentException("Unknown dual stack mode: " + wsDualStackMode);
-        }
+        this.wsDualStackMode = wsDualStackMode;
 
         // When the handover is complete, notify event handlers and close the WebSocket.
         this.handoverState.handoverComplete.register(event -> {
-            Signaling.this.salty.events.handover.notifyHandlers(new HandoverEvent());
-            Signaling.this.ws.sendClose(CloseCode.HANDOVER);
+            if (Signaling.this.salty.events.handover.hasHandlers()) {
+                Signaling.this.salty.events.handover.notifyHandlers(new HandoverEvent());
+            }
+            Signaling.this.ws.close(CloseCode.HANDOVER);
+            Signaling.this.closeStandby();
             return false;
         });
     }
@@ -203,8 +265,46 @@ public abstract class Signaling implements SignalingInterface {
     public void setState(SignalingState newState) {
         if (this.state != newState) {
             this.state = newState;
-            this.salty.events.signalingStateChanged.notifyHandlers(
-                    new SignalingStateChangedEvent(newState));
+            this.updateServerHandshakeTimer(newState);
+            if (this.salty.events.signalingStateChanged.hasHandlers()) {
+                this.salty.events.signalingStateChanged.notifyHandlers(
+                        new SignalingStateChangedEvent(newState));
+            }
+        }
+    }
+
+    /**
+     * Return the counters of the messages written to the server so far, and the state of
+     * the outbound queue of the current connection.
+     */
+    @NonNull
+    public OutboundMetrics getOutboundMetrics() {
+        final OutboundQueue outbound = this.outbound;
+        return outbound == null ? this.outboundCounters.snapshot(0, 0, 0) : outbound.getMetrics();
+    }
+
+    /**
+     * With `BackpressureMode.BLOCK`, wait until the outbound queue has room for another
+     * message.
+     *
+     * Returns immediately where waiting could never end or would stall other sessions, i.e. on
+     * the event loop, in transport callbacks and in timer tasks. Messages are held back instead.
+     */
+    private void awaitOutboundCapacity() throws BackpressureException {
+        if (this.options.getBackpressureMode() != SaltyRTCBuilder.BackpressureMode.BLOCK) {
+            return;
+        }
+        if (this.eventLoop != null && this.eventLoop.inEventLoop()) {
+            return;
+        }
+        final ReentrantLock wsLock = this.wsLock;
+        if ((wsLock != null && wsLock.isHeldByCurrentThread()) || this.lock.isHeldByCurrentThread()
+            || OutboundQueue.isInCallback()) {
+            return;
+        }
+        final OutboundQueue outbound = this.outbound;
+        if (outbound != null) {
+            outbound.awaitCapacity();
         }
     }
 
@@ -217,14 +317,38 @@ public abstract class Signaling implements SignalingInterface {
         return this.role;
     }
 
+    /**
+     * If the event loop is enabled and the calling thread is not the event loop, enqueue
+     * `command` on the event loop and return `true`. Otherwise, return `false` so that the
+     * caller runs the command directly.
+     */
+    private boolean enqueueOnEventLoop(@NonNull Runnable command) {
+        if (this.eventLoop == null || this.eventLoop.inEventLoop()) {
+            return false;
+        }
+        this.eventLoop.execute(command);
+        return true;
+    }
+
     /**
      * Connect asynchronously to the SaltyRTC server.
      *
      * To get notified when the connection is up and running, subscribe to the `SignalingStateChangedEvent`.
      *
-     * @throws ConnectionException if setting up the WebSocket connection fails.
+     * @throws ConnectionException if setting up the WebSocket connection fails. When using the
+     *   event loop, the failure is logged and the signaling state changes to `ERROR` instead.
      */
     public void connect() throws ConnectionException {
+        if (this.enqueueOnEventLoop(() -> {
+            try {
+                this.connect();
+            } catch (ConnectionException e) {
+                this.getLogger().error("Could not connect", e);
+                this.setState(SignalingState.ERROR);
+            }
+        })) {
+            return;
+        }
         this.getLogger().info("Connecting to SaltyRTC server at "
                 + this.host + ":" + this.port + "...");
         this.resetConnection(null);
@@ -242,8 +366,23 @@ public abstract class Signaling implements SignalingInterface {
      * This is a synchronous operation. The event handlers for the `SignalingStateChangedEvent`
      * will also be called synchronously with the states `CLOSING` and `CLOSED`. Therefore make sure not to call
      * this method again from within your `SignalingStateChangedEvent` event handlers, or deadlocks may occur!
+     *
+     * When using the event loop, this is an asynchronous operation unless it is called from the
+     * event loop (e.g. from an event handler).
      */
-    synchronized void disconnect(int reason) {
+    void disconnect(final int reason) {
+        if (this.enqueueOnEventLoop(() -> this.disconnect(reason))) {
+            return;
+        }
+        this.lock.lock();
+        try {
+            this.disconnectLocked(reason);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void disconnectLocked(int reason) {
         this.setState(SignalingState.CLOSING);
 
         // Send close message if necessary
@@ -254,9 +393,20 @@ public abstract class Signaling implements SignalingInterface {
         // Close WebSocket instance
         if (this.ws != null) {
             this.getLogger().debug("Disconnecting WebSocket (reason: " + reason + ")");
-            this.ws.disconnect(reason);
+            this.ws.close(reason);
         }
         this.ws = null;
+        this.closeStandby();
+        if (this.wsConnectRetryTimer != null) {
+            this.wsConnectRetryTimer.cancel();
+            this.wsConnectRetryTimer = null;
+        }
+
+        // Fail messages that have not been written
+        if (this.outbound != null) {
+            this.outbound.close();
+            this.outbound = null;
+        }
 
         // Close task connections
         if (this.task != null) {
@@ -282,7 +432,19 @@ public abstract class Signaling implements SignalingInterface {
     /**
      * Reset the connection.
      */
-    public synchronized void resetConnection(@Nullable Integer reason) {
+    public void resetConnection(@Nullable final Integer reason) {
+        if (this.enqueueOnEventLoop(() -> this.resetConnection(reason))) {
+            return;
+        }
+        this.lock.lock();
+        try {
+            this.resetConnectionLocked(reason);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void resetConnectionLocked(@Nullable Integer reason) {
         // Disconnect
         if (this.state != SignalingState.NEW) {
             final int code = reason != null ? reason : CloseCode.CLOSING_NORMAL;
@@ -290,8 +452,7 @@ public abstract class Signaling implements SignalingInterface {
         }
 
         // Reset
-        this.server = new Server();
-        this.handoverState.reset();
+        this.resetServer();
         this.setState(SignalingState.NEW);
         this.getLogger().debug("Connection reset");
     }
@@ -307,15 +468,12 @@ public abstract class Signaling implements SignalingInterface {
      * @throws IOException if setting up websocket fails
      */
     private void initWebsocket() throws IOException {
-        // Build connection URL
-        final String baseUrl = "wss://" + this.host + ":" + this.port + "/";
-        final URI uri = URI.create(baseUrl + this.getWebsocketPath());
-        this.getLogger().debug("Initialize WebSocket connection to " + uri);
+        this.getLogger().debug("Initialize WebSocket connection to " + this.getWebsocketUri());
 
-        WebSocketAdapter listener = new WebSocketAdapter() {
+        final TransportListener listener = new TransportListener() {
             @Override
             @SuppressWarnings("UnqualifiedMethodAccess")
-            public synchronized void onConnected(WebSocket websocket, Map<String, List<String>> headers) {
+            public void onConnected() {
                 if (getState() == SignalingState.WS_CONNECTING) {
                     getLogger().info("WebSocket connection established");
                     setState(SignalingState.SERVER_HANDSHAKE);
@@ -326,8 +484,11 @@ public abstract class Signaling implements SignalingInterface {
 
             @Override
             @SuppressWarnings("UnqualifiedMethodAccess")
-            public synchronized void onConnectError(WebSocket websocket, WebSocketException ex) throws Exception {
-                getLogger().error("Could not connect to websocket (" + ex.getError().toString() + "): " + ex.getMessage());
+            public void onConnectError(@NonNull Exception ex) {
+                getLogger().error("Could not connect to websocket: " + ex.getMessage());
+                if (Signaling.this.salty.events.connectError.hasHandlers()) {
+                    Signaling.this.salty.events.connectError.notifyHandlers(new ConnectErrorEvent(ex));
+                }
                 if (Signaling.this.ws != null && (Signaling.this.wsConnectAttemptsMax <= 0 ||
                     Signaling.this.wsConnectAttempt < Signaling.this.wsConnectAttemptsMax)) {
                     // Increase #attempts (and timeout if needed)
@@ -343,11 +504,21 @@ public abstract class Signaling implements SignalingInterface {
                     } else {
                         retryConstraint = Signaling.this.wsConnectAttempt + "/" + Signaling.this.wsConnectAttemptsMax;
                     }
-                    getLogger().info("Retrying to reconnect (" + retryConstraint + ")...");
+                    final long delay = Signaling.this.options.getRetryPolicy().nextDelay(
+                        Signaling.this.wsConnectAttempt - 1, Signaling.this.wsConnectRetryDelay);
+                    Signaling.this.wsConnectRetryDelay = delay;
+                    getLogger().info("Retrying to reconnect (" + retryConstraint + ")" +
+                        (delay > 0 ? " in " + delay + " ms..." : "..."));
 
                     // Retry WS connection
                     Signaling.this.setState(SignalingState.WS_CONNECTING);
-                    Signaling.this.ws.recreate(Signaling.this.wsConnectTimeout).connectAsynchronously();
+                    if (delay <= 0) {
+                        Signaling.this.reconnectWebsocket();
+                    } else {
+                        final Transport failed = Signaling.this.ws;
+                        Signaling.this.wsConnectRetryTimer = Signaling.this.schedule(
+                            delay, () -> Signaling.this.onConnectRetryTimer(failed));
+                    }
                 } else {
                     getLogger().info("Giving up.");
                     setState(SignalingState.ERROR);
@@ -356,7 +527,7 @@ public abstract class Signaling implements SignalingInterface {
 
             @Override
             @SuppressWarnings("UnqualifiedMethodAccess")
-            public synchronized void onTextMessage(WebSocket websocket, String text) {
+            public void onTextMessage(@NonNull String text) {
                 getLogger().debug("New string message: " + text);
                 getLogger().error("Protocol error: Received string message, but only binary messages are valid.");
                 Signaling.this.resetConnection(CloseCode.PROTOCOL_ERROR);
@@ -364,7 +535,7 @@ public abstract class Signaling implements SignalingInterface {
 
             @Override
             @SuppressWarnings("UnqualifiedMethodAccess")
-            public synchronized void onBinaryMessage(WebSocket websocket, byte[] binary) {
+            public void onBinaryMessage(@NonNull byte[] binary) {
                 getLogger().debug("New binary message (" + binary.length + " bytes)");
                 switch (Signaling.this.getState()) {
                     case WS_CONNECTING:
@@ -415,65 +586,17 @@ public abstract class Signaling implements SignalingInterface {
                                     " signaling state. Ignoring.");
                     }
                 // TODO: The following errors could also be handled using `handleCallbackError` on the websocket.
-                } catch (ValidationError e) {
-                    if (e.critical) {
-                        getLogger().error("Protocol error: Invalid incoming message: " + e.getMessage());
-                        e.printStackTrace();
-                        Signaling.this.resetConnection(CloseCode.PROTOCOL_ERROR);
-                    } else {
-                        getLogger().warn("Dropping invalid message: " + e.getMessage());
-                        e.printStackTrace();
-                    }
-                } catch (SerializationError e) {
-                    getLogger().error("Protocol error: Invalid incoming message: " + e.getMessage());
-                    e.printStackTrace();
-                    Signaling.this.resetConnection(CloseCode.PROTOCOL_ERROR);
-                } catch (InternalException e) {
-                    getLogger().error("Internal server error: " + e.getMessage());
-                    e.printStackTrace();
-                    Signaling.this.resetConnection(CloseCode.INTERNAL_ERROR);
-                } catch (ConnectionException e) {
-                    getLogger().error("Connection error: " + e.getMessage());
-                    e.printStackTrace();
-                    Signaling.this.resetConnection(CloseCode.INTERNAL_ERROR);
-                } catch (SignalingException e) {
-                    getLogger().error("Signaling error: " + CloseCode.explain(e.getCloseCode()));
-                    e.printStackTrace();
-                    switch (Signaling.this.getState()) {
-                        case NEW:
-                        case WS_CONNECTING:
-                        case SERVER_HANDSHAKE:
-                            // Close connection
-                            Signaling.this.resetConnection(e.getCloseCode());
-                            break;
-                        case PEER_HANDSHAKE:
-                            // Handle error depending on role
-                            Signaling.this.handlePeerHandshakeSignalingError(e, nonce.getSource());
-                            break;
-                        case TASK:
-                            // Close websocket connection
-                            Signaling.this.sendClose(e.getCloseCode());
-                            Signaling.this.resetConnection(CloseCode.CLOSING_NORMAL);
-                            break;
-                        case CLOSING:
-                        case CLOSED:
-                            // Ignore
-                            break;
-                    }
+                } catch (ValidationError | SerializationError | InternalException |
+                         ConnectionException | SignalingException e) {
+                    Signaling.this.onIncomingMessageError(e, nonce);
                 }
             }
 
             @Override
             @SuppressWarnings("UnqualifiedMethodAccess")
-            public synchronized void onDisconnected(WebSocket websocket,
-                                       @Nullable WebSocketFrame serverCloseFrame,
-                                       @Nullable WebSocketFrame clientCloseFrame,
-                                       boolean closedByServer) {
+            public void onDisconnected(int closeCode, @Nullable String closeReason, boolean closedByServer) {
                 // Log details to debug log
                 final String closer = closedByServer ? "server" : "client";
-                final WebSocketFrame frame = closedByServer ? serverCloseFrame : clientCloseFrame;
-                final int closeCode = frame == null ? 0 : frame.getCloseCode();
-                String closeReason = frame == null ? null : frame.getCloseReason();
                 if (closeReason == null) {
                     closeReason = CloseCode.explain(closeCode);
                 }
@@ -523,7 +646,12 @@ public abstract class Signaling implements SignalingInterface {
                 }
                 // Note: Don't check for signaling state here, it will already have been resetted.
                 if (closeCode != CloseCode.HANDOVER) {
-                    Signaling.this.salty.events.close.notifyHandlers(new CloseEvent(closeCode));
+                    if (Signaling.this.failOver(closeCode)) {
+                        return;
+                    }
+                    if (Signaling.this.salty.events.close.hasHandlers()) {
+                        Signaling.this.salty.events.close.notifyHandlers(new CloseEvent(closeCode));
+                    }
                     setState(SignalingState.CLOSED);
                 }
             }
@@ -536,13 +664,13 @@ public abstract class Signaling implements SignalingInterface {
              */
             @Override
             @SuppressWarnings("UnqualifiedMethodAccess")
-            public void onError(WebSocket websocket, WebSocketException cause) {
+            public void onError(@NonNull Exception cause) {
                 getLogger().warn("A WebSocket error occured: " + cause.getMessage(), cause);
             }
 
             @Override
             @SuppressWarnings("UnqualifiedMethodAccess")
-            public synchronized void handleCallbackError(WebSocket websocket, Throwable cause) {
+            public void handleCallbackError(@NonNull Throwable cause) {
                 getLogger().error("WebSocket callback error: " + cause);
                 cause.printStackTrace();
                 Signaling.this.resetConnection(CloseCode.INTERNAL_ERROR);
@@ -552,25 +680,84 @@ public abstract class Signaling implements SignalingInterface {
         // Reset timeout
         this.wsConnectTimeout = this.wsConnectTimeoutInitial;
 
-        // Create factory
-        // Note: We prefer the SSLSocketFactory over the SSLContext, if set.
-        //       They are mutually exclusive due to the way the WebSockets library uses them.
-        final WebSocketFactory factory = new WebSocketFactory()
-            .setDualStackMode(this.wsDualStackMode)
-            .setConnectionTimeout(this.wsConnectTimeout)
-            .setVerifyHostname(true);
-        if (this.sslSocketFactory != null) {
-            factory.setSSLSocketFactory(this.sslSocketFactory);
-        } else {
-            factory.setSSLContext(this.sslContext);
+        // Note: With the event loop, the transport threads only enqueue events.
+        this.wsLock = this.eventLoop != null ? null : new ReentrantLock();
+        this.wsHandler = listener;
+        this.initOutboundQueue();
+
+        // Create transport
+        this.wsConfig = this.createTransportConfig(this.host, this.port, this.sslContext, this.sslSocketFactory);
+        this.ws = this.createTransport(this.wsConfig);
+    }
+
+    /**
+     * Create the outbound queue of a new connection, and the listener for its transport.
+     */
+    private void initOutboundQueue() {
+        // Messages sent while handling a callback are flushed together
+        final long maxFlushDelay = this.options.getMaxFlushDelay();
+        final OutboundQueue outbound = new OutboundQueue(
+            this.options.getMaxOutstandingFrames(), this.options.getMaxOutstandingBytes(),
+            this.options.getBackpressureMode() == SaltyRTCBuilder.BackpressureMode.DROP_OLDEST_APPLICATION,
+            maxFlushDelay, this.outboundCounters);
+        this.outbound = outbound;
+        final TransportListener turnListener = maxFlushDelay > 0
+            ? new FlushingListener(outbound, this.wsHandler) : this.wsHandler;
+        final ReentrantLock wsLock = this.wsLock;
+        this.wsListener = wsLock == null
+            ? new EventLoopListener(this.eventLoop, turnListener) : new LockingListener(wsLock, turnListener);
+    }
+
+    /**
+     * Return the WebSocket URL of the path of this session.
+     */
+    @NonNull
+    private URI getWebsocketUri() {
+        return this.getWebsocketUri(this.host, this.port);
+    }
+
+    /**
+     * Return the WebSocket URL of the path of this session on the server at `host`.
+     */
+    @NonNull
+    private URI getWebsocketUri(@NonNull String host, int port) {
+        return URI.create("wss://" + host + ":" + port + "/" + this.getWebsocketPath());
+    }
+
+    /**
+     * Return the transport config for the server at `host`.
+     */
+    @NonNull
+    private TransportConfig createTransportConfig(@NonNull String host, int port,
+                                                  @Nullable SSLContext sslContext,
+                                                  @Nullable SSLSocketFactory sslSocketFactory) {
+        return new TransportConfig(this.getWebsocketUri(host, port), SALTYRTC_SUBPROTOCOL, sslContext,
+            sslSocketFactory, this.wsDualStackMode, this.wsConnectTimeoutInitial, SALTYRTC_WS_PING_INTERVAL,
+            this.options.getThreadFactory(), this.options.getMaxFlushDelay() <= 0)
+            .withTlsSessionCache(this.options.getTlsSessionCache());
+    }
+
+    /**
+     * Let the transport factory establish a connection to the server ahead of `connect`, see
+     * `TransportFactory.prewarm`.
+     *
+     * @throws ConnectionException if setting up the connection fails.
+     */
+    public void prewarm() throws ConnectionException {
+        try {
+            this.options.getTransportFactory().prewarm(
+                this.createTransportConfig(this.host, this.port, this.sslContext, this.sslSocketFactory));
+        } catch (IOException e) {
+            throw new ConnectionException("Pre-warming the WebSocket connection failed.", e);
         }
+    }
 
-        // Create WebSocket client instance
-        this.ws = factory
-            .createSocket(uri)
-            .setPingInterval(SALTYRTC_WS_PING_INTERVAL)
-            .addProtocol(SALTYRTC_SUBPROTOCOL)
-            .addListener(listener);
+    /**
+     * Create a transport with the configured factory.
+     */
+    @NonNull
+    private Transport createTransport(@NonNull TransportConfig config) throws IOException {
+        return this.options.getTransportFactory().create(config, this.wsListener);
     }
 
     /**
@@ -579,7 +766,298 @@ public abstract class Signaling implements SignalingInterface {
     private void connectWebsocket() {
         this.setState(SignalingState.WS_CONNECTING);
         this.wsConnectAttempt = 1;
-        this.ws.connectAsynchronously();
+        this.wsConnectRetryDelay = 0;
+        this.ws.connect();
+        this.connectStandby();
+    }
+
+    /**
+     * Open the connection to the standby server, if one has been configured.
+     */
+    private void connectStandby() {
+        final String host = this.options.getStandbyHost();
+        if (host == null) {
+            return;
+        }
+        this.startStandby(this.createTransportConfig(
+            host, this.options.getStandbyPort(), this.options.getStandbySslContext(), null));
+    }
+
+    private void startStandby(@NonNull TransportConfig config) {
+        final StandbyConnection standby = new StandbyConnection(
+            this.getLogger(), this.options.getTransportFactory(), config);
+        this.standby = standby;
+        standby.start();
+    }
+
+    /**
+     * Reset the state of the server handshake and the handover.
+     */
+    private void resetServer() {
+        this.server = new Server();
+        this.address = SALTYRTC_ADDR_UNKNOWN;
+        this.handoverState.reset();
+    }
+
+    private void closeStandby() {
+        final StandbyConnection standby = this.standby;
+        if (standby != null) {
+            this.standby = null;
+            standby.close();
+        }
+    }
+
+    /**
+     * Continue on the standby connection after the server closed the connection with
+     * `GOING_AWAY` or it has been lost. The server and peer handshakes start over, the lost
+     * server becomes the standby server.
+     *
+     * @return false if the session cannot fail over, e.g. because the standby connection is
+     *   not established or the task has already been started.
+     */
+    private boolean failOver(int closeCode) {
+        final StandbyConnection standby = this.standby;
+        final SignalingState state = this.getState();
+        if (standby == null || this.wsConfig == null) {
+            return false;
+        }
+        if (state != SignalingState.SERVER_HANDSHAKE && state != SignalingState.PEER_HANDSHAKE) {
+            return false;
+        }
+        // Note: 1006 is reported by transports for connections closed without a close frame
+        if (closeCode != CloseCode.GOING_AWAY && closeCode != 0 && closeCode != 1006) {
+            return false;
+        }
+        final Transport transport = standby.claim();
+        if (transport == null) {
+            this.getLogger().info("Standby connection not established, cannot fail over");
+            return false;
+        }
+        this.getLogger().warn("Connection lost, failing over to " + standby.getConfig().getUri().getHost());
+
+        // Reset (like `resetConnection`, but without disconnecting)
+        this.resetPeers();
+        final TransportConfig lost = this.wsConfig;
+        // Messages handed to the lost connection will never be written
+        final OutboundQueue outbound = this.outbound;
+        if (outbound != null) {
+            outbound.close();
+        }
+        this.initOutboundQueue();
+        this.ws = transport;
+        this.wsConfig = standby.getConfig();
+        this.resetServer();
+        this.setState(SignalingState.SERVER_HANDSHAKE);
+
+        // Continue with the server-hello received on the standby connection
+        standby.attach(this.wsListener);
+        if (this.ws == transport) {
+            this.startStandby(lost);
+        }
+        return true;
+    }
+
+    /**
+     * Replace the transport that failed to connect and connect again.
+     */
+    private void reconnectWebsocket() {
+        try {
+            this.ws = this.createTransport(this.wsConfig.withConnectTimeout(this.wsConnectTimeout));
+        } catch (IOException e) {
+            this.getLogger().error("Could not set up WebSocket: " + e.getMessage());
+            this.setState(SignalingState.ERROR);
+            return;
+        }
+        this.ws.connect();
+    }
+
+    /**
+     * Run `task` after `delay` milliseconds on the shared timer wheel. The task is handed over
+     * to the event loop or run while holding the WebSocket lock, like transport events.
+     */
+    @NonNull
+    TimerWheel.Timeout schedule(long delay, @NonNull final Runnable task) {
+        return TimerWheel.getShared().schedule(() -> this.runLocked(task), delay);
+    }
+
+    /**
+     * Hand `task` over to the event loop, or run it while holding the WebSocket lock.
+     */
+    void runLocked(@NonNull final Runnable task) {
+        if (this.enqueueOnEventLoop(task)) {
+            return;
+        }
+        final ReentrantLock wsLock = this.eventLoop == null ? this.wsLock : null;
+        if (wsLock != null) {
+            wsLock.lock();
+        }
+        try {
+            task.run();
+        } finally {
+            if (wsLock != null) {
+                wsLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * The delay before retrying to connect has passed.
+     *
+     * @param failed The transport that failed to connect.
+     */
+    private void onConnectRetryTimer(@NonNull final Transport failed) {
+        // Disconnected (or connected again) meanwhile
+        if (this.ws != failed || this.getState() != SignalingState.WS_CONNECTING) {
+            return;
+        }
+        this.wsConnectRetryTimer = null;
+        this.reconnectWebsocket();
+    }
+
+    /**
+     * Start the deadline of the server handshake when entering `SERVER_HANDSHAKE`, and stop it
+     * when leaving it.
+     */
+    private void updateServerHandshakeTimer(@NonNull SignalingState state) {
+        final TimerWheel.Timeout timer = this.serverHandshakeTimer;
+        if (timer != null) {
+            timer.cancel();
+            this.serverHandshakeTimer = null;
+        }
+        final long timeout = this.options.getServerHandshakeTimeout();
+        if (state == SignalingState.SERVER_HANDSHAKE && timeout > 0) {
+            final int attempt = ++this.serverHandshakeAttempt;
+            this.serverHandshakeTimer = this.schedule(timeout, () -> this.onServerHandshakeTimeout(attempt));
+        }
+    }
+
+    private void onServerHandshakeTimeout(int attempt) {
+        // Completed (or started over) meanwhile
+        if (attempt != this.serverHandshakeAttempt || this.getState() != SignalingState.SERVER_HANDSHAKE) {
+            return;
+        }
+        this.getLogger().warn("Server handshake not completed within " +
+            this.options.getServerHandshakeTimeout() + " ms");
+        this.resetConnection(CloseCode.TIMEOUT);
+    }
+
+    /**
+     * Handle an error that occurred while processing an incoming message.
+     */
+    private void onIncomingMessageError(@NonNull Exception e, @Nullable SignalingChannelNonce nonce) {
+        if (e instanceof ValidationError) {
+            if (((ValidationError) e).critical) {
+                this.getLogger().error("Protocol error: Invalid incoming message: " + e.getMessage());
+                e.printStackTrace();
+                this.resetConnection(CloseCode.PROTOCOL_ERROR);
+            } else {
+                this.getLogger().warn("Dropping invalid message: " + e.getMessage());
+                e.printStackTrace();
+            }
+        } else if (e instanceof SerializationError) {
+            this.getLogger().error("Protocol error: Invalid incoming message: " + e.getMessage());
+            e.printStackTrace();
+            this.resetConnection(CloseCode.PROTOCOL_ERROR);
+        } else if (e instanceof InternalException) {
+            this.getLogger().error("Internal server error: " + e.getMessage());
+            e.printStackTrace();
+            this.resetConnection(CloseCode.INTERNAL_ERROR);
+        } else if (e instanceof ConnectionException) {
+            this.getLogger().error("Connection error: " + e.getMessage());
+            e.printStackTrace();
+            this.resetConnection(CloseCode.INTERNAL_ERROR);
+        } else if (e instanceof SignalingException) {
+            final SignalingException se = (SignalingException) e;
+            this.getLogger().error("Signaling error: " + CloseCode.explain(se.getCloseCode()));
+            e.printStackTrace();
+            switch (this.getState()) {
+                case NEW:
+                case WS_CONNECTING:
+                case SERVER_HANDSHAKE:
+                    // Close connection
+                    this.resetConnection(se.getCloseCode());
+                    break;
+                case PEER_HANDSHAKE:
+                    // Handle error depending on role
+                    assert nonce != null;
+                    this.handlePeerHandshakeSignalingError(se, nonce.getSource());
+                    break;
+                case TASK:
+                    // Close websocket connection
+                    this.sendClose(se.getCloseCode());
+                    this.resetConnection(CloseCode.CLOSING_NORMAL);
+                    break;
+                case CLOSING:
+                case CLOSED:
+                    // Ignore
+                    break;
+            }
+        } else {
+            this.getLogger().error("Unexpected error: " + e);
+            e.printStackTrace();
+            this.resetConnection(CloseCode.INTERNAL_ERROR);
+        }
+    }
+
+    /**
+     * Process part of an incoming message on another thread.
+     */
+    interface MessageHandler {
+        void handle() throws ValidationError, SerializationError, InternalException,
+            ConnectionException, SignalingException;
+    }
+
+    /**
+     * Run `handler` under the same lock (or on the event loop) and with the same error
+     * handling as the messages received from the WebSocket, then run `done`.
+     *
+     * This is used to apply the result of work that has been offloaded from the WebSocket
+     * thread for the message with the specified `nonce`. With an event loop, this only
+     * enqueues the handler, so that the offloading thread never waits for the event loop.
+     */
+    void runWithMessageLock(@NonNull final MessageHandler handler, @NonNull final SignalingChannelNonce nonce,
+                            @NonNull final Runnable done) {
+        final EventLoop eventLoop = this.eventLoop;
+        if (eventLoop != null) {
+            try {
+                eventLoop.execute(() -> {
+                    try {
+                        this.runMessageHandler(handler, nonce);
+                    } finally {
+                        done.run();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                this.getLogger().error("Event loop rejected an offloaded message", e);
+                done.run();
+            }
+            return;
+        }
+        final ReentrantLock wsLock = this.wsLock;
+        if (wsLock == null) {
+            done.run();
+            return;
+        }
+        wsLock.lock();
+        try {
+            this.runMessageHandler(handler, nonce);
+        } finally {
+            wsLock.unlock();
+            done.run();
+        }
+    }
+
+    private void runMessageHandler(@NonNull MessageHandler handler, @NonNull SignalingChannelNonce nonce) {
+        if (this.getState() == SignalingState.CLOSED) {
+            this.getLogger().debug("Ignoring offloaded message in state " + this.getState());
+            return;
+        }
+        try {
+            handler.handle();
+        } catch (ValidationError | SerializationError | InternalException |
+                 ConnectionException | SignalingException e) {
+            this.onIncomingMessageError(e, nonce);
+        }
     }
 
     /**
@@ -733,6 +1211,11 @@ public abstract class Signaling implements SignalingInterface {
         if (nonce.getSource() == SALTYRTC_ADDR_SERVER) {
             this.onSignalingServerMessage(box);
         } else {
+            final Executor messageExecutor = this.options.getMessageExecutor();
+            if (messageExecutor != null) {
+                this.offloadSignalingPeerMessage(messageExecutor, box, nonce);
+                return;
+            }
             final byte[] decrypted;
             try {
                 decrypted = this.decryptFromPeer(box);
@@ -744,6 +1227,59 @@ public abstract class Signaling implements SignalingInterface {
         }
     }
 
+    /**
+     * Decrypt and decode a signaling message from the peer on the message executor and
+     * dispatch it afterwards.
+     *
+     * Messages are dispatched in the order they have been received. Nonce and CSN
+     * validation has already happened on the WebSocket thread. If the executor rejects a
+     * message, the connection is closed.
+     */
+    private void offloadSignalingPeerMessage(@NonNull Executor executor, @NonNull final Box box,
+                                             @NonNull final SignalingChannelNonce nonce) {
+        final Peer peer = this.getPeer();
+        final SharedKeyStore sks = peer == null ? null : peer.getSessionSharedKey();
+        if (sks == null) {
+            // Same handling as in `decryptFromPeer`
+            this.getLogger().error("Peer session shared key is not available");
+            this.sendClose(CloseCode.INTERNAL_ERROR);
+            this.resetConnection(CloseCode.INTERNAL_ERROR);
+            return;
+        }
+        final List<String> messageTypes = this.task.getSupportedMessageTypes();
+        final SerialExecutor.RejectionHandler onRejected = e -> this.runLocked(() -> {
+            // Messages would get lost, so the peer connection cannot continue
+            if (this.getState() != SignalingState.TASK || this.getPeer() != peer) {
+                return;
+            }
+            this.getLogger().error("Message executor rejected a message from peer " + nonce.getSource());
+            this.sendClose(CloseCode.INTERNAL_ERROR);
+            this.resetConnection(CloseCode.INTERNAL_ERROR);
+        });
+        peer.getMessageExecutor(executor, onRejected).executeAsync(done -> {
+            final Message message;
+            try {
+                message = MessageReader.read(sks.decrypt(box), messageTypes);
+            } catch (CryptoException e) {
+                this.getLogger().error("Could not decrypt incoming message from peer " + nonce.getSource(), e);
+                done.run();
+                return;
+            } catch (ValidationError | SerializationError e) {
+                this.getLogger().error("Received invalid message from peer", e);
+                done.run();
+                return;
+            }
+            this.runWithMessageLock(() -> {
+                // The connection may have been reset in the meantime
+                if (this.getState() != SignalingState.TASK || this.getPeer() != peer) {
+                    this.getLogger().debug("Ignoring message from previous peer " + nonce.getSource());
+                    return;
+                }
+                this.onSignalingPeerMessage(message);
+            }, nonce, done);
+        });
+    }
+
     /**
      * Signaling message received from server *after* the handshake is done.
      */
@@ -780,7 +1316,10 @@ public abstract class Signaling implements SignalingInterface {
     /**
      * Signaling message received from peer *after* the handshake is done.
      */
-    public void onSignalingPeerMessage(byte[] decryptedBytes) {
+    public void onSignalingPeerMessage(final byte[] decryptedBytes) {
+        if (this.enqueueOnEventLoop(() -> this.onSignalingPeerMessage(decryptedBytes))) {
+            return;
+        }
         final Message message;
 
         try {
@@ -789,7 +1328,13 @@ public abstract class Signaling implements SignalingInterface {
             this.getLogger().error("Received invalid message from peer", e);
             return;
         }
+        this.onSignalingPeerMessage(message);
+    }
 
+    /**
+     * Dispatch a decoded signaling message from the peer.
+     */
+    private void onSignalingPeerMessage(@NonNull Message message) {
         if (message instanceof Close) {
             this.getLogger().debug("Received close");
             this.handleClose((Close) message);
@@ -881,8 +1426,7 @@ public abstract class Signaling implements SignalingInterface {
         try {
             this.getLogger().debug("Expected server key is " + HexHelper.asHex(expectedServerKey));
             this.getLogger().debug("Server session key is " + HexHelper.asHex((sessionSharedKey.getRemotePublicKey())));
-            // Note: We will not create a SharedKeyStore here since this will be done only once
-            decrypted = this.permanentKey.decrypt(box, expectedServerKey);
+            decrypted = this.getPermanentSharedKey(expectedServerKey).decrypt(box);
         } catch (CryptoException e) {
             throw new ValidationError("Could not decrypt signed_keys in server-auth message", e);
         } catch (InvalidKeyException e) {
@@ -897,6 +1441,33 @@ public abstract class Signaling implements SignalingInterface {
         }
     }
 
+    /**
+     * Return the shared key of our permanent key and `remotePermanentKey`. The key is only
+     * calculated once per remote key, so that reconnects don't repeat the key agreements
+     * with the server and known peers.
+     *
+     * Only to be used for the keys of the server and trusted peers. Keys announced by
+     * unauthenticated peers would evict them.
+     *
+     * @throws InvalidKeyException if `remotePermanentKey` is not a valid public key.
+     */
+    @NonNull
+    SharedKeyStore getPermanentSharedKey(@NonNull byte[] remotePermanentKey) throws InvalidKeyException {
+        final String key = HexHelper.asHex(remotePermanentKey);
+        synchronized (this.permanentSharedKeys) {
+            final SharedKeyStore cached = this.permanentSharedKeys.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        // Note: Calculated outside of the monitor, a concurrent calculation yields the same key
+        final SharedKeyStore sharedKey = this.permanentKey.getSharedKeyStore(remotePermanentKey);
+        synchronized (this.permanentSharedKeys) {
+            this.permanentSharedKeys.put(key, sharedKey);
+        }
+        return sharedKey;
+    }
+
     /**
      * Initialize the peer handshake.
      */
@@ -928,7 +1499,10 @@ public abstract class Signaling implements SignalingInterface {
     /**
      * Send a close message to the peer.
      */
-    public void sendClose(int reason) {
+    public void sendClose(final int reason) {
+        if (this.enqueueOnEventLoop(() -> this.sendClose(reason))) {
+            return;
+        }
         final Close msg = new Close(reason);
         final byte[] packet;
         try {
@@ -1150,29 +1724,46 @@ public abstract class Signaling implements SignalingInterface {
      * The message needs to be passed in too, because encryption after handshake is done in the
      * task.
      */
-    synchronized void send(@NonNull byte[] payload, @NonNull Message msg) throws ConnectionException, SignalingException {
-        // Verify connection state
-        final SignalingState state = this.getState();
-        if (state != SignalingState.TASK &&
-                state != SignalingState.SERVER_HANDSHAKE &&
-                state != SignalingState.PEER_HANDSHAKE) {
-            this.getLogger().error("Trying to send message, but connection state is " + this.getState());
-            throw new ConnectionException("SaltyRTC instance is not connected");
-        }
-
-        // Send data...
-        if (!this.handoverState.getLocal()) {
-            // ...through websocket...
-            if (this.ws == null) {
-                this.getLogger().error("Trying to send message, but websocket is null");
+    void send(@NonNull byte[] payload, @NonNull Message msg) throws ConnectionException, SignalingException {
+        this.send(payload, msg, null);
+    }
+
+    /**
+     * Send data through the signaling channel and notify `callback` once it has been
+     * handed to the socket.
+     */
+    void send(@NonNull byte[] payload, @NonNull Message msg, @Nullable SendCallback callback)
+        throws ConnectionException, SignalingException {
+        this.lock.lock();
+        try {
+            // Verify connection state
+            final SignalingState state = this.getState();
+            if (state != SignalingState.TASK &&
+                    state != SignalingState.SERVER_HANDSHAKE &&
+                    state != SignalingState.PEER_HANDSHAKE) {
+                this.getLogger().error("Trying to send message, but connection state is " + this.getState());
                 throw new ConnectionException("SaltyRTC instance is not connected");
             }
-            this.ws.sendBinary(payload);
-        } else {
-            // ...or via task.
-            // Note: By sending a message through the task, the packet with the already sent CSN is dropped.
-            // That's not a problem though, as the CSN will never be used again after handover.
-            this.task.sendSignalingMessage(msg.toBytes());
+
+            // Send data...
+            if (!this.handoverState.getLocal()) {
+                // ...through websocket...
+                if (this.ws == null || this.outbound == null) {
+                    this.getLogger().error("Trying to send message, but websocket is null");
+                    throw new ConnectionException("SaltyRTC instance is not connected");
+                }
+                this.outbound.send(this.ws, payload, callback, msg instanceof Application);
+            } else {
+                // ...or via task.
+                // Note: By sending a message through the task, the packet with the already sent CSN is dropped.
+                // That's not a problem though, as the CSN will never be used again after handover.
+                this.task.sendSignalingMessage(msg.toBytes());
+                if (callback != null) {
+                    callback.onSent();
+                }
+            }
+        } finally {
+            this.lock.unlock();
         }
     }
 
@@ -1182,11 +1773,38 @@ public abstract class Signaling implements SignalingInterface {
      *
      * This function should only be called in TASK state.
      */
-    public void sendApplication(Application msg) throws ConnectionException {
+    public void sendApplication(final Application msg) throws ConnectionException {
+        this.sendApplication(msg, null);
+    }
+
+    /**
+     * Send an application message through the signaling channel and notify `callback` once it
+     * has been handed to the socket or if sending failed.
+     *
+     * This function should only be called in TASK state.
+     */
+    public void sendApplication(final Application msg, @Nullable final SendCallback callback)
+        throws ConnectionException {
+        this.awaitOutboundCapacity();
+        if (this.enqueueOnEventLoop(() -> {
+            try {
+                this.sendApplication(msg, callback);
+            } catch (ConnectionException e) {
+                this.getLogger().error("Could not send application message", e);
+                if (callback != null) {
+                    callback.onFailed(e);
+                }
+            }
+        })) {
+            return;
+        }
         try {
-            this.sendPostClientHandshakeMessage(msg, "application");
+            this.sendPostClientHandshakeMessage(msg, "application", callback);
         } catch (SignalingException e) {
             e.printStackTrace();
+            if (callback != null) {
+                callback.onFailed(e);
+            }
             Signaling.this.sendClose(e.getCloseCode());
             Signaling.this.resetConnection(CloseCode.CLOSING_NORMAL);
         }
@@ -1195,8 +1813,22 @@ public abstract class Signaling implements SignalingInterface {
     /**
      * Send a task message through the signaling channel.
      */
-    public void sendTaskMessage(TaskMessage msg) throws SignalingException, ConnectionException {
-        this.sendPostClientHandshakeMessage(msg, "task");
+    public void sendTaskMessage(final TaskMessage msg) throws SignalingException, ConnectionException {
+        this.awaitOutboundCapacity();
+        if (this.enqueueOnEventLoop(() -> {
+            try {
+                this.sendTaskMessage(msg);
+            } catch (SignalingException e) {
+                e.printStackTrace();
+                this.sendClose(e.getCloseCode());
+                this.resetConnection(CloseCode.CLOSING_NORMAL);
+            } catch (ConnectionException e) {
+                this.getLogger().error("Could not send task message", e);
+            }
+        })) {
+            return;
+        }
+        this.sendPostClientHandshakeMessage(msg, "task", null);
     }
 
     /**
@@ -1204,7 +1836,7 @@ public abstract class Signaling implements SignalingInterface {
      *
      * @throws SignalingException if client to client handshake has not been completed.
      */
-    private void sendPostClientHandshakeMessage(Message msg, String name)
+    private void sendPostClientHandshakeMessage(Message msg, String name, @Nullable SendCallback callback)
             throws SignalingException, ConnectionException {
 
         // Make sure the c2c handshake has been completed
@@ -1235,9 +1867,36 @@ public abstract class Signaling implements SignalingInterface {
         this.getLogger().debug("Sending " + name + " message");
         if (this.handoverState.getLocal()) {
             this.task.sendSignalingMessage(msg.toBytes());
+            if (callback != null) {
+                callback.onSent();
+            }
         } else {
+            // Reject before building the packet, so that no CSN is wasted
+            final OutboundQueue outbound = this.outbound;
+            if (outbound != null && this.isOutboundQueueFull(outbound, msg)) {
+                outbound.onRejected();
+                throw new BackpressureException("Outbound queue is full, cannot send " + name + " message");
+            }
             final byte[] packet = this.buildPacket(msg, receiver);
-            this.send(packet, msg);
+            this.send(packet, msg, callback);
+        }
+    }
+
+    /**
+     * Return whether `msg` must be rejected because of the limits of the outbound queue.
+     *
+     * Messages that are not rejected right away are only held back up to the limits, so that
+     * at most twice the limits are queued.
+     */
+    private boolean isOutboundQueueFull(@NonNull OutboundQueue outbound, @NonNull Message msg) {
+        switch (this.options.getBackpressureMode()) {
+            case REJECT:
+                return outbound.isFull();
+            case DROP_OLDEST_APPLICATION:
+                // Application messages make room by dropping held back ones
+                return !(msg instanceof Application) && outbound.isBacklogFull();
+            default:
+                return outbound.isBacklogFull();
         }
     }
 
@@ -1253,7 +1912,9 @@ public abstract class Signaling implements SignalingInterface {
     }
 
     private void handleApplication(Application msg) {
-        this.salty.events.applicationData.notifyHandlers(new ApplicationDataEvent(msg.getData()));
+        if (this.salty.events.applicationData.hasHandlers()) {
+            this.salty.events.applicationData.notifyHandlers(new ApplicationDataEvent(msg.getData()));
+        }
     }
 
     /**
@@ -1261,6 +1922,12 @@ public abstract class Signaling implements SignalingInterface {
      */
     abstract void handleSendError(short receiver) throws SignalingException;
 
+    /**
+     * Forget the peers of the server the connection to which has been lost, so that the
+     * peer handshake starts over with the peers of the next server.
+     */
+    abstract void resetPeers();
+
     /**
      * Handle incoming send-error messages.
      */
@@ -1314,9 +1981,11 @@ public abstract class Signaling implements SignalingInterface {
 
         // A receiving client MUST notify the user application about the
         // incoming 'disconnected' message, along with the id field.
-        this.salty.events.peerDisconnected.notifyHandlers(
-            new PeerDisconnectedEvent((short) id)
-        );
+        if (this.salty.events.peerDisconnected.hasHandlers()) {
+            this.salty.events.peerDisconnected.notifyHandlers(
+                new PeerDisconnectedEvent((short) id)
+            );
+        }
     }
 
     /**
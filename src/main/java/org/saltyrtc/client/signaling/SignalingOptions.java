@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.signaling;
+
+import org.saltyrtc.client.SaltyRTCBuilder;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.retry.RetryPolicy;
+import org.saltyrtc.client.transport.NvWebSocketTransportFactory;
+import org.saltyrtc.client.transport.TlsSessionCache;
+import org.saltyrtc.client.transport.TransportFactory;
+
+import javax.net.ssl.SSLContext;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Optional tuning parameters of the signaling implementation.
+ *
+ * Note: As end user, you should not need to create this class directly.
+ * The options are set through the `SaltyRTCBuilder`.
+ */
+public class SignalingOptions {
+    @Nullable private Executor handshakeExecutor;
+    @Nullable private Executor messageExecutor;
+    @Nullable private Executor eventLoopExecutor;
+    @Nullable private ThreadFactory threadFactory;
+    @NonNull private TransportFactory transportFactory = new NvWebSocketTransportFactory();
+    private int maxOutstandingFrames = 0;
+    private long maxOutstandingBytes = 0;
+    @NonNull private SaltyRTCBuilder.BackpressureMode backpressureMode = SaltyRTCBuilder.BackpressureMode.AWAIT;
+    private long maxFlushDelay = 0;
+    @Nullable private TlsSessionCache tlsSessionCache;
+    @NonNull private RetryPolicy retryPolicy = RetryPolicy.IMMEDIATE;
+    @Nullable private String standbyHost;
+    private int standbyPort;
+    @Nullable private SSLContext standbySslContext;
+    private long serverHandshakeTimeout = 0;
+    private long peerHandshakeTimeout = 0;
+
+    /**
+     * Return the executor that handshake crypto of responders is offloaded to (initiator only),
+     * or `null` if it runs on the WebSocket thread.
+     */
+    @Nullable
+    public Executor getHandshakeExecutor() {
+        return this.handshakeExecutor;
+    }
+
+    public SignalingOptions setHandshakeExecutor(@Nullable Executor handshakeExecutor) {
+        this.handshakeExecutor = handshakeExecutor;
+        return this;
+    }
+
+    /**
+     * Return the executor that decryption and decoding of signaling messages from the peer
+     * is offloaded to after the handshake, or `null` if it runs on the WebSocket thread.
+     */
+    @Nullable
+    public Executor getMessageExecutor() {
+        return this.messageExecutor;
+    }
+
+    public SignalingOptions setMessageExecutor(@Nullable Executor messageExecutor) {
+        this.messageExecutor = messageExecutor;
+        return this;
+    }
+
+    /**
+     * Return the executor that runs the event loop owning all signaling state, or `null` if
+     * the signaling state is guarded by locks instead.
+     */
+    @Nullable
+    public Executor getEventLoopExecutor() {
+        return this.eventLoopExecutor;
+    }
+
+    public SignalingOptions setEventLoopExecutor(@Nullable Executor eventLoopExecutor) {
+        this.eventLoopExecutor = eventLoopExecutor;
+        return this;
+    }
+
+    /**
+     * Return the factory for the threads created by the transport (e.g. to connect the
+     * WebSocket), or `null` if the transport creates them itself.
+     */
+    @Nullable
+    public ThreadFactory getThreadFactory() {
+        return this.threadFactory;
+    }
+
+    public SignalingOptions setThreadFactory(@Nullable ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+        return this;
+    }
+
+    /**
+     * Return the factory for the transports used to connect to the server.
+     */
+    @NonNull
+    public TransportFactory getTransportFactory() {
+        return this.transportFactory;
+    }
+
+    public SignalingOptions setTransportFactory(@NonNull TransportFactory transportFactory) {
+        this.transportFactory = transportFactory;
+        return this;
+    }
+
+    /**
+     * Return the maximum number of messages that may wait to be written to the WebSocket,
+     * or 0 for no limit.
+     */
+    public int getMaxOutstandingFrames() {
+        return this.maxOutstandingFrames;
+    }
+
+    /**
+     * Return the maximum number of bytes that may wait to be written to the WebSocket,
+     * or 0 for no limit.
+     */
+    public long getMaxOutstandingBytes() {
+        return this.maxOutstandingBytes;
+    }
+
+    /**
+     * Return what happens to messages sent while the limit of outstanding bytes is reached.
+     */
+    @NonNull
+    public SaltyRTCBuilder.BackpressureMode getBackpressureMode() {
+        return this.backpressureMode;
+    }
+
+    public SignalingOptions setMaxOutstandingBytes(long maxOutstandingBytes,
+                                                   @NonNull SaltyRTCBuilder.BackpressureMode backpressureMode) {
+        return this.setOutboundQueueLimits(0, maxOutstandingBytes, backpressureMode);
+    }
+
+    public SignalingOptions setOutboundQueueLimits(int maxOutstandingFrames,
+                                                   long maxOutstandingBytes,
+                                                   @NonNull SaltyRTCBuilder.BackpressureMode backpressureMode) {
+        this.maxOutstandingFrames = maxOutstandingFrames;
+        this.maxOutstandingBytes = maxOutstandingBytes;
+        this.backpressureMode = backpressureMode;
+        return this;
+    }
+
+    /**
+     * Return the maximum time in milliseconds that messages sent while handling an incoming
+     * message may be held back to be flushed together, or 0 to flush every message on its own.
+     */
+    public long getMaxFlushDelay() {
+        return this.maxFlushDelay;
+    }
+
+    public SignalingOptions setMaxFlushDelay(long maxFlushDelay) {
+        this.maxFlushDelay = maxFlushDelay;
+        return this;
+    }
+
+    /**
+     * Return the cache providing the SSL context if none has been configured, or `null`.
+     */
+    @Nullable
+    public TlsSessionCache getTlsSessionCache() {
+        return this.tlsSessionCache;
+    }
+
+    public SignalingOptions setTlsSessionCache(@Nullable TlsSessionCache tlsSessionCache) {
+        this.tlsSessionCache = tlsSessionCache;
+        return this;
+    }
+
+    /**
+     * Return the policy deciding how long to wait before retrying to connect.
+     */
+    @NonNull
+    public RetryPolicy getRetryPolicy() {
+        return this.retryPolicy;
+    }
+
+    public SignalingOptions setRetryPolicy(@NonNull RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    /**
+     * Return the host of the standby server, or `null` if no standby connection is kept.
+     */
+    @Nullable
+    public String getStandbyHost() {
+        return this.standbyHost;
+    }
+
+    public int getStandbyPort() {
+        return this.standbyPort;
+    }
+
+    @Nullable
+    public SSLContext getStandbySslContext() {
+        return this.standbySslContext;
+    }
+
+    public SignalingOptions setStandbyServer(@Nullable String host, int port, @Nullable SSLContext sslContext) {
+        this.standbyHost = host;
+        this.standbyPort = port;
+        this.standbySslContext = sslContext;
+        return this;
+    }
+
+    /**
+     * Return the time in milliseconds the server handshake may take, or 0 if it is not limited.
+     */
+    public long getServerHandshakeTimeout() {
+        return this.serverHandshakeTimeout;
+    }
+
+    /**
+     * Return the time in milliseconds a peer handshake may take once both peers are connected
+     * to the server, or 0 if it is not limited.
+     */
+    public long getPeerHandshakeTimeout() {
+        return this.peerHandshakeTimeout;
+    }
+
+    public SignalingOptions setHandshakeTimeouts(long serverHandshakeTimeout, long peerHandshakeTimeout) {
+        if (serverHandshakeTimeout < 0 || peerHandshakeTimeout < 0) {
+            throw new IllegalArgumentException("Handshake timeouts must not be negative");
+        }
+        this.serverHandshakeTimeout = serverHandshakeTimeout;
+        this.peerHandshakeTimeout = peerHandshakeTimeout;
+        return this;
+    }
+}
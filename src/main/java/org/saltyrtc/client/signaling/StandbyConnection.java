@@ -0,0 +1,436 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.signaling;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.helpers.TimerWheel;
+import org.saltyrtc.client.retry.ExponentialBackoff;
+import org.saltyrtc.client.retry.RetryPolicy;
+import org.saltyrtc.client.transport.Transport;
+import org.saltyrtc.client.transport.TransportConfig;
+import org.saltyrtc.client.transport.TransportFactory;
+import org.saltyrtc.client.transport.TransportListener;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A connection to a backup server, kept open while the session uses its server so that the
+ * session can fail over to it without waiting for DNS, TCP and TLS.
+ *
+ * Messages received on the connection (i.e. the server-hello) are held back until the session
+ * has claimed and attached it. The server handshake is not continued ahead of time: Sending
+ * the client-auth message would take a slot on the path of the backup server and announce the
+ * client to the peers there.
+ *
+ * If the connection cannot be established or is lost before it has been claimed, it is
+ * re-established with an exponential backoff.
+ *
+ * Transports are created, connected and closed without holding the lock, so that transports
+ * calling back synchronously, and slow factories, don't hold up the listener callbacks.
+ */
+final class StandbyConnection {
+    private static final long RETRY_BASE_DELAY = 1000;
+    private static final long RETRY_MAX_DELAY = 60000;
+
+    @NonNull private final Logger log;
+    @NonNull private final TransportFactory factory;
+    @NonNull private final TransportConfig config;
+    @NonNull private final RetryPolicy retryPolicy = new ExponentialBackoff(RETRY_BASE_DELAY, RETRY_MAX_DELAY, true);
+
+    // Guarded by `lock`
+    @NonNull private final ReentrantLock lock = new ReentrantLock();
+    @Nullable private Transport transport;
+    // Whether a transport is being created or connected, and whether to connect again once
+    // done because the retry timer fired meanwhile
+    private boolean connecting = false;
+    private boolean connectAgain = false;
+    // Incremented for every transport, so that events of replaced transports are ignored
+    private int generation = 0;
+    private boolean connected = false;
+    private boolean claimed = false;
+    private boolean closed = false;
+    private int failedAttempts = 0;
+    private long retryDelay = 0;
+    @Nullable private TimerWheel.Timeout retryTimer;
+    // Events held back until the connection has been attached
+    @NonNull private final List<byte[]> held = new ArrayList<>();
+    private boolean disconnected = false;
+    private int closeCode;
+    @Nullable private String closeReason;
+    private boolean closedByServer;
+    private boolean attached = false;
+    // Set once the held back events have been delivered
+    @Nullable private TransportListener target;
+
+    StandbyConnection(@NonNull Logger log, @NonNull TransportFactory factory, @NonNull TransportConfig config) {
+        this.log = log;
+        this.factory = factory;
+        this.config = config;
+    }
+
+    @NonNull
+    TransportConfig getConfig() {
+        return this.config;
+    }
+
+    /**
+     * Start connecting.
+     */
+    void start() {
+        this.connect();
+    }
+
+    /**
+     * Return whether the connection is established and can be claimed.
+     */
+    boolean isReady() {
+        this.lock.lock();
+        try {
+            return this.connected && !this.claimed && !this.closed;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Take the connection over if it is established. Its events are held back until the
+     * connection is attached.
+     *
+     * @return The transport, or `null` if the connection is not established.
+     */
+    @Nullable
+    Transport claim() {
+        this.lock.lock();
+        try {
+            if (!this.isReady()) {
+                return null;
+            }
+            this.claimed = true;
+            return this.transport;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Deliver the events held back to `target`, and all further events of the claimed
+     * connection.
+     */
+    void attach(@NonNull TransportListener target) {
+        this.lock.lock();
+        try {
+            if (!this.claimed || this.attached) {
+                throw new IllegalStateException("Standby connection has not been claimed or is attached already");
+            }
+            this.attached = true;
+        } finally {
+            this.lock.unlock();
+        }
+        // Note: Events arriving while replaying are held back as well, so that they are
+        //       delivered after the ones replayed. The target is set once nothing is left.
+        while (true) {
+            final List<byte[]> messages;
+            final boolean disconnected;
+            final int closeCode;
+            @Nullable final String closeReason;
+            final boolean closedByServer;
+            this.lock.lock();
+            try {
+                if (this.held.isEmpty() && !this.disconnected) {
+                    this.target = target;
+                    return;
+                }
+                messages = new ArrayList<>(this.held);
+                this.held.clear();
+                disconnected = this.disconnected;
+                closeCode = this.closeCode;
+                closeReason = this.closeReason;
+                closedByServer = this.closedByServer;
+                this.disconnected = false;
+            } finally {
+                this.lock.unlock();
+            }
+            for (byte[] message : messages) {
+                target.onBinaryMessage(message);
+            }
+            if (disconnected) {
+                target.onDisconnected(closeCode, closeReason, closedByServer);
+            }
+        }
+    }
+
+    /**
+     * Close the connection unless it has been claimed, and stop reconnecting.
+     */
+    void close() {
+        final Transport transport;
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.cancelRetryTimer();
+            // Note: A transport that is being connected is closed once `connect` returns
+            transport = this.claimed || this.connecting ? null : this.transport;
+            this.transport = null;
+            this.connected = false;
+            this.held.clear();
+        } finally {
+            this.lock.unlock();
+        }
+        if (transport != null) {
+            transport.close(CloseCode.CLOSING_NORMAL);
+        }
+    }
+
+    /**
+     * Create and connect a transport, unless closed or a transport exists already.
+     */
+    private void connect() {
+        final Listener listener;
+        this.lock.lock();
+        try {
+            if (this.connecting && this.transport == null) {
+                this.connectAgain = true;
+            }
+            if (this.closed || this.connecting || this.transport != null) {
+                return;
+            }
+            this.connecting = true;
+            listener = new Listener(++this.generation);
+        } finally {
+            this.lock.unlock();
+        }
+
+        Transport transport = null;
+        try {
+            transport = this.factory.create(this.config, listener);
+            this.log.debug("Connecting standby connection to " + this.config.getUri().getHost());
+            this.lock.lock();
+            try {
+                this.transport = transport;
+            } finally {
+                this.lock.unlock();
+            }
+            transport.connect();
+        } catch (IOException e) {
+            this.log.warn("Could not set up standby connection: " + e.getMessage());
+        } finally {
+            final boolean close;
+            final boolean again;
+            this.lock.lock();
+            try {
+                this.connecting = false;
+                close = transport != null && this.closed && !this.claimed;
+                again = this.connectAgain;
+                this.connectAgain = false;
+                if (transport == null) {
+                    this.scheduleRetry();
+                }
+            } finally {
+                this.lock.unlock();
+            }
+            if (close) {
+                transport.close(CloseCode.CLOSING_NORMAL);
+            } else if (again) {
+                this.connect();
+            }
+        }
+    }
+
+    /**
+     * Connect again after a delay. Requires the lock.
+     */
+    private void scheduleRetry() {
+        if (this.closed) {
+            return;
+        }
+        this.transport = null;
+        this.failedAttempts++;
+        this.retryDelay = this.retryPolicy.nextDelay(this.failedAttempts, this.retryDelay);
+        this.log.debug("Reconnecting standby connection in " + this.retryDelay + " ms");
+        this.retryTimer = TimerWheel.getShared().schedule(this::onRetryTimer, this.retryDelay);
+    }
+
+    private void onRetryTimer() {
+        this.lock.lock();
+        try {
+            this.retryTimer = null;
+        } finally {
+            this.lock.unlock();
+        }
+        this.connect();
+    }
+
+    private void cancelRetryTimer() {
+        if (this.retryTimer != null) {
+            this.retryTimer.cancel();
+            this.retryTimer = null;
+        }
+    }
+
+    /**
+     * Listener of a single transport. Holds events back until the connection has been
+     * attached, then forwards them.
+     */
+    private final class Listener implements TransportListener {
+        private final int generation;
+
+        Listener(int generation) {
+            this.generation = generation;
+        }
+
+        private boolean isStale() {
+            return this.generation != StandbyConnection.this.generation
+                || (StandbyConnection.this.closed && !StandbyConnection.this.claimed);
+        }
+
+        @Override
+        public void onConnected() {
+            final TransportListener target;
+            StandbyConnection.this.lock.lock();
+            try {
+                if (this.isStale()) {
+                    return;
+                }
+                target = StandbyConnection.this.target;
+                if (target == null) {
+                    StandbyConnection.this.log.info("Standby connection to " +
+                        StandbyConnection.this.config.getUri().getHost() + " established");
+                    StandbyConnection.this.connected = true;
+                    StandbyConnection.this.failedAttempts = 0;
+                    StandbyConnection.this.retryDelay = 0;
+                    return;
+                }
+            } finally {
+                StandbyConnection.this.lock.unlock();
+            }
+            target.onConnected();
+        }
+
+        @Override
+        public void onConnectError(@NonNull Exception e) {
+            StandbyConnection.this.lock.lock();
+            try {
+                if (this.isStale()) {
+                    return;
+                }
+                StandbyConnection.this.log.debug("Could not connect standby connection: " + e.getMessage());
+                StandbyConnection.this.scheduleRetry();
+            } finally {
+                StandbyConnection.this.lock.unlock();
+            }
+        }
+
+        @Override
+        public void onTextMessage(@NonNull String text) {
+            final TransportListener target;
+            StandbyConnection.this.lock.lock();
+            try {
+                if (this.isStale()) {
+                    return;
+                }
+                target = StandbyConnection.this.target;
+                if (target == null) {
+                    StandbyConnection.this.log.warn("Ignoring string message on standby connection");
+                    return;
+                }
+            } finally {
+                StandbyConnection.this.lock.unlock();
+            }
+            target.onTextMessage(text);
+        }
+
+        @Override
+        public void onBinaryMessage(@NonNull byte[] binary) {
+            final TransportListener target;
+            StandbyConnection.this.lock.lock();
+            try {
+                if (this.isStale()) {
+                    return;
+                }
+                target = StandbyConnection.this.target;
+                if (target == null) {
+                    StandbyConnection.this.held.add(binary);
+                    return;
+                }
+            } finally {
+                StandbyConnection.this.lock.unlock();
+            }
+            target.onBinaryMessage(binary);
+        }
+
+        @Override
+        public void onDisconnected(int closeCode, @Nullable String closeReason, boolean closedByServer) {
+            final TransportListener target;
+            StandbyConnection.this.lock.lock();
+            try {
+                if (this.isStale()) {
+                    return;
+                }
+                target = StandbyConnection.this.target;
+                if (target == null) {
+                    if (StandbyConnection.this.claimed) {
+                        StandbyConnection.this.disconnected = true;
+                        StandbyConnection.this.closeCode = closeCode;
+                        StandbyConnection.this.closeReason = closeReason;
+                        StandbyConnection.this.closedByServer = closedByServer;
+                    } else {
+                        StandbyConnection.this.log.info("Standby connection lost (code " + closeCode + ")");
+                        StandbyConnection.this.connected = false;
+                        StandbyConnection.this.held.clear();
+                        StandbyConnection.this.scheduleRetry();
+                    }
+                    return;
+                }
+            } finally {
+                StandbyConnection.this.lock.unlock();
+            }
+            target.onDisconnected(closeCode, closeReason, closedByServer);
+        }
+
+        @Override
+        public void onError(@NonNull Exception cause) {
+            final TransportListener target;
+            StandbyConnection.this.lock.lock();
+            try {
+                if (this.isStale()) {
+                    return;
+                }
+                target = StandbyConnection.this.target;
+                if (target == null) {
+                    StandbyConnection.this.log.debug("Standby connection error: " + cause.getMessage());
+                    return;
+                }
+            } finally {
+                StandbyConnection.this.lock.unlock();
+            }
+            target.onError(cause);
+        }
+
+        @Override
+        public void handleCallbackError(@NonNull Throwable cause) {
+            final TransportListener target;
+            StandbyConnection.this.lock.lock();
+            try {
+                target = StandbyConnection.this.target;
+            } finally {
+                StandbyConnection.this.lock.unlock();
+            }
+            if (target != null) {
+                target.handleCallbackError(cause);
+            } else {
+                StandbyConnection.this.log.error("Standby connection callback error: " + cause);
+            }
+        }
+    }
+}
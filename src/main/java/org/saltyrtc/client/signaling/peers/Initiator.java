@@ -45,6 +45,16 @@ public class Initiator extends Peer {
         this.handshakeState = InitiatorHandshakeState.NEW;
     }
 
+    /**
+     * Create an initiator with a precalculated permanent shared key.
+     */
+    public Initiator(@NonNull SharedKeyStore permanentSharedKey) {
+        super(Initiator.ID);
+        this.setPermanentSharedKey(permanentSharedKey);
+        this.connected = false;
+        this.handshakeState = InitiatorHandshakeState.NEW;
+    }
+
     @NonNull
     @Override
     public String getName() {
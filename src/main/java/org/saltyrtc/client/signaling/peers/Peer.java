@@ -12,10 +12,13 @@ import org.saltyrtc.client.annotations.NonNull;
 import org.saltyrtc.client.annotations.Nullable;
 import org.saltyrtc.client.cookie.CookiePair;
 import org.saltyrtc.client.exceptions.InvalidKeyException;
+import org.saltyrtc.client.helpers.SerialExecutor;
 import org.saltyrtc.client.keystore.KeyStore;
 import org.saltyrtc.client.keystore.SharedKeyStore;
 import org.saltyrtc.client.nonce.CombinedSequencePair;
 
+import java.util.concurrent.Executor;
+
 /**
  * Either the server, the initiator or a responder.
  */
@@ -35,6 +38,9 @@ public abstract class Peer {
     // Cookie pair
     @NonNull private CookiePair cookiePair;
 
+    // Runs offloaded processing of incoming messages in order
+    @Nullable private SerialExecutor messageExecutor;
+
 	/**
      * Initialize a peer with just an ID.
      */
@@ -76,6 +82,13 @@ public abstract class Peer {
         this.permanentSharedKey = localPermanentKey.getSharedKeyStore(remotePermanentKey);
     }
 
+    /**
+     * Set a precalculated permanent shared key for this peer.
+     */
+    public void setPermanentSharedKey(@NonNull SharedKeyStore permanentSharedKey) {
+        this.permanentSharedKey = permanentSharedKey;
+    }
+
     public boolean hasPermanentSharedKey() {
         return this.permanentSharedKey != null;
     }
@@ -98,6 +111,13 @@ public abstract class Peer {
         this.sessionSharedKey = localSessionKey.getSharedKeyStore(remoteSessionKey);
     }
 
+    /**
+     * Set a precalculated session shared key for this peer.
+     */
+    public void setSessionSharedKey(@NonNull SharedKeyStore sessionSharedKey) {
+        this.sessionSharedKey = sessionSharedKey;
+    }
+
     public boolean hasSessionSharedKey() {
         return this.sessionSharedKey != null;
     }
@@ -117,4 +137,22 @@ public abstract class Peer {
     public CookiePair getCookiePair() {
         return this.cookiePair;
     }
+
+    /**
+     * Return the executor that runs the offloaded processing of messages from this peer
+     * one task after another on `executor`.
+     *
+     * @param rejectionHandler Notified if `executor` rejects a task (only used when the
+     *                         executor is created).
+     */
+    @NonNull
+    public synchronized SerialExecutor getMessageExecutor(
+        @NonNull Executor executor,
+        @NonNull SerialExecutor.RejectionHandler rejectionHandler
+    ) {
+        if (this.messageExecutor == null) {
+            this.messageExecutor = new SerialExecutor(executor, rejectionHandler);
+        }
+        return this.messageExecutor;
+    }
 }
@@ -9,15 +9,20 @@
 package org.saltyrtc.client.signaling.peers;
 
 import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
 import org.saltyrtc.client.exceptions.ValidationError;
+import org.saltyrtc.client.helpers.SerialExecutor;
 import org.saltyrtc.client.signaling.state.ResponderHandshakeState;
 
+import java.util.concurrent.Executor;
+
 /**
  * Information about a responder. Used by initiator during handshake.
  */
 public class Responder extends Peer {
     public ResponderHandshakeState handshakeState;
     private int counter;
+    @Nullable private SerialExecutor handshakeExecutor;
 
     /**
      * Create a new `Responder` object.
@@ -43,4 +48,22 @@ public class Responder extends Peer {
     public int getCounter() {
         return this.counter;
     }
+
+    /**
+     * Return the executor that runs the offloaded handshake work of this responder
+     * one task after another on `executor`.
+     *
+     * @param rejectionHandler Notified if `executor` rejects a task (only used when the
+     *                         executor is created).
+     */
+    @NonNull
+    public synchronized SerialExecutor getHandshakeExecutor(
+        @NonNull Executor executor,
+        @NonNull SerialExecutor.RejectionHandler rejectionHandler
+    ) {
+        if (this.handshakeExecutor == null) {
+            this.handshakeExecutor = new SerialExecutor(executor, rejectionHandler);
+        }
+        return this.handshakeExecutor;
+    }
 }
@@ -18,7 +18,7 @@ public class HandoverState {
     public void setLocal(boolean local) {
         final boolean wasAll = this.getAll();
         this.local = local;
-        if (!wasAll && this.getAll()) {
+        if (!wasAll && this.getAll() && this.handoverComplete.hasHandlers()) {
             this.handoverComplete.notifyHandlers(new HandoverComplete());
         }
     }
@@ -30,7 +30,7 @@ public class HandoverState {
     public void setPeer(boolean peer) {
         final boolean wasAll = this.getAll();
         this.peer = peer;
-        if (!wasAll && this.getAll()) {
+        if (!wasAll && this.getAll() && this.handoverComplete.hasHandlers()) {
             this.handoverComplete.notifyHandlers(new HandoverComplete());
         }
     }
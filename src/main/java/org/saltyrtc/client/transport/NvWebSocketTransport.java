@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.transport;
+
+import com.neovisionaries.ws.client.DualStackMode;
+import com.neovisionaries.ws.client.WebSocket;
+import com.neovisionaries.ws.client.WebSocketAdapter;
+import com.neovisionaries.ws.client.WebSocketException;
+import com.neovisionaries.ws.client.WebSocketFactory;
+import com.neovisionaries.ws.client.WebSocketFrame;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.exceptions.ConnectionException;
+import org.saltyrtc.client.signaling.SendCallback;
+
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A transport based on the nv-websocket-client library.
+ *
+ * The library uses its own threads for reading and writing. The connect thread is created by
+ * the configured thread factory, if any.
+ */
+class NvWebSocketTransport extends WebSocketAdapter implements Transport {
+    private static class Pending {
+        @NonNull final WebSocketFrame frame;
+        @NonNull final SendCallback callback;
+
+        Pending(@NonNull WebSocketFrame frame, @NonNull SendCallback callback) {
+            this.frame = frame;
+            this.callback = callback;
+        }
+    }
+
+    @NonNull private final WebSocket ws;
+    @NonNull private final TransportListener listener;
+    @Nullable private final ThreadFactory threadFactory;
+    @Nullable private final TlsSessionCache tlsSessionCache;
+
+    // Frames handed to the WebSocket, in order
+    @NonNull private final ArrayDeque<Pending> inFlight = new ArrayDeque<>();
+
+    NvWebSocketTransport(@NonNull TransportConfig config, @NonNull TransportListener listener) throws IOException {
+        this.listener = listener;
+        this.threadFactory = config.getThreadFactory();
+        this.tlsSessionCache = config.getTlsSessionCache();
+
+        // Create factory
+        // Note: We prefer the SSLSocketFactory over the SSLContext, if set.
+        //       They are mutually exclusive due to the way the WebSockets library uses them.
+        final WebSocketFactory factory = new WebSocketFactory()
+            .setDualStackMode(toDualStackMode(config))
+            .setConnectionTimeout(config.getConnectTimeout())
+            .setVerifyHostname(true);
+        if (config.getSslSocketFactory() != null) {
+            factory.setSSLSocketFactory(config.getSslSocketFactory());
+        } else {
+            factory.setSSLContext(config.getSslContext());
+        }
+
+        // Create WebSocket client instance
+        this.ws = factory
+            .createSocket(config.getUri())
+            .setPingInterval(config.getPingInterval())
+            .setAutoFlush(config.isAutoFlush())
+            .addProtocol(config.getSubprotocol())
+            .addListener(this);
+    }
+
+    @NonNull
+    private static DualStackMode toDualStackMode(@NonNull TransportConfig config) {
+        switch (config.getDualStackMode()) {
+            case BOTH:
+                return DualStackMode.BOTH;
+            case IPV4_ONLY:
+                return DualStackMode.IPV4_ONLY;
+            case IPV6_ONLY:
+                return DualStackMode.IPV6_ONLY;
+            default:
+                throw new IllegalArgumentException("Unknown dual stack mode: " + config.getDualStackMode());
+        }
+    }
+
+    @Override
+    public void connect() {
+        if (this.threadFactory == null) {
+            this.ws.connectAsynchronously();
+            return;
+        }
+        this.threadFactory.newThread(() -> {
+            try {
+                this.ws.connect();
+            } catch (WebSocketException e) {
+                // Report the error like `connectAsynchronously` would do
+                try {
+                    this.listener.onConnectError(e);
+                } catch (RuntimeException ee) {
+                    this.listener.handleCallbackError(ee);
+                }
+            }
+        }).start();
+    }
+
+    @Override
+    public void send(@NonNull byte[] payload, @NonNull SendCallback callback) {
+        final WebSocketFrame frame = WebSocketFrame.createBinaryFrame(payload);
+        synchronized (this.inFlight) {
+            this.inFlight.add(new Pending(frame, callback));
+            this.ws.sendFrame(frame);
+        }
+    }
+
+    @Override
+    public void flush() {
+        // Flushed by the writing thread
+        this.ws.flush();
+    }
+
+    @Override
+    public void close(int closeCode) {
+        this.ws.disconnect(closeCode);
+    }
+
+    @Override
+    public void onConnected(WebSocket websocket, Map<String, List<String>> headers) {
+        final Socket socket = websocket.getSocket();
+        if (this.tlsSessionCache != null && socket instanceof SSLSocket) {
+            this.tlsSessionCache.recordHandshake(((SSLSocket) socket).getSession());
+        }
+        this.listener.onConnected();
+    }
+
+    @Override
+    public void onConnectError(WebSocket websocket, WebSocketException exception) {
+        this.listener.onConnectError(exception);
+    }
+
+    @Override
+    public void onTextMessage(WebSocket websocket, String text) {
+        this.listener.onTextMessage(text);
+    }
+
+    @Override
+    public void onBinaryMessage(WebSocket websocket, byte[] binary) {
+        this.listener.onBinaryMessage(binary);
+    }
+
+    @Override
+    public void onDisconnected(WebSocket websocket,
+                               @Nullable WebSocketFrame serverCloseFrame,
+                               @Nullable WebSocketFrame clientCloseFrame,
+                               boolean closedByServer) {
+        this.failPending();
+        final WebSocketFrame frame = closedByServer ? serverCloseFrame : clientCloseFrame;
+        final int closeCode = frame == null ? 0 : frame.getCloseCode();
+        final String closeReason = frame == null ? null : frame.getCloseReason();
+        this.listener.onDisconnected(closeCode, closeReason, closedByServer);
+    }
+
+    @Override
+    public void onError(WebSocket websocket, WebSocketException cause) {
+        this.listener.onError(cause);
+    }
+
+    @Override
+    public void handleCallbackError(WebSocket websocket, Throwable cause) {
+        this.listener.handleCallbackError(cause);
+    }
+
+    @Override
+    public void onFrameSent(WebSocket websocket, WebSocketFrame frame) {
+        final Pending pending;
+        synchronized (this.inFlight) {
+            // Binary frames are written in order, anything else (e.g. pings) is not ours
+            final Pending head = this.inFlight.peek();
+            if (head == null || head.frame != frame) {
+                return;
+            }
+            pending = this.inFlight.poll();
+        }
+        pending.callback.onSent();
+    }
+
+    @Override
+    public void onFrameUnsent(WebSocket websocket, WebSocketFrame frame) {
+        // Frames are only left unsent when the WebSocket is being closed
+        this.failPending();
+    }
+
+    private void failPending() {
+        final Pending[] failed;
+        synchronized (this.inFlight) {
+            failed = this.inFlight.toArray(new Pending[0]);
+            this.inFlight.clear();
+        }
+        for (Pending pending : failed) {
+            pending.callback.onFailed(new ConnectionException("WebSocket has been closed"));
+        }
+    }
+}
@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.transport;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+import java.io.IOException;
+
+/**
+ * Creates transports based on the nv-websocket-client library. This is the default.
+ */
+public class NvWebSocketTransportFactory implements TransportFactory {
+    @NonNull
+    @Override
+    public Transport create(@NonNull TransportConfig config, @NonNull TransportListener listener) throws IOException {
+        return new NvWebSocketTransport(config, listener);
+    }
+}
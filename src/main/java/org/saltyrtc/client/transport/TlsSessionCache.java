@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.transport;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.helpers.HexHelper;
+
+import javax.net.ssl.SSLSession;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the full and resumed TLS handshakes of the transports that support it.
+ *
+ * TLS sessions are cached by the `SSLContext` they have been established with, not by this
+ * class. To resume sessions, pass the same context to all `SaltyRTC` instances, or none to
+ * share the default context of the JVM.
+ *
+ * A handshake counts as resumed if its session has been negotiated by an earlier handshake
+ * reported to the same instance. Resumptions that issue a new session (as TLS 1.3 may) count
+ * as full handshakes.
+ */
+public class TlsSessionCache {
+    @NonNull private static final TlsSessionCache DEFAULT = new TlsSessionCache();
+
+    // Maximum number of session IDs to remember
+    private static final int SESSIONS_MAX = 256;
+
+    @NonNull private final AtomicLong fullHandshakes = new AtomicLong(0);
+    @NonNull private final AtomicLong resumedHandshakes = new AtomicLong(0);
+
+    // IDs of the sessions negotiated so far (hex encoded), the least recently used first.
+    // Guarded by its monitor.
+    @NonNull private final Map<String, Boolean> sessions = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return this.size() > SESSIONS_MAX;
+        }
+    };
+
+    /**
+     * Return a cache that can be shared by all `SaltyRTC` instances (see
+     * `SaltyRTCBuilder.withTlsSessionCache`).
+     */
+    @NonNull
+    public static TlsSessionCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Count a completed TLS handshake. Called by transports.
+     *
+     * @param session The session negotiated by the handshake.
+     */
+    public void recordHandshake(@NonNull SSLSession session) {
+        final byte[] id = session.getId();
+        final boolean resumed;
+        if (id == null || id.length == 0) {
+            // Cannot be resumed
+            resumed = false;
+        } else {
+            synchronized (this.sessions) {
+                resumed = this.sessions.put(HexHelper.asHex(id), Boolean.TRUE) != null;
+            }
+        }
+        if (resumed) {
+            this.resumedHandshakes.incrementAndGet();
+        } else {
+            this.fullHandshakes.incrementAndGet();
+        }
+    }
+
+    /**
+     * Return the number of handshakes that established a new TLS session.
+     */
+    public long getFullHandshakes() {
+        return this.fullHandshakes.get();
+    }
+
+    /**
+     * Return the number of handshakes that resumed a TLS session, saving a round trip and
+     * the key exchange.
+     */
+    public long getResumedHandshakes() {
+        return this.resumedHandshakes.get();
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.transport;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.signaling.SendCallback;
+
+/**
+ * A connection to the SaltyRTC server, carrying binary WebSocket messages.
+ *
+ * A transport is used for a single connection attempt. Events are reported to the
+ * `TransportListener` the transport has been created with.
+ */
+public interface Transport {
+    /**
+     * Start connecting. This must not block.
+     *
+     * Either `TransportListener.onConnected` or `TransportListener.onConnectError` is called
+     * once the attempt has completed.
+     */
+    void connect();
+
+    /**
+     * Send a binary message. This must not block.
+     *
+     * Messages are written in the order they have been passed to this method. Once a message
+     * has been handed to the socket, `callback.onSent` is called, again in order. If the
+     * connection is closed before, `callback.onFailed` may be called instead.
+     *
+     * If `TransportConfig.isAutoFlush` returns `false`, the message may be buffered until
+     * `flush` is called.
+     */
+    void send(@NonNull byte[] payload, @NonNull SendCallback callback);
+
+    /**
+     * Write all buffered messages to the socket together. This must not block.
+     *
+     * Only called if `TransportConfig.isAutoFlush` returns `false`. Transports that always
+     * write each message right away don't need to do anything.
+     */
+    default void flush() {
+        // Nothing is buffered
+    }
+
+    /**
+     * Close the connection with the specified close code.
+     *
+     * Calling this more than once, or before the connection has been established, is allowed.
+     */
+    void close(int closeCode);
+}
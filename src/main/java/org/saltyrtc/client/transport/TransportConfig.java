@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.transport;
+
+import org.saltyrtc.client.SaltyRTCBuilder;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import java.net.URI;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The parameters of a connection to the SaltyRTC server.
+ */
+public class TransportConfig {
+    @NonNull private final URI uri;
+    @NonNull private final String subprotocol;
+    @Nullable private final SSLContext sslContext;
+    @Nullable private final SSLSocketFactory sslSocketFactory;
+    @NonNull private final SaltyRTCBuilder.DualStackMode dualStackMode;
+    private final int connectTimeout;
+    private final long pingInterval;
+    @Nullable private final ThreadFactory threadFactory;
+    private final boolean autoFlush;
+    @Nullable private final TlsSessionCache tlsSessionCache;
+
+    public TransportConfig(@NonNull URI uri,
+                           @NonNull String subprotocol,
+                           @Nullable SSLContext sslContext,
+                           @Nullable SSLSocketFactory sslSocketFactory,
+                           @NonNull SaltyRTCBuilder.DualStackMode dualStackMode,
+                           int connectTimeout,
+                           long pingInterval,
+                           @Nullable ThreadFactory threadFactory) {
+        this(uri, subprotocol, sslContext, sslSocketFactory, dualStackMode, connectTimeout, pingInterval,
+            threadFactory, true);
+    }
+
+    public TransportConfig(@NonNull URI uri,
+                           @NonNull String subprotocol,
+                           @Nullable SSLContext sslContext,
+                           @Nullable SSLSocketFactory sslSocketFactory,
+                           @NonNull SaltyRTCBuilder.DualStackMode dualStackMode,
+                           int connectTimeout,
+                           long pingInterval,
+                           @Nullable ThreadFactory threadFactory,
+                           boolean autoFlush) {
+        this(uri, subprotocol, sslContext, sslSocketFactory, dualStackMode, connectTimeout, pingInterval,
+            threadFactory, autoFlush, null);
+    }
+
+    private TransportConfig(@NonNull URI uri,
+                            @NonNull String subprotocol,
+                            @Nullable SSLContext sslContext,
+                            @Nullable SSLSocketFactory sslSocketFactory,
+                            @NonNull SaltyRTCBuilder.DualStackMode dualStackMode,
+                            int connectTimeout,
+                            long pingInterval,
+                            @Nullable ThreadFactory threadFactory,
+                            boolean autoFlush,
+                            @Nullable TlsSessionCache tlsSessionCache) {
+        this.uri = uri;
+        this.subprotocol = subprotocol;
+        this.sslContext = sslContext;
+        this.sslSocketFactory = sslSocketFactory;
+        this.dualStackMode = dualStackMode;
+        this.connectTimeout = connectTimeout;
+        this.pingInterval = pingInterval;
+        this.threadFactory = threadFactory;
+        this.autoFlush = autoFlush;
+        this.tlsSessionCache = tlsSessionCache;
+    }
+
+    /**
+     * Return a copy with a different connect timeout.
+     */
+    @NonNull
+    public TransportConfig withConnectTimeout(int connectTimeout) {
+        return new TransportConfig(this.uri, this.subprotocol, this.sslContext, this.sslSocketFactory,
+            this.dualStackMode, connectTimeout, this.pingInterval, this.threadFactory, this.autoFlush,
+            this.tlsSessionCache);
+    }
+
+    /**
+     * Return a copy that reports TLS handshakes to `tlsSessionCache`.
+     */
+    @NonNull
+    public TransportConfig withTlsSessionCache(@Nullable TlsSessionCache tlsSessionCache) {
+        return new TransportConfig(this.uri, this.subprotocol, this.sslContext, this.sslSocketFactory,
+            this.dualStackMode, this.connectTimeout, this.pingInterval, this.threadFactory, this.autoFlush,
+            tlsSessionCache);
+    }
+
+    /**
+     * Return the WebSocket URI (`wss://host:port/path`).
+     */
+    @NonNull
+    public URI getUri() {
+        return this.uri;
+    }
+
+    /**
+     * Return the WebSocket subprotocol to request.
+     */
+    @NonNull
+    public String getSubprotocol() {
+        return this.subprotocol;
+    }
+
+    @Nullable
+    public SSLContext getSslContext() {
+        return this.sslContext;
+    }
+
+    /**
+     * Return the SSL socket factory. If set, it is preferred over the SSL context.
+     */
+    @Nullable
+    public SSLSocketFactory getSslSocketFactory() {
+        return this.sslSocketFactory;
+    }
+
+    @NonNull
+    public SaltyRTCBuilder.DualStackMode getDualStackMode() {
+        return this.dualStackMode;
+    }
+
+    /**
+     * Return the connect timeout in milliseconds.
+     */
+    public int getConnectTimeout() {
+        return this.connectTimeout;
+    }
+
+    /**
+     * Return the WebSocket ping interval in milliseconds, or 0 to disable pings.
+     */
+    public long getPingInterval() {
+        return this.pingInterval;
+    }
+
+    /**
+     * Return the factory for threads created by the transport, or `null` to let the
+     * transport decide.
+     */
+    @Nullable
+    public ThreadFactory getThreadFactory() {
+        return this.threadFactory;
+    }
+
+    /**
+     * Return whether every message should be written as soon as it has been sent. If `false`,
+     * messages may be buffered until `Transport.flush` is called.
+     */
+    public boolean isAutoFlush() {
+        return this.autoFlush;
+    }
+
+    /**
+     * Return the cache that completed TLS handshakes should be reported to (see
+     * `TlsSessionCache.recordHandshake`), or `null`.
+     */
+    @Nullable
+    public TlsSessionCache getTlsSessionCache() {
+        return this.tlsSessionCache;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.transport;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+import java.io.IOException;
+
+/**
+ * Creates the transports used to connect to the SaltyRTC server.
+ *
+ * Implementations must be thread safe, a factory may be shared by many `SaltyRTC` instances.
+ */
+public interface TransportFactory {
+    /**
+     * Create an unconnected transport.
+     *
+     * @throws IOException if the transport cannot be set up (e.g. TLS configuration).
+     */
+    @NonNull
+    Transport create(@NonNull TransportConfig config, @NonNull TransportListener listener) throws IOException;
+
+    /**
+     * Establish a connection for `config` in the background (e.g. TCP and TLS), so that a
+     * transport created later for the same server only has to send the WebSocket upgrade.
+     *
+     * The default implementation does nothing.
+     *
+     * @throws IOException if the connection cannot be set up (e.g. TLS configuration).
+     */
+    default void prewarm(@NonNull TransportConfig config) throws IOException {
+        // Not supported
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.transport;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+
+/**
+ * Receives the events of a `Transport`.
+ *
+ * The callbacks may be called on different threads. Messages are reported in the order they
+ * have been received.
+ */
+public interface TransportListener {
+    /**
+     * The connection has been established.
+     */
+    void onConnected();
+
+    /**
+     * The connection could not be established.
+     */
+    void onConnectError(@NonNull Exception e);
+
+    /**
+     * A binary message has been received.
+     */
+    void onBinaryMessage(@NonNull byte[] data);
+
+    /**
+     * A text message has been received.
+     */
+    void onTextMessage(@NonNull String text);
+
+    /**
+     * The connection has been closed.
+     *
+     * @param closeCode The close code, or 0 if no close frame has been provided.
+     * @param closeReason The close reason, if any.
+     * @param closedByServer Whether the server closed the connection.
+     */
+    void onDisconnected(int closeCode, @Nullable String closeReason, boolean closedByServer);
+
+    /**
+     * An error occurred. This is informational, other callbacks follow if the error affects
+     * the connection.
+     */
+    void onError(@NonNull Exception e);
+
+    /**
+     * One of the other callbacks threw `cause`.
+     */
+    void handleCallbackError(@NonNull Throwable cause);
+}
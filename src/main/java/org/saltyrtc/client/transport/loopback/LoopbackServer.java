@@ -0,0 +1,539 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.transport.loopback;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.cookie.Cookie;
+import org.saltyrtc.client.crypto.CryptoException;
+import org.saltyrtc.client.crypto.CryptoProvider;
+import org.saltyrtc.client.exceptions.ConnectionException;
+import org.saltyrtc.client.exceptions.InvalidKeyException;
+import org.saltyrtc.client.exceptions.OverflowException;
+import org.saltyrtc.client.exceptions.ProtocolException;
+import org.saltyrtc.client.exceptions.SerializationError;
+import org.saltyrtc.client.exceptions.SignalingException;
+import org.saltyrtc.client.exceptions.ValidationError;
+import org.saltyrtc.client.helpers.ArrayHelper;
+import org.saltyrtc.client.helpers.EventLoop;
+import org.saltyrtc.client.helpers.HexHelper;
+import org.saltyrtc.client.helpers.MessageReader;
+import org.saltyrtc.client.keystore.Box;
+import org.saltyrtc.client.keystore.KeyStore;
+import org.saltyrtc.client.keystore.SharedKeyStore;
+import org.saltyrtc.client.messages.Message;
+import org.saltyrtc.client.messages.s2c.ClientAuth;
+import org.saltyrtc.client.messages.s2c.ClientHello;
+import org.saltyrtc.client.messages.s2c.Disconnected;
+import org.saltyrtc.client.messages.s2c.DropResponder;
+import org.saltyrtc.client.messages.s2c.InitiatorServerAuth;
+import org.saltyrtc.client.messages.s2c.NewInitiator;
+import org.saltyrtc.client.messages.s2c.NewResponder;
+import org.saltyrtc.client.messages.s2c.ResponderServerAuth;
+import org.saltyrtc.client.messages.s2c.SendError;
+import org.saltyrtc.client.messages.s2c.ServerHello;
+import org.saltyrtc.client.nonce.CombinedSequence;
+import org.saltyrtc.client.nonce.CombinedSequenceSnapshot;
+import org.saltyrtc.client.nonce.SignalingChannelNonce;
+import org.saltyrtc.client.signaling.CloseCode;
+import org.saltyrtc.client.signaling.SendCallback;
+import org.saltyrtc.client.transport.Transport;
+import org.saltyrtc.client.transport.TransportConfig;
+import org.saltyrtc.client.transport.TransportFactory;
+import org.saltyrtc.client.transport.TransportListener;
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * An in-process SaltyRTC server. Clients connect to it through memory instead of sockets, so
+ * initiators and responders in the same process can run the full protocol without a server,
+ * TLS or a network. This is meant for tests and benchmarks.
+ *
+ * The server performs the server handshake, relays messages between the peers of a path and
+ * sends the `new-initiator`, `new-responder`, `send-error` and `disconnected` messages. It does
+ * not validate the CSNs of the clients.
+ *
+ * All work happens on a single event loop, which also calls the transport listeners.
+ */
+public class LoopbackServer implements TransportFactory, Closeable {
+    private static final Logger LOG = org.slf4j.LoggerFactory.getLogger("SaltyRTC.LoopbackServer");
+
+    private static final String SUBPROTOCOL = "v1.saltyrtc.org";
+    private static final short ADDR_SERVER = 0x00;
+    private static final short ADDR_INITIATOR = 0x01;
+    private static final int KEY_HEX_LENGTH = CryptoProvider.PUBLICKEYBYTES * 2;
+
+    private enum ClientState { NEW, HELLO_RECEIVED, AUTHENTICATED }
+
+    /**
+     * The server side of a connection.
+     */
+    private static final class Client {
+        @NonNull final LoopbackTransport transport;
+        @NonNull final Path path;
+        @NonNull final KeyStore sessionKey;
+        @NonNull final Cookie cookie = new Cookie();
+        @NonNull final CombinedSequence csn = new CombinedSequence();
+        @NonNull ClientState state = ClientState.NEW;
+        boolean initiator = false;
+        short id = 0;
+        @Nullable byte[] theirCookie;
+        @Nullable byte[] permanentKey;
+        @Nullable SharedKeyStore sharedKey;
+
+        Client(@NonNull LoopbackTransport transport, @NonNull Path path, @NonNull KeyStore sessionKey) {
+            this.transport = transport;
+            this.path = path;
+            this.sessionKey = sessionKey;
+        }
+
+        void setPermanentKey(@NonNull byte[] permanentKey) throws InvalidKeyException {
+            this.permanentKey = permanentKey;
+            this.sharedKey = this.sessionKey.getSharedKeyStore(permanentKey);
+        }
+    }
+
+    /**
+     * The clients connected to a path (the public key of an initiator).
+     */
+    private static final class Path {
+        @NonNull final String name;
+        @NonNull final byte[] initiatorKey;
+        @Nullable Client initiator;
+        @NonNull final Client[] responders = new Client[256];
+        int clients = 0;
+
+        Path(@NonNull String name, @NonNull byte[] initiatorKey) {
+            this.name = name;
+            this.initiatorKey = initiatorKey;
+        }
+    }
+
+    @NonNull private final CryptoProvider cryptoProvider;
+    @NonNull private final KeyStore permanentKey;
+    @NonNull private final EventLoop loop;
+    @Nullable private final ExecutorService ownExecutor;
+
+    // Only accessed on the loop
+    @NonNull private final Map<String, Path> paths = new HashMap<>();
+    @NonNull private final Map<LoopbackTransport, Client> clients = new HashMap<>();
+
+    /**
+     * Create a server running on its own thread.
+     */
+    public LoopbackServer(@NonNull CryptoProvider cryptoProvider) {
+        this(cryptoProvider, null);
+    }
+
+    /**
+     * Create a server running on `executor`. Tasks are run one at a time.
+     */
+    public LoopbackServer(@NonNull CryptoProvider cryptoProvider, @Nullable Executor executor) {
+        this.cryptoProvider = cryptoProvider;
+        this.permanentKey = new KeyStore(cryptoProvider);
+        if (executor == null) {
+            this.ownExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "SaltyRTC-Loopback");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor = this.ownExecutor;
+        } else {
+            this.ownExecutor = null;
+        }
+        this.loop = new EventLoop(executor);
+    }
+
+    /**
+     * Return the public permanent key of the server, to be used with
+     * `SaltyRTCBuilder.withServerKey`.
+     */
+    @NonNull
+    public byte[] getPublicKey() {
+        return this.permanentKey.getPublicKey();
+    }
+
+    /**
+     * Create a connection to this server. Scheme, host and TLS settings are ignored, the path
+     * selects the initiator.
+     */
+    @NonNull
+    @Override
+    public Transport create(@NonNull TransportConfig config, @NonNull TransportListener listener) {
+        String path = config.getUri().getPath();
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        return new LoopbackTransport(this, path, listener);
+    }
+
+    /**
+     * Stop the thread of the server, if it has been created by the server.
+     */
+    @Override
+    public void close() {
+        if (this.ownExecutor != null) {
+            this.ownExecutor.shutdown();
+        }
+    }
+
+    void execute(@NonNull Runnable task) {
+        this.loop.execute(task);
+    }
+
+    void onConnect(@NonNull LoopbackTransport transport, @NonNull String pathName) {
+        if (this.clients.containsKey(transport)) {
+            return;
+        }
+        if (pathName.length() != KEY_HEX_LENGTH || !pathName.matches("[0-9a-fA-F]+")) {
+            callListener(transport, () -> transport.listener.onConnectError(new IOException("Invalid path: " + pathName)));
+            return;
+        }
+        final String name = pathName.toLowerCase();
+        Path path = this.paths.get(name);
+        if (path == null) {
+            path = new Path(name, HexHelper.hexStringToByteArray(name));
+            this.paths.put(name, path);
+        }
+        final Client client = new Client(transport, path, new KeyStore(this.cryptoProvider));
+        path.clients += 1;
+        this.clients.put(transport, client);
+        callListener(transport, transport.listener::onConnected);
+        try {
+            this.send(client, new ServerHello(client.sessionKey.getPublicKey()), false);
+        } catch (SignalingException e) {
+            this.drop(client, e.getCloseCode());
+        }
+    }
+
+    void onMessage(@NonNull LoopbackTransport transport, @NonNull byte[] payload, @NonNull final SendCallback callback) {
+        final Client client = this.clients.get(transport);
+        if (client == null) {
+            callListener(transport, () -> callback.onFailed(new ConnectionException("WebSocket has been closed")));
+            return;
+        }
+        callListener(transport, callback::onSent);
+        try {
+            this.handle(client, payload);
+        } catch (SignalingException e) {
+            LOG.warn("Dropping client " + client.id + ": " + e.getMessage());
+            this.drop(client, e.getCloseCode());
+        }
+    }
+
+    void onClose(@NonNull final LoopbackTransport transport, final int closeCode) {
+        final Client client = this.clients.get(transport);
+        if (client == null) {
+            return;
+        }
+        this.remove(client, true);
+        callListener(transport, () -> transport.listener.onDisconnected(closeCode, null, false));
+    }
+
+    private void handle(@NonNull Client client, @NonNull byte[] payload) throws SignalingException {
+        if (payload.length <= SignalingChannelNonce.TOTAL_LENGTH) {
+            throw new ProtocolException("Message too short");
+        }
+        final Box box = new Box(ByteBuffer.wrap(payload), SignalingChannelNonce.TOTAL_LENGTH);
+        final SignalingChannelNonce nonce;
+        try {
+            nonce = new SignalingChannelNonce(ByteBuffer.wrap(box.getNonce()));
+        } catch (IllegalArgumentException e) {
+            throw new ProtocolException("Invalid nonce", e);
+        }
+        if (client.theirCookie == null) {
+            if (nonce.getCookie().equals(client.cookie)) {
+                throw new ProtocolException("Client uses the cookie of the server");
+            }
+            client.theirCookie = nonce.getCookieBytes();
+        }
+        if (nonce.getDestination() != ADDR_SERVER) {
+            this.relay(client, nonce, payload);
+            return;
+        }
+        if (nonce.getSource() != client.id) {
+            throw new ProtocolException("Invalid source address: " + nonce.getSource());
+        }
+        switch (client.state) {
+            case NEW:
+                // Responders send client-hello (unencrypted), initiators send client-auth
+                final Message hello = readOrNull(box.getData());
+                if (hello instanceof ClientHello) {
+                    try {
+                        client.setPermanentKey(((ClientHello) hello).getKey());
+                    } catch (InvalidKeyException e) {
+                        throw new ProtocolException("Invalid key in client-hello", e);
+                    }
+                    client.state = ClientState.HELLO_RECEIVED;
+                    return;
+                }
+                client.initiator = true;
+                try {
+                    client.setPermanentKey(client.path.initiatorKey);
+                } catch (InvalidKeyException e) {
+                    throw new ProtocolException("Invalid initiator key", e);
+                }
+                this.handleClientAuth(client, this.decrypt(client, box));
+                break;
+            case HELLO_RECEIVED:
+                this.handleClientAuth(client, this.decrypt(client, box));
+                break;
+            case AUTHENTICATED:
+                this.handleServerMessage(client, this.decrypt(client, box));
+                break;
+        }
+    }
+
+    private void handleClientAuth(@NonNull Client client, @NonNull Message message) throws SignalingException {
+        if (!(message instanceof ClientAuth)) {
+            throw new ProtocolException("Expected client-auth message, but got " + message.getType());
+        }
+        final ClientAuth auth = (ClientAuth) message;
+        if (!Arrays.equals(auth.getYourCookie(), client.cookie.getBytes())) {
+            throw new ProtocolException("Bad repeated cookie in client-auth message");
+        }
+        if (!auth.getSubprotocols().contains(SUBPROTOCOL)) {
+            throw new SignalingException(CloseCode.NO_SHARED_SUBPROTOCOL, "No shared subprotocol");
+        }
+        if (auth.getYourKey() != null && !Arrays.equals(auth.getYourKey(), this.permanentKey.getPublicKey())) {
+            throw new SignalingException(CloseCode.INVALID_KEY, "Unknown server key");
+        }
+        final Path path = client.path;
+        if (client.initiator) {
+            if (path.initiator != null) {
+                this.drop(path.initiator, CloseCode.DROPPED_BY_INITIATOR);
+            }
+            client.id = ADDR_INITIATOR;
+            client.state = ClientState.AUTHENTICATED;
+            path.initiator = client;
+            final List<Integer> responders = new ArrayList<>();
+            for (Client responder : path.responders) {
+                if (responder != null) {
+                    responders.add((int) responder.id);
+                }
+            }
+            final SignalingChannelNonce nonce = this.nextNonce(client);
+            this.send(client, nonce, new InitiatorServerAuth(
+                client.theirCookie, this.signKeys(client, nonce), responders), true);
+            for (Client responder : path.responders) {
+                if (responder != null) {
+                    this.send(responder, new NewInitiator(), true);
+                }
+            }
+        } else {
+            short id = 0;
+            for (short i = 0x02; i <= 0xff; i++) {
+                if (path.responders[i] == null) {
+                    id = i;
+                    break;
+                }
+            }
+            if (id == 0) {
+                throw new SignalingException(CloseCode.PATH_FULL, "Path full");
+            }
+            client.id = id;
+            client.state = ClientState.AUTHENTICATED;
+            path.responders[id] = client;
+            final SignalingChannelNonce nonce = this.nextNonce(client);
+            this.send(client, nonce, new ResponderServerAuth(
+                client.theirCookie, this.signKeys(client, nonce), path.initiator != null), true);
+            if (path.initiator != null) {
+                this.send(path.initiator, new NewResponder((int) id), true);
+            }
+        }
+    }
+
+    private void handleServerMessage(@NonNull Client client, @NonNull Message message) throws SignalingException {
+        if (client.initiator && message instanceof DropResponder) {
+            final DropResponder drop = (DropResponder) message;
+            final int id = drop.getId();
+            final Client responder = id >= 0x02 && id <= 0xff ? client.path.responders[id] : null;
+            if (responder != null) {
+                this.drop(responder, drop.getReason() != null ? drop.getReason() : CloseCode.DROPPED_BY_INITIATOR);
+            }
+        } else {
+            throw new ProtocolException("Unexpected message to the server: " + message.getType());
+        }
+    }
+
+    /**
+     * Forward a message to another client of the same path.
+     */
+    private void relay(@NonNull Client client, @NonNull SignalingChannelNonce nonce, @NonNull byte[] payload)
+        throws SignalingException {
+        if (client.state != ClientState.AUTHENTICATED) {
+            throw new ProtocolException("Client is not authenticated");
+        }
+        if (nonce.getSource() != client.id) {
+            throw new ProtocolException("Invalid source address: " + nonce.getSource());
+        }
+        final short destination = nonce.getDestination();
+        final Client receiver;
+        if (client.initiator && destination >= 0x02) {
+            receiver = client.path.responders[destination];
+        } else if (!client.initiator && destination == ADDR_INITIATOR) {
+            receiver = client.path.initiator;
+        } else {
+            throw new ProtocolException("Invalid destination address: " + destination);
+        }
+        if (receiver == null) {
+            // The id consists of source, destination and combined sequence number
+            final byte[] id = Arrays.copyOfRange(payload, Cookie.COOKIE_LENGTH, SignalingChannelNonce.TOTAL_LENGTH);
+            this.send(client, new SendError(id), true);
+            return;
+        }
+        // Like a socket, the receiver gets its own copy
+        final byte[] copy = payload.clone();
+        callListener(receiver.transport, () -> receiver.transport.listener.onBinaryMessage(copy));
+    }
+
+    /**
+     * Close the connection of a client.
+     */
+    private void drop(@NonNull final Client client, final int closeCode) {
+        if (this.clients.get(client.transport) != client) {
+            return;
+        }
+        this.remove(client, closeCode != CloseCode.DROPPED_BY_INITIATOR);
+        callListener(client.transport, () -> client.transport.listener.onDisconnected(closeCode, null, true));
+    }
+
+    /**
+     * Remove a client from its path.
+     *
+     * @param notifyPeers Send `disconnected` messages to the other clients of the path.
+     */
+    private void remove(@NonNull Client client, boolean notifyPeers) {
+        this.clients.remove(client.transport);
+        final Path path = client.path;
+        if (client.state == ClientState.AUTHENTICATED) {
+            if (client.initiator && path.initiator == client) {
+                path.initiator = null;
+                if (notifyPeers) {
+                    for (Client responder : path.responders) {
+                        if (responder != null) {
+                            this.sendOrDrop(responder, new Disconnected(client.id));
+                        }
+                    }
+                }
+            } else if (!client.initiator && path.responders[client.id] == client) {
+                path.responders[client.id] = null;
+                if (notifyPeers && path.initiator != null) {
+                    this.sendOrDrop(path.initiator, new Disconnected(client.id));
+                }
+            }
+        }
+        path.clients -= 1;
+        if (path.clients == 0) {
+            this.paths.remove(path.name);
+        }
+    }
+
+    @NonNull
+    private Message decrypt(@NonNull Client client, @NonNull Box box) throws SignalingException {
+        assert client.sharedKey != null;
+        try {
+            return MessageReader.read(client.sharedKey.decrypt(box));
+        } catch (CryptoException e) {
+            throw new ProtocolException("Could not decrypt client message", e);
+        } catch (SerializationError | ValidationError e) {
+            throw new ProtocolException("Invalid client message", e);
+        }
+    }
+
+    @Nullable
+    private static Message readOrNull(@NonNull byte[] data) {
+        try {
+            return MessageReader.read(data);
+        } catch (SerializationError | ValidationError | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Return the `signed_keys` field of the server-auth message.
+     */
+    @NonNull
+    private byte[] signKeys(@NonNull Client client, @NonNull SignalingChannelNonce nonce) throws SignalingException {
+        assert client.permanentKey != null;
+        try {
+            final byte[] keys = ArrayHelper.concat(client.sessionKey.getPublicKey(), client.permanentKey);
+            return this.permanentKey.encrypt(keys, nonce.toBytes(), client.permanentKey).getData();
+        } catch (CryptoException | InvalidKeyException e) {
+            throw new SignalingException(CloseCode.INTERNAL_ERROR, "Could not sign keys", e);
+        }
+    }
+
+    @NonNull
+    private SignalingChannelNonce nextNonce(@NonNull Client client) throws SignalingException {
+        final CombinedSequenceSnapshot csn;
+        try {
+            csn = client.csn.next();
+        } catch (OverflowException e) {
+            throw new ProtocolException("CSN overflow", e);
+        }
+        return new SignalingChannelNonce(client.cookie.getBytes(), ADDR_SERVER, client.id,
+            csn.getOverflow(), csn.getSequenceNumber());
+    }
+
+    private void send(@NonNull Client client, @NonNull Message message, boolean encrypt) throws SignalingException {
+        this.send(client, this.nextNonce(client), message, encrypt);
+    }
+
+    private void send(@NonNull Client client, @NonNull SignalingChannelNonce nonce,
+                      @NonNull Message message, boolean encrypt) throws SignalingException {
+        final byte[] nonceBytes = nonce.toBytes();
+        final byte[] packet;
+        if (encrypt) {
+            assert client.sharedKey != null;
+            try {
+                packet = client.sharedKey.encrypt(message.toBytes(), nonceBytes).toBytes();
+            } catch (CryptoException e) {
+                throw new SignalingException(CloseCode.INTERNAL_ERROR, "Could not encrypt message", e);
+            }
+        } else {
+            packet = ArrayHelper.concat(nonceBytes, message.toBytes());
+        }
+        callListener(client.transport, () -> client.transport.listener.onBinaryMessage(packet));
+    }
+
+    private void sendOrDrop(@NonNull Client client, @NonNull Message message) {
+        try {
+            this.send(client, message, true);
+        } catch (SignalingException e) {
+            this.drop(client, e.getCloseCode());
+        }
+    }
+
+    /**
+     * Call a listener. Exceptions are passed to `handleCallbackError`.
+     */
+    private static void callListener(@NonNull LoopbackTransport transport, @NonNull Runnable callback) {
+        try {
+            callback.run();
+        } catch (RuntimeException e) {
+            try {
+                transport.listener.handleCallbackError(e);
+            } catch (RuntimeException ee) {
+                LOG.error("Uncaught exception in callback error handler", ee);
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.transport.loopback;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.signaling.SendCallback;
+import org.saltyrtc.client.transport.Transport;
+import org.saltyrtc.client.transport.TransportListener;
+
+/**
+ * A connection to a `LoopbackServer`.
+ *
+ * All calls only enqueue a task on the server loop. The listener is called on the server loop.
+ */
+final class LoopbackTransport implements Transport {
+    @NonNull private final LoopbackServer server;
+    @NonNull private final String path;
+    @NonNull final TransportListener listener;
+
+    LoopbackTransport(@NonNull LoopbackServer server, @NonNull String path, @NonNull TransportListener listener) {
+        this.server = server;
+        this.path = path;
+        this.listener = listener;
+    }
+
+    @Override
+    public void connect() {
+        this.server.execute(() -> this.server.onConnect(this, this.path));
+    }
+
+    @Override
+    public void send(@NonNull final byte[] payload, @NonNull final SendCallback callback) {
+        this.server.execute(() -> this.server.onMessage(this, payload, callback));
+    }
+
+    @Override
+    public void close(final int closeCode) {
+        this.server.execute(() -> this.server.onClose(this, closeCode));
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.transport.nio;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.slf4j.Logger;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the addresses returned by another resolver, so that reconnects don't wait for it.
+ *
+ * An entry is used for `ttl` milliseconds. When it is used during the last quarter of that
+ * time, it is refreshed in the background. Once it has expired, the host is resolved again.
+ * If that fails, the expired addresses are used for up to `maxStale` more milliseconds, so that
+ * a resolver outage does not prevent connecting to a server that is still reachable. Once a
+ * lookup of the host has failed, the expired addresses are returned right away and the host
+ * is resolved again in the background, so that connects don't wait for the resolver until the
+ * outage is over.
+ *
+ * `InetAddress` does not expose the TTLs of DNS records, so the same TTL applies to all hosts.
+ * It should not exceed the TTLs of the servers' records.
+ */
+public class CachingHostResolver implements HostResolver {
+    private static final Logger LOG = org.slf4j.LoggerFactory.getLogger("SaltyRTC.CachingHostResolver");
+
+    /**
+     * Default time an entry is used for, in milliseconds.
+     */
+    public static final long DEFAULT_TTL = 60000;
+
+    /**
+     * Default time an expired entry is used for if the host cannot be resolved, in milliseconds.
+     */
+    public static final long DEFAULT_MAX_STALE = 3600000;
+
+    private static final class Entry {
+        @NonNull final InetAddress[] addresses;
+        final long resolvedAt;
+        @NonNull final AtomicBoolean refreshing = new AtomicBoolean(false);
+        // Whether resolving the host again has failed
+        volatile boolean failed = false;
+
+        Entry(@NonNull InetAddress[] addresses, long resolvedAt) {
+            this.addresses = addresses;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+
+    @NonNull private final HostResolver resolver;
+    private final long ttl;
+    private final long maxStale;
+    @NonNull private final Executor refresher;
+    @NonNull private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    @NonNull private final AtomicLong hits = new AtomicLong(0);
+    @NonNull private final AtomicLong misses = new AtomicLong(0);
+    @NonNull private final AtomicLong staleHits = new AtomicLong(0);
+    @NonNull private final AtomicLong refreshes = new AtomicLong(0);
+    @NonNull private final AtomicLong failures = new AtomicLong(0);
+
+    /**
+     * Create a cache for `HostResolver.SYSTEM` with the default TTL and maximum staleness.
+     */
+    public CachingHostResolver() {
+        this(HostResolver.SYSTEM, DEFAULT_TTL, DEFAULT_MAX_STALE);
+    }
+
+    /**
+     * Create a cache for `resolver`. Entries are refreshed on a background thread, which
+     * stops while there is nothing to refresh.
+     *
+     * @param resolver The resolver to cache.
+     * @param ttl Time an entry is used for, in milliseconds.
+     * @param maxStale Time an expired entry is used for if the host cannot be resolved, in
+     *   milliseconds.
+     */
+    public CachingHostResolver(@NonNull HostResolver resolver, long ttl, long maxStale) {
+        this(resolver, ttl, maxStale, createRefresher());
+    }
+
+    /**
+     * Create a cache for `resolver` that refreshes entries on `refresher`.
+     */
+    public CachingHostResolver(@NonNull HostResolver resolver, long ttl, long maxStale,
+                               @NonNull Executor refresher) {
+        if (ttl <= 0 || maxStale < 0) {
+            throw new IllegalArgumentException("TTL must be positive and max staleness must not be negative");
+        }
+        this.resolver = resolver;
+        this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+        this.maxStale = TimeUnit.MILLISECONDS.toNanos(maxStale);
+        this.refresher = refresher;
+    }
+
+    @NonNull
+    private static Executor createRefresher() {
+        // Note: Refreshes are rare, a single thread that times out when idle suffices
+        return new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), runnable -> {
+            final Thread thread = new Thread(runnable, "SaltyRTC-DNS");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @NonNull
+    @Override
+    public InetAddress[] resolve(@NonNull String host) throws UnknownHostException {
+        final String key = host.toLowerCase();
+        final Entry entry = this.entries.get(key);
+        if (entry != null) {
+            final long age = System.nanoTime() - entry.resolvedAt;
+            if (age < this.ttl) {
+                this.hits.incrementAndGet();
+                if (age >= this.ttl - this.ttl / 4) {
+                    this.refresh(host, key, entry);
+                }
+                return entry.addresses.clone();
+            }
+            if (entry.failed && age < this.ttl + this.maxStale) {
+                // Don't wait for the resolver while it is failing
+                this.staleHits.incrementAndGet();
+                this.refresh(host, key, entry);
+                return entry.addresses.clone();
+            }
+        }
+        this.misses.incrementAndGet();
+        try {
+            return this.update(host, key).clone();
+        } catch (UnknownHostException e) {
+            if (entry != null && System.nanoTime() - entry.resolvedAt < this.ttl + this.maxStale) {
+                LOG.warn("Could not resolve " + host + ", using expired addresses: " + e.getMessage());
+                entry.failed = true;
+                this.staleHits.incrementAndGet();
+                return entry.addresses.clone();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Resolve `host` and cache the result.
+     */
+    @NonNull
+    private InetAddress[] update(@NonNull String host, @NonNull String key) throws UnknownHostException {
+        final InetAddress[] addresses;
+        try {
+            addresses = this.resolver.resolve(host);
+        } catch (UnknownHostException e) {
+            this.failures.incrementAndGet();
+            throw e;
+        }
+        if (addresses.length > 0) {
+            this.entries.put(key, new Entry(addresses.clone(), System.nanoTime()));
+        }
+        return addresses;
+    }
+
+    /**
+     * Resolve `host` in the background, unless that is already being done for `entry`.
+     * Also retries the lookup of a host whose resolution has failed.
+     */
+    private void refresh(@NonNull final String host, @NonNull final String key, @NonNull final Entry entry) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.refresher.execute(() -> {
+                this.refreshes.incrementAndGet();
+                try {
+                    this.update(host, key);
+                } catch (UnknownHostException e) {
+                    // Keep using the entry, even once it has expired
+                    LOG.debug("Could not refresh " + host + ": " + e.getMessage());
+                    entry.failed = true;
+                    entry.refreshing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            entry.refreshing.set(false);
+        }
+    }
+
+    /**
+     * Drop the addresses of `host`.
+     */
+    public void invalidate(@NonNull String host) {
+        this.entries.remove(host.toLowerCase());
+    }
+
+    /**
+     * Drop all addresses.
+     */
+    public void clear() {
+        this.entries.clear();
+    }
+
+    /**
+     * Return the number of cached hosts, including expired ones.
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Return the number of lookups answered from the cache without waiting for the resolver.
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * Return the number of lookups that had to wait for the resolver.
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * Return the number of lookups answered with expired addresses because the resolver failed
+     * (or is still failing, the host is then resolved again in the background).
+     */
+    public long getStaleHits() {
+        return this.staleHits.get();
+    }
+
+    /**
+     * Return the number of background refreshes.
+     */
+    public long getRefreshes() {
+        return this.refreshes.get();
+    }
+
+    /**
+     * Return the number of times the resolver failed (in the foreground or background).
+     */
+    public long getFailures() {
+        return this.failures.get();
+    }
+}
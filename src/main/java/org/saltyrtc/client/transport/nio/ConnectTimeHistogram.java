@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.transport.nio;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Times needed to establish TCP connections to one address family, in milliseconds.
+ *
+ * Only attempts that completed are counted: Attempts cancelled because another one has won
+ * the race are neither counted as connected nor as failed.
+ */
+public class ConnectTimeHistogram {
+    // Upper bounds of the buckets in milliseconds, the last bucket is unbounded
+    private static final long[] BOUNDS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000 };
+
+    @NonNull private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+    @NonNull private final AtomicLong failures = new AtomicLong(0);
+
+    ConnectTimeHistogram() {
+    }
+
+    void record(long millis) {
+        int bucket = 0;
+        while (bucket < BOUNDS.length && millis > BOUNDS[bucket]) {
+            bucket++;
+        }
+        this.counts.incrementAndGet(bucket);
+    }
+
+    void recordFailure() {
+        this.failures.incrementAndGet();
+    }
+
+    /**
+     * Return the inclusive upper bounds of the buckets in milliseconds. The last bucket, which
+     * has no bound, counts all connections that took longer.
+     */
+    @NonNull
+    public long[] getUpperBounds() {
+        return BOUNDS.clone();
+    }
+
+    /**
+     * Return the number of connections per bucket (one more than there are upper bounds).
+     */
+    @NonNull
+    public long[] getCounts() {
+        final long[] counts = new long[this.counts.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = this.counts.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * Return the number of connections that have been established.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < this.counts.length(); i++) {
+            count += this.counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Return the number of attempts that failed.
+     */
+    public long getFailures() {
+        return this.failures.get();
+    }
+
+    /**
+     * Return the upper bound of the bucket containing the given percentile (between 0 and 100),
+     * `Long.MAX_VALUE` if it is in the last bucket, or -1 if no connection has been established.
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        final long[] counts = this.getCounts();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return -1;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return BOUNDS[i];
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.transport.nio;
+
+import org.saltyrtc.client.SaltyRTCBuilder;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.transport.TransportConfig;
+
+import javax.net.ssl.SSLContext;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Pre-warmed connections that have not been claimed by a transport yet, by server.
+ */
+final class ConnectionPool {
+    /**
+     * Connections can be shared by configs with the same key.
+     */
+    static final class Key {
+        @NonNull final String host;
+        final int port;
+        @Nullable final SSLContext sslContext;
+        @NonNull final SaltyRTCBuilder.DualStackMode dualStackMode;
+
+        Key(@NonNull TransportConfig config, @Nullable SSLContext sslContext) {
+            final URI uri = config.getUri();
+            final String host = uri.getHost();
+            this.host = host.startsWith("[") ? host.substring(1, host.length() - 1) : host;
+            this.port = uri.getPort() != -1 ? uri.getPort() : (sslContext != null ? 443 : 80);
+            this.sslContext = sslContext;
+            this.dualStackMode = config.getDualStackMode();
+        }
+
+        @Override
+        public boolean equals(@Nullable Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            // Note: SSL contexts are compared by identity
+            return this.port == other.port && this.host.equalsIgnoreCase(other.host)
+                && this.sslContext == other.sslContext && this.dualStackMode == other.dualStackMode;
+        }
+
+        @Override
+        public int hashCode() {
+            return (this.host.toLowerCase().hashCode() * 31 + this.port) * 31
+                + System.identityHashCode(this.sslContext);
+        }
+    }
+
+    @NonNull private final Map<Key, ArrayDeque<NioTransport>> idle = new HashMap<>();
+
+    /**
+     * Add a connection unless there are `max` connections for `key` already. Return whether
+     * it has been added.
+     */
+    synchronized boolean add(@NonNull Key key, @NonNull NioTransport transport, int max) {
+        ArrayDeque<NioTransport> connections = this.idle.get(key);
+        if (connections == null) {
+            connections = new ArrayDeque<>();
+            this.idle.put(key, connections);
+        }
+        if (connections.size() >= max) {
+            return false;
+        }
+        connections.add(transport);
+        return true;
+    }
+
+    /**
+     * Remove and return the oldest connection for `key`.
+     */
+    @Nullable
+    synchronized NioTransport poll(@NonNull Key key) {
+        final ArrayDeque<NioTransport> connections = this.idle.get(key);
+        if (connections == null) {
+            return null;
+        }
+        final NioTransport transport = connections.poll();
+        if (connections.isEmpty()) {
+            this.idle.remove(key);
+        }
+        return transport;
+    }
+
+    /**
+     * Remove a connection that has been closed.
+     */
+    synchronized void remove(@NonNull NioTransport transport) {
+        final Iterator<ArrayDeque<NioTransport>> iterator = this.idle.values().iterator();
+        while (iterator.hasNext()) {
+            final ArrayDeque<NioTransport> connections = iterator.next();
+            if (connections.remove(transport)) {
+                if (connections.isEmpty()) {
+                    iterator.remove();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Return the number of pooled connections.
+     */
+    synchronized int size() {
+        int size = 0;
+        for (ArrayDeque<NioTransport> connections : this.idle.values()) {
+            size += connections.size();
+        }
+        return size;
+    }
+
+    /**
+     * Forget all connections. Closing them is up to their loops.
+     */
+    synchronized void clear() {
+        this.idle.clear();
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.transport.nio;
+
+import org.saltyrtc.client.SaltyRTCBuilder;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves host names and establishes TCP connections.
+ *
+ * If a host has several addresses, they are raced as described in RFC 8305 ("Happy Eyeballs"):
+ * The addresses are tried alternating between IPv6 and IPv4, starting with IPv6. Every attempt
+ * gets a head start of the connection attempt delay before the next one is started (or less,
+ * if it fails). The first connection established wins, all other attempts are cancelled.
+ */
+final class Dialer {
+    private static final Logger LOG = org.slf4j.LoggerFactory.getLogger("SaltyRTC.Dialer");
+
+    /**
+     * Notified on the loop when a race has been decided.
+     */
+    interface Callback {
+        /**
+         * A connection has been established. The key is registered on the loop without interest
+         * operations, its attachment must be replaced.
+         */
+        void onDialed(@NonNull SocketChannel channel, @NonNull SelectionKey key);
+
+        /**
+         * No connection could be established.
+         */
+        void onDialFailed(@NonNull IOException e);
+    }
+
+    @NonNull private final Executor resolver;
+    @NonNull private final ConnectTimeHistogram ipv4 = new ConnectTimeHistogram();
+    @NonNull private final ConnectTimeHistogram ipv6 = new ConnectTimeHistogram();
+    @NonNull private volatile HostResolver hostResolver = HostResolver.SYSTEM;
+    private volatile long attemptDelay;
+
+    /**
+     * @param resolver Resolves host names, the lookup may block. Also runs other blocking work
+     *                 of the transports, see {@link #getExecutor()}.
+     * @param attemptDelay Time in milliseconds before the next address is tried.
+     */
+    Dialer(@NonNull Executor resolver, long attemptDelay) {
+        this.resolver = resolver;
+        this.attemptDelay = attemptDelay;
+    }
+
+    /**
+     * Return the executor for work that must not block the loop, such as the delegated
+     * tasks of a TLS handshake.
+     */
+    @NonNull
+    Executor getExecutor() {
+        return this.resolver;
+    }
+
+    void setAttemptDelay(long attemptDelay) {
+        this.attemptDelay = attemptDelay;
+    }
+
+    void setHostResolver(@NonNull HostResolver hostResolver) {
+        this.hostResolver = hostResolver;
+    }
+
+    @NonNull
+    ConnectTimeHistogram getIpv4ConnectTimes() {
+        return this.ipv4;
+    }
+
+    @NonNull
+    ConnectTimeHistogram getIpv6ConnectTimes() {
+        return this.ipv6;
+    }
+
+    /**
+     * Resolve `host` and connect to it. Must be called on the loop.
+     *
+     * @return The race, to be cancelled if the connection is no longer needed.
+     */
+    @NonNull
+    Race dial(@NonNull final SelectorLoop loop, @NonNull final String host, final int port,
+              @NonNull final SaltyRTCBuilder.DualStackMode mode, @NonNull Callback callback) {
+        final Race race = new Race(loop, callback, this.attemptDelay);
+        final HostResolver hostResolver = this.hostResolver;
+        this.resolver.execute(() -> {
+            try {
+                final List<InetSocketAddress> addresses = new ArrayList<>();
+                for (InetAddress address : sortAddresses(hostResolver.resolve(host), mode)) {
+                    addresses.add(new InetSocketAddress(address, port));
+                }
+                if (addresses.isEmpty()) {
+                    throw new UnknownHostException("No suitable address found for " + host);
+                }
+                loop.execute(() -> race.start(addresses));
+            } catch (IOException e) {
+                loop.execute(() -> race.fail(e));
+            }
+        });
+        return race;
+    }
+
+    /**
+     * Filter addresses by the dual stack mode and interleave the address families, starting
+     * with IPv6. Within a family, the order of the resolver is kept.
+     */
+    @NonNull
+    static List<InetAddress> sortAddresses(@NonNull InetAddress[] addresses,
+                                           @NonNull SaltyRTCBuilder.DualStackMode mode) {
+        final List<InetAddress> ipv4 = new ArrayList<>();
+        final List<InetAddress> ipv6 = new ArrayList<>();
+        for (InetAddress address : addresses) {
+            if (address instanceof Inet6Address && mode != SaltyRTCBuilder.DualStackMode.IPV4_ONLY) {
+                ipv6.add(address);
+            } else if (address instanceof Inet4Address && mode != SaltyRTCBuilder.DualStackMode.IPV6_ONLY) {
+                ipv4.add(address);
+            }
+        }
+        final List<InetAddress> sorted = new ArrayList<>(ipv4.size() + ipv6.size());
+        for (int i = 0; i < Math.max(ipv4.size(), ipv6.size()); i++) {
+            if (i < ipv6.size()) {
+                sorted.add(ipv6.get(i));
+            }
+            if (i < ipv4.size()) {
+                sorted.add(ipv4.get(i));
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * The connection attempts for one connection. Only accessed on the loop.
+     */
+    final class Race {
+        @NonNull private final SelectorLoop loop;
+        @NonNull private final Callback callback;
+        private final long attemptDelay;
+        @NonNull private final List<Attempt> pending = new ArrayList<>();
+        @Nullable private List<InetSocketAddress> addresses;
+        private int next = 0;
+        @Nullable private SelectorLoop.Timer timer;
+        @Nullable private IOException lastError;
+        private boolean done = false;
+
+        private Race(@NonNull SelectorLoop loop, @NonNull Callback callback, long attemptDelay) {
+            this.loop = loop;
+            this.callback = callback;
+            this.attemptDelay = attemptDelay;
+        }
+
+        private void start(@NonNull List<InetSocketAddress> addresses) {
+            if (this.done) {
+                return;
+            }
+            this.addresses = addresses;
+            this.startNext();
+        }
+
+        /**
+         * Start the next attempt, and schedule the one after it.
+         */
+        private void startNext() {
+            if (this.timer != null) {
+                this.timer.cancel();
+                this.timer = null;
+            }
+            while (!this.done && this.next < this.addresses.size()) {
+                final Attempt attempt = new Attempt(this, this.addresses.get(this.next++));
+                try {
+                    this.pending.add(attempt);
+                    attempt.open();
+                } catch (IOException e) {
+                    this.onFailed(attempt, e, false);
+                    continue;
+                }
+                if (!this.done && this.next < this.addresses.size()) {
+                    this.timer = this.loop.schedule(this.attemptDelay, this::startNext);
+                }
+                return;
+            }
+            if (!this.done && this.pending.isEmpty()) {
+                this.fail(this.lastError != null ? this.lastError : new IOException("No address to connect to"));
+            }
+        }
+
+        private void onConnected(@NonNull Attempt winner) {
+            this.done = true;
+            this.pending.remove(winner);
+            final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - winner.startedAt);
+            histogram(winner.address).record(millis);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Connected to " + winner.address + " in " + millis + " ms");
+            }
+            this.cancel();
+            this.callback.onDialed(winner.channel, winner.key);
+        }
+
+        private void onFailed(@NonNull Attempt attempt, @NonNull IOException e, boolean started) {
+            if (!this.pending.remove(attempt)) {
+                return;
+            }
+            attempt.close();
+            histogram(attempt.address).recordFailure();
+            LOG.debug("Could not connect to " + attempt.address + ": " + e.getMessage());
+            this.lastError = e;
+            if (this.done) {
+                return;
+            }
+            // Note: Don't wait for the timer, the next attempt starts right away. Attempts that
+            //       could not be started are followed up by `startNext` itself.
+            if (started) {
+                this.startNext();
+            }
+        }
+
+        private void fail(@NonNull IOException e) {
+            if (this.done) {
+                return;
+            }
+            this.done = true;
+            this.cancel();
+            this.callback.onDialFailed(e);
+        }
+
+        /**
+         * Stop all pending attempts. Does not notify the callback.
+         */
+        void cancel() {
+            this.done = true;
+            if (this.timer != null) {
+                this.timer.cancel();
+                this.timer = null;
+            }
+            for (Attempt attempt : this.pending) {
+                attempt.close();
+            }
+            this.pending.clear();
+        }
+    }
+
+    @NonNull
+    private ConnectTimeHistogram histogram(@NonNull InetSocketAddress address) {
+        return address.getAddress() instanceof Inet6Address ? this.ipv6 : this.ipv4;
+    }
+
+    /**
+     * A connection attempt to a single address.
+     */
+    private static final class Attempt implements SelectorLoop.Handler {
+        @NonNull private final Race race;
+        @NonNull private final InetSocketAddress address;
+        @Nullable private SocketChannel channel;
+        @Nullable private SelectionKey key;
+        private long startedAt;
+
+        Attempt(@NonNull Race race, @NonNull InetSocketAddress address) {
+            this.race = race;
+            this.address = address;
+        }
+
+        void open() throws IOException {
+            this.startedAt = System.nanoTime();
+            this.channel = SocketChannel.open();
+            this.channel.configureBlocking(false);
+            this.channel.socket().setTcpNoDelay(true);
+            this.key = this.channel.register(this.race.loop.getSelector(), 0, this);
+            if (this.channel.connect(this.address)) {
+                this.race.onConnected(this);
+            } else {
+                this.key.interestOps(SelectionKey.OP_CONNECT);
+            }
+        }
+
+        @Override
+        public void onReady(@NonNull SelectionKey key) {
+            try {
+                if (key.isConnectable() && this.channel.finishConnect()) {
+                    key.interestOps(0);
+                    this.race.onConnected(this);
+                }
+            } catch (IOException e) {
+                this.race.onFailed(this, e, true);
+            }
+        }
+
+        @Override
+        public void onShutdown() {
+            this.race.fail(new IOException("Selector loop has been shut down"));
+        }
+
+        void close() {
+            if (this.channel != null) {
+                try {
+                    this.channel.close();
+                } catch (IOException e) {
+                    LOG.warn("Could not close channel", e);
+                }
+            }
+        }
+    }
+}
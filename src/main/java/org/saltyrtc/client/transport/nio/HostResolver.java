@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.transport.nio;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Resolves the host names of servers (see `NioTransportFactory.setHostResolver`).
+ *
+ * Called on a resolver thread, so the lookup may block. Implementations must be thread safe.
+ */
+public interface HostResolver {
+    /**
+     * Resolve host names with `InetAddress.getAllByName`. This is the default.
+     */
+    HostResolver SYSTEM = InetAddress::getAllByName;
+
+    /**
+     * Return the addresses of `host`, in order of preference.
+     *
+     * @throws UnknownHostException if the host cannot be resolved.
+     */
+    @NonNull
+    InetAddress[] resolve(@NonNull String host) throws UnknownHostException;
+}
@@ -0,0 +1,1063 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.transport.nio;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.exceptions.ConnectionException;
+import org.saltyrtc.client.signaling.SendCallback;
+import org.saltyrtc.client.transport.TlsSessionCache;
+import org.saltyrtc.client.transport.Transport;
+import org.saltyrtc.client.transport.TransportConfig;
+import org.saltyrtc.client.transport.TransportListener;
+import org.slf4j.Logger;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A WebSocket connection on a non-blocking socket channel, served by a `SelectorLoop`.
+ *
+ * Apart from `connect`, `send` and `close`, everything runs on the loop. Listener callbacks are
+ * called on the loop as well.
+ *
+ * A pre-warmed transport establishes the TCP (and TLS) connection without a listener and then
+ * waits in a `ConnectionPool` until it is claimed and connected.
+ */
+final class NioTransport implements Transport, SelectorLoop.Handler, WebSocketFrames.Handler, Dialer.Callback {
+    private static final Logger LOG = org.slf4j.LoggerFactory.getLogger("SaltyRTC.NioTransport");
+
+    // States
+    private static final int CONNECTING = 0;
+    private static final int TLS_HANDSHAKE = 1;
+    private static final int UPGRADING = 2;
+    private static final int OPEN = 3;
+    private static final int CLOSING = 4;
+    private static final int CLOSED = 5;
+    // Pre-warmed, waiting for `connect`
+    private static final int READY = 6;
+
+    // Pooling states
+    private static final int UNPOOLED = 0;
+    private static final int POOLED = 1;
+    private static final int CLAIMED = 2;
+    private static final int DISCARDED = 3;
+
+    // Time to wait for the close frame of the server, in milliseconds
+    private static final long CLOSE_TIMEOUT = 5000;
+    // Maximum size of the HTTP response to the upgrade request
+    private static final int MAX_RESPONSE_HEAD = 8192;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final byte[] NO_PAYLOAD = new byte[0];
+
+    /**
+     * A binary message passed to `send`.
+     */
+    private static final class Outgoing {
+        @NonNull final byte[] payload;
+        @NonNull final SendCallback callback;
+        // Number of plaintext bytes produced up to the end of this message
+        long plainEnd;
+        // Number of network bytes produced up to the end of this message
+        long netEnd;
+
+        Outgoing(@NonNull byte[] payload, @NonNull SendCallback callback) {
+            this.payload = payload;
+            this.callback = callback;
+        }
+    }
+
+    @NonNull private final SelectorLoop loop;
+    @NonNull private final Dialer dialer;
+    @Nullable private final SSLContext sslContext;
+    @NonNull private final String host;
+    private final int port;
+    @Nullable private final ConnectionPool pool;
+
+    // Accessed from any thread
+    // Note: Replaced when a pooled transport is claimed, the listener is null until then
+    @NonNull private volatile TransportConfig config;
+    @Nullable private volatile TransportListener listener;
+    @NonNull private final AtomicInteger pooling;
+    @NonNull private final ConcurrentLinkedQueue<Outgoing> sendQueue = new ConcurrentLinkedQueue<>();
+    @NonNull private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    // Only accessed on the loop
+    private int state = CONNECTING;
+    @Nullable private Dialer.Race race;
+    @Nullable private SocketChannel channel;
+    @Nullable private SelectionKey key;
+    @Nullable private SSLEngine engine;
+    // Whether the host name is verified by the engine
+    private boolean hostnameVerified = false;
+    // Whether the delegated tasks of the TLS handshake are running off the loop
+    private boolean delegatedTasksRunning = false;
+    // Received from the socket (write mode), only used with TLS
+    private ByteBuffer netIn;
+    // Received plaintext (write mode)
+    private ByteBuffer appIn;
+    // Plaintext to be sent (write mode)
+    private ByteBuffer plainOut;
+    // Network bytes to be written to the socket (read mode)
+    private ByteBuffer netOut;
+    // Messages that have not been completely moved to `netOut` yet, and messages that have
+    // not been completely written to the socket yet
+    @NonNull private final ArrayDeque<Outgoing> unwrapped = new ArrayDeque<>();
+    @NonNull private final ArrayDeque<Outgoing> unwritten = new ArrayDeque<>();
+    private long plainProduced = 0;
+    private long plainConsumed = 0;
+    private long netProduced = 0;
+    private long netWritten = 0;
+    @NonNull private final WebSocketFrames.Reader reader = new WebSocketFrames.Reader();
+    @Nullable private String websocketKey;
+    @Nullable private SelectorLoop.Timer connectTimer;
+    @Nullable private SelectorLoop.Timer pingTimer;
+    @Nullable private SelectorLoop.Timer closeTimer;
+    private int closeCode;
+    // Whether `connect` has been called (or the transport has not been pooled)
+    private boolean connectRequested;
+    @Nullable private SelectorLoop.Timer idleTimer;
+
+    NioTransport(@NonNull SelectorLoop loop,
+                 @NonNull Dialer dialer,
+                 @NonNull TransportConfig config,
+                 @Nullable SSLContext sslContext,
+                 @NonNull TransportListener listener) {
+        this(loop, dialer, config, sslContext, listener, null);
+    }
+
+    /**
+     * Create a pre-warmed transport, see `warmUp`.
+     */
+    NioTransport(@NonNull SelectorLoop loop,
+                 @NonNull Dialer dialer,
+                 @NonNull TransportConfig config,
+                 @Nullable SSLContext sslContext,
+                 @NonNull ConnectionPool pool) {
+        this(loop, dialer, config, sslContext, null, pool);
+    }
+
+    private NioTransport(@NonNull SelectorLoop loop,
+                         @NonNull Dialer dialer,
+                         @NonNull TransportConfig config,
+                         @Nullable SSLContext sslContext,
+                         @Nullable TransportListener listener,
+                         @Nullable ConnectionPool pool) {
+        this.loop = loop;
+        this.dialer = dialer;
+        this.config = config;
+        this.sslContext = sslContext;
+        this.listener = listener;
+        this.pool = pool;
+        this.pooling = new AtomicInteger(pool != null ? POOLED : UNPOOLED);
+        this.connectRequested = pool == null;
+        final ConnectionPool.Key key = new ConnectionPool.Key(config, sslContext);
+        this.host = key.host;
+        this.port = key.port;
+    }
+
+    /**
+     * Establish the TCP (and TLS) connection of a pooled transport. It is closed if it has not
+     * been claimed after `maxIdleTime` milliseconds.
+     */
+    void warmUp(final long maxIdleTime) {
+        this.loop.execute(() -> {
+            if (this.state != CONNECTING || this.idleTimer != null) {
+                return;
+            }
+            this.idleTimer = this.loop.schedule(maxIdleTime, () -> {
+                if (this.discardIfPooled()) {
+                    LOG.debug("Closing unused connection to " + this.host + ":" + this.port);
+                    this.state = CLOSED;
+                    this.release();
+                }
+            });
+            if (this.config.getConnectTimeout() > 0) {
+                this.connectTimer = this.loop.schedule(this.config.getConnectTimeout(),
+                    () -> this.fail(new SocketTimeoutException("Connect timed out")));
+            }
+            this.race = this.dialer.dial(this.loop, this.host, this.port, this.config.getDualStackMode(), this);
+        });
+    }
+
+    /**
+     * Hand a pooled transport over to a new owner. Return false if it has been closed meanwhile,
+     * in which case it must not be used.
+     *
+     * The config must have the same pool key as the config the transport has been created with.
+     */
+    boolean claim(@NonNull TransportConfig config, @NonNull TransportListener listener) {
+        // Note: Written before the transition, so the loop sees them once it sees CLAIMED
+        this.config = config;
+        this.listener = listener;
+        return this.pooling.compareAndSet(POOLED, CLAIMED);
+    }
+
+    /**
+     * Remove a pooled transport that has not been claimed from the pool. Return whether it has
+     * been removed, in which case there is no listener to be notified.
+     */
+    private boolean discardIfPooled() {
+        if (this.pooling.compareAndSet(POOLED, DISCARDED)) {
+            this.pool.remove(this);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void connect() {
+        this.loop.execute(() -> {
+            if (this.pool != null) {
+                this.connectClaimed();
+                return;
+            }
+            if (this.state != CONNECTING || this.connectTimer != null) {
+                return;
+            }
+            if (this.config.getConnectTimeout() > 0) {
+                this.connectTimer = this.loop.schedule(this.config.getConnectTimeout(),
+                    () -> this.fail(new SocketTimeoutException("Connect timed out")));
+            }
+            this.race = this.dialer.dial(this.loop, this.host, this.port, this.config.getDualStackMode(), this);
+        });
+    }
+
+    /**
+     * Connect a claimed transport: Upgrade the connection once TCP (and TLS) are established.
+     */
+    private void connectClaimed() {
+        if (this.connectRequested || this.state == CLOSED) {
+            return;
+        }
+        this.connectRequested = true;
+        if (this.idleTimer != null) {
+            this.idleTimer.cancel();
+            this.idleTimer = null;
+        }
+        // Restart the connect timeout for the rest of the handshake
+        if (this.connectTimer != null) {
+            this.connectTimer.cancel();
+            this.connectTimer = null;
+        }
+        if (this.config.getConnectTimeout() > 0) {
+            this.connectTimer = this.loop.schedule(this.config.getConnectTimeout(),
+                () -> this.fail(new SocketTimeoutException("Connect timed out")));
+        }
+        if (this.state == READY) {
+            try {
+                this.startUpgrade();
+            } catch (IOException e) {
+                this.fail(e);
+            }
+        }
+    }
+
+    @Override
+    public void send(@NonNull byte[] payload, @NonNull SendCallback callback) {
+        this.sendQueue.offer(new Outgoing(payload, callback));
+        if (this.config.isAutoFlush()) {
+            this.flush();
+        }
+    }
+
+    @Override
+    public void flush() {
+        // Everything queued until the loop gets to it is encrypted and written together
+        if (this.flushScheduled.compareAndSet(false, true)) {
+            this.loop.execute(this::flushSendQueue);
+        }
+    }
+
+    @Override
+    public void close(final int closeCode) {
+        this.loop.execute(() -> this.closeInternal(closeCode));
+    }
+
+    @Override
+    public void onShutdown() {
+        this.fail(new IOException("Selector loop has been shut down"));
+    }
+
+    @Override
+    public void onDialed(@NonNull SocketChannel channel, @NonNull SelectionKey key) {
+        this.race = null;
+        this.channel = channel;
+        this.key = key;
+        key.attach(this);
+        try {
+            this.onTcpConnected();
+        } catch (IOException e) {
+            this.fail(e);
+        }
+    }
+
+    @Override
+    public void onDialFailed(@NonNull IOException e) {
+        this.race = null;
+        this.fail(e);
+    }
+
+    @Override
+    public void onReady(@NonNull SelectionKey key) {
+        try {
+            if (key.isWritable()) {
+                this.onWritable();
+            }
+            if (key.isValid() && key.isReadable()) {
+                this.onReadable();
+            }
+        } catch (IOException e) {
+            this.fail(e);
+        }
+    }
+
+    private void onTcpConnected() throws IOException {
+        this.key.interestOps(SelectionKey.OP_READ);
+        this.plainOut = ByteBuffer.allocate(BUFFER_SIZE);
+        if (this.sslContext != null) {
+            this.engine = this.sslContext.createSSLEngine(this.host, this.port);
+            this.engine.setUseClientMode(true);
+            this.hostnameVerified = this.enableEndpointIdentification();
+            this.netIn = ByteBuffer.allocate(this.engine.getSession().getPacketBufferSize());
+            this.appIn = ByteBuffer.allocate(this.engine.getSession().getApplicationBufferSize());
+            this.netOut = ByteBuffer.allocate(this.engine.getSession().getPacketBufferSize());
+            this.netOut.flip();
+            this.state = TLS_HANDSHAKE;
+            this.engine.beginHandshake();
+            this.handshake();
+        } else {
+            this.appIn = ByteBuffer.allocate(BUFFER_SIZE);
+            this.netOut = ByteBuffer.allocate(BUFFER_SIZE);
+            this.netOut.flip();
+            this.onEstablished();
+        }
+    }
+
+    /**
+     * The TCP (and TLS) connection has been established. Upgrade it, unless it is pre-warmed
+     * and has not been connected yet.
+     */
+    private void onEstablished() throws IOException {
+        if (this.connectRequested) {
+            this.startUpgrade();
+        } else {
+            this.state = READY;
+        }
+    }
+
+    /**
+     * Drive the TLS handshake as far as possible without blocking.
+     */
+    private void handshake() throws IOException {
+        if (this.delegatedTasksRunning) {
+            // Continued once the tasks are done
+            return;
+        }
+        while (this.state != CLOSED) {
+            switch (this.engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    if (this.state == TLS_HANDSHAKE) {
+                        this.runDelegatedTasks();
+                        return;
+                    }
+                    // Note: Tasks of post-handshake messages are rare and cheap (no certificate
+                    //       validation), so they run on the loop while unwrapping.
+                    Runnable task;
+                    while ((task = this.engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    break;
+                case NEED_WRAP:
+                    this.netOut.compact();
+                    final SSLEngineResult wrapped;
+                    try {
+                        wrapped = this.engine.wrap(EMPTY, this.netOut);
+                    } finally {
+                        this.netOut.flip();
+                    }
+                    this.netProduced += wrapped.bytesProduced();
+                    if (wrapped.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new SSLException("TLS connection closed during handshake");
+                    }
+                    if (!this.flushNet() || wrapped.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                        // Continue once the socket is writable
+                        if (!this.netOut.hasRemaining()) {
+                            this.netOut = grow(this.netOut, this.engine.getSession().getPacketBufferSize(), true);
+                            break;
+                        }
+                        return;
+                    }
+                    break;
+                case NEED_UNWRAP:
+                    this.netIn.flip();
+                    final SSLEngineResult unwrapped;
+                    try {
+                        unwrapped = this.engine.unwrap(this.netIn, this.appIn);
+                    } finally {
+                        this.netIn.compact();
+                    }
+                    switch (unwrapped.getStatus()) {
+                        case BUFFER_UNDERFLOW:
+                            // Continue once more data has been read
+                            this.ensureNetInSpace();
+                            return;
+                        case BUFFER_OVERFLOW:
+                            this.appIn = grow(this.appIn, this.engine.getSession().getApplicationBufferSize(), false);
+                            break;
+                        case CLOSED:
+                            throw new SSLException("TLS connection closed during handshake");
+                        default:
+                            break;
+                    }
+                    break;
+                default:
+                    // Finished (or a renegotiation has completed)
+                    if (this.state == TLS_HANDSHAKE) {
+                        this.verifyHostname();
+                        final TlsSessionCache tlsSessionCache = this.config.getTlsSessionCache();
+                        if (tlsSessionCache != null) {
+                            tlsSessionCache.recordHandshake(this.engine.getSession());
+                        }
+                        this.onEstablished();
+                    }
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Let the engine verify the host name. Return false if this is not supported (Android
+     * API level < 24).
+     */
+    /**
+     * Run the delegated tasks of the handshake (e.g. certificate validation) off the loop,
+     * since they may take long enough to stall every other connection of the loop. The
+     * socket is not polled until the handshake continues.
+     */
+    private void runDelegatedTasks() throws IOException {
+        this.delegatedTasksRunning = true;
+        if (this.key != null && this.key.isValid()) {
+            this.key.interestOps(0);
+        }
+        final SSLEngine engine = this.engine;
+        try {
+            this.dialer.getExecutor().execute(() -> {
+                RuntimeException error = null;
+                try {
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+                final RuntimeException finalError = error;
+                this.loop.execute(() -> this.onDelegatedTasksDone(finalError));
+            });
+        } catch (RejectedExecutionException e) {
+            this.delegatedTasksRunning = false;
+            throw new SSLException("Cannot run TLS handshake tasks", e);
+        }
+    }
+
+    /**
+     * Continue the handshake after the delegated tasks. Runs on the loop.
+     */
+    private void onDelegatedTasksDone(@Nullable RuntimeException error) {
+        this.delegatedTasksRunning = false;
+        if (this.state == CLOSED) {
+            return;
+        }
+        if (error != null) {
+            this.fail(new SSLException("TLS handshake task failed", error));
+            return;
+        }
+        try {
+            if (this.key != null && this.key.isValid()) {
+                this.key.interestOps(SelectionKey.OP_READ);
+            }
+            this.handshake();
+        } catch (IOException e) {
+            this.fail(e);
+        }
+    }
+
+    private boolean enableEndpointIdentification() {
+        try {
+            final SSLParameters parameters = this.engine.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            this.engine.setSSLParameters(parameters);
+            return true;
+        } catch (NoSuchMethodError e) {
+            return false;
+        }
+    }
+
+    private void verifyHostname() throws SSLPeerUnverifiedException {
+        if (this.hostnameVerified) {
+            return;
+        }
+        if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(this.host, this.engine.getSession())) {
+            throw new SSLPeerUnverifiedException("Hostname " + this.host + " could not be verified");
+        }
+    }
+
+    /**
+     * Send the HTTP request upgrading the connection to a WebSocket.
+     */
+    private void startUpgrade() throws IOException {
+        this.state = UPGRADING;
+        final byte[] nonce = new byte[16];
+        this.loop.getRandom().nextBytes(nonce);
+        this.websocketKey = WebSocketFrames.base64(nonce);
+
+        final URI uri = this.config.getUri();
+        final int defaultPort = this.sslContext != null ? 443 : 80;
+        final String hostHeader = uri.getPort() == -1 || uri.getPort() == defaultPort
+            ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        if (uri.getRawQuery() != null) {
+            path += "?" + uri.getRawQuery();
+        }
+        final byte[] request = WebSocketFrames.upgradeRequest(
+            hostHeader, path, this.websocketKey, this.config.getSubprotocol());
+        this.ensurePlainSpace(request.length);
+        this.plainOut.put(request);
+        this.plainProduced += request.length;
+        this.pumpWrite();
+    }
+
+    private void onWritable() throws IOException {
+        if (this.state == TLS_HANDSHAKE) {
+            if (this.flushNet()) {
+                this.handshake();
+            }
+        } else {
+            this.pumpWrite();
+        }
+    }
+
+    private void onReadable() throws IOException {
+        final int read;
+        if (this.engine != null) {
+            read = this.channel.read(this.netIn);
+        } else {
+            if (!this.appIn.hasRemaining()) {
+                this.appIn = grow(this.appIn, this.appIn.capacity(), false);
+            }
+            read = this.channel.read(this.appIn);
+        }
+        if (read < 0) {
+            this.onEndOfStream();
+            return;
+        }
+        if (this.engine != null) {
+            if (this.state == TLS_HANDSHAKE) {
+                this.handshake();
+                if (this.state == TLS_HANDSHAKE) {
+                    return;
+                }
+            }
+            if (!this.unwrapAll()) {
+                this.onEndOfStream();
+                return;
+            }
+        }
+        this.processAppData();
+    }
+
+    /**
+     * Decrypt all complete TLS records in `netIn`. Return false if the server has closed the
+     * TLS connection.
+     */
+    private boolean unwrapAll() throws IOException {
+        this.netIn.flip();
+        try {
+            while (this.netIn.hasRemaining()) {
+                final SSLEngineResult result = this.engine.unwrap(this.netIn, this.appIn);
+                switch (result.getStatus()) {
+                    case BUFFER_OVERFLOW:
+                        this.appIn = grow(this.appIn, this.engine.getSession().getApplicationBufferSize(), false);
+                        continue;
+                    case BUFFER_UNDERFLOW:
+                        return true;
+                    case CLOSED:
+                        return false;
+                    default:
+                        break;
+                }
+                final SSLEngineResult.HandshakeStatus handshakeStatus = result.getHandshakeStatus();
+                if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_TASK ||
+                    handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    // Post-handshake message (e.g. key update)
+                    this.netIn.compact();
+                    try {
+                        this.handshake();
+                    } finally {
+                        this.netIn.flip();
+                    }
+                }
+            }
+            return true;
+        } finally {
+            this.netIn.compact();
+            this.ensureNetInSpace();
+        }
+    }
+
+    /**
+     * Process the received plaintext.
+     */
+    private void processAppData() throws IOException {
+        this.appIn.flip();
+        try {
+            if (this.state == UPGRADING && !this.readUpgradeResponse()) {
+                return;
+            }
+            if (this.state == OPEN || this.state == CLOSING) {
+                this.reader.read(this.appIn, this);
+            }
+        } finally {
+            if (this.appIn != null) {
+                this.appIn.compact();
+            }
+        }
+    }
+
+    /**
+     * Read the HTTP response to the upgrade request. Return false if it is incomplete.
+     */
+    private boolean readUpgradeResponse() throws IOException {
+        final int start = this.appIn.position();
+        final int end = this.appIn.limit();
+        for (int i = start; i + 3 < end; i++) {
+            if (this.appIn.get(i) == '\r' && this.appIn.get(i + 1) == '\n' &&
+                this.appIn.get(i + 2) == '\r' && this.appIn.get(i + 3) == '\n') {
+                final byte[] head = new byte[i - start];
+                this.appIn.get(head);
+                this.appIn.position(i + 4);
+                WebSocketFrames.validateUpgradeResponse(
+                    new String(head, WebSocketFrames.UTF_8), this.websocketKey, this.config.getSubprotocol());
+                this.onOpen();
+                return true;
+            }
+        }
+        if (end - start > MAX_RESPONSE_HEAD) {
+            throw new IOException("WebSocket upgrade failed: Response too large");
+        }
+        return false;
+    }
+
+    private void onOpen() {
+        this.state = OPEN;
+        if (this.connectTimer != null) {
+            this.connectTimer.cancel();
+            this.connectTimer = null;
+        }
+        this.schedulePing();
+        this.notifyListener(this.listener::onConnected);
+
+        // Send the messages passed to `send` while connecting
+        this.flushSendQueue();
+    }
+
+    private void schedulePing() {
+        final long interval = this.config.getPingInterval();
+        if (interval > 0) {
+            this.pingTimer = this.loop.schedule(interval, () -> {
+                if (this.state == OPEN) {
+                    try {
+                        this.appendFrame(WebSocketFrames.OPCODE_PING, NO_PAYLOAD);
+                        this.pumpWrite();
+                    } catch (IOException e) {
+                        this.fail(e);
+                        return;
+                    }
+                    this.schedulePing();
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onMessage(int opcode, @NonNull final byte[] payload) {
+        if (this.state == CLOSED) {
+            return;
+        }
+        if (opcode == WebSocketFrames.OPCODE_BINARY) {
+            this.notifyListener(() -> this.listener.onBinaryMessage(payload));
+        } else {
+            final String text = new String(payload, WebSocketFrames.UTF_8);
+            this.notifyListener(() -> this.listener.onTextMessage(text));
+        }
+    }
+
+    @Override
+    public void onControlFrame(int opcode, @NonNull byte[] payload) throws IOException {
+        if (this.state == CLOSED) {
+            return;
+        }
+        switch (opcode) {
+            case WebSocketFrames.OPCODE_PING:
+                if (this.state == OPEN) {
+                    this.appendFrame(WebSocketFrames.OPCODE_PONG, payload);
+                    this.pumpWrite();
+                }
+                break;
+            case WebSocketFrames.OPCODE_CLOSE:
+                final int code = payload.length >= 2 ? ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF) : 1005;
+                final String reason = payload.length > 2
+                    ? new String(payload, 2, payload.length - 2, WebSocketFrames.UTF_8) : null;
+                if (this.state == OPEN) {
+                    // Closed by the server, echo the close frame
+                    this.appendFrame(WebSocketFrames.OPCODE_CLOSE, payload.length >= 2
+                        ? WebSocketFrames.closePayload(code) : NO_PAYLOAD);
+                    this.pumpWrite();
+                    this.finish(code, reason, true);
+                } else {
+                    this.finish(this.closeCode, null, false);
+                }
+                break;
+            default:
+                // Pong
+                break;
+        }
+    }
+
+    private void onEndOfStream() throws IOException {
+        if (this.state == CLOSING) {
+            this.finish(this.closeCode, null, false);
+        } else if (this.state == OPEN) {
+            this.finish(0, null, true);
+        } else {
+            throw new EOFException("Connection closed during handshake");
+        }
+    }
+
+    private void closeInternal(final int closeCode) {
+        switch (this.state) {
+            case CLOSING:
+            case CLOSED:
+                return;
+            case OPEN:
+                this.closeCode = closeCode;
+                this.state = CLOSING;
+                this.closeTimer = this.loop.schedule(CLOSE_TIMEOUT, () -> this.finish(closeCode, null, false));
+                try {
+                    this.appendFrame(WebSocketFrames.OPCODE_CLOSE, WebSocketFrames.closePayload(closeCode));
+                    this.pumpWrite();
+                } catch (IOException e) {
+                    this.finish(closeCode, null, false);
+                }
+                return;
+            default:
+                // Not connected yet
+                this.finish(closeCode, null, false);
+        }
+    }
+
+    /**
+     * Close the connection and notify the listener.
+     */
+    private void finish(final int closeCode, @Nullable final String closeReason, final boolean closedByServer) {
+        if (this.state == CLOSED) {
+            return;
+        }
+        this.state = CLOSED;
+        this.release();
+        if (this.discardIfPooled()) {
+            return;
+        }
+        this.notifyListener(() -> this.listener.onDisconnected(closeCode, closeReason, closedByServer));
+    }
+
+    /**
+     * Close the connection after an error and notify the listener.
+     */
+    private void fail(@NonNull final IOException e) {
+        if (this.state == CLOSED) {
+            return;
+        }
+        final boolean connected = this.state == OPEN || this.state == CLOSING;
+        if (e instanceof WebSocketFrames.ProtocolError && this.state == OPEN) {
+            // Tell the server (best effort)
+            final int code = ((WebSocketFrames.ProtocolError) e).closeCode;
+            try {
+                this.appendFrame(WebSocketFrames.OPCODE_CLOSE, WebSocketFrames.closePayload(code));
+                this.pumpWrite();
+            } catch (IOException ignored) {
+                // Closing anyway
+            }
+        }
+        this.state = CLOSED;
+        this.release();
+        if (this.discardIfPooled()) {
+            LOG.debug("Pre-warmed connection to " + this.host + ":" + this.port + " failed: " + e.getMessage());
+            return;
+        }
+        if (!connected) {
+            this.notifyListener(() -> this.listener.onConnectError(e));
+        } else {
+            this.notifyListener(() -> this.listener.onError(e));
+            if (e instanceof WebSocketFrames.ProtocolError) {
+                final int code = ((WebSocketFrames.ProtocolError) e).closeCode;
+                this.notifyListener(() -> this.listener.onDisconnected(code, e.getMessage(), false));
+            } else {
+                this.notifyListener(() -> this.listener.onDisconnected(0, null, true));
+            }
+        }
+    }
+
+    /**
+     * Close the channel, cancel timers and fail all messages that have not been written.
+     */
+    private void release() {
+        if (this.race != null) {
+            this.race.cancel();
+            this.race = null;
+        }
+        for (SelectorLoop.Timer timer : new SelectorLoop.Timer[] {
+            this.connectTimer, this.pingTimer, this.closeTimer, this.idleTimer }) {
+            if (timer != null) {
+                timer.cancel();
+            }
+        }
+        if (this.channel != null) {
+            if (this.engine != null) {
+                // Send close_notify (best effort)
+                this.engine.closeOutbound();
+                try {
+                    this.netOut.compact();
+                    try {
+                        this.engine.wrap(EMPTY, this.netOut);
+                    } finally {
+                        this.netOut.flip();
+                    }
+                    this.channel.write(this.netOut);
+                } catch (IOException ignored) {
+                    // Closing anyway
+                }
+            }
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                LOG.warn("Could not close channel", e);
+            }
+        }
+        final ConnectionException closed = new ConnectionException("WebSocket has been closed");
+        Outgoing outgoing;
+        while ((outgoing = this.unwritten.poll()) != null) {
+            this.notifyFailed(outgoing, closed);
+        }
+        while ((outgoing = this.unwrapped.poll()) != null) {
+            this.notifyFailed(outgoing, closed);
+        }
+        while ((outgoing = this.sendQueue.poll()) != null) {
+            this.notifyFailed(outgoing, closed);
+        }
+    }
+
+    /**
+     * Move the messages passed to `send` to the plaintext buffer and write them.
+     */
+    private void flushSendQueue() {
+        this.flushScheduled.set(false);
+        if (this.state == CLOSING || this.state == CLOSED) {
+            final ConnectionException closed = new ConnectionException("WebSocket has been closed");
+            Outgoing outgoing;
+            while ((outgoing = this.sendQueue.poll()) != null) {
+                this.notifyFailed(outgoing, closed);
+            }
+            return;
+        }
+        if (this.state != OPEN) {
+            // Sent once the connection is open
+            return;
+        }
+        Outgoing outgoing;
+        while ((outgoing = this.sendQueue.poll()) != null) {
+            this.appendFrame(WebSocketFrames.OPCODE_BINARY, outgoing.payload);
+            outgoing.plainEnd = this.plainProduced;
+            this.unwrapped.add(outgoing);
+        }
+        try {
+            this.pumpWrite();
+        } catch (IOException e) {
+            this.fail(e);
+        }
+    }
+
+    private void appendFrame(int opcode, @NonNull byte[] payload) {
+        final int length = WebSocketFrames.frameLength(payload.length);
+        this.ensurePlainSpace(length);
+        WebSocketFrames.writeFrame(this.plainOut, opcode, payload, this.loop.getRandom().nextInt());
+        this.plainProduced += length;
+    }
+
+    /**
+     * Move plaintext to the network buffer (encrypting it if needed) and write as much as the
+     * socket accepts.
+     */
+    private void pumpWrite() throws IOException {
+        while (true) {
+            if (this.plainOut.position() > 0) {
+                this.plainOut.flip();
+                try {
+                    this.fillNet();
+                } finally {
+                    this.plainOut.compact();
+                }
+                while (!this.unwrapped.isEmpty() && this.unwrapped.peek().plainEnd <= this.plainConsumed) {
+                    final Outgoing outgoing = this.unwrapped.poll();
+                    outgoing.netEnd = this.netProduced;
+                    this.unwritten.add(outgoing);
+                }
+            }
+            if (!this.flushNet()) {
+                return;
+            }
+            if (this.plainOut.position() == 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Move plaintext from `plainOut` (read mode) to `netOut` while there is room.
+     */
+    private void fillNet() throws IOException {
+        this.netOut.compact();
+        try {
+            if (this.engine == null) {
+                final int length = Math.min(this.plainOut.remaining(), this.netOut.remaining());
+                final int limit = this.plainOut.limit();
+                this.plainOut.limit(this.plainOut.position() + length);
+                this.netOut.put(this.plainOut);
+                this.plainOut.limit(limit);
+                this.plainConsumed += length;
+                this.netProduced += length;
+                return;
+            }
+            while (this.plainOut.hasRemaining()) {
+                final SSLEngineResult result = this.engine.wrap(this.plainOut, this.netOut);
+                this.plainConsumed += result.bytesConsumed();
+                this.netProduced += result.bytesProduced();
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new SSLException("TLS connection has been closed");
+                }
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    if (this.netOut.position() == 0) {
+                        // Packet size has increased
+                        this.netOut = ByteBuffer.allocate(this.engine.getSession().getPacketBufferSize());
+                        continue;
+                    }
+                    // Continue once the network buffer has been written
+                    return;
+                }
+            }
+        } finally {
+            this.netOut.flip();
+        }
+    }
+
+    /**
+     * Write `netOut` to the socket. Return whether everything has been written.
+     */
+    private boolean flushNet() throws IOException {
+        if (this.netOut.hasRemaining()) {
+            this.netWritten += this.channel.write(this.netOut);
+            while (!this.unwritten.isEmpty() && this.unwritten.peek().netEnd <= this.netWritten) {
+                final Outgoing outgoing = this.unwritten.poll();
+                this.notifyListener(outgoing.callback::onSent);
+            }
+        }
+        final boolean done = !this.netOut.hasRemaining();
+        if (this.key != null && this.key.isValid()) {
+            if (this.delegatedTasksRunning) {
+                // Don't read until the handshake continues
+                this.key.interestOps(done ? 0 : SelectionKey.OP_WRITE);
+            } else {
+                this.key.interestOps(done ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+        return done;
+    }
+
+    private void ensurePlainSpace(int length) {
+        if (this.plainOut.remaining() < length) {
+            final ByteBuffer buffer = ByteBuffer.allocate(Math.max(
+                this.plainOut.capacity() * 2, this.plainOut.position() + length));
+            this.plainOut.flip();
+            buffer.put(this.plainOut);
+            this.plainOut = buffer;
+        }
+    }
+
+    private void ensureNetInSpace() {
+        if (!this.netIn.hasRemaining()) {
+            this.netIn = grow(this.netIn, this.engine.getSession().getPacketBufferSize(), false);
+        }
+    }
+
+    /**
+     * Return a larger copy of `buffer`, by at least `minGrowth` bytes.
+     *
+     * @param readMode Whether `buffer` is in read mode (the copy will be as well).
+     */
+    @NonNull
+    private static ByteBuffer grow(@NonNull ByteBuffer buffer, int minGrowth, boolean readMode) {
+        final ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() + Math.max(minGrowth, buffer.capacity()));
+        if (!readMode) {
+            buffer.flip();
+        }
+        larger.put(buffer);
+        if (readMode) {
+            larger.flip();
+        }
+        return larger;
+    }
+
+    private void notifyFailed(@NonNull final Outgoing outgoing, @NonNull final Exception e) {
+        this.notifyListener(() -> outgoing.callback.onFailed(e));
+    }
+
+    /**
+     * Call a listener or send callback. Exceptions are passed to `handleCallbackError`.
+     */
+    private void notifyListener(@NonNull Runnable callback) {
+        try {
+            callback.run();
+        } catch (RuntimeException e) {
+            try {
+                this.listener.handleCallbackError(e);
+            } catch (RuntimeException ee) {
+                LOG.error("Uncaught exception in callback error handler", ee);
+            }
+        }
+    }
+}
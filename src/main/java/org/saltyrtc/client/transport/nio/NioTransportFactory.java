@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.transport.nio;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.transport.Transport;
+import org.saltyrtc.client.transport.TransportConfig;
+import org.saltyrtc.client.transport.TransportFactory;
+import org.saltyrtc.client.transport.TransportListener;
+
+import javax.net.ssl.SSLContext;
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates WebSocket transports that are served by a fixed number of selector threads, based on
+ * `java.nio` socket channels and `SSLEngine`. Each thread serves many connections, so this
+ * scales to thousands of sessions.
+ *
+ * Listener callbacks are called on the selector threads. Handle events on an event loop
+ * (see `SaltyRTCBuilder.withEventLoop`) to avoid blocking other connections.
+ *
+ * Secure connections require an `SSLContext`, an `SSLSocketFactory` cannot be used. The
+ * factory should be shared by all sessions and closed once it is no longer needed.
+ *
+ * Connections can be established ahead of time with `prewarm`. They are kept in a pool until
+ * a transport is created for the same host, port, `SSLContext` and dual stack mode, or until
+ * they have been idle for too long (see `setMaxIdleTime`).
+ *
+ * If a server has several addresses, they are raced as described in RFC 8305 ("Happy
+ * Eyeballs", see `setConnectionAttemptDelay`).
+ */
+public class NioTransportFactory implements TransportFactory, Closeable {
+    /**
+     * Default time after which unused pre-warmed connections are closed, in milliseconds.
+     */
+    public static final long DEFAULT_MAX_IDLE_TIME = 30000;
+
+    /**
+     * Default time after which the next address of a server is tried while connecting, in
+     * milliseconds. This is the delay recommended by RFC 8305.
+     */
+    public static final long DEFAULT_CONNECTION_ATTEMPT_DELAY = 250;
+
+    // Maximum number of pre-warmed connections per server
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+
+    @NonNull private final SelectorLoop[] loops;
+    @NonNull private final ExecutorService resolver;
+    @NonNull private final Dialer dialer;
+    @NonNull private final AtomicInteger next = new AtomicInteger(0);
+    @NonNull private final ConnectionPool pool = new ConnectionPool();
+    private volatile long maxIdleTime = DEFAULT_MAX_IDLE_TIME;
+
+    /**
+     * Create a factory with one selector thread per available processor.
+     */
+    public NioTransportFactory() throws IOException {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a factory with `threads` selector threads.
+     */
+    public NioTransportFactory(int threads) throws IOException {
+        this(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                final Thread thread = new Thread(runnable, "SaltyRTC-Selector-" + this.count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Create a factory with `threads` selector threads created by `threadFactory`.
+     *
+     * Host names are resolved on a separate pool, as the lookup may block.
+     */
+    public NioTransportFactory(int threads, @NonNull ThreadFactory threadFactory) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one selector thread is required");
+        }
+        this.loops = new SelectorLoop[threads];
+        try {
+            for (int i = 0; i < threads; i++) {
+                this.loops[i] = new SelectorLoop(threadFactory);
+            }
+        } catch (IOException e) {
+            this.shutdownLoops();
+            throw e;
+        }
+        this.resolver = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "SaltyRTC-Resolver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.dialer = new Dialer(this.resolver, DEFAULT_CONNECTION_ATTEMPT_DELAY);
+        this.dialer.setHostResolver(new CachingHostResolver());
+    }
+
+    /**
+     * Set the time after which unused pre-warmed connections are closed, in milliseconds.
+     *
+     * Servers close idle connections as well, so this should not exceed their timeout.
+     */
+    @NonNull
+    public NioTransportFactory setMaxIdleTime(long maxIdleTime) {
+        if (maxIdleTime <= 0) {
+            throw new IllegalArgumentException("Max idle time must be positive");
+        }
+        this.maxIdleTime = maxIdleTime;
+        return this;
+    }
+
+    /**
+     * Set the time after which the next address is tried while connecting to a server with
+     * several addresses, in milliseconds.
+     *
+     * Addresses are tried alternating between IPv6 and IPv4 (unless restricted by the dual stack
+     * mode), so a broken route to one address family only delays the connection by this time.
+     * Attempts that are still pending when a connection has been established are cancelled.
+     */
+    @NonNull
+    public NioTransportFactory setConnectionAttemptDelay(long attemptDelay) {
+        if (attemptDelay < 0) {
+            throw new IllegalArgumentException("Connection attempt delay must not be negative");
+        }
+        this.dialer.setAttemptDelay(attemptDelay);
+        return this;
+    }
+
+    /**
+     * Set the resolver used for the host names of servers.
+     *
+     * By default, addresses are cached by a `CachingHostResolver` with the default TTL, so that
+     * reconnects don't wait for the resolver. Pass your own instance to see its hit rate, or
+     * `HostResolver.SYSTEM` to disable the cache.
+     */
+    @NonNull
+    public NioTransportFactory setHostResolver(@NonNull HostResolver hostResolver) {
+        this.dialer.setHostResolver(hostResolver);
+        return this;
+    }
+
+    /**
+     * Return the times needed to establish TCP connections to IPv4 addresses.
+     */
+    @NonNull
+    public ConnectTimeHistogram getIpv4ConnectTimes() {
+        return this.dialer.getIpv4ConnectTimes();
+    }
+
+    /**
+     * Return the times needed to establish TCP connections to IPv6 addresses.
+     */
+    @NonNull
+    public ConnectTimeHistogram getIpv6ConnectTimes() {
+        return this.dialer.getIpv6ConnectTimes();
+    }
+
+    /**
+     * Return the number of pre-warmed connections that have not been used yet.
+     */
+    public int getIdleConnections() {
+        return this.pool.size();
+    }
+
+    @NonNull
+    @Override
+    public Transport create(@NonNull TransportConfig config, @NonNull TransportListener listener) throws IOException {
+        final SSLContext sslContext = getSslContext(config);
+        final ConnectionPool.Key key = new ConnectionPool.Key(config, sslContext);
+        NioTransport transport;
+        while ((transport = this.pool.poll(key)) != null) {
+            if (transport.claim(config, listener)) {
+                return transport;
+            }
+        }
+        return new NioTransport(this.nextLoop(), this.dialer, config, sslContext, listener);
+    }
+
+    /**
+     * Establish the TCP (and TLS) connection for `config` in the background. The next transport
+     * created for the same server uses it and only sends the WebSocket upgrade request.
+     *
+     * At most four unused connections are kept per server, further ones are closed.
+     */
+    @Override
+    public void prewarm(@NonNull TransportConfig config) throws IOException {
+        final SSLContext sslContext = getSslContext(config);
+        final NioTransport transport = new NioTransport(this.nextLoop(), this.dialer, config, sslContext, this.pool);
+        // Note: Warming up before adding, so that it precedes `connect` on the loop
+        transport.warmUp(this.maxIdleTime);
+        if (!this.pool.add(new ConnectionPool.Key(config, sslContext), transport, MAX_IDLE_CONNECTIONS)) {
+            transport.close(1000);
+        }
+    }
+
+    /**
+     * Return the SSL context for a secure connection, or null for a plain connection.
+     */
+    @Nullable
+    private static SSLContext getSslContext(@NonNull TransportConfig config) throws IOException {
+        final String scheme = config.getUri().getScheme();
+        SSLContext sslContext = null;
+        if ("wss".equalsIgnoreCase(scheme)) {
+            sslContext = config.getSslContext();
+            if (sslContext == null) {
+                if (config.getSslSocketFactory() != null) {
+                    throw new IOException("The NIO transport requires an SSLContext");
+                }
+                try {
+                    sslContext = SSLContext.getDefault();
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IOException("No default SSLContext available", e);
+                }
+            }
+        } else if (!"ws".equalsIgnoreCase(scheme)) {
+            throw new IOException("Unsupported scheme: " + scheme);
+        }
+        return sslContext;
+    }
+
+    @NonNull
+    private SelectorLoop nextLoop() {
+        return this.loops[(this.next.getAndIncrement() & Integer.MAX_VALUE) % this.loops.length];
+    }
+
+    /**
+     * Stop the selector threads. Open connections are closed.
+     */
+    @Override
+    public void close() {
+        this.shutdownLoops();
+        this.resolver.shutdown();
+        this.pool.clear();
+    }
+
+    private void shutdownLoops() {
+        for (SelectorLoop loop : this.loops) {
+            if (loop != null) {
+                loop.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.transport.nio;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A thread running a selector that serves many transports.
+ *
+ * All state of a transport is only touched on the thread of its loop. Other threads pass work
+ * to the loop with `execute`.
+ */
+final class SelectorLoop implements Executor {
+    private static final Logger LOG = org.slf4j.LoggerFactory.getLogger("SaltyRTC.SelectorLoop");
+
+    /**
+     * Handles the ready operations of a selection key. Attached to the key.
+     */
+    interface Handler {
+        void onReady(@NonNull SelectionKey key);
+
+        /**
+         * The loop has been shut down.
+         */
+        void onShutdown();
+    }
+
+    /**
+     * A task scheduled to run on the loop after a delay.
+     */
+    static final class Timer {
+        private final long deadline;
+        @NonNull private final Runnable task;
+        private boolean cancelled = false;
+
+        private Timer(long deadline, @NonNull Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        /**
+         * Cancel the timer. Must be called on the loop.
+         */
+        void cancel() {
+            this.cancelled = true;
+        }
+    }
+
+    private static final Comparator<Timer> BY_DEADLINE = (a, b) -> Long.compare(a.deadline, b.deadline);
+
+    @NonNull private final Selector selector;
+    @NonNull private final Thread thread;
+    @NonNull private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // Whether the selector has been woken up since the loop last started waiting
+    @NonNull private final AtomicBoolean wakenUp = new AtomicBoolean(false);
+    // Only touched on the loop
+    @NonNull private final PriorityQueue<Timer> timers = new PriorityQueue<>(16, BY_DEADLINE);
+    @NonNull private final SecureRandom random = new SecureRandom();
+    private volatile boolean running = true;
+
+    SelectorLoop(@NonNull ThreadFactory threadFactory) throws IOException {
+        this.selector = Selector.open();
+        this.thread = threadFactory.newThread(this::run);
+        this.thread.start();
+    }
+
+    @NonNull
+    Selector getSelector() {
+        return this.selector;
+    }
+
+    /**
+     * Return the random number generator of the loop. Must only be used on the loop.
+     */
+    @NonNull
+    SecureRandom getRandom() {
+        return this.random;
+    }
+
+    boolean inLoop() {
+        return Thread.currentThread() == this.thread;
+    }
+
+    /**
+     * Run a task on the loop.
+     */
+    @Override
+    public void execute(@NonNull Runnable task) {
+        this.tasks.offer(task);
+        if (!this.inLoop() && this.wakenUp.compareAndSet(false, true)) {
+            this.selector.wakeup();
+        }
+    }
+
+    /**
+     * Run a task on the loop after `delayMs` milliseconds. Must be called on the loop.
+     */
+    @NonNull
+    Timer schedule(long delayMs, @NonNull Runnable task) {
+        final Timer timer = new Timer(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs), task);
+        this.timers.add(timer);
+        return timer;
+    }
+
+    /**
+     * Stop the loop. All transports served by it are notified.
+     */
+    void shutdown() {
+        this.running = false;
+        this.selector.wakeup();
+    }
+
+    private void run() {
+        while (this.running) {
+            try {
+                this.wakenUp.set(false);
+                if (this.tasks.isEmpty()) {
+                    final long timeout = this.nextTimeout();
+                    if (timeout < 0) {
+                        this.selector.select();
+                    } else if (timeout == 0) {
+                        this.selector.selectNow();
+                    } else {
+                        this.selector.select(timeout);
+                    }
+                } else {
+                    this.selector.selectNow();
+                }
+                this.processSelectedKeys();
+                this.runTasks();
+                this.runTimers();
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Uncaught exception in selector loop", e);
+            }
+        }
+        this.close();
+    }
+
+    /**
+     * Return the number of milliseconds until the next timer, 0 if it is due or -1 if there
+     * is none.
+     */
+    private long nextTimeout() {
+        Timer timer;
+        while ((timer = this.timers.peek()) != null && timer.cancelled) {
+            this.timers.poll();
+        }
+        if (timer == null) {
+            return -1;
+        }
+        final long remaining = timer.deadline - System.nanoTime();
+        // Round up, `select(0)` would block forever
+        return remaining <= 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining + 999_999));
+    }
+
+    private void processSelectedKeys() {
+        final Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            final SelectionKey key = keys.next();
+            keys.remove();
+            if (key.isValid()) {
+                ((Handler) key.attachment()).onReady(key);
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = this.tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOG.error("Uncaught exception in selector loop task", e);
+            }
+        }
+    }
+
+    private void runTimers() {
+        final long now = System.nanoTime();
+        Timer timer;
+        while ((timer = this.timers.peek()) != null && timer.deadline - now <= 0) {
+            this.timers.poll();
+            if (!timer.cancelled) {
+                try {
+                    timer.task.run();
+                } catch (RuntimeException e) {
+                    LOG.error("Uncaught exception in selector loop timer", e);
+                }
+            }
+        }
+    }
+
+    private void close() {
+        for (SelectionKey key : new ArrayList<>(this.selector.keys())) {
+            ((Handler) key.attachment()).onShutdown();
+        }
+        try {
+            this.selector.close();
+        } catch (IOException e) {
+            LOG.warn("Could not close selector", e);
+        }
+    }
+}
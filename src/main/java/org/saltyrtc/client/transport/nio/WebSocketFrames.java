@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.transport.nio;
+
+import org.saltyrtc.client.annotations.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * WebSocket framing (RFC 6455) for the client side.
+ */
+final class WebSocketFrames {
+    static final int OPCODE_CONTINUATION = 0x0;
+    static final int OPCODE_TEXT = 0x1;
+    static final int OPCODE_BINARY = 0x2;
+    static final int OPCODE_CLOSE = 0x8;
+    static final int OPCODE_PING = 0x9;
+    static final int OPCODE_PONG = 0xA;
+
+    static final int CLOSE_PROTOCOL_ERROR = 1002;
+    static final int CLOSE_TOO_BIG = 1009;
+
+    // Messages larger than this are rejected
+    static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final char[] BASE64 =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private WebSocketFrames() { }
+
+    /**
+     * A violation of the WebSocket protocol by the server.
+     */
+    static class ProtocolError extends IOException {
+        final int closeCode;
+
+        ProtocolError(int closeCode, @NonNull String message) {
+            super(message);
+            this.closeCode = closeCode;
+        }
+    }
+
+    /**
+     * Receives the frames parsed by a `Reader`.
+     */
+    interface Handler {
+        /**
+         * A complete (possibly reassembled) text or binary message has been received.
+         */
+        void onMessage(int opcode, @NonNull byte[] payload) throws IOException;
+
+        /**
+         * A control frame has been received.
+         */
+        void onControlFrame(int opcode, @NonNull byte[] payload) throws IOException;
+    }
+
+    /**
+     * Parses frames sent by the server and reassembles fragmented messages.
+     */
+    static final class Reader {
+        @NonNull private final ByteArrayOutputStream fragments = new ByteArrayOutputStream();
+        private int fragmentedOpcode = -1;
+
+        /**
+         * Parse all complete frames in `in` (in read mode). Incomplete frames are left in the
+         * buffer.
+         */
+        void read(@NonNull ByteBuffer in, @NonNull Handler handler) throws IOException {
+            while (true) {
+                final int start = in.position();
+                if (in.remaining() < 2) {
+                    return;
+                }
+                final int b0 = in.get() & 0xFF;
+                final int b1 = in.get() & 0xFF;
+                final boolean fin = (b0 & 0x80) != 0;
+                final int opcode = b0 & 0x0F;
+                if ((b0 & 0x70) != 0) {
+                    throw new ProtocolError(CLOSE_PROTOCOL_ERROR, "Reserved bits set");
+                }
+                if ((b1 & 0x80) != 0) {
+                    throw new ProtocolError(CLOSE_PROTOCOL_ERROR, "Server frames must not be masked");
+                }
+                long length = b1 & 0x7F;
+                if (length == 126) {
+                    if (in.remaining() < 2) {
+                        in.position(start);
+                        return;
+                    }
+                    length = in.getShort() & 0xFFFF;
+                } else if (length == 127) {
+                    if (in.remaining() < 8) {
+                        in.position(start);
+                        return;
+                    }
+                    length = in.getLong();
+                }
+                final boolean control = (opcode & 0x8) != 0;
+                if (control && (length > 125 || !fin)) {
+                    throw new ProtocolError(CLOSE_PROTOCOL_ERROR, "Invalid control frame");
+                }
+                if (length < 0 || length + this.fragments.size() > MAX_MESSAGE_SIZE) {
+                    throw new ProtocolError(CLOSE_TOO_BIG, "Message too big");
+                }
+                if (in.remaining() < length) {
+                    in.position(start);
+                    return;
+                }
+                final byte[] payload = new byte[(int) length];
+                in.get(payload);
+
+                if (control) {
+                    handler.onControlFrame(opcode, payload);
+                } else if (opcode == OPCODE_CONTINUATION) {
+                    if (this.fragmentedOpcode < 0) {
+                        throw new ProtocolError(CLOSE_PROTOCOL_ERROR, "Unexpected continuation frame");
+                    }
+                    this.fragments.write(payload, 0, payload.length);
+                    if (fin) {
+                        final int messageOpcode = this.fragmentedOpcode;
+                        final byte[] message = this.fragments.toByteArray();
+                        this.fragments.reset();
+                        this.fragmentedOpcode = -1;
+                        handler.onMessage(messageOpcode, message);
+                    }
+                } else if (opcode == OPCODE_TEXT || opcode == OPCODE_BINARY) {
+                    if (this.fragmentedOpcode >= 0) {
+                        throw new ProtocolError(CLOSE_PROTOCOL_ERROR, "Expected continuation frame");
+                    }
+                    if (fin) {
+                        handler.onMessage(opcode, payload);
+                    } else {
+                        this.fragmentedOpcode = opcode;
+                        this.fragments.write(payload, 0, payload.length);
+                    }
+                } else {
+                    throw new ProtocolError(CLOSE_PROTOCOL_ERROR, "Unknown opcode " + opcode);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the size of a client frame with a payload of `length` bytes.
+     */
+    static int frameLength(int length) {
+        final int header = length <= 125 ? 2 : length <= 0xFFFF ? 4 : 10;
+        return header + 4 + length;
+    }
+
+    /**
+     * Write a masked client frame to `out` (in write mode).
+     */
+    static void writeFrame(@NonNull ByteBuffer out, int opcode, @NonNull byte[] payload, int mask) {
+        out.put((byte) (0x80 | opcode));
+        final int length = payload.length;
+        if (length <= 125) {
+            out.put((byte) (0x80 | length));
+        } else if (length <= 0xFFFF) {
+            out.put((byte) (0x80 | 126));
+            out.putShort((short) length);
+        } else {
+            out.put((byte) (0x80 | 127));
+            out.putLong(length);
+        }
+        out.putInt(mask);
+        final byte[] key = {
+            (byte) (mask >>> 24), (byte) (mask >>> 16), (byte) (mask >>> 8), (byte) mask,
+        };
+        if (out.hasArray()) {
+            final byte[] array = out.array();
+            final int offset = out.arrayOffset() + out.position();
+            for (int i = 0; i < length; i++) {
+                array[offset + i] = (byte) (payload[i] ^ key[i & 3]);
+            }
+            out.position(out.position() + length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                out.put((byte) (payload[i] ^ key[i & 3]));
+            }
+        }
+    }
+
+    /**
+     * Return the payload of a close frame.
+     */
+    @NonNull
+    static byte[] closePayload(int closeCode) {
+        return new byte[] { (byte) (closeCode >>> 8), (byte) closeCode };
+    }
+
+    /**
+     * Return the HTTP request upgrading the connection to a WebSocket.
+     */
+    @NonNull
+    static byte[] upgradeRequest(@NonNull String host, @NonNull String path,
+                                 @NonNull String key, @NonNull String subprotocol) {
+        final String request = "GET " + path + " HTTP/1.1\r\n" +
+            "Host: " + host + "\r\n" +
+            "Upgrade: websocket\r\n" +
+            "Connection: Upgrade\r\n" +
+            "Sec-WebSocket-Key: " + key + "\r\n" +
+            "Sec-WebSocket-Version: 13\r\n" +
+            "Sec-WebSocket-Protocol: " + subprotocol + "\r\n" +
+            "\r\n";
+        return request.getBytes(US_ASCII);
+    }
+
+    /**
+     * Validate the HTTP response to the upgrade request.
+     *
+     * @param head The response up to (excluding) the empty line.
+     */
+    static void validateUpgradeResponse(@NonNull String head, @NonNull String key,
+                                        @NonNull String subprotocol) throws IOException {
+        final String[] lines = head.split("\r\n");
+        final String[] status = lines[0].split(" ", 3);
+        if (status.length < 2 || !status[0].startsWith("HTTP/") || !status[1].equals("101")) {
+            throw new IOException("WebSocket upgrade failed: " + lines[0]);
+        }
+        String upgrade = null;
+        String connection = null;
+        String accept = null;
+        String protocol = null;
+        for (int i = 1; i < lines.length; i++) {
+            final int colon = lines[i].indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            final String name = lines[i].substring(0, colon).trim();
+            final String value = lines[i].substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Upgrade")) {
+                upgrade = value;
+            } else if (name.equalsIgnoreCase("Connection")) {
+                connection = value;
+            } else if (name.equalsIgnoreCase("Sec-WebSocket-Accept")) {
+                accept = value;
+            } else if (name.equalsIgnoreCase("Sec-WebSocket-Protocol")) {
+                protocol = value;
+            }
+        }
+        if (upgrade == null || !upgrade.equalsIgnoreCase("websocket")) {
+            throw new IOException("WebSocket upgrade failed: Missing Upgrade header");
+        }
+        if (connection == null || !connection.toLowerCase().contains("upgrade")) {
+            throw new IOException("WebSocket upgrade failed: Missing Connection header");
+        }
+        if (!acceptKey(key).equals(accept)) {
+            throw new IOException("WebSocket upgrade failed: Invalid Sec-WebSocket-Accept header");
+        }
+        if (!subprotocol.equals(protocol)) {
+            throw new IOException("WebSocket upgrade failed: Server did not agree to subprotocol " + subprotocol);
+        }
+    }
+
+    /**
+     * Return the `Sec-WebSocket-Accept` value expected for `key`.
+     */
+    @NonNull
+    static String acceptKey(@NonNull String key) {
+        try {
+            final MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return base64(sha1.digest((key + ACCEPT_GUID).getBytes(US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+
+    /**
+     * Encode `data` as Base64 (with padding).
+     *
+     * Note: `java.util.Base64` requires Android API level 26.
+     */
+    @NonNull
+    static String base64(@NonNull byte[] data) {
+        final StringBuilder out = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            final int b0 = data[i] & 0xFF;
+            final int b1 = i + 1 < data.length ? data[i + 1] & 0xFF : 0;
+            final int b2 = i + 2 < data.length ? data[i + 2] & 0xFF : 0;
+            out.append(BASE64[b0 >>> 2]);
+            out.append(BASE64[((b0 & 0x03) << 4) | (b1 >>> 4)]);
+            out.append(i + 1 < data.length ? BASE64[((b1 & 0x0F) << 2) | (b2 >>> 6)] : '=');
+            out.append(i + 2 < data.length ? BASE64[b2 & 0x3F] : '=');
+        }
+        return out.toString();
+    }
+}
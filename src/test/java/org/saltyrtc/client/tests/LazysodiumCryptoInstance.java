@@ -63,6 +63,9 @@ public class LazysodiumCryptoInstance implements CryptoInstance {
     @NonNull
     @Override
     public byte[] decrypt(@NonNull byte[] data, @NonNull byte[] nonce) throws CryptoException {
+        if (data.length < MACBYTES) {
+            throw new CryptoException("Could not decrypt data");
+        }
         final byte[] plaintext = new byte[data.length - MACBYTES];
         final boolean success = this.sodium.cryptoBoxOpenEasyAfterNm(plaintext, data, data.length, nonce, this.sharedKey);
         if (!success) {
@@ -98,6 +98,10 @@ public class LazysodiumCryptoProvider implements CryptoProvider {
             throw new CryptoException("Invalid nonce length");
         }
 
+        if (input.length < CryptoProvider.BOXOVERHEAD) {
+            throw new CryptoException("Could not decrypt data");
+        }
+
         // Decrypt
         final SecretBox.Native lazySodium = new LazySodiumJava(sodium);
         final byte[] decrypted = new byte[input.length - CryptoProvider.BOXOVERHEAD];
@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.tests;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.saltyrtc.client.SaltyRTC;
+import org.saltyrtc.client.SaltyRTCBuilder;
+import org.saltyrtc.client.SaltyRTCServerPool;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.crypto.CryptoProvider;
+import org.saltyrtc.client.helpers.HexHelper;
+import org.saltyrtc.client.keystore.KeyStore;
+import org.saltyrtc.client.signaling.CloseCode;
+import org.saltyrtc.client.signaling.SendCallback;
+import org.saltyrtc.client.signaling.state.SignalingState;
+import org.saltyrtc.client.tasks.Task;
+import org.saltyrtc.client.transport.Transport;
+import org.saltyrtc.client.transport.TransportConfig;
+import org.saltyrtc.client.transport.TransportFactory;
+import org.saltyrtc.client.transport.TransportListener;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SaltyRTCServerPoolTest {
+    private List<SaltyRTCServerPool.Server> servers;
+    private List<String> keys;
+
+    @Before
+    public void setUp() {
+        this.servers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            this.servers.add(new SaltyRTCServerPool.Server("server" + i + ".example.org", 443, null));
+        }
+        final Random random = new Random(42);
+        this.keys = new ArrayList<>();
+        for (int i = 0; i < 4000; i++) {
+            final byte[] key = new byte[32];
+            random.nextBytes(key);
+            this.keys.add(HexHelper.asHex(key));
+        }
+    }
+
+    @NonNull
+    private static Map<String, SaltyRTCServerPool.Server> assign(@NonNull SaltyRTCServerPool pool,
+                                                                 @NonNull List<String> keys) {
+        final Map<String, SaltyRTCServerPool.Server> assignments = new HashMap<>();
+        for (String key : keys) {
+            assignments.put(key, pool.getServer(key));
+        }
+        return assignments;
+    }
+
+    @Test
+    public void testSameServerForSameKey() {
+        final SaltyRTCServerPool first = new SaltyRTCServerPool(this.servers);
+        final SaltyRTCServerPool second = new SaltyRTCServerPool(this.servers);
+        for (String key : this.keys.subList(0, 100)) {
+            assertSame(first.getServer(key), second.getServer(key.toUpperCase()));
+            assertEquals(first.getServer(key).getHost(), first.getHost(key));
+            assertEquals(443, first.getPort(key));
+        }
+    }
+
+    @Test
+    public void testEvenDistribution() {
+        final SaltyRTCServerPool pool = new SaltyRTCServerPool(this.servers);
+        final Map<SaltyRTCServerPool.Server, Integer> counts = new HashMap<>();
+        for (SaltyRTCServerPool.Server server : assign(pool, this.keys).values()) {
+            final Integer count = counts.get(server);
+            counts.put(server, count == null ? 1 : count + 1);
+        }
+        assertEquals(4, counts.size());
+        for (int count : counts.values()) {
+            // 1000 per server on average
+            assertTrue("Unbalanced: " + count, count > 700 && count < 1300);
+        }
+    }
+
+    @Test
+    public void testAddingServerOnlyMovesItsShare() {
+        final SaltyRTCServerPool pool = new SaltyRTCServerPool(this.servers);
+        final Map<String, SaltyRTCServerPool.Server> before = assign(pool, this.keys);
+        final SaltyRTCServerPool.Server added = new SaltyRTCServerPool.Server("server4.example.org", 443, null);
+        pool.addServer(added);
+        final Map<String, SaltyRTCServerPool.Server> after = assign(pool, this.keys);
+        int moved = 0;
+        for (String key : this.keys) {
+            if (before.get(key) != after.get(key)) {
+                // Paths only move to the new server
+                assertSame(added, after.get(key));
+                moved++;
+            }
+        }
+        // 1/5 of the paths on average
+        assertTrue("Moved: " + moved, moved > 500 && moved < 1100);
+
+        // Removing it again restores the previous assignments
+        pool.removeServer(added);
+        assertEquals(before, assign(pool, this.keys));
+    }
+
+    @Test
+    public void testFailover() throws InterruptedException {
+        final SaltyRTCServerPool pool = new SaltyRTCServerPool(this.servers, 128, 100);
+        final String key = this.keys.get(0);
+        final SaltyRTCServerPool.Server primary = pool.getServer(key);
+        pool.markUnhealthy(primary);
+        assertFalse(primary.isHealthy());
+        final SaltyRTCServerPool.Server secondary = pool.getServer(key);
+        assertNotSame(primary, secondary);
+
+        // No path is served by the primary while it is unhealthy
+        for (String other : this.keys.subList(1, 200)) {
+            assertNotSame(primary, pool.getServer(other));
+        }
+
+        // The primary is used again after the unhealthy time
+        Thread.sleep(150);
+        assertTrue(primary.isHealthy());
+        assertSame(primary, pool.getServer(key));
+
+        pool.markUnhealthy(primary);
+        pool.markHealthy(primary);
+        assertSame(primary, pool.getServer(key));
+    }
+
+    @Test
+    public void testNoHealthyServer() {
+        final SaltyRTCServerPool pool = new SaltyRTCServerPool(this.servers);
+        final String key = this.keys.get(0);
+        final SaltyRTCServerPool.Server primary = pool.getServer(key);
+        for (SaltyRTCServerPool.Server server : this.servers) {
+            pool.markUnhealthy(server);
+        }
+        assertSame(primary, pool.getServer(key));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateServer() {
+        new SaltyRTCServerPool(Arrays.asList(
+            new SaltyRTCServerPool.Server("example.org", 443, null),
+            new SaltyRTCServerPool.Server("EXAMPLE.org", 443, null)));
+    }
+
+    /**
+     * Creates transports that fail to connect, or that are closed by the server with
+     * `GOING_AWAY` right after connecting.
+     */
+    private static class FailingFactory implements TransportFactory {
+        final boolean goingAway;
+        @NonNull final List<TransportConfig> configs = new CopyOnWriteArrayList<>();
+
+        FailingFactory(boolean goingAway) {
+            this.goingAway = goingAway;
+        }
+
+        @NonNull
+        @Override
+        public Transport create(@NonNull TransportConfig config, @NonNull TransportListener listener) throws IOException {
+            this.configs.add(config);
+            return new Transport() {
+                @Override
+                public void connect() {
+                    new Thread(() -> {
+                        if (FailingFactory.this.goingAway) {
+                            listener.onConnected();
+                            listener.onDisconnected(CloseCode.GOING_AWAY, null, true);
+                        } else {
+                            listener.onConnectError(new ConnectException("Connection refused"));
+                        }
+                    }).start();
+                }
+
+                @Override
+                public void send(@NonNull byte[] payload, @NonNull SendCallback callback) {
+                }
+
+                @Override
+                public void close(int closeCode) {
+                }
+            };
+        }
+    }
+
+    private void connectAndFail(@NonNull SaltyRTCServerPool pool, boolean goingAway,
+                                @NonNull SignalingState finalState) throws Exception {
+        final CryptoProvider cryptoProvider = new LazysodiumCryptoProvider();
+        final SaltyRTC client = new SaltyRTCBuilder(cryptoProvider)
+            .connectTo(pool)
+            .withTransport(new FailingFactory(goingAway))
+            .withKeyStore(new KeyStore(cryptoProvider))
+            .withWebSocketConnectAttemptsMax(1)
+            .usingTasks(new Task[]{ new DummyTask() })
+            .asInitiator();
+        final CountDownLatch done = new CountDownLatch(1);
+        client.events.signalingStateChanged.register(event -> {
+            if (event.getState() == finalState) {
+                done.countDown();
+            }
+            return false;
+        });
+        client.connect();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        client.disconnect();
+    }
+
+    @Test
+    public void testConnectErrorMarksUnhealthy() throws Exception {
+        final SaltyRTCServerPool pool = new SaltyRTCServerPool(this.servers);
+        final CryptoProvider cryptoProvider = new LazysodiumCryptoProvider();
+
+        // Built on another thread than the one connecting it
+        final SaltyRTC[] built = new SaltyRTC[1];
+        final Thread builder = new Thread(() -> {
+            try {
+                built[0] = new SaltyRTCBuilder(cryptoProvider)
+                    .connectTo(pool)
+                    .withTransport(new FailingFactory(false))
+                    .withKeyStore(new KeyStore(cryptoProvider))
+                    .usingTasks(new Task[]{ new DummyTask() })
+                    .asInitiator();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        builder.start();
+        builder.join();
+        final SaltyRTC client = built[0];
+        assertNotNull(client);
+        final String host = pool.getHost(HexHelper.asHex(client.getPublicPermanentKey()));
+
+        // Marked on the first failed attempt, while the connection is still retried
+        final CountDownLatch failed = new CountDownLatch(1);
+        client.events.connectError.register(event -> {
+            failed.countDown();
+            return true;
+        });
+        client.connect();
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        for (SaltyRTCServerPool.Server server : this.servers) {
+            assertEquals(!server.getHost().equals(host), server.isHealthy());
+        }
+        assertNotEquals(SignalingState.ERROR, client.getSignalingState());
+        client.disconnect();
+    }
+
+    @Test
+    public void testServerResolvedOncePerBuild() throws Exception {
+        final List<SaltyRTCServerPool.Server> servers = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            final SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, null, null);
+            servers.add(new SaltyRTCServerPool.Server("server" + i + ".example.org", 8000 + i, sslContext));
+        }
+
+        // Returns another server on every call, like servers changing their health meanwhile
+        final AtomicInteger calls = new AtomicInteger(0);
+        final SaltyRTCServerPool pool = new SaltyRTCServerPool(servers) {
+            @NonNull
+            @Override
+            public Server getServer(@NonNull String initiatorPublicKey) {
+                return servers.get(calls.getAndIncrement() % servers.size());
+            }
+        };
+        final CryptoProvider cryptoProvider = new LazysodiumCryptoProvider();
+        final FailingFactory transports = new FailingFactory(false);
+        final SaltyRTC client = new SaltyRTCBuilder(cryptoProvider)
+            .connectTo(pool)
+            .withTransport(transports)
+            .withKeyStore(new KeyStore(cryptoProvider))
+            .withWebSocketConnectAttemptsMax(1)
+            .usingTasks(new Task[]{ new DummyTask() })
+            .asInitiator();
+        assertEquals(1, calls.get());
+
+        client.connect();
+        client.disconnect();
+        final TransportConfig config = transports.configs.get(0);
+        assertEquals(servers.get(0).getHost(), config.getUri().getHost());
+        assertEquals(servers.get(0).getPort(), config.getUri().getPort());
+        assertSame(servers.get(0).getSslContext(), config.getSslContext());
+    }
+
+    @Test
+    public void testGoingAwayMarksUnhealthy() throws Exception {
+        final SaltyRTCServerPool pool = new SaltyRTCServerPool(this.servers);
+        this.connectAndFail(pool, true, SignalingState.CLOSED);
+        int unhealthy = 0;
+        for (SaltyRTCServerPool.Server server : this.servers) {
+            unhealthy += server.isHealthy() ? 0 : 1;
+        }
+        assertEquals(1, unhealthy);
+    }
+}
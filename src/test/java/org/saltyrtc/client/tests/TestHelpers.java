@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.tests;
+
+import org.saltyrtc.client.SaltyRTC;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.signaling.state.SignalingState;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Helpers shared by the tests using the loopback server.
+ */
+public final class TestHelpers {
+    private TestHelpers() {
+    }
+
+    /**
+     * Holds tasks back until opened, then runs every task on a new thread.
+     *
+     * Note: A serial executor submits the next task before the previous one counts as
+     *       completed, so all tasks are done once the counters match.
+     */
+    public static class GatedExecutor implements Executor {
+        @NonNull private final List<Runnable> held = new ArrayList<>();
+        @NonNull public final CountDownLatch submitted = new CountDownLatch(1);
+        @NonNull public final AtomicInteger executed = new AtomicInteger(0);
+        @NonNull public final AtomicInteger completed = new AtomicInteger(0);
+        private boolean open = false;
+
+        @Override
+        public void execute(@NonNull Runnable task) {
+            this.executed.incrementAndGet();
+            final Runnable counting = () -> {
+                try {
+                    task.run();
+                } finally {
+                    this.completed.incrementAndGet();
+                }
+            };
+            synchronized (this) {
+                if (!this.open) {
+                    this.held.add(counting);
+                    this.submitted.countDown();
+                    return;
+                }
+            }
+            new Thread(counting).start();
+        }
+
+        public void open() {
+            final List<Runnable> tasks;
+            synchronized (this) {
+                this.open = true;
+                tasks = new ArrayList<>(this.held);
+                this.held.clear();
+            }
+            for (Runnable task : tasks) {
+                new Thread(task).start();
+            }
+        }
+
+        /**
+         * Wait until all tasks passed so far have completed.
+         */
+        public void awaitCompleted() throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (this.completed.get() < this.executed.get() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(this.executed.get(), this.completed.get());
+        }
+    }
+
+    /**
+     * Return a latch counted down once `client` enters `state`.
+     */
+    @NonNull
+    public static CountDownLatch awaitState(@NonNull SaltyRTC client, @NonNull SignalingState state) {
+        return awaitState(client, state, 1);
+    }
+
+    /**
+     * Return a latch counted down every time `client` enters `state`, up to `count` times.
+     */
+    @NonNull
+    public static CountDownLatch awaitState(@NonNull SaltyRTC client, @NonNull SignalingState state, int count) {
+        final CountDownLatch latch = new CountDownLatch(count);
+        client.events.signalingStateChanged.register(event -> {
+            if (event.getState() == state) {
+                latch.countDown();
+                return latch.getCount() == 0;
+            }
+            return false;
+        });
+        return latch;
+    }
+
+    /**
+     * Return a latch counted down once `client` is closed with `closeCode`.
+     */
+    @NonNull
+    public static CountDownLatch awaitClose(@NonNull SaltyRTC client, int closeCode) {
+        final CountDownLatch latch = new CountDownLatch(1);
+        client.events.close.register(event -> {
+            if (event.getReason() == closeCode) {
+                latch.countDown();
+                return true;
+            }
+            return false;
+        });
+        return latch;
+    }
+
+    /**
+     * Wait until all `peers` are in `state`.
+     */
+    public static void waitForState(@NonNull SignalingState state, @NonNull SaltyRTC... peers)
+        throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(peers.length);
+        for (SaltyRTC peer : peers) {
+            peer.events.signalingStateChanged.register(event -> {
+                if (event.getState() == state) {
+                    done.countDown();
+                    return true;
+                }
+                return false;
+            });
+            if (peer.getSignalingState() == state) {
+                done.countDown();
+            }
+        }
+        assertTrue("Timed out waiting for " + state, done.await(10, TimeUnit.SECONDS));
+    }
+}
@@ -16,8 +16,15 @@ import org.saltyrtc.client.events.EventRegistry;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
 public class EventRegistryTest {
@@ -113,4 +120,127 @@ public class EventRegistryTest {
         this.registry.notifyHandlers(new MessageEvent("hello"));
         assertEquals(2, messages.size());
     }
+
+    @Test
+    public void testHasHandlers() {
+        assertFalse(this.registry.hasHandlers());
+        this.registry.register(this.adder);
+        assertTrue(this.registry.hasHandlers());
+        this.registry.unregister(this.adder);
+        assertFalse(this.registry.hasHandlers());
+    }
+
+    @Test
+    public void testExecutor() throws InterruptedException {
+        final ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            final int count = 1000;
+            final Thread caller = Thread.currentThread();
+            final List<Thread> threads = new ArrayList<>();
+            final CountDownLatch done = new CountDownLatch(count);
+            this.registry.setExecutor(pool);
+            this.registry.register(event -> {
+                // Not synchronized on purpose, events are never delivered concurrently
+                messages.add(event.getMessage());
+                threads.add(Thread.currentThread());
+                done.countDown();
+                return false;
+            });
+            for (int i = 0; i < count; i++) {
+                this.registry.notifyHandlers(new MessageEvent(String.valueOf(i)));
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < count; i++) {
+                assertEquals(String.valueOf(i), messages.get(i));
+                assertNotEquals(caller, threads.get(i));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testResetExecutor() {
+        final ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            this.registry.register(this.adder);
+            this.registry.setExecutor(pool);
+            this.registry.setExecutor(null);
+            this.registry.notifyHandlers(new MessageEvent("hello"));
+            assertEquals(1, messages.size());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRegisterOnce() {
+        this.registry.registerOnce(this.adder);
+        this.registry.notifyHandlers(new MessageEvent("hello"));
+        this.registry.notifyHandlers(new MessageEvent("hello"));
+        assertEquals(1, messages.size());
+        assertFalse(this.registry.hasHandlers());
+
+        // May be registered again
+        this.registry.registerOnce(this.adder);
+        this.registry.notifyHandlers(new MessageEvent("hello"));
+        assertEquals(2, messages.size());
+    }
+
+    @Test
+    public void testRegistrationOrder() {
+        for (int i = 0; i < 10; i++) {
+            final String message = String.valueOf(i);
+            this.registry.register(event -> {
+                messages.add(message);
+                return false;
+            });
+        }
+        this.registry.notifyHandlers(new MessageEvent("hello"));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(String.valueOf(i), messages.get(i));
+        }
+    }
+
+    @Test
+    public void testChurn() {
+        // Register and unregister many handlers without any event in between
+        this.registry.register(this.adder);
+        for (int i = 0; i < 10000; i++) {
+            final EventHandler<MessageEvent> handler = event -> true;
+            this.registry.register(handler);
+            if (i % 2 == 0) {
+                this.registry.unregister(handler);
+            }
+        }
+        this.registry.notifyHandlers(new MessageEvent("hello"));
+        this.registry.unregister(this.adder);
+        assertFalse(this.registry.hasHandlers());
+        this.registry.notifyHandlers(new MessageEvent("hello"));
+        assertEquals(1, messages.size());
+    }
+
+    @Test
+    public void testConcurrentOnce() throws InterruptedException {
+        final int threads = 4;
+        final int handlers = 1000;
+        final AtomicInteger calls = new AtomicInteger(0);
+        for (int i = 0; i < handlers; i++) {
+            this.registry.registerOnce(event -> {
+                calls.incrementAndGet();
+                return false;
+            });
+        }
+        final Thread[] notifiers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            notifiers[i] = new Thread(() -> this.registry.notifyHandlers(new MessageEvent("hello")));
+            notifiers[i].start();
+        }
+        for (Thread notifier : notifiers) {
+            notifier.join();
+        }
+        // Every one-shot handler has been called exactly once
+        assertEquals(handlers, calls.get());
+        assertFalse(this.registry.hasHandlers());
+    }
 }
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.tests.helpers;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.saltyrtc.client.helpers.EventLoop;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class EventLoopTest {
+
+    private ExecutorService pool;
+    private EventLoop eventLoop;
+
+    @Before
+    public void setUp() {
+        this.pool = Executors.newFixedThreadPool(4);
+        this.eventLoop = new EventLoop(this.pool);
+    }
+
+    @After
+    public void tearDown() {
+        this.pool.shutdownNow();
+    }
+
+    @Test
+    public void testManyProducers() throws InterruptedException {
+        final int producers = 4;
+        final int tasksPerProducer = 1000;
+        final List<Integer> lastSeen = new ArrayList<>();
+        for (int i = 0; i < producers; i++) {
+            lastSeen.add(-1);
+        }
+        final AtomicInteger running = new AtomicInteger(0);
+        final AtomicBoolean overlap = new AtomicBoolean(false);
+        final AtomicBoolean reordered = new AtomicBoolean(false);
+        final CountDownLatch done = new CountDownLatch(producers * tasksPerProducer);
+
+        final Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread(() -> {
+                for (int i = 0; i < tasksPerProducer; i++) {
+                    final int number = i;
+                    this.eventLoop.execute(() -> {
+                        if (running.incrementAndGet() != 1) {
+                            overlap.set(true);
+                        }
+                        // Not synchronized on purpose, tasks never run concurrently
+                        if (lastSeen.get(producer) != number - 1) {
+                            reordered.set(true);
+                        }
+                        lastSeen.set(producer, number);
+                        running.decrementAndGet();
+                        done.countDown();
+                    });
+                }
+            });
+            threads[p].start();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertFalse(overlap.get());
+        assertFalse(reordered.get());
+    }
+
+    @Test
+    public void testExecuteAndWait() throws InterruptedException {
+        final AtomicBoolean ran = new AtomicBoolean(false);
+        final AtomicBoolean inLoop = new AtomicBoolean(false);
+        assertFalse(this.eventLoop.inEventLoop());
+        this.eventLoop.executeAndWait(() -> {
+            inLoop.set(this.eventLoop.inEventLoop());
+            ran.set(true);
+        });
+        assertTrue(ran.get());
+        assertTrue(inLoop.get());
+    }
+
+    @Test
+    public void testNestedExecuteAndWait() throws InterruptedException {
+        final List<String> order = new ArrayList<>();
+        this.eventLoop.executeAndWait(() -> {
+            order.add("outer");
+            try {
+                // Runs directly, would deadlock otherwise
+                this.eventLoop.executeAndWait(() -> order.add("inner"));
+            } catch (InterruptedException e) {
+                fail("Interrupted");
+            }
+            this.eventLoop.execute(() -> order.add("enqueued"));
+            order.add("outer done");
+        });
+        this.eventLoop.executeAndWait(() -> { });
+        assertEquals("outer", order.get(0));
+        assertEquals("inner", order.get(1));
+        assertEquals("outer done", order.get(2));
+        assertEquals("enqueued", order.get(3));
+    }
+
+    @Test
+    public void testRejectedRollsBack() throws InterruptedException {
+        final AtomicBoolean reject = new AtomicBoolean(true);
+        final EventLoop eventLoop = new EventLoop(task -> {
+            if (reject.get()) {
+                throw new RejectedExecutionException("Rejected");
+            }
+            this.pool.execute(task);
+        });
+        try {
+            eventLoop.execute(() -> fail("Rejected task has been run"));
+            fail("Expected a RejectedExecutionException");
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+
+        // The loop is scheduled again by the next task
+        reject.set(false);
+        final AtomicBoolean ran = new AtomicBoolean(false);
+        eventLoop.executeAndWait(() -> ran.set(true));
+        assertTrue(ran.get());
+    }
+
+    @Test
+    public void testSurvivesException() throws InterruptedException {
+        this.eventLoop.execute(() -> {
+            throw new IllegalStateException("Expected");
+        });
+        final AtomicBoolean ran = new AtomicBoolean(false);
+        this.eventLoop.executeAndWait(() -> ran.set(true));
+        assertTrue(ran.get());
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.tests.helpers;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.saltyrtc.client.helpers.SerialExecutor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class SerialExecutorTest {
+
+    private ExecutorService pool;
+
+    @Before
+    public void setUp() {
+        this.pool = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        this.pool.shutdownNow();
+    }
+
+    @Test
+    public void testRunsInOrder() throws InterruptedException {
+        final SerialExecutor executor = new SerialExecutor(this.pool);
+        final List<Integer> results = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger running = new AtomicInteger(0);
+        final AtomicInteger maxRunning = new AtomicInteger(0);
+        final CountDownLatch done = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            final int number = i;
+            executor.execute(() -> {
+                maxRunning.set(Math.max(maxRunning.get(), running.incrementAndGet()));
+                results.add(number);
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, maxRunning.get());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(i), results.get(i));
+        }
+    }
+
+    @Test
+    public void testAsyncTask() throws InterruptedException {
+        final SerialExecutor executor = new SerialExecutor(this.pool);
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicReference<Runnable> first = new AtomicReference<>();
+        final CountDownLatch second = new CountDownLatch(1);
+        executor.executeAsync(done -> {
+            first.set(done);
+            started.countDown();
+        });
+        executor.execute(second::countDown);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // The next task only runs once the first one has completed
+        assertFalse(second.await(100, TimeUnit.MILLISECONDS));
+        first.get().run();
+        first.get().run();
+        assertTrue(second.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testInstancesRunInParallel() throws InterruptedException {
+        final SerialExecutor first = new SerialExecutor(this.pool);
+        final SerialExecutor second = new SerialExecutor(this.pool);
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch done = new CountDownLatch(2);
+        final Runnable task = () -> {
+            started.countDown();
+            try {
+                if (started.await(5, TimeUnit.SECONDS)) {
+                    done.countDown();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        first.execute(task);
+        second.execute(task);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testIdle() throws InterruptedException {
+        final SerialExecutor executor = new SerialExecutor(this.pool);
+        assertTrue(executor.isIdle());
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        executor.execute(done::countDown);
+        assertFalse(executor.isIdle());
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRejected() {
+        this.pool.shutdown();
+        final SerialExecutor executor = new SerialExecutor(this.pool);
+        try {
+            executor.execute(() -> { });
+            fail("Expected RejectedExecutionException");
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+        assertTrue(executor.isIdle());
+    }
+
+    @Test
+    public void testRejectionHandler() throws InterruptedException {
+        final ExecutorService single = Executors.newSingleThreadExecutor();
+        final AtomicInteger rejections = new AtomicInteger(0);
+        final SerialExecutor executor = new SerialExecutor(single, e -> rejections.incrementAndGet());
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger ran = new AtomicInteger(0);
+        executor.execute(() -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ran.incrementAndGet();
+        });
+        executor.execute(ran::incrementAndGet);
+
+        // The second task is rejected once the first one completes
+        single.shutdown();
+        release.countDown();
+        assertTrue(single.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(1, ran.get());
+        assertEquals(1, rejections.get());
+        assertTrue(executor.isIdle());
+
+        // Further tasks are discarded
+        executor.execute(ran::incrementAndGet);
+        assertEquals(1, ran.get());
+        assertEquals(1, rejections.get());
+    }
+}
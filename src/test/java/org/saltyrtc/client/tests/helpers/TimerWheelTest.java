@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.tests.helpers;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.saltyrtc.client.helpers.TimerWheel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class TimerWheelTest {
+
+    private TimerWheel wheel;
+
+    @Before
+    public void setUp() {
+        // Small wheel, so that timers wrap around
+        this.wheel = new TimerWheel(5, 8, runnable -> {
+            final Thread thread = new Thread(runnable, "TimerWheelTest");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @After
+    public void tearDown() {
+        this.wheel.shutdown();
+    }
+
+    @Test
+    public void testRunsAfterDelay() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final long start = System.nanoTime();
+        this.wheel.schedule(done::countDown, 100);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+        assertEquals(0, this.wheel.getPendingTimers());
+    }
+
+    @Test
+    public void testRunsInOrderOfDeadline() throws InterruptedException {
+        final List<Integer> results = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(3);
+        this.wheel.schedule(() -> { results.add(3); done.countDown(); }, 150);
+        this.wheel.schedule(() -> { results.add(1); done.countDown(); }, 0);
+        this.wheel.schedule(() -> { results.add(2); done.countDown(); }, 60);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(3, results.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i + 1, (int) results.get(i));
+        }
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        final AtomicBoolean ran = new AtomicBoolean(false);
+        final TimerWheel.Timeout timeout = this.wheel.schedule(() -> ran.set(true), 50);
+        assertEquals(1, this.wheel.getPendingTimers());
+        assertTrue(timeout.cancel());
+        assertTrue(timeout.isCancelled());
+        assertFalse(timeout.cancel());
+        assertEquals(0, this.wheel.getPendingTimers());
+
+        // Schedule another one to make sure the wheel has moved past the cancelled timer
+        final CountDownLatch done = new CountDownLatch(1);
+        this.wheel.schedule(done::countDown, 100);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertFalse(ran.get());
+    }
+
+    @Test
+    public void testCancelAfterRun() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final TimerWheel.Timeout timeout = this.wheel.schedule(done::countDown, 0);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertFalse(timeout.cancel());
+        assertFalse(timeout.isCancelled());
+    }
+
+    @Test
+    public void testTaskSchedulesTimer() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        this.wheel.schedule(() -> this.wheel.schedule(done::countDown, 20), 20);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testResumesAfterIdle() throws InterruptedException {
+        final CountDownLatch first = new CountDownLatch(1);
+        this.wheel.schedule(first::countDown, 10);
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+
+        final CountDownLatch second = new CountDownLatch(1);
+        final long start = System.nanoTime();
+        this.wheel.schedule(second::countDown, 50);
+        assertTrue(second.await(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 50);
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testRejectsAfterShutdown() {
+        this.wheel.shutdown();
+        this.wheel.schedule(() -> {}, 10);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.tests.retry;
+
+import org.junit.Test;
+import org.saltyrtc.client.retry.DecorrelatedJitter;
+import org.saltyrtc.client.retry.ExponentialBackoff;
+import org.saltyrtc.client.retry.RetryPolicy;
+
+import static org.junit.Assert.*;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void testImmediate() {
+        assertEquals(0, RetryPolicy.IMMEDIATE.nextDelay(1, 0));
+        assertEquals(0, RetryPolicy.IMMEDIATE.nextDelay(10, 0));
+    }
+
+    @Test
+    public void testExponential() {
+        final RetryPolicy policy = new ExponentialBackoff(100, 1000, false);
+        assertEquals(100, policy.nextDelay(1, 0));
+        assertEquals(200, policy.nextDelay(2, 100));
+        assertEquals(400, policy.nextDelay(3, 200));
+        assertEquals(800, policy.nextDelay(4, 400));
+        assertEquals(1000, policy.nextDelay(5, 800));
+        assertEquals(1000, policy.nextDelay(100, 1000));
+        assertEquals(1000, policy.nextDelay(Integer.MAX_VALUE, 1000));
+    }
+
+    @Test
+    public void testExponentialJitter() {
+        final RetryPolicy policy = new ExponentialBackoff(100, 1000, true);
+        for (int attempt = 1; attempt < 100; attempt++) {
+            final long delay = policy.nextDelay(attempt, 0);
+            assertTrue(delay >= 0);
+            assertTrue(delay <= Math.min(1000, 100L << Math.min(attempt - 1, 10)));
+        }
+    }
+
+    @Test
+    public void testDecorrelatedJitter() {
+        final RetryPolicy policy = new DecorrelatedJitter(100, 5000);
+        long previous = 0;
+        for (int attempt = 1; attempt < 100; attempt++) {
+            final long delay = policy.nextDelay(attempt, previous);
+            assertTrue(delay >= 100);
+            assertTrue(delay <= Math.min(5000, Math.max(100, previous) * 3));
+            previous = delay;
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDelays() {
+        new ExponentialBackoff(1000, 100, false);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.tests.signaling;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.saltyrtc.client.SaltyRTC;
+import org.saltyrtc.client.SaltyRTCBuilder;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.crypto.CryptoProvider;
+import org.saltyrtc.client.keystore.KeyStore;
+import org.saltyrtc.client.retry.ExponentialBackoff;
+import org.saltyrtc.client.retry.RetryPolicy;
+import org.saltyrtc.client.signaling.SendCallback;
+import org.saltyrtc.client.signaling.state.SignalingState;
+import org.saltyrtc.client.tasks.Task;
+import org.saltyrtc.client.tests.DummyTask;
+import org.saltyrtc.client.tests.LazysodiumCryptoProvider;
+import org.saltyrtc.client.transport.Transport;
+import org.saltyrtc.client.transport.TransportConfig;
+import org.saltyrtc.client.transport.TransportFactory;
+import org.saltyrtc.client.transport.TransportListener;
+import org.saltyrtc.client.transport.loopback.LoopbackServer;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConnectRetryTest {
+    /**
+     * Fails the first connection attempts, then connects to the loopback server.
+     */
+    private static class FailingFactory implements TransportFactory {
+        @NonNull final TransportFactory factory;
+        @NonNull final List<Long> attempts = new CopyOnWriteArrayList<>();
+        final int failures;
+
+        FailingFactory(@NonNull TransportFactory factory, int failures) {
+            this.factory = factory;
+            this.failures = failures;
+        }
+
+        @NonNull
+        @Override
+        public Transport create(@NonNull TransportConfig config, @NonNull TransportListener listener) throws IOException {
+            if (this.attempts.size() >= this.failures) {
+                this.attempts.add(System.nanoTime());
+                return this.factory.create(config, listener);
+            }
+            return new Transport() {
+                @Override
+                public void connect() {
+                    FailingFactory.this.attempts.add(System.nanoTime());
+                    new Thread(() -> listener.onConnectError(new ConnectException("Connection refused"))).start();
+                }
+
+                @Override
+                public void send(@NonNull byte[] payload, @NonNull SendCallback callback) {
+                    throw new IllegalStateException("Not connected");
+                }
+
+                @Override
+                public void close(int closeCode) {
+                }
+            };
+        }
+    }
+
+    private CryptoProvider cryptoProvider;
+    private LoopbackServer server;
+    private SaltyRTC client;
+
+    @Before
+    public void setUp() {
+        this.cryptoProvider = new LazysodiumCryptoProvider();
+        this.server = new LoopbackServer(this.cryptoProvider);
+    }
+
+    @After
+    public void tearDown() {
+        if (this.client != null) {
+            this.client.disconnect();
+        }
+        this.server.close();
+    }
+
+    @NonNull
+    private SaltyRTC createClient(@NonNull TransportFactory transport, @NonNull RetryPolicy retryPolicy)
+        throws Exception {
+        return new SaltyRTCBuilder(this.cryptoProvider)
+            .connectTo("localhost", 8765, SSLContext.getDefault())
+            .withTransport(transport)
+            .withServerKey(this.server.getPublicKey())
+            .withKeyStore(new KeyStore(this.cryptoProvider))
+            .withWebSocketConnectAttemptsMax(10)
+            .withWebSocketConnectRetryPolicy(retryPolicy)
+            .usingTasks(new Task[]{ new DummyTask() })
+            .asInitiator();
+    }
+
+    @Test
+    public void testRetriesAfterDelay() throws Exception {
+        final FailingFactory transport = new FailingFactory(this.server, 3);
+        this.client = this.createClient(transport, new ExponentialBackoff(50, 1000, false));
+        final CountDownLatch connected = new CountDownLatch(1);
+        this.client.events.signalingStateChanged.register(event -> {
+            if (event.getState() == SignalingState.PEER_HANDSHAKE) {
+                connected.countDown();
+                return true;
+            }
+            return false;
+        });
+        this.client.connect();
+        assertTrue(connected.await(5, TimeUnit.SECONDS));
+
+        // Delays of 50, 100 and 200 ms
+        assertEquals(4, transport.attempts.size());
+        for (int i = 1; i < 4; i++) {
+            final long delay = TimeUnit.NANOSECONDS.toMillis(
+                transport.attempts.get(i) - transport.attempts.get(i - 1));
+            assertTrue("Delay " + delay + " before attempt " + (i + 1), delay >= 50L << (i - 1));
+        }
+    }
+
+    @Test
+    public void testDisconnectCancelsRetry() throws Exception {
+        final FailingFactory transport = new FailingFactory(this.server, 10);
+        this.client = this.createClient(transport, new ExponentialBackoff(200, 1000, false));
+        this.client.connect();
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (transport.attempts.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // Give the connect error some time to schedule the retry
+        Thread.sleep(50);
+        this.client.disconnect();
+        Thread.sleep(400);
+        assertEquals(1, transport.attempts.size());
+        assertEquals(SignalingState.CLOSED, this.client.getSignalingState());
+    }
+}
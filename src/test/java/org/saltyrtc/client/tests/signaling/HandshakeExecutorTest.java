@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.tests.signaling;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.saltyrtc.client.SaltyRTC;
+import org.saltyrtc.client.SaltyRTCBuilder;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.crypto.CryptoProvider;
+import org.saltyrtc.client.keystore.KeyStore;
+import org.saltyrtc.client.signaling.CloseCode;
+import org.saltyrtc.client.signaling.state.SignalingState;
+import org.saltyrtc.client.tasks.Task;
+import org.saltyrtc.client.tests.DummyTask;
+import org.saltyrtc.client.tests.LazysodiumCryptoProvider;
+import org.saltyrtc.client.tests.TestHelpers.GatedExecutor;
+import org.saltyrtc.client.transport.loopback.LoopbackServer;
+
+import javax.net.ssl.SSLContext;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.saltyrtc.client.tests.TestHelpers.awaitClose;
+import static org.saltyrtc.client.tests.TestHelpers.awaitState;
+
+/**
+ * Offloading the responder handshake messages with `withHandshakeExecutor`.
+ */
+public class HandshakeExecutorTest {
+    /**
+     * Runs every task on a new thread. The first task is delayed, so that tasks run in
+     * parallel would complete out of order.
+     */
+    private static class ReorderingExecutor implements Executor {
+        @NonNull final AtomicInteger tasks = new AtomicInteger(0);
+
+        @Override
+        public void execute(@NonNull Runnable task) {
+            final long delay = this.tasks.getAndIncrement() == 0 ? 200 : 0;
+            new Thread(() -> {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                task.run();
+            }).start();
+        }
+    }
+
+    private CryptoProvider cryptoProvider;
+    private LoopbackServer server;
+    private SaltyRTC initiator;
+    private SaltyRTC responder;
+
+    @Before
+    public void setUp() {
+        this.cryptoProvider = new LazysodiumCryptoProvider();
+        this.server = new LoopbackServer(this.cryptoProvider);
+    }
+
+    @After
+    public void tearDown() {
+        if (this.initiator != null) {
+            this.initiator.disconnect();
+        }
+        if (this.responder != null) {
+            this.responder.disconnect();
+        }
+        this.server.close();
+    }
+
+    private void connectInitiator(@NonNull Executor executor, long peerHandshakeTimeout) throws Exception {
+        this.initiator = new SaltyRTCBuilder(this.cryptoProvider)
+            .connectTo("localhost", 8765, SSLContext.getDefault())
+            .withTransport(this.server)
+            .withKeyStore(new KeyStore(this.cryptoProvider))
+            .withHandshakeExecutor(executor)
+            .withHandshakeTimeouts(0, peerHandshakeTimeout)
+            .usingTasks(new Task[]{ new DummyTask() })
+            .asInitiator();
+        final CountDownLatch peerHandshake = awaitState(this.initiator, SignalingState.PEER_HANDSHAKE);
+        this.initiator.connect();
+        assertTrue(peerHandshake.await(5, TimeUnit.SECONDS));
+    }
+
+    @NonNull
+    private SaltyRTC createResponder() throws Exception {
+        // Note: Not trusted, so the responder sends a token and a key message back to back
+        return new SaltyRTCBuilder(this.cryptoProvider)
+            .connectTo("localhost", 8765, SSLContext.getDefault())
+            .withTransport(this.server)
+            .withKeyStore(new KeyStore(this.cryptoProvider))
+            .initiatorInfo(this.initiator.getPublicPermanentKey(), this.initiator.getAuthToken())
+            .usingTasks(new Task[]{ new DummyTask() })
+            .asResponder();
+    }
+
+    @Test
+    public void testMessagesProcessedInOrder() throws Exception {
+        final ReorderingExecutor executor = new ReorderingExecutor();
+        this.connectInitiator(executor, 0);
+        final CountDownLatch initiatorTask = awaitState(this.initiator, SignalingState.TASK);
+        this.responder = this.createResponder();
+        final CountDownLatch responderTask = awaitState(this.responder, SignalingState.TASK);
+        this.responder.connect();
+        assertTrue(initiatorTask.await(5, TimeUnit.SECONDS));
+        assertTrue(responderTask.await(5, TimeUnit.SECONDS));
+
+        // Token and key message (the latter would have been processed first if run in parallel)
+        assertTrue(executor.tasks.get() >= 2);
+    }
+
+    @Test
+    public void testResultDiscardedAfterDrop() throws Exception {
+        final GatedExecutor executor = new GatedExecutor();
+        this.connectInitiator(executor, 200);
+        this.responder = this.createResponder();
+        final CountDownLatch dropped = awaitClose(this.responder, CloseCode.DROPPED_BY_INITIATOR);
+        this.responder.connect();
+        assertTrue(executor.submitted.await(5, TimeUnit.SECONDS));
+        assertTrue(dropped.await(5, TimeUnit.SECONDS));
+
+        // The decrypted messages of the dropped responder are ignored
+        executor.open();
+        executor.awaitCompleted();
+        assertEquals(SignalingState.PEER_HANDSHAKE, this.initiator.getSignalingState());
+    }
+
+    @Test
+    public void testResultDiscardedAfterDisconnect() throws Exception {
+        final GatedExecutor executor = new GatedExecutor();
+        this.connectInitiator(executor, 0);
+        final CountDownLatch error = awaitState(this.initiator, SignalingState.ERROR);
+        this.responder = this.createResponder();
+        this.responder.connect();
+        assertTrue(executor.submitted.await(5, TimeUnit.SECONDS));
+        this.initiator.disconnect();
+
+        executor.open();
+        executor.awaitCompleted();
+        assertEquals(SignalingState.CLOSED, this.initiator.getSignalingState());
+        assertEquals(1, error.getCount());
+    }
+
+    @Test
+    public void testRejectedDropsResponder() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        this.connectInitiator(executor, 0);
+        this.responder = this.createResponder();
+        final CountDownLatch dropped = awaitClose(this.responder, CloseCode.INTERNAL_ERROR);
+        this.responder.connect();
+        assertTrue(dropped.await(5, TimeUnit.SECONDS));
+        assertEquals(SignalingState.PEER_HANDSHAKE, this.initiator.getSignalingState());
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.tests.signaling;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.saltyrtc.client.SaltyRTC;
+import org.saltyrtc.client.SaltyRTCBuilder;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.crypto.CryptoProvider;
+import org.saltyrtc.client.keystore.KeyStore;
+import org.saltyrtc.client.signaling.CloseCode;
+import org.saltyrtc.client.signaling.SendCallback;
+import org.saltyrtc.client.signaling.state.SignalingState;
+import org.saltyrtc.client.tasks.Task;
+import org.saltyrtc.client.tests.DummyTask;
+import org.saltyrtc.client.tests.LazysodiumCryptoProvider;
+import org.saltyrtc.client.transport.Transport;
+import org.saltyrtc.client.transport.TransportConfig;
+import org.saltyrtc.client.transport.TransportFactory;
+import org.saltyrtc.client.transport.TransportListener;
+import org.saltyrtc.client.transport.loopback.LoopbackServer;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.saltyrtc.client.tests.TestHelpers.awaitClose;
+import static org.saltyrtc.client.tests.TestHelpers.awaitState;
+
+public class HandshakeTimeoutTest {
+    // Offset of the destination in the nonce (after the cookie and the source)
+    private static final int DESTINATION_OFFSET = 17;
+
+    /**
+     * Accepts connections but never answers.
+     */
+    private static class SilentFactory implements TransportFactory {
+        @NonNull
+        @Override
+        public Transport create(@NonNull TransportConfig config, @NonNull TransportListener listener) {
+            return new Transport() {
+                @Override
+                public void connect() {
+                    new Thread(listener::onConnected).start();
+                }
+
+                @Override
+                public void send(@NonNull byte[] payload, @NonNull SendCallback callback) {
+                    callback.onSent();
+                }
+
+                @Override
+                public void close(int closeCode) {
+                }
+            };
+        }
+    }
+
+    /**
+     * Passes messages to the server, but drops the ones relayed to peers.
+     */
+    private static class PeerBlockingFactory implements TransportFactory {
+        @NonNull final TransportFactory factory;
+
+        PeerBlockingFactory(@NonNull TransportFactory factory) {
+            this.factory = factory;
+        }
+
+        @NonNull
+        @Override
+        public Transport create(@NonNull TransportConfig config, @NonNull TransportListener listener) throws IOException {
+            final Transport transport = this.factory.create(config, listener);
+            return new Transport() {
+                @Override
+                public void connect() {
+                    transport.connect();
+                }
+
+                @Override
+                public void send(@NonNull byte[] payload, @NonNull SendCallback callback) {
+                    if (payload[DESTINATION_OFFSET] != 0) {
+                        callback.onSent();
+                        return;
+                    }
+                    transport.send(payload, callback);
+                }
+
+                @Override
+                public void close(int closeCode) {
+                    transport.close(closeCode);
+                }
+            };
+        }
+    }
+
+    private CryptoProvider cryptoProvider;
+    private LoopbackServer server;
+    private SaltyRTC initiator;
+    private SaltyRTC responder;
+
+    @Before
+    public void setUp() {
+        this.cryptoProvider = new LazysodiumCryptoProvider();
+        this.server = new LoopbackServer(this.cryptoProvider);
+    }
+
+    @After
+    public void tearDown() {
+        if (this.initiator != null) {
+            this.initiator.disconnect();
+        }
+        if (this.responder != null) {
+            this.responder.disconnect();
+        }
+        this.server.close();
+    }
+
+    @NonNull
+    private SaltyRTC createInitiator(@NonNull TransportFactory transport, long peerHandshakeTimeout) throws Exception {
+        return new SaltyRTCBuilder(this.cryptoProvider)
+            .connectTo("localhost", 8765, SSLContext.getDefault())
+            .withTransport(transport)
+            .withKeyStore(new KeyStore(this.cryptoProvider))
+            .withHandshakeTimeouts(0, peerHandshakeTimeout)
+            .usingTasks(new Task[]{ new DummyTask() })
+            .asInitiator();
+    }
+
+    @NonNull
+    private SaltyRTC createResponder(@NonNull TransportFactory transport, long peerHandshakeTimeout) throws Exception {
+        return new SaltyRTCBuilder(this.cryptoProvider)
+            .connectTo("localhost", 8765, SSLContext.getDefault())
+            .withTransport(transport)
+            .withKeyStore(new KeyStore(this.cryptoProvider))
+            .withHandshakeTimeouts(0, peerHandshakeTimeout)
+            .initiatorInfo(this.initiator.getPublicPermanentKey(), this.initiator.getAuthToken())
+            .usingTasks(new Task[]{ new DummyTask() })
+            .asResponder();
+    }
+
+    @Test
+    public void testServerHandshakeTimeout() throws Exception {
+        this.initiator = new SaltyRTCBuilder(this.cryptoProvider)
+            .connectTo("localhost", 8765, SSLContext.getDefault())
+            .withTransport(new SilentFactory())
+            .withKeyStore(new KeyStore(this.cryptoProvider))
+            .withHandshakeTimeouts(200, 0)
+            .usingTasks(new Task[]{ new DummyTask() })
+            .asInitiator();
+        final CountDownLatch serverHandshake = awaitState(this.initiator, SignalingState.SERVER_HANDSHAKE);
+        final CountDownLatch closed = awaitState(this.initiator, SignalingState.CLOSED);
+        this.initiator.connect();
+        assertTrue(serverHandshake.await(5, TimeUnit.SECONDS));
+        final long start = System.nanoTime();
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 150);
+    }
+
+    @Test
+    public void testInitiatorDropsStuckResponder() throws Exception {
+        this.initiator = this.createInitiator(this.server, 200);
+        final CountDownLatch peerHandshake = awaitState(this.initiator, SignalingState.PEER_HANDSHAKE);
+        this.initiator.connect();
+        assertTrue(peerHandshake.await(5, TimeUnit.SECONDS));
+
+        // The responder never reaches the initiator
+        this.responder = this.createResponder(new PeerBlockingFactory(this.server), 0);
+        final CountDownLatch dropped = awaitClose(this.responder, CloseCode.DROPPED_BY_INITIATOR);
+        this.responder.connect();
+        assertTrue(dropped.await(5, TimeUnit.SECONDS));
+        assertEquals(SignalingState.PEER_HANDSHAKE, this.initiator.getSignalingState());
+    }
+
+    @Test
+    public void testResponderGivesUp() throws Exception {
+        // The initiator never answers the responder
+        this.initiator = this.createInitiator(new PeerBlockingFactory(this.server), 0);
+        final CountDownLatch peerHandshake = awaitState(this.initiator, SignalingState.PEER_HANDSHAKE);
+        this.initiator.connect();
+        assertTrue(peerHandshake.await(5, TimeUnit.SECONDS));
+
+        this.responder = this.createResponder(this.server, 200);
+        final CountDownLatch closed = awaitState(this.responder, SignalingState.CLOSED);
+        this.responder.connect();
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCompletedHandshakeNotAffected() throws Exception {
+        this.initiator = this.createInitiator(this.server, 300);
+        final CountDownLatch initiatorTask = awaitState(this.initiator, SignalingState.TASK);
+        this.initiator.connect();
+        this.responder = this.createResponder(this.server, 300);
+        final CountDownLatch responderTask = awaitState(this.responder, SignalingState.TASK);
+        this.responder.connect();
+        assertTrue(initiatorTask.await(5, TimeUnit.SECONDS));
+        assertTrue(responderTask.await(5, TimeUnit.SECONDS));
+
+        Thread.sleep(500);
+        assertEquals(SignalingState.TASK, this.initiator.getSignalingState());
+        assertEquals(SignalingState.TASK, this.responder.getSignalingState());
+    }
+}
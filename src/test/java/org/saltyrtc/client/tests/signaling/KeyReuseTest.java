@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.tests.signaling;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.saltyrtc.client.SaltyRTC;
+import org.saltyrtc.client.SaltyRTCBuilder;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.crypto.CryptoException;
+import org.saltyrtc.client.crypto.CryptoInstance;
+import org.saltyrtc.client.helpers.HexHelper;
+import org.saltyrtc.client.keystore.KeyStore;
+import org.saltyrtc.client.signaling.state.SignalingState;
+import org.saltyrtc.client.tasks.Task;
+import org.saltyrtc.client.tests.DummyTask;
+import org.saltyrtc.client.tests.LazysodiumCryptoProvider;
+import org.saltyrtc.client.transport.TransportFactory;
+import org.saltyrtc.client.transport.TransportListener;
+import org.saltyrtc.client.transport.loopback.LoopbackServer;
+
+import javax.net.ssl.SSLContext;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.saltyrtc.client.tests.TestHelpers.awaitState;
+
+public class KeyReuseTest {
+    /**
+     * Records the public keys key agreements are done with.
+     */
+    private static class CountingCryptoProvider extends LazysodiumCryptoProvider {
+        @NonNull final List<String> agreements = new CopyOnWriteArrayList<>();
+        @NonNull final AtomicInteger derivations = new AtomicInteger(0);
+
+        @NonNull
+        @Override
+        public byte[] derivePublicKey(@NonNull byte[] privateKey) throws CryptoException {
+            this.derivations.incrementAndGet();
+            return super.derivePublicKey(privateKey);
+        }
+
+        @NonNull
+        @Override
+        public CryptoInstance getInstance(@NonNull byte[] ownPrivateKey, @NonNull byte[] otherPublicKey)
+            throws CryptoException {
+            this.agreements.add(HexHelper.asHex(otherPublicKey));
+            return super.getInstance(ownPrivateKey, otherPublicKey);
+        }
+
+        int count(@NonNull byte[] publicKey) {
+            int count = 0;
+            for (String key : this.agreements) {
+                if (key.equals(HexHelper.asHex(publicKey))) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    private CountingCryptoProvider cryptoProvider;
+    private ExecutorService executor;
+    private LoopbackServer server;
+    private SaltyRTC client;
+
+    @Before
+    public void setUp() {
+        this.cryptoProvider = new CountingCryptoProvider();
+        this.executor = Executors.newSingleThreadExecutor();
+        this.server = new LoopbackServer(new LazysodiumCryptoProvider(), this.executor);
+    }
+
+    @After
+    public void tearDown() {
+        if (this.client != null) {
+            this.client.disconnect();
+        }
+        this.server.close();
+        this.executor.shutdown();
+    }
+
+    private static void connect(@NonNull SaltyRTC client) throws Exception {
+        final CountDownLatch peerHandshake = awaitState(client, SignalingState.PEER_HANDSHAKE);
+        client.connect();
+        assertTrue(peerHandshake.await(5, TimeUnit.SECONDS));
+    }
+
+    private void reconnect(@NonNull SaltyRTC client, int times) throws Exception {
+        for (int i = 0; i < times; i++) {
+            client.disconnect();
+            // Note: Let the server deliver the close of the transport, so that it cannot close
+            //       the next connection.
+            this.executor.submit(() -> { }).get(5, TimeUnit.SECONDS);
+            connect(client);
+        }
+    }
+
+    @Test
+    public void testServerKeyAgreementReused() throws Exception {
+        this.client = new SaltyRTCBuilder(this.cryptoProvider)
+            .connectTo("localhost", 8765, SSLContext.getDefault())
+            .withTransport(this.server)
+            .withServerKey(this.server.getPublicKey())
+            .withKeyStore(new KeyStore(this.cryptoProvider))
+            .usingTasks(new Task[]{ new DummyTask() })
+            .asInitiator();
+        connect(this.client);
+        this.reconnect(this.client, 2);
+        assertEquals(1, this.cryptoProvider.count(this.server.getPublicKey()));
+    }
+
+    @Test
+    public void testInitiatorKeyAgreementReused() throws Exception {
+        final KeyStore initiatorKey = new KeyStore(new LazysodiumCryptoProvider());
+        this.client = new SaltyRTCBuilder(this.cryptoProvider)
+            .connectTo("localhost", 8765, SSLContext.getDefault())
+            .withTransport(this.server)
+            .withKeyStore(new KeyStore(this.cryptoProvider))
+            .withTrustedPeerKey(initiatorKey.getPublicKey())
+            .usingTasks(new Task[]{ new DummyTask() })
+            .asResponder();
+        connect(this.client);
+        this.reconnect(this.client, 2);
+        assertEquals(1, this.cryptoProvider.count(initiatorKey.getPublicKey()));
+    }
+
+    @Test
+    public void testServerKeyKeptDuringResponderFlood() throws Exception {
+        this.client = new SaltyRTCBuilder(this.cryptoProvider)
+            .connectTo("localhost", 8765, SSLContext.getDefault())
+            .withTransport(this.server)
+            .withServerKey(this.server.getPublicKey())
+            .withKeyStore(new KeyStore(this.cryptoProvider))
+            .usingTasks(new Task[]{ new DummyTask() })
+            .asInitiator();
+        connect(this.client);
+
+        // More responders than shared keys are cached send a token, but never authenticate
+        for (int i = 0; i < 20; i++) {
+            final KeyStore responderKey = new KeyStore(new LazysodiumCryptoProvider());
+            final SaltyRTC responder = new SaltyRTCBuilder(new LazysodiumCryptoProvider())
+                .connectTo("localhost", 8765, SSLContext.getDefault())
+                .withTransport(this.ignoringPeerMessages())
+                .withKeyStore(responderKey)
+                .initiatorInfo(this.client.getPublicPermanentKey(), this.client.getAuthToken())
+                .usingTasks(new Task[]{ new DummyTask() })
+                .asResponder();
+            responder.connect();
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (this.cryptoProvider.count(responderKey.getPublicKey()) == 0
+                && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, this.cryptoProvider.count(responderKey.getPublicKey()));
+            responder.disconnect();
+        }
+        assertEquals(SignalingState.PEER_HANDSHAKE, this.client.getSignalingState());
+
+        this.reconnect(this.client, 1);
+        assertEquals(1, this.cryptoProvider.count(this.server.getPublicKey()));
+    }
+
+    /**
+     * Return a transport factory for the loopback server whose transports only deliver the
+     * messages of the server handshake.
+     */
+    @NonNull
+    private TransportFactory ignoringPeerMessages() {
+        return (config, listener) -> this.server.create(config, new TransportListener() {
+            private int received = 0;
+
+            @Override
+            public void onConnected() {
+                listener.onConnected();
+            }
+
+            @Override
+            public void onConnectError(@NonNull Exception e) {
+                listener.onConnectError(e);
+            }
+
+            @Override
+            public void onBinaryMessage(@NonNull byte[] data) {
+                // Note: server-hello and server-auth
+                if (++this.received <= 2) {
+                    listener.onBinaryMessage(data);
+                }
+            }
+
+            @Override
+            public void onTextMessage(@NonNull String text) {
+                listener.onTextMessage(text);
+            }
+
+            @Override
+            public void onDisconnected(int closeCode, @Nullable String closeReason, boolean closedByServer) {
+                listener.onDisconnected(closeCode, closeReason, closedByServer);
+            }
+
+            @Override
+            public void onError(@NonNull Exception e) {
+                listener.onError(e);
+            }
+
+            @Override
+            public void handleCallbackError(@NonNull Throwable cause) {
+                listener.handleCallbackError(cause);
+            }
+        });
+    }
+
+    @Test
+    public void testPublicKeyNotDerived() throws Exception {
+        this.client = new SaltyRTCBuilder(this.cryptoProvider)
+            .connectTo("localhost", 8765, SSLContext.getDefault())
+            .withTransport(this.server)
+            .withKeyStore(new KeyStore(this.cryptoProvider))
+            .usingTasks(new Task[]{ new DummyTask() })
+            .asInitiator();
+        connect(this.client);
+        assertEquals(0, this.cryptoProvider.derivations.get());
+    }
+}
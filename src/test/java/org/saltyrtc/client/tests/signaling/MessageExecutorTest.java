@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.tests.signaling;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.saltyrtc.client.SaltyRTC;
+import org.saltyrtc.client.SaltyRTCBuilder;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.crypto.CryptoProvider;
+import org.saltyrtc.client.keystore.KeyStore;
+import org.saltyrtc.client.signaling.CloseCode;
+import org.saltyrtc.client.signaling.state.SignalingState;
+import org.saltyrtc.client.tasks.Task;
+import org.saltyrtc.client.tests.DummyTask;
+import org.saltyrtc.client.tests.LazysodiumCryptoProvider;
+import org.saltyrtc.client.tests.TestHelpers.GatedExecutor;
+import org.saltyrtc.client.transport.loopback.LoopbackServer;
+
+import javax.net.ssl.SSLContext;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.saltyrtc.client.tests.TestHelpers.awaitState;
+
+/**
+ * Offloading post-handshake peer messages with `withMessageExecutor`.
+ */
+public class MessageExecutorTest {
+    private static final String THREAD_NAME = "MessageExecutorTest";
+    private static final int MESSAGES = 100;
+
+    private CryptoProvider cryptoProvider;
+    private LoopbackServer server;
+    private ExecutorService pool;
+    private SaltyRTC initiator;
+    private SaltyRTC responder;
+    @NonNull private final List<Object> received = new CopyOnWriteArrayList<>();
+    @NonNull private final List<String> threads = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() {
+        this.cryptoProvider = new LazysodiumCryptoProvider();
+        this.server = new LoopbackServer(this.cryptoProvider);
+        this.pool = Executors.newFixedThreadPool(4, runnable -> new Thread(runnable, THREAD_NAME));
+    }
+
+    @After
+    public void tearDown() {
+        if (this.initiator != null) {
+            this.initiator.disconnect();
+        }
+        if (this.responder != null) {
+            this.responder.disconnect();
+        }
+        this.server.close();
+        this.pool.shutdownNow();
+    }
+
+    /**
+     * Connect an initiator and a responder. The responder uses the message executor.
+     */
+    private void connect(@NonNull Executor executor) throws Exception {
+        this.connect(executor, null);
+    }
+
+    /**
+     * Connect an initiator and a responder. The responder uses the message executor and,
+     * if not null, the event loop executor.
+     */
+    private void connect(@NonNull Executor executor, @Nullable Executor eventLoop) throws Exception {
+        this.initiator = new SaltyRTCBuilder(this.cryptoProvider)
+            .connectTo("localhost", 8765, SSLContext.getDefault())
+            .withTransport(this.server)
+            .withKeyStore(new KeyStore(this.cryptoProvider))
+            .usingTasks(new Task[]{ new DummyTask() })
+            .asInitiator();
+        final SaltyRTCBuilder builder = new SaltyRTCBuilder(this.cryptoProvider)
+            .connectTo("localhost", 8765, SSLContext.getDefault())
+            .withTransport(this.server)
+            .withKeyStore(new KeyStore(this.cryptoProvider))
+            .withMessageExecutor(executor);
+        if (eventLoop != null) {
+            builder.withEventLoop(eventLoop);
+        }
+        this.responder = builder
+            .initiatorInfo(this.initiator.getPublicPermanentKey(), this.initiator.getAuthToken())
+            .usingTasks(new Task[]{ new DummyTask() })
+            .asResponder();
+        this.responder.events.applicationData.register(event -> {
+            this.received.add(event.getData());
+            this.threads.add(Thread.currentThread().getName());
+            return false;
+        });
+        final CountDownLatch initiatorTask = awaitState(this.initiator, SignalingState.TASK);
+        final CountDownLatch responderTask = awaitState(this.responder, SignalingState.TASK);
+        this.initiator.connect();
+        this.responder.connect();
+        assertTrue(initiatorTask.await(5, TimeUnit.SECONDS));
+        assertTrue(responderTask.await(5, TimeUnit.SECONDS));
+    }
+
+    private void awaitReceived(int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (this.received.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, this.received.size());
+    }
+
+    @Test
+    public void testDeliveredInOrderOnExecutor() throws Exception {
+        this.connect(this.pool);
+        for (int i = 0; i < MESSAGES; i++) {
+            this.initiator.sendApplicationMessage(i);
+        }
+        this.awaitReceived(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            assertEquals(i, ((Number) this.received.get(i)).intValue());
+            assertEquals(THREAD_NAME, this.threads.get(i));
+        }
+    }
+
+    @Test
+    public void testSharedWithEventLoop() throws Exception {
+        // Would deadlock if the message executor waited for the event loop
+        final ExecutorService executor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, THREAD_NAME));
+        try {
+            this.connect(executor, executor);
+            for (int i = 0; i < MESSAGES; i++) {
+                this.initiator.sendApplicationMessage(i);
+            }
+            this.awaitReceived(MESSAGES);
+            for (int i = 0; i < MESSAGES; i++) {
+                assertEquals(i, ((Number) this.received.get(i)).intValue());
+            }
+        } finally {
+            this.responder.disconnect();
+            this.responder = null;
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testNothingDeliveredAfterDisconnect() throws Exception {
+        final GatedExecutor executor = new GatedExecutor();
+        this.connect(executor);
+        for (int i = 0; i < MESSAGES; i++) {
+            this.initiator.sendApplicationMessage(i);
+        }
+        assertTrue(executor.submitted.await(5, TimeUnit.SECONDS));
+        this.responder.disconnect();
+
+        // The messages decrypted after the disconnect are dropped
+        executor.open();
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (executor.completed.get() < executor.executed.get() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(executor.executed.get(), executor.completed.get());
+        assertTrue(this.received.isEmpty());
+    }
+
+    @Test
+    public void testRejectedClosesConnection() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        this.connect(executor);
+        executor.shutdown();
+        final CountDownLatch closed = new CountDownLatch(1);
+        this.responder.events.close.register(event -> {
+            if (event.getReason() == CloseCode.INTERNAL_ERROR) {
+                closed.countDown();
+                return true;
+            }
+            return false;
+        });
+        final CountDownLatch initiatorClosed = awaitState(this.initiator, SignalingState.CLOSED);
+        this.initiator.sendApplicationMessage("lost");
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertTrue(this.received.isEmpty());
+
+        // The initiator is notified by the close message
+        assertTrue(initiatorClosed.await(5, TimeUnit.SECONDS));
+    }
+}
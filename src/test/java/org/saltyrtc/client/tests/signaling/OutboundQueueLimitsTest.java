@@ -0,0 +1,407 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.tests.signaling;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.saltyrtc.client.SaltyRTC;
+import org.saltyrtc.client.SaltyRTCBuilder;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.crypto.CryptoProvider;
+import org.saltyrtc.client.exceptions.BackpressureException;
+import org.saltyrtc.client.keystore.KeyStore;
+import org.saltyrtc.client.signaling.OutboundMetrics;
+import org.saltyrtc.client.signaling.SendCallback;
+import org.saltyrtc.client.signaling.state.SignalingState;
+import org.saltyrtc.client.tasks.Task;
+import org.saltyrtc.client.tests.DummyTask;
+import org.saltyrtc.client.tests.LazysodiumCryptoProvider;
+import org.saltyrtc.client.transport.Transport;
+import org.saltyrtc.client.transport.TransportConfig;
+import org.saltyrtc.client.transport.TransportFactory;
+import org.saltyrtc.client.transport.TransportListener;
+import org.saltyrtc.client.transport.loopback.LoopbackServer;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class OutboundQueueLimitsTest {
+    /**
+     * Holds back the messages passed to the loopback transports while paused, like a slow
+     * uplink would.
+     */
+    private static class PausableFactory implements TransportFactory {
+        @NonNull final TransportFactory factory;
+        @NonNull private final List<Runnable> paused = new ArrayList<>();
+        private boolean isPaused = false;
+        // Called whenever a message is passed to a transport
+        @Nullable volatile Runnable onSend;
+
+        PausableFactory(@NonNull TransportFactory factory) {
+            this.factory = factory;
+        }
+
+        synchronized void pause() {
+            this.isPaused = true;
+        }
+
+        /**
+         * Forward the held back messages. Holds the lock, so that messages sent meanwhile
+         * can't overtake them.
+         */
+        synchronized void resume() {
+            this.isPaused = false;
+            for (Runnable send : this.paused) {
+                send.run();
+            }
+            this.paused.clear();
+        }
+
+        @NonNull
+        @Override
+        public Transport create(@NonNull TransportConfig config, @NonNull TransportListener listener) throws IOException {
+            final Transport transport = this.factory.create(config, listener);
+            return new Transport() {
+                @Override
+                public void connect() {
+                    transport.connect();
+                }
+
+                @Override
+                public void send(@NonNull byte[] payload, @NonNull SendCallback callback) {
+                    final Runnable onSend = PausableFactory.this.onSend;
+                    if (onSend != null) {
+                        onSend.run();
+                    }
+                    synchronized (PausableFactory.this) {
+                        if (PausableFactory.this.isPaused) {
+                            PausableFactory.this.paused.add(() -> transport.send(payload, callback));
+                            return;
+                        }
+                    }
+                    transport.send(payload, callback);
+                }
+
+                @Override
+                public void close(int closeCode) {
+                    transport.close(closeCode);
+                }
+            };
+        }
+    }
+
+    private CryptoProvider cryptoProvider;
+    private LoopbackServer server;
+    private PausableFactory transports;
+    private SaltyRTC initiator;
+    private SaltyRTC responder;
+    private final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() {
+        this.cryptoProvider = new LazysodiumCryptoProvider();
+        this.server = new LoopbackServer(this.cryptoProvider);
+        this.transports = new PausableFactory(this.server);
+    }
+
+    @After
+    public void tearDown() {
+        this.transports.resume();
+        this.initiator.disconnect();
+        this.responder.disconnect();
+        this.server.close();
+    }
+
+    /**
+     * Connect an initiator with the specified limits to a responder.
+     */
+    private void connect(int maxFrames, long maxBytes, @NonNull SaltyRTCBuilder.BackpressureMode mode)
+        throws Exception {
+        final SSLContext sslContext = SSLContext.getDefault();
+        this.initiator = new SaltyRTCBuilder(this.cryptoProvider)
+            .connectTo("localhost", 8765, sslContext)
+            .withTransport(this.transports)
+            .withServerKey(this.server.getPublicKey())
+            .withKeyStore(new KeyStore(this.cryptoProvider))
+            .withOutboundQueueLimits(maxFrames, maxBytes, mode)
+            .usingTasks(new Task[]{ new DummyTask() })
+            .asInitiator();
+        this.responder = new SaltyRTCBuilder(this.cryptoProvider)
+            .connectTo("localhost", 8765, sslContext)
+            .withTransport(this.server)
+            .withServerKey(this.server.getPublicKey())
+            .withKeyStore(new KeyStore(this.cryptoProvider))
+            .usingTasks(new Task[]{ new DummyTask() })
+            .initiatorInfo(this.initiator.getPublicPermanentKey(), this.initiator.getAuthToken())
+            .asResponder();
+        this.responder.events.applicationData.register(event -> {
+            this.received.add(event.getData());
+            return false;
+        });
+
+        final CountDownLatch done = new CountDownLatch(2);
+        for (SaltyRTC peer : new SaltyRTC[]{ this.initiator, this.responder }) {
+            peer.events.signalingStateChanged.register(event -> {
+                if (event.getState() == SignalingState.TASK) {
+                    done.countDown();
+                    return true;
+                }
+                return false;
+            });
+        }
+        this.initiator.connect();
+        this.responder.connect();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        // Wait until the last handshake message has been written
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (this.initiator.getOutboundMetrics().getQueuedFrames() > 0) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private void assertReceived(@NonNull String... messages) throws InterruptedException {
+        for (String message : messages) {
+            assertEquals(message, this.received.poll(5, TimeUnit.SECONDS));
+        }
+        assertNull(this.received.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    private static void assertBackpressure(@NonNull CompletableFuture<Void> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected a BackpressureException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof BackpressureException);
+        }
+    }
+
+    @Test
+    public void testReject() throws Exception {
+        this.connect(2, 0, SaltyRTCBuilder.BackpressureMode.REJECT);
+        this.transports.pause();
+        this.initiator.sendApplicationMessage("1");
+        this.initiator.sendApplicationMessage("2");
+        try {
+            this.initiator.sendApplicationMessage("3");
+            fail("Expected a BackpressureException");
+        } catch (BackpressureException e) {
+            // Expected
+        }
+
+        final OutboundMetrics metrics = this.initiator.getOutboundMetrics();
+        assertEquals(2, metrics.getQueuedFrames());
+        assertTrue(metrics.getQueuedBytes() > 0);
+        assertEquals(1, metrics.getRejectedFrames());
+        assertEquals(0, metrics.getDroppedFrames());
+
+        this.transports.resume();
+        this.assertReceived("1", "2");
+        assertEquals(0, this.initiator.getOutboundMetrics().getQueuedFrames());
+        assertEquals(0, this.initiator.getOutboundMetrics().getOldestFrameAge());
+    }
+
+    @Test
+    public void testRejectAsync() throws Exception {
+        this.connect(2, 0, SaltyRTCBuilder.BackpressureMode.REJECT);
+        this.transports.pause();
+        final CompletableFuture<Void> first = this.initiator.sendApplicationMessageAsync("1");
+        final CompletableFuture<Void> second = this.initiator.sendApplicationMessageAsync("2");
+        assertBackpressure(this.initiator.sendApplicationMessageAsync("3"));
+        assertFalse(first.isDone());
+
+        this.transports.resume();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+        this.assertReceived("1", "2");
+    }
+
+    @Test
+    public void testQueueUsableWhileSending() throws Exception {
+        this.connect(2, 0, SaltyRTCBuilder.BackpressureMode.REJECT);
+
+        // Another thread reads the metrics while the message is passed to the transport
+        final CountDownLatch probed = new CountDownLatch(1);
+        final AtomicBoolean probedWhileSending = new AtomicBoolean(false);
+        this.transports.onSend = () -> {
+            new Thread(() -> {
+                this.initiator.getOutboundMetrics();
+                probed.countDown();
+            }).start();
+            try {
+                probedWhileSending.set(probed.await(1, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        this.initiator.sendApplicationMessage("1");
+        this.transports.onSend = null;
+        assertTrue(probedWhileSending.get());
+        this.assertReceived("1");
+    }
+
+    @Test
+    public void testAwait() throws Exception {
+        this.connect(2, 0, SaltyRTCBuilder.BackpressureMode.AWAIT);
+        this.transports.pause();
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (String message : new String[]{ "1", "2", "3", "4" }) {
+            futures.add(this.initiator.sendApplicationMessageAsync(message));
+        }
+
+        // Held back up to the limit, then rejected
+        assertBackpressure(this.initiator.sendApplicationMessageAsync("5"));
+        try {
+            this.initiator.sendApplicationMessage("6");
+            fail("Expected a BackpressureException");
+        } catch (BackpressureException e) {
+            // Expected
+        }
+        final OutboundMetrics metrics = this.initiator.getOutboundMetrics();
+        assertEquals(4, metrics.getQueuedFrames());
+        assertEquals(2, metrics.getRejectedFrames());
+        for (CompletableFuture<Void> future : futures) {
+            assertFalse(future.isDone());
+        }
+
+        this.transports.resume();
+        for (CompletableFuture<Void> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        this.assertReceived("1", "2", "3", "4");
+
+        // Accepted again once written
+        this.initiator.sendApplicationMessageAsync("7").get(5, TimeUnit.SECONDS);
+        this.assertReceived("7");
+    }
+
+    @Test
+    public void testAwaitByteLimit() throws Exception {
+        this.connect(0, 1, SaltyRTCBuilder.BackpressureMode.AWAIT);
+        this.transports.pause();
+        final CompletableFuture<Void> first = this.initiator.sendApplicationMessageAsync("1");
+        final CompletableFuture<Void> second = this.initiator.sendApplicationMessageAsync("2");
+        assertBackpressure(this.initiator.sendApplicationMessageAsync("3"));
+
+        this.transports.resume();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+        this.assertReceived("1", "2");
+    }
+
+    @Test
+    public void testByteLimit() throws Exception {
+        this.connect(0, 1, SaltyRTCBuilder.BackpressureMode.REJECT);
+        this.transports.pause();
+        this.initiator.sendApplicationMessage("1");
+        try {
+            this.initiator.sendApplicationMessage("2");
+            fail("Expected a BackpressureException");
+        } catch (BackpressureException e) {
+            // Expected
+        }
+        this.transports.resume();
+        this.assertReceived("1");
+    }
+
+    @Test
+    public void testDropOldestApplication() throws Exception {
+        this.connect(2, 0, SaltyRTCBuilder.BackpressureMode.DROP_OLDEST_APPLICATION);
+        this.transports.pause();
+        final CompletableFuture<Void> first = this.initiator.sendApplicationMessageAsync("1");
+        this.initiator.sendApplicationMessageAsync("2");
+        // Held back
+        final CompletableFuture<Void> third = this.initiator.sendApplicationMessageAsync("3");
+        final CompletableFuture<Void> fourth = this.initiator.sendApplicationMessageAsync("4");
+        // Replaces the third message only
+        final CompletableFuture<Void> fifth = this.initiator.sendApplicationMessageAsync("5");
+
+        assertBackpressure(third);
+        assertFalse(fourth.isDone());
+        Thread.sleep(20);
+        final OutboundMetrics metrics = this.initiator.getOutboundMetrics();
+        assertEquals(4, metrics.getQueuedFrames());
+        assertEquals(1, metrics.getDroppedFrames());
+        assertTrue(metrics.getOldestFrameAge() >= 20);
+        assertFalse(first.isDone());
+
+        // Never more than the limits are held back
+        final CompletableFuture<Void> sixth = this.initiator.sendApplicationMessageAsync("6");
+        assertBackpressure(fourth);
+        assertEquals(4, this.initiator.getOutboundMetrics().getQueuedFrames());
+        assertEquals(2, this.initiator.getOutboundMetrics().getDroppedFrames());
+
+        this.transports.resume();
+        fifth.get(5, TimeUnit.SECONDS);
+        sixth.get(5, TimeUnit.SECONDS);
+        this.assertReceived("1", "2", "5", "6");
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        this.connect(2, 0, SaltyRTCBuilder.BackpressureMode.BLOCK);
+        this.transports.pause();
+        this.initiator.sendApplicationMessage("1");
+        this.initiator.sendApplicationMessage("2");
+
+        final CountDownLatch sent = new CountDownLatch(1);
+        final Thread sender = new Thread(() -> {
+            try {
+                this.initiator.sendApplicationMessage("3");
+                sent.countDown();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        sender.start();
+        assertFalse(sent.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(2, this.initiator.getOutboundMetrics().getQueuedFrames());
+
+        this.transports.resume();
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        this.assertReceived("1", "2", "3");
+    }
+
+    @Test
+    public void testBlockInCallback() throws Exception {
+        this.connect(1, 0, SaltyRTCBuilder.BackpressureMode.BLOCK);
+        this.transports.pause();
+        final CompletableFuture<Void> first = this.initiator.sendApplicationMessageAsync("1");
+
+        // Called by the transport, which would never confirm the second message while blocked
+        final CountDownLatch sent = new CountDownLatch(1);
+        first.thenRun(() -> {
+            try {
+                this.initiator.sendApplicationMessage("2");
+                this.initiator.sendApplicationMessage("3");
+                sent.countDown();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+
+        this.transports.resume();
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        this.assertReceived("1", "2", "3");
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.tests.signaling;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.saltyrtc.client.SaltyRTC;
+import org.saltyrtc.client.SaltyRTCBuilder;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.crypto.CryptoProvider;
+import org.saltyrtc.client.keystore.KeyStore;
+import org.saltyrtc.client.signaling.CloseCode;
+import org.saltyrtc.client.signaling.SendCallback;
+import org.saltyrtc.client.signaling.state.SignalingState;
+import org.saltyrtc.client.tasks.Task;
+import org.saltyrtc.client.tests.DummyTask;
+import org.saltyrtc.client.tests.LazysodiumCryptoProvider;
+import org.saltyrtc.client.transport.Transport;
+import org.saltyrtc.client.transport.TransportConfig;
+import org.saltyrtc.client.transport.TransportFactory;
+import org.saltyrtc.client.transport.TransportListener;
+import org.saltyrtc.client.transport.loopback.LoopbackServer;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.saltyrtc.client.tests.TestHelpers.awaitState;
+
+public class StandbyTest {
+    /**
+     * A connection created by the routing factory.
+     */
+    private static class Connection {
+        @NonNull final String host;
+        @NonNull final Transport transport;
+        @NonNull final CountDownLatch connected = new CountDownLatch(1);
+        // Completion callbacks of messages delivered, but not reported as written
+        @NonNull final List<SendCallback> inFlight = new CopyOnWriteArrayList<>();
+        volatile boolean closed = false;
+
+        Connection(@NonNull String host, @NonNull Transport transport) {
+            this.host = host;
+            this.transport = transport;
+        }
+    }
+
+    /**
+     * Connects the host "primary" to one loopback server and "standby" to another. Connections
+     * to hosts listed in `unreachable` fail. Messages sent to hosts listed in `stalled` are
+     * delivered, but never reported as written.
+     */
+    private static class RoutingFactory implements TransportFactory {
+        @NonNull final LoopbackServer primary;
+        @NonNull final LoopbackServer standby;
+        @NonNull final List<Connection> connections = new CopyOnWriteArrayList<>();
+        @NonNull final List<String> unreachable = new CopyOnWriteArrayList<>();
+        @NonNull final List<String> stalled = new CopyOnWriteArrayList<>();
+
+        RoutingFactory(@NonNull LoopbackServer primary, @NonNull LoopbackServer standby) {
+            this.primary = primary;
+            this.standby = standby;
+        }
+
+        @NonNull
+        @Override
+        public Transport create(@NonNull TransportConfig config, @NonNull final TransportListener listener)
+            throws IOException {
+            final String host = config.getUri().getHost();
+            final Connection[] connection = new Connection[1];
+            final TransportListener counting = new TransportListener() {
+                @Override
+                public void onConnected() {
+                    connection[0].connected.countDown();
+                    listener.onConnected();
+                }
+
+                @Override
+                public void onConnectError(@NonNull Exception e) {
+                    listener.onConnectError(e);
+                }
+
+                @Override
+                public void onBinaryMessage(@NonNull byte[] data) {
+                    listener.onBinaryMessage(data);
+                }
+
+                @Override
+                public void onTextMessage(@NonNull String text) {
+                    listener.onTextMessage(text);
+                }
+
+                @Override
+                public void onDisconnected(int closeCode, String closeReason, boolean closedByServer) {
+                    listener.onDisconnected(closeCode, closeReason, closedByServer);
+                }
+
+                @Override
+                public void onError(@NonNull Exception e) {
+                    listener.onError(e);
+                }
+
+                @Override
+                public void handleCallbackError(@NonNull Throwable cause) {
+                    listener.handleCallbackError(cause);
+                }
+            };
+            final Transport transport;
+            if (this.unreachable.contains(host)) {
+                transport = new Transport() {
+                    @Override
+                    public void connect() {
+                        new Thread(() -> listener.onConnectError(new ConnectException("Connection refused"))).start();
+                    }
+
+                    @Override
+                    public void send(@NonNull byte[] payload, @NonNull SendCallback callback) {
+                        throw new IllegalStateException("Not connected");
+                    }
+
+                    @Override
+                    public void close(int closeCode) {
+                    }
+                };
+            } else {
+                transport = (host.equals("standby") ? this.standby : this.primary).create(config, counting);
+            }
+            connection[0] = new Connection(host, new Transport() {
+                @Override
+                public void connect() {
+                    transport.connect();
+                }
+
+                @Override
+                public void send(@NonNull byte[] payload, @NonNull SendCallback callback) {
+                    if (!stalled.contains(host)) {
+                        transport.send(payload, callback);
+                        return;
+                    }
+                    connection[0].inFlight.add(callback);
+                    transport.send(payload, new SendCallback() {
+                        @Override
+                        public void onSent() {
+                        }
+
+                        @Override
+                        public void onFailed(@NonNull Exception e) {
+                        }
+                    });
+                }
+
+                @Override
+                public void close(int closeCode) {
+                    connection[0].closed = true;
+                    // Like the WebSocket transports, fail pending messages before disconnecting
+                    for (SendCallback callback : connection[0].inFlight) {
+                        callback.onFailed(new IOException("Connection closed"));
+                    }
+                    connection[0].inFlight.clear();
+                    transport.close(closeCode);
+                }
+            });
+            this.connections.add(connection[0]);
+            return connection[0].transport;
+        }
+
+        @NonNull
+        List<Connection> getConnections(@NonNull String host) {
+            final List<Connection> connections = new ArrayList<>();
+            for (Connection connection : this.connections) {
+                if (connection.host.equals(host)) {
+                    connections.add(connection);
+                }
+            }
+            return connections;
+        }
+    }
+
+    private CryptoProvider cryptoProvider;
+    private LoopbackServer primary;
+    private LoopbackServer standby;
+    private RoutingFactory transport;
+    private SaltyRTC initiator;
+    private SaltyRTC responder;
+
+    @Before
+    public void setUp() {
+        this.cryptoProvider = new LazysodiumCryptoProvider();
+        this.primary = new LoopbackServer(this.cryptoProvider);
+        this.standby = new LoopbackServer(this.cryptoProvider);
+        this.transport = new RoutingFactory(this.primary, this.standby);
+    }
+
+    @After
+    public void tearDown() {
+        if (this.initiator != null) {
+            this.initiator.disconnect();
+        }
+        if (this.responder != null) {
+            this.responder.disconnect();
+        }
+        this.primary.close();
+        this.standby.close();
+    }
+
+    @NonNull
+    private SaltyRTC createInitiator() throws Exception {
+        return new SaltyRTCBuilder(this.cryptoProvider)
+            .connectTo("primary", 8765, SSLContext.getDefault())
+            .withStandbyServer("standby", 8765, SSLContext.getDefault())
+            .withTransport(this.transport)
+            .withKeyStore(new KeyStore(this.cryptoProvider))
+            .usingTasks(new Task[]{ new DummyTask() })
+            .asInitiator();
+    }
+
+    @Test
+    public void testFailOverToStandby() throws Exception {
+        this.initiator = this.createInitiator();
+        final CountDownLatch peerHandshake = awaitState(this.initiator, SignalingState.PEER_HANDSHAKE, 2);
+        final CountDownLatch closed = awaitState(this.initiator, SignalingState.CLOSED, 1);
+        this.initiator.connect();
+
+        // Wait for both connections
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (this.transport.getConnections("standby").isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        final Connection standby = this.transport.getConnections("standby").get(0);
+        assertTrue(standby.connected.await(5, TimeUnit.SECONDS));
+        while (peerHandshake.getCount() == 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(SignalingState.PEER_HANDSHAKE, this.initiator.getSignalingState());
+
+        // The primary server goes away, the initiator continues on the standby connection
+        this.transport.getConnections("primary").get(0).transport.close(CloseCode.GOING_AWAY);
+        assertTrue(peerHandshake.await(5, TimeUnit.SECONDS));
+        assertEquals(1, closed.getCount());
+        assertEquals(1, this.transport.getConnections("standby").size());
+        assertFalse(standby.closed);
+
+        // The lost server becomes the standby server
+        assertEquals(2, this.transport.getConnections("primary").size());
+
+        // A responder on the standby server reaches the initiator
+        final CountDownLatch initiatorTask = awaitState(this.initiator, SignalingState.TASK, 1);
+        this.responder = new SaltyRTCBuilder(this.cryptoProvider)
+            .connectTo("standby", 8765, SSLContext.getDefault())
+            .withTransport(this.transport)
+            .withKeyStore(new KeyStore(this.cryptoProvider))
+            .initiatorInfo(this.initiator.getPublicPermanentKey(), this.initiator.getAuthToken())
+            .usingTasks(new Task[]{ new DummyTask() })
+            .asResponder();
+        this.responder.connect();
+        assertTrue(initiatorTask.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFailOverWithFramesInFlight() throws Exception {
+        this.transport.stalled.add("primary");
+        this.initiator = this.createInitiator();
+        final CountDownLatch peerHandshake = awaitState(this.initiator, SignalingState.PEER_HANDSHAKE, 2);
+        this.initiator.connect();
+
+        // Wait for both connections, with messages in flight on the primary connection
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (this.transport.getConnections("standby").isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(this.transport.getConnections("standby").get(0).connected.await(5, TimeUnit.SECONDS));
+        while (peerHandshake.getCount() == 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        final Connection primary = this.transport.getConnections("primary").get(0);
+        assertFalse(primary.inFlight.isEmpty());
+        assertTrue(this.initiator.getOutboundMetrics().getQueuedFrames() > 0);
+
+        // The messages on the standby connection are sent and reported as written
+        this.transport.stalled.clear();
+        primary.transport.close(CloseCode.GOING_AWAY);
+        assertTrue(peerHandshake.await(5, TimeUnit.SECONDS));
+        final CountDownLatch initiatorTask = awaitState(this.initiator, SignalingState.TASK, 1);
+        this.responder = new SaltyRTCBuilder(this.cryptoProvider)
+            .connectTo("standby", 8765, SSLContext.getDefault())
+            .withTransport(this.transport)
+            .withKeyStore(new KeyStore(this.cryptoProvider))
+            .initiatorInfo(this.initiator.getPublicPermanentKey(), this.initiator.getAuthToken())
+            .usingTasks(new Task[]{ new DummyTask() })
+            .asResponder();
+        this.responder.connect();
+        assertTrue(initiatorTask.await(5, TimeUnit.SECONDS));
+        while (this.initiator.getOutboundMetrics().getQueuedFrames() > 0 && System.currentTimeMillis() < deadline + 5000) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, this.initiator.getOutboundMetrics().getQueuedFrames());
+    }
+
+    @Test
+    public void testCloseWithoutStandbyConnection() throws Exception {
+        this.transport.unreachable.add("standby");
+        this.initiator = this.createInitiator();
+        final CountDownLatch peerHandshake = awaitState(this.initiator, SignalingState.PEER_HANDSHAKE, 1);
+        final CountDownLatch closed = awaitState(this.initiator, SignalingState.CLOSED, 1);
+        this.initiator.connect();
+        assertTrue(peerHandshake.await(5, TimeUnit.SECONDS));
+
+        this.transport.getConnections("primary").get(0).transport.close(CloseCode.GOING_AWAY);
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDisconnectClosesStandby() throws Exception {
+        this.initiator = this.createInitiator();
+        final CountDownLatch peerHandshake = awaitState(this.initiator, SignalingState.PEER_HANDSHAKE, 1);
+        this.initiator.connect();
+        assertTrue(peerHandshake.await(5, TimeUnit.SECONDS));
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (this.transport.getConnections("standby").isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        final Connection standby = this.transport.getConnections("standby").get(0);
+        assertTrue(standby.connected.await(5, TimeUnit.SECONDS));
+
+        this.initiator.disconnect();
+        assertTrue(standby.closed);
+        assertEquals(SignalingState.CLOSED, this.initiator.getSignalingState());
+    }
+}
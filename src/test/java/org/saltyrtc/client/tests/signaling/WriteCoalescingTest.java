@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.tests.signaling;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.saltyrtc.client.SaltyRTC;
+import org.saltyrtc.client.SaltyRTCBuilder;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.crypto.CryptoProvider;
+import org.saltyrtc.client.keystore.KeyStore;
+import org.saltyrtc.client.signaling.OutboundMetrics;
+import org.saltyrtc.client.signaling.SendCallback;
+import org.saltyrtc.client.signaling.state.SignalingState;
+import org.saltyrtc.client.tasks.Task;
+import org.saltyrtc.client.tests.DummyTask;
+import org.saltyrtc.client.tests.LazysodiumCryptoProvider;
+import org.saltyrtc.client.transport.Transport;
+import org.saltyrtc.client.transport.TransportConfig;
+import org.saltyrtc.client.transport.TransportFactory;
+import org.saltyrtc.client.transport.TransportListener;
+import org.saltyrtc.client.transport.loopback.LoopbackServer;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class WriteCoalescingTest {
+    /**
+     * Counts the messages and flushes passed to the loopback transports.
+     */
+    private static class CountingFactory implements TransportFactory {
+        @NonNull final TransportFactory factory;
+        @NonNull final AtomicInteger sent = new AtomicInteger(0);
+        @NonNull final AtomicInteger flushed = new AtomicInteger(0);
+        volatile boolean autoFlush;
+
+        CountingFactory(@NonNull TransportFactory factory) {
+            this.factory = factory;
+        }
+
+        @NonNull
+        @Override
+        public Transport create(@NonNull TransportConfig config, @NonNull TransportListener listener) throws IOException {
+            this.autoFlush = config.isAutoFlush();
+            final Transport transport = this.factory.create(config, listener);
+            return new Transport() {
+                @Override
+                public void connect() {
+                    transport.connect();
+                }
+
+                @Override
+                public void send(@NonNull byte[] payload, @NonNull SendCallback callback) {
+                    CountingFactory.this.sent.incrementAndGet();
+                    transport.send(payload, callback);
+                }
+
+                @Override
+                public void flush() {
+                    CountingFactory.this.flushed.incrementAndGet();
+                    transport.flush();
+                }
+
+                @Override
+                public void close(int closeCode) {
+                    transport.close(closeCode);
+                }
+            };
+        }
+    }
+
+    private CryptoProvider cryptoProvider;
+    private LoopbackServer server;
+    private SaltyRTC initiator;
+    private SaltyRTC responder;
+
+    @Before
+    public void setUp() {
+        this.cryptoProvider = new LazysodiumCryptoProvider();
+        this.server = new LoopbackServer(this.cryptoProvider);
+    }
+
+    @After
+    public void tearDown() {
+        if (this.initiator != null) {
+            this.initiator.disconnect();
+        }
+        if (this.responder != null) {
+            this.responder.disconnect();
+        }
+        this.server.close();
+    }
+
+    private void createPeers(@NonNull TransportFactory initiatorTransport,
+                             @NonNull TransportFactory responderTransport,
+                             long maxFlushDelay) throws Exception {
+        final SSLContext sslContext = SSLContext.getDefault();
+        this.initiator = new SaltyRTCBuilder(this.cryptoProvider)
+            .connectTo("localhost", 8765, sslContext)
+            .withTransport(initiatorTransport)
+            .withServerKey(this.server.getPublicKey())
+            .withKeyStore(new KeyStore(this.cryptoProvider))
+            .withWriteCoalescing(maxFlushDelay)
+            .usingTasks(new Task[]{ new DummyTask() })
+            .asInitiator();
+        this.responder = new SaltyRTCBuilder(this.cryptoProvider)
+            .connectTo("localhost", 8765, sslContext)
+            .withTransport(responderTransport)
+            .withServerKey(this.server.getPublicKey())
+            .withKeyStore(new KeyStore(this.cryptoProvider))
+            .withWriteCoalescing(maxFlushDelay)
+            .usingTasks(new Task[]{ new DummyTask() })
+            .initiatorInfo(this.initiator.getPublicPermanentKey(), this.initiator.getAuthToken())
+            .asResponder();
+    }
+
+    private void connect() throws Exception {
+        final CountDownLatch done = new CountDownLatch(2);
+        for (SaltyRTC peer : new SaltyRTC[]{ this.initiator, this.responder }) {
+            peer.events.signalingStateChanged.register(event -> {
+                if (event.getState() == SignalingState.TASK) {
+                    done.countDown();
+                    return true;
+                }
+                return false;
+            });
+        }
+        this.initiator.connect();
+        this.responder.connect();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testHandshakeCoalesced() throws Exception {
+        final CountingFactory transports = new CountingFactory(this.server);
+        this.createPeers(this.server, transports, 1000);
+        this.connect();
+
+        assertFalse(transports.autoFlush);
+        final OutboundMetrics metrics = this.responder.getOutboundMetrics();
+        assertEquals(transports.sent.get(), metrics.getFlushedFrames());
+        assertEquals(transports.flushed.get(), metrics.getFlushes());
+        // At least client-hello and client-auth are flushed together
+        assertTrue(metrics.getFlushes() < metrics.getFlushedFrames());
+        assertTrue(metrics.getAverageFramesPerFlush() > 1);
+    }
+
+    @Test
+    public void testSendOutsideOfTurnIsFlushed() throws Exception {
+        final CountingFactory transports = new CountingFactory(this.server);
+        this.createPeers(transports, this.server, 1000);
+        this.connect();
+
+        final OutboundMetrics before = this.initiator.getOutboundMetrics();
+        this.initiator.sendApplicationMessage("hello");
+        final OutboundMetrics after = this.initiator.getOutboundMetrics();
+        assertEquals(before.getFlushes() + 1, after.getFlushes());
+        assertEquals(before.getFlushedFrames() + 1, after.getFlushedFrames());
+        assertEquals(after.getFlushes(), transports.flushed.get());
+    }
+
+    @Test
+    public void testWithoutCoalescing() throws Exception {
+        final CountingFactory transports = new CountingFactory(this.server);
+        this.createPeers(this.server, transports, 0);
+        this.connect();
+
+        assertTrue(transports.autoFlush);
+        final OutboundMetrics metrics = this.responder.getOutboundMetrics();
+        assertEquals(transports.sent.get(), metrics.getFlushedFrames());
+        assertEquals(metrics.getFlushedFrames(), metrics.getFlushes());
+        assertEquals(1.0, metrics.getAverageFramesPerFlush(), 0);
+        assertEquals(0, transports.flushed.get());
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.tests.transport;
+
+import org.junit.Test;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.transport.nio.CachingHostResolver;
+import org.saltyrtc.client.transport.nio.HostResolver;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CachingHostResolverTest {
+    /**
+     * Resolves every host to 192.0.2.x, where x is the number of lookups so far.
+     */
+    private static class CountingResolver implements HostResolver {
+        @NonNull final AtomicInteger lookups = new AtomicInteger(0);
+        volatile boolean failing = false;
+
+        @NonNull
+        @Override
+        public InetAddress[] resolve(@NonNull String host) throws UnknownHostException {
+            if (this.failing) {
+                throw new UnknownHostException(host);
+            }
+            final int lookup = this.lookups.incrementAndGet();
+            return new InetAddress[] { InetAddress.getByAddress(host, new byte[] { (byte) 192, 0, 2, (byte) lookup }) };
+        }
+    }
+
+    private static int lastOctet(@NonNull InetAddress[] addresses) {
+        return addresses[0].getAddress()[3];
+    }
+
+    @Test
+    public void testHitsAndMisses() throws Exception {
+        final CountingResolver resolver = new CountingResolver();
+        final CachingHostResolver cache = new CachingHostResolver(resolver, 60000, 0, Runnable::run);
+        assertEquals(1, lastOctet(cache.resolve("example.org")));
+        assertEquals(1, lastOctet(cache.resolve("EXAMPLE.org")));
+        assertEquals(2, lastOctet(cache.resolve("example.com")));
+        assertEquals(2, resolver.lookups.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.size());
+
+        cache.invalidate("example.org");
+        assertEquals(3, lastOctet(cache.resolve("example.org")));
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testExpires() throws Exception {
+        final CountingResolver resolver = new CountingResolver();
+        final CachingHostResolver cache = new CachingHostResolver(resolver, 50, 0, Runnable::run);
+        assertEquals(1, lastOctet(cache.resolve("example.org")));
+        Thread.sleep(60);
+        assertEquals(2, lastOctet(cache.resolve("example.org")));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testRefreshesInBackground() throws Exception {
+        final CountingResolver resolver = new CountingResolver();
+        final CachingHostResolver cache = new CachingHostResolver(resolver, 400, 0, Runnable::run);
+        cache.resolve("example.org");
+        // Within the last quarter of the TTL, the cached addresses are returned and refreshed
+        Thread.sleep(320);
+        assertEquals(1, lastOctet(cache.resolve("example.org")));
+        assertEquals(1, cache.getRefreshes());
+        assertEquals(2, lastOctet(cache.resolve("example.org")));
+        assertEquals(1, cache.getMisses());
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    public void testServesStaleDuringOutage() throws Exception {
+        final CountingResolver resolver = new CountingResolver();
+        final CachingHostResolver cache = new CachingHostResolver(resolver, 50, 60000, Runnable::run);
+        cache.resolve("example.org");
+        Thread.sleep(60);
+        resolver.failing = true;
+        assertEquals(1, lastOctet(cache.resolve("example.org")));
+        assertEquals(1, cache.getStaleHits());
+        assertEquals(1, cache.getFailures());
+
+        // Fresh addresses replace the stale ones once the resolver is back
+        resolver.failing = false;
+        assertEquals(1, lastOctet(cache.resolve("example.org")));
+        assertEquals(2, lastOctet(cache.resolve("example.org")));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testRetriesInBackgroundDuringOutage() throws Exception {
+        final CountingResolver resolver = new CountingResolver();
+        final List<Runnable> retries = new ArrayList<>();
+        final CachingHostResolver cache = new CachingHostResolver(resolver, 50, 60000, retries::add);
+        cache.resolve("example.org");
+        Thread.sleep(60);
+        resolver.failing = true;
+        assertEquals(1, lastOctet(cache.resolve("example.org")));
+        assertEquals(1, cache.getFailures());
+
+        // Further lookups don't wait for the failing resolver
+        assertEquals(1, lastOctet(cache.resolve("example.org")));
+        assertEquals(1, lastOctet(cache.resolve("example.org")));
+        assertEquals(1, cache.getFailures());
+        assertEquals(2, cache.getMisses());
+        assertEquals(3, cache.getStaleHits());
+        assertEquals(1, retries.size());
+
+        // A failed retry is tried again on the next lookup
+        retries.remove(0).run();
+        assertEquals(2, cache.getFailures());
+        assertEquals(1, lastOctet(cache.resolve("example.org")));
+        assertEquals(1, retries.size());
+
+        // A successful retry replaces the stale addresses
+        resolver.failing = false;
+        retries.remove(0).run();
+        assertEquals(2, lastOctet(cache.resolve("example.org")));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testStaleEntryExpires() throws Exception {
+        final CountingResolver resolver = new CountingResolver();
+        final CachingHostResolver cache = new CachingHostResolver(resolver, 20, 20, Runnable::run);
+        cache.resolve("example.org");
+        Thread.sleep(60);
+        resolver.failing = true;
+        try {
+            cache.resolve("example.org");
+            fail("Expected UnknownHostException");
+        } catch (UnknownHostException expected) {
+            assertEquals(0, cache.getStaleHits());
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.tests.transport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.saltyrtc.client.SaltyRTC;
+import org.saltyrtc.client.SaltyRTCBuilder;
+import org.saltyrtc.client.crypto.CryptoProvider;
+import org.saltyrtc.client.keystore.KeyStore;
+import org.saltyrtc.client.signaling.state.SignalingState;
+import org.saltyrtc.client.tasks.Task;
+import org.saltyrtc.client.tests.DummyTask;
+import org.saltyrtc.client.tests.LazysodiumCryptoProvider;
+import org.saltyrtc.client.transport.loopback.LoopbackServer;
+
+import javax.net.ssl.SSLContext;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.saltyrtc.client.tests.TestHelpers.waitForState;
+
+/**
+ * Runs the protocol against the in-process server.
+ */
+public class LoopbackServerTest {
+    private CryptoProvider cryptoProvider;
+    private LoopbackServer server;
+    private SaltyRTC initiator;
+    private SaltyRTC responder;
+
+    @Before
+    public void setUp() throws Exception {
+        this.cryptoProvider = new LazysodiumCryptoProvider();
+        this.server = new LoopbackServer(this.cryptoProvider);
+        final SSLContext sslContext = SSLContext.getDefault();
+        this.initiator = new SaltyRTCBuilder(this.cryptoProvider)
+            .connectTo("localhost", 8765, sslContext)
+            .withTransport(this.server)
+            .withServerKey(this.server.getPublicKey())
+            .withKeyStore(new KeyStore(this.cryptoProvider))
+            .usingTasks(new Task[]{ new DummyTask() })
+            .asInitiator();
+        this.responder = new SaltyRTCBuilder(this.cryptoProvider)
+            .connectTo("localhost", 8765, sslContext)
+            .withTransport(this.server)
+            .withServerKey(this.server.getPublicKey())
+            .withKeyStore(new KeyStore(this.cryptoProvider))
+            .usingTasks(new Task[]{ new DummyTask() })
+            .initiatorInfo(this.initiator.getPublicPermanentKey(), this.initiator.getAuthToken())
+            .asResponder();
+    }
+
+    @After
+    public void tearDown() {
+        this.initiator.disconnect();
+        this.responder.disconnect();
+        this.server.close();
+    }
+
+    @Test
+    public void testHandshake() throws Exception {
+        this.initiator.connect();
+        this.responder.connect();
+        waitForState(SignalingState.TASK, this.initiator, this.responder);
+        assertTrue(((DummyTask) this.initiator.getTask()).initialized);
+        assertTrue(((DummyTask) this.responder.getTask()).initialized);
+    }
+
+    @Test
+    public void testResponderFirst() throws Exception {
+        this.responder.connect();
+        waitForState(SignalingState.PEER_HANDSHAKE, this.responder);
+        this.initiator.connect();
+        waitForState(SignalingState.TASK, this.initiator, this.responder);
+    }
+
+    @Test
+    public void testApplicationMessage() throws Exception {
+        final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+        this.responder.events.applicationData.register(event -> {
+            received.add(event.getData());
+            return false;
+        });
+        this.initiator.connect();
+        this.responder.connect();
+        waitForState(SignalingState.TASK, this.initiator, this.responder);
+
+        this.initiator.sendApplicationMessage("hello");
+        assertEquals("hello", received.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testPeerDisconnected() throws Exception {
+        final BlockingQueue<Short> disconnected = new LinkedBlockingQueue<>();
+        this.initiator.events.peerDisconnected.register(event -> {
+            disconnected.add(event.getPeerId());
+            return false;
+        });
+        this.initiator.connect();
+        this.responder.connect();
+        waitForState(SignalingState.TASK, this.initiator, this.responder);
+
+        this.responder.disconnect();
+        final Short id = disconnected.poll(5, TimeUnit.SECONDS);
+        assertNotNull(id);
+        assertTrue(id >= 2);
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.tests.transport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.saltyrtc.client.SaltyRTCBuilder;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.signaling.SendCallback;
+import org.saltyrtc.client.transport.Transport;
+import org.saltyrtc.client.transport.TransportConfig;
+import org.saltyrtc.client.transport.TransportListener;
+import org.saltyrtc.client.transport.nio.NioTransportFactory;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the NIO transport against a minimal (plain) WebSocket echo server.
+ */
+public class NioTransportTest {
+    private static final String SUBPROTOCOL = "v1.saltyrtc.org";
+
+    private NioTransportFactory factory;
+    private ServerSocket server;
+    private Thread serverThread;
+    private final CountDownLatch accepted = new CountDownLatch(1);
+
+    /**
+     * Collects the events of a transport.
+     */
+    private static class Listener implements TransportListener {
+        final CountDownLatch connected = new CountDownLatch(1);
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        final BlockingQueue<byte[]> messages = new LinkedBlockingQueue<>();
+        volatile Exception error;
+        volatile int closeCode = -1;
+        volatile boolean closedByServer;
+
+        @Override
+        public void onConnected() {
+            this.connected.countDown();
+        }
+
+        @Override
+        public void onConnectError(@NonNull Exception e) {
+            this.error = e;
+            this.disconnected.countDown();
+        }
+
+        @Override
+        public void onBinaryMessage(@NonNull byte[] payload) {
+            this.messages.add(payload);
+        }
+
+        @Override
+        public void onTextMessage(@NonNull String text) {
+        }
+
+        @Override
+        public void onDisconnected(int closeCode, @Nullable String reason, boolean closedByServer) {
+            this.closeCode = closeCode;
+            this.closedByServer = closedByServer;
+            this.disconnected.countDown();
+        }
+
+        @Override
+        public void onError(@NonNull Exception e) {
+            this.error = e;
+        }
+
+        @Override
+        public void handleCallbackError(@NonNull Throwable t) {
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        this.factory = new NioTransportFactory(2);
+        this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.server.close();
+        if (this.serverThread != null) {
+            this.serverThread.join(5000);
+        }
+        this.factory.close();
+    }
+
+    /**
+     * Accept one connection, echo binary messages and answer close frames.
+     *
+     * @param protocol The subprotocol to confirm.
+     */
+    private void startServer(@NonNull final String protocol) {
+        this.serverThread = new Thread(() -> {
+            try (Socket socket = this.server.accept()) {
+                this.accepted.countDown();
+                final InputStream in = socket.getInputStream();
+                final OutputStream out = socket.getOutputStream();
+                final String request = readHead(in);
+                String key = null;
+                for (String line : request.split("\r\n")) {
+                    if (line.toLowerCase().startsWith("sec-websocket-key:")) {
+                        key = line.substring(line.indexOf(':') + 1).trim();
+                    }
+                }
+                final MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+                final String accept = Base64.getEncoder().encodeToString(sha1.digest(
+                    (key + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes(StandardCharsets.US_ASCII)));
+                out.write(("HTTP/1.1 101 Switching Protocols\r\n" +
+                    "Upgrade: websocket\r\nConnection: Upgrade\r\n" +
+                    "Sec-WebSocket-Accept: " + accept + "\r\n" +
+                    "Sec-WebSocket-Protocol: " + protocol + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+
+                final DataInputStream data = new DataInputStream(in);
+                while (true) {
+                    final int b0 = data.readUnsignedByte();
+                    final int b1 = data.readUnsignedByte();
+                    long length = b1 & 0x7F;
+                    if (length == 126) {
+                        length = data.readUnsignedShort();
+                    } else if (length == 127) {
+                        length = data.readLong();
+                    }
+                    final byte[] mask = new byte[4];
+                    data.readFully(mask);
+                    final byte[] payload = new byte[(int) length];
+                    data.readFully(payload);
+                    for (int i = 0; i < payload.length; i++) {
+                        payload[i] ^= mask[i & 3];
+                    }
+                    out.write(frame(b0, payload));
+                    out.flush();
+                    if ((b0 & 0x0F) == 0x8) {
+                        return;
+                    }
+                }
+            } catch (Exception e) {
+                // Connection closed
+            }
+        });
+        this.serverThread.start();
+    }
+
+    @NonNull
+    private static String readHead(@NonNull InputStream in) throws IOException {
+        final StringBuilder head = new StringBuilder();
+        while (!head.toString().endsWith("\r\n\r\n")) {
+            final int b = in.read();
+            if (b < 0) {
+                throw new IOException("EOF");
+            }
+            head.append((char) b);
+        }
+        return head.toString();
+    }
+
+    /**
+     * Return an unmasked server frame.
+     */
+    @NonNull
+    private static byte[] frame(int b0, @NonNull byte[] payload) {
+        final int header = payload.length <= 125 ? 2 : payload.length <= 0xFFFF ? 4 : 10;
+        final byte[] frame = new byte[header + payload.length];
+        frame[0] = (byte) b0;
+        if (header == 2) {
+            frame[1] = (byte) payload.length;
+        } else if (header == 4) {
+            frame[1] = 126;
+            frame[2] = (byte) (payload.length >>> 8);
+            frame[3] = (byte) payload.length;
+        } else {
+            frame[1] = 127;
+            for (int i = 0; i < 8; i++) {
+                frame[2 + i] = (byte) ((long) payload.length >>> (56 - 8 * i));
+            }
+        }
+        System.arraycopy(payload, 0, frame, header, payload.length);
+        return frame;
+    }
+
+    @NonNull
+    private TransportConfig config() {
+        return this.config("127.0.0.1", SaltyRTCBuilder.DualStackMode.BOTH);
+    }
+
+    @NonNull
+    private TransportConfig config(@NonNull String host, @NonNull SaltyRTCBuilder.DualStackMode dualStackMode) {
+        return new TransportConfig(
+            URI.create("ws://" + host + ":" + this.server.getLocalPort() + "/abcd"), SUBPROTOCOL,
+            null, null, dualStackMode, 5000, 0, null);
+    }
+
+    /**
+     * Resolve `race.test` to the given addresses.
+     */
+    private void resolveTo(@NonNull final String... addresses) {
+        this.factory.setHostResolver(host -> {
+            assertEquals("race.test", host);
+            final InetAddress[] resolved = new InetAddress[addresses.length];
+            for (int i = 0; i < addresses.length; i++) {
+                resolved[i] = InetAddress.getByName(addresses[i]);
+            }
+            return resolved;
+        });
+    }
+
+    @NonNull
+    private Transport connect(@NonNull Listener listener) throws IOException {
+        final Transport transport = this.factory.create(this.config(), listener);
+        transport.connect();
+        return transport;
+    }
+
+    @Test
+    public void testEcho() throws Exception {
+        this.startServer(SUBPROTOCOL);
+        final Listener listener = new Listener();
+        final Transport transport = this.connect(listener);
+        assertTrue(listener.connected.await(5, TimeUnit.SECONDS));
+
+        final byte[] small = new byte[] { 1, 2, 3 };
+        final byte[] large = new byte[100000];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) i;
+        }
+        final CountDownLatch sent = new CountDownLatch(2);
+        final SendCallback callback = new SendCallback() {
+            @Override
+            public void onSent() {
+                sent.countDown();
+            }
+
+            @Override
+            public void onFailed(@NonNull Exception e) {
+            }
+        };
+        transport.send(small, callback);
+        transport.send(large, callback);
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        assertArrayEquals(small, listener.messages.poll(5, TimeUnit.SECONDS));
+        assertTrue(Arrays.equals(large, listener.messages.poll(5, TimeUnit.SECONDS)));
+
+        transport.close(1001);
+        assertTrue(listener.disconnected.await(7, TimeUnit.SECONDS));
+        assertEquals(1001, listener.closeCode);
+        assertFalse(listener.closedByServer);
+        assertNull(listener.error);
+    }
+
+    @Test
+    public void testSubprotocolMismatch() throws Exception {
+        this.startServer("v0.saltyrtc.org");
+        final Listener listener = new Listener();
+        this.connect(listener);
+        assertTrue(listener.disconnected.await(5, TimeUnit.SECONDS));
+        assertEquals(1, listener.connected.getCount());
+        assertNotNull(listener.error);
+    }
+
+    @Test
+    public void testSendBeforeConnectedFailsOnClose() throws Exception {
+        final Listener listener = new Listener();
+        final TransportConfig config = new TransportConfig(
+            URI.create("ws://127.0.0.1:" + this.server.getLocalPort() + "/"), SUBPROTOCOL,
+            null, null, SaltyRTCBuilder.DualStackMode.BOTH, 5000, 0, null);
+        final Transport transport = this.factory.create(config, listener);
+        final CountDownLatch failed = new CountDownLatch(1);
+        transport.send(new byte[] { 1 }, new SendCallback() {
+            @Override
+            public void onSent() {
+            }
+
+            @Override
+            public void onFailed(@NonNull Exception e) {
+                failed.countDown();
+            }
+        });
+        transport.close(1000);
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        assertTrue(listener.disconnected.await(5, TimeUnit.SECONDS));
+        assertEquals(1000, listener.closeCode);
+    }
+
+    @Test
+    public void testPrewarm() throws Exception {
+        this.startServer(SUBPROTOCOL);
+        this.factory.prewarm(this.config());
+        assertTrue(this.accepted.await(5, TimeUnit.SECONDS));
+        assertEquals(1, this.factory.getIdleConnections());
+
+        // The server only accepts one connection, so this must use the pre-warmed one
+        final Listener listener = new Listener();
+        final Transport transport = this.connect(listener);
+        assertEquals(0, this.factory.getIdleConnections());
+        assertTrue(listener.connected.await(5, TimeUnit.SECONDS));
+        transport.send(new byte[] { 1, 2, 3 }, new SendCallback() {
+            @Override
+            public void onSent() {
+            }
+
+            @Override
+            public void onFailed(@NonNull Exception e) {
+            }
+        });
+        assertArrayEquals(new byte[] { 1, 2, 3 }, listener.messages.poll(5, TimeUnit.SECONDS));
+        transport.close(1000);
+        assertTrue(listener.disconnected.await(5, TimeUnit.SECONDS));
+        assertNull(listener.error);
+    }
+
+    @Test
+    public void testPrewarmedConnectionExpires() throws Exception {
+        this.startServer(SUBPROTOCOL);
+        this.factory.setMaxIdleTime(100);
+        this.factory.prewarm(this.config());
+        assertTrue(this.accepted.await(5, TimeUnit.SECONDS));
+
+        // The server sees the connection being closed
+        this.serverThread.join(5000);
+        assertFalse(this.serverThread.isAlive());
+        assertEquals(0, this.factory.getIdleConnections());
+    }
+
+    @Test
+    public void testFallbackToNextAddress() throws Exception {
+        this.startServer(SUBPROTOCOL);
+        // Nothing listens on the IPv6 loopback address, which is tried first
+        this.resolveTo("127.0.0.1", "::1");
+        final Listener listener = new Listener();
+        final Transport transport = this.factory.create(
+            this.config("race.test", SaltyRTCBuilder.DualStackMode.BOTH), listener);
+        transport.connect();
+        assertTrue(listener.connected.await(5, TimeUnit.SECONDS));
+        assertEquals(1, this.factory.getIpv4ConnectTimes().getCount());
+        assertEquals(0, this.factory.getIpv4ConnectTimes().getFailures());
+        assertEquals(0, this.factory.getIpv6ConnectTimes().getCount());
+        assertEquals(1, this.factory.getIpv6ConnectTimes().getFailures());
+        transport.close(1000);
+        assertTrue(listener.disconnected.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testStaggeredAttempts() throws Exception {
+        this.startServer(SUBPROTOCOL);
+        // The first address does not answer (or is unreachable)
+        this.resolveTo("192.0.2.1", "127.0.0.1");
+        this.factory.setConnectionAttemptDelay(100);
+        final Listener listener = new Listener();
+        final long start = System.nanoTime();
+        final Transport transport = this.factory.create(
+            this.config("race.test", SaltyRTCBuilder.DualStackMode.BOTH), listener);
+        transport.connect();
+        assertTrue(listener.connected.await(5, TimeUnit.SECONDS));
+        // Well below the connect timeout
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+        assertEquals(1, this.factory.getIpv4ConnectTimes().getCount());
+        assertTrue(this.factory.getIpv4ConnectTimes().getPercentile(50) <= 100);
+        transport.close(1000);
+        assertTrue(listener.disconnected.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDualStackModeFiltersAddresses() throws Exception {
+        this.resolveTo("127.0.0.1");
+        final Listener listener = new Listener();
+        final Transport transport = this.factory.create(
+            this.config("race.test", SaltyRTCBuilder.DualStackMode.IPV6_ONLY), listener);
+        transport.connect();
+        assertTrue(listener.disconnected.await(5, TimeUnit.SECONDS));
+        assertTrue(listener.error instanceof UnknownHostException);
+        assertEquals(0, this.factory.getIpv4ConnectTimes().getCount());
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.tests.transport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.saltyrtc.client.SaltyRTC;
+import org.saltyrtc.client.SaltyRTCBuilder;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.crypto.CryptoProvider;
+import org.saltyrtc.client.keystore.KeyStore;
+import org.saltyrtc.client.tasks.Task;
+import org.saltyrtc.client.tests.DummyTask;
+import org.saltyrtc.client.tests.LazysodiumCryptoProvider;
+import org.saltyrtc.client.transport.TlsSessionCache;
+import org.saltyrtc.client.transport.Transport;
+import org.saltyrtc.client.transport.TransportConfig;
+import org.saltyrtc.client.transport.TransportFactory;
+import org.saltyrtc.client.transport.TransportListener;
+import org.saltyrtc.client.transport.loopback.LoopbackServer;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class TlsSessionCacheTest {
+    /**
+     * Records the configs of the transports created by the loopback server.
+     */
+    private static class RecordingFactory implements TransportFactory {
+        @NonNull final TransportFactory factory;
+        @NonNull final List<TransportConfig> configs = new CopyOnWriteArrayList<>();
+
+        RecordingFactory(@NonNull TransportFactory factory) {
+            this.factory = factory;
+        }
+
+        @NonNull
+        @Override
+        public Transport create(@NonNull TransportConfig config, @NonNull TransportListener listener) throws IOException {
+            this.configs.add(config);
+            return this.factory.create(config, listener);
+        }
+    }
+
+    private TlsSessionCache cache;
+    private CryptoProvider cryptoProvider;
+    private LoopbackServer server;
+    private RecordingFactory transports;
+
+    @Before
+    public void setUp() {
+        this.cache = new TlsSessionCache();
+        this.cryptoProvider = new LazysodiumCryptoProvider();
+        this.server = new LoopbackServer(this.cryptoProvider);
+        this.transports = new RecordingFactory(this.server);
+    }
+
+    @After
+    public void tearDown() {
+        this.server.close();
+    }
+
+    @NonNull
+    private static SSLContext newContext() throws Exception {
+        final SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, null, null);
+        return sslContext;
+    }
+
+    @NonNull
+    private static SSLSession session(@NonNull final byte[] id) {
+        return (SSLSession) Proxy.newProxyInstance(SSLSession.class.getClassLoader(),
+            new Class<?>[]{ SSLSession.class },
+            (proxy, method, args) -> "getId".equals(method.getName()) ? id.clone() : null);
+    }
+
+    @Test
+    public void testRecordHandshake() {
+        this.cache.recordHandshake(session(new byte[]{ 1 }));
+        this.cache.recordHandshake(session(new byte[]{ 2 }));
+        this.cache.recordHandshake(session(new byte[]{ 1 }));
+        assertEquals(2, this.cache.getFullHandshakes());
+        assertEquals(1, this.cache.getResumedHandshakes());
+    }
+
+    @Test
+    public void testRecordHandshakeWithoutSessionId() {
+        this.cache.recordHandshake(session(new byte[0]));
+        this.cache.recordHandshake(session(new byte[0]));
+        assertEquals(2, this.cache.getFullHandshakes());
+        assertEquals(0, this.cache.getResumedHandshakes());
+    }
+
+    private void connect(@NonNull SSLContext sslContext, @Nullable TlsSessionCache cache) throws Exception {
+        final SaltyRTC client = new SaltyRTCBuilder(this.cryptoProvider)
+            .connectTo("localhost", 8765, sslContext)
+            .withTransport(this.transports)
+            .withServerKey(this.server.getPublicKey())
+            .withKeyStore(new KeyStore(this.cryptoProvider))
+            .withTlsSessionCache(cache)
+            .usingTasks(new Task[]{ new DummyTask() })
+            .asInitiator();
+        client.connect();
+        client.disconnect();
+    }
+
+    @Test
+    public void testContextOfInstances() throws Exception {
+        final SSLContext first = newContext();
+        final SSLContext second = newContext();
+        this.connect(first, this.cache);
+        this.connect(second, this.cache);
+        assertEquals(2, this.transports.configs.size());
+        assertSame(first, this.transports.configs.get(0).getSslContext());
+        assertSame(second, this.transports.configs.get(1).getSslContext());
+        for (TransportConfig config : this.transports.configs) {
+            assertSame(this.cache, config.getTlsSessionCache());
+        }
+    }
+
+    @Test
+    public void testNotUsedByDefault() throws Exception {
+        final SaltyRTC client = new SaltyRTCBuilder(this.cryptoProvider)
+            .connectTo("localhost", 8765, newContext())
+            .withTransport(this.transports)
+            .withServerKey(this.server.getPublicKey())
+            .withKeyStore(new KeyStore(this.cryptoProvider))
+            .usingTasks(new Task[]{ new DummyTask() })
+            .asInitiator();
+        client.connect();
+        client.disconnect();
+        assertNull(this.transports.configs.get(0).getTlsSessionCache());
+    }
+
+    @Test
+    public void testWithoutCache() throws Exception {
+        final SSLContext first = newContext();
+        final SSLContext second = newContext();
+        this.connect(first, null);
+        this.connect(second, null);
+        assertSame(first, this.transports.configs.get(0).getSslContext());
+        assertSame(second, this.transports.configs.get(1).getSslContext());
+        assertNull(this.transports.configs.get(1).getTlsSessionCache());
+    }
+}
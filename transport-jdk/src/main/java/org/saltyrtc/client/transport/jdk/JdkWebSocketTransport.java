@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.transport.jdk;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.exceptions.ConnectionException;
+import org.saltyrtc.client.signaling.SendCallback;
+import org.saltyrtc.client.transport.Transport;
+import org.saltyrtc.client.transport.TransportConfig;
+import org.saltyrtc.client.transport.TransportListener;
+import org.slf4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A transport based on `java.net.http.WebSocket`.
+ *
+ * Messages are requested one at a time, after the listener has handled the previous message.
+ * Sends are chained, as the WebSocket does not allow overlapping sends.
+ */
+final class JdkWebSocketTransport implements Transport, WebSocket.Listener {
+    private static final Logger LOG = org.slf4j.LoggerFactory.getLogger("SaltyRTC.JdkWebSocket");
+
+    // Time to wait for the close frame of the server, in milliseconds
+    private static final long CLOSE_TIMEOUT = 5000;
+    // Maximum size of a (reassembled) message
+    private static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+    private static final int CLOSE_TOO_BIG = 1009;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    @NonNull private final HttpClient client;
+    @NonNull private final ScheduledExecutorService scheduler;
+    @NonNull private final TransportConfig config;
+    @NonNull private final TransportListener listener;
+
+    // Completed with the WebSocket once it is open, or failed if it could not be opened
+    // (or has been closed before)
+    @NonNull private final CompletableFuture<WebSocket> opened = new CompletableFuture<>();
+    @NonNull private final ReentrantLock sendLock = new ReentrantLock();
+    // Completes once the previous send has completed
+    @NonNull private CompletableFuture<WebSocket> lastSend = this.opened;
+    @NonNull private final AtomicBoolean closeRequested = new AtomicBoolean(false);
+    private volatile int closeCode;
+    // Whether `onDisconnected` (or `onConnectError`) has been called
+    @NonNull private final AtomicBoolean finished = new AtomicBoolean(false);
+    @Nullable private volatile ScheduledFuture<?> pingTask;
+    @Nullable private volatile ScheduledFuture<?> closeTimeout;
+
+    // Only accessed from the WebSocket listener callbacks, which never run concurrently
+    @Nullable private ByteArrayOutputStream binaryFragments;
+    @Nullable private StringBuilder textFragments;
+
+    JdkWebSocketTransport(@NonNull HttpClient client,
+                          @NonNull ScheduledExecutorService scheduler,
+                          @NonNull TransportConfig config,
+                          @NonNull TransportListener listener) {
+        this.client = client;
+        this.scheduler = scheduler;
+        this.config = config;
+        this.listener = listener;
+    }
+
+    @Override
+    public void connect() {
+        final WebSocket.Builder builder = this.client.newWebSocketBuilder()
+            .subprotocols(this.config.getSubprotocol());
+        if (this.config.getConnectTimeout() > 0) {
+            builder.connectTimeout(Duration.ofMillis(this.config.getConnectTimeout()));
+        }
+        builder.buildAsync(this.config.getUri(), this).whenComplete((ws, error) -> {
+            if (error != null) {
+                final Exception e = unwrap(error);
+                if (this.opened.completeExceptionally(e)) {
+                    this.connectFailed(e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void send(@NonNull final byte[] payload, @NonNull final SendCallback callback) {
+        final CompletableFuture<WebSocket> sent;
+        this.sendLock.lock();
+        try {
+            sent = this.lastSend.thenCompose(ws -> ws.sendBinary(ByteBuffer.wrap(payload), true));
+            this.lastSend = sent;
+        } finally {
+            this.sendLock.unlock();
+        }
+        sent.whenComplete((ws, error) -> {
+            if (error == null) {
+                this.notifyListener(callback::onSent);
+            } else {
+                final Exception e = new ConnectionException("WebSocket has been closed", unwrap(error));
+                this.notifyListener(() -> callback.onFailed(e));
+            }
+        });
+    }
+
+    @Override
+    public void close(final int closeCode) {
+        if (!this.closeRequested.compareAndSet(false, true)) {
+            return;
+        }
+        this.closeCode = closeCode;
+
+        // Not open yet: Abort once it is
+        if (this.opened.completeExceptionally(new ConnectionException("WebSocket has been closed"))) {
+            this.finish(closeCode, null, false);
+            return;
+        }
+        if (this.opened.isCompletedExceptionally()) {
+            // Could not be opened, already reported
+            return;
+        }
+        final WebSocket ws = this.opened.join();
+        this.closeTimeout = this.scheduler.schedule(() -> {
+            ws.abort();
+            this.finish(closeCode, null, false);
+        }, CLOSE_TIMEOUT, TimeUnit.MILLISECONDS);
+
+        // Sent after all pending messages
+        final CompletableFuture<WebSocket> sent;
+        this.sendLock.lock();
+        try {
+            sent = this.lastSend.handle((ignored, error) -> ws)
+                .thenCompose(socket -> socket.sendClose(closeCode, ""));
+            this.lastSend = sent;
+        } finally {
+            this.sendLock.unlock();
+        }
+        sent.whenComplete((socket, error) -> {
+            if (error != null) {
+                ws.abort();
+                this.finish(closeCode, null, false);
+            }
+        });
+    }
+
+    @Override
+    public void onOpen(@NonNull WebSocket ws) {
+        final String subprotocol = ws.getSubprotocol();
+        if (!this.config.getSubprotocol().equals(subprotocol)) {
+            ws.abort();
+            final IOException e = new IOException("WebSocket upgrade failed: Unexpected subprotocol " + subprotocol);
+            if (this.opened.completeExceptionally(e)) {
+                this.connectFailed(e);
+            }
+            return;
+        }
+        if (!this.opened.complete(ws)) {
+            // Closed while connecting
+            ws.abort();
+            return;
+        }
+        final long pingInterval = this.config.getPingInterval();
+        if (pingInterval > 0) {
+            this.pingTask = this.scheduler.scheduleAtFixedRate(() -> {
+                try {
+                    ws.sendPing(EMPTY.duplicate());
+                } catch (IllegalStateException e) {
+                    // A ping is still pending
+                }
+            }, pingInterval, pingInterval, TimeUnit.MILLISECONDS);
+        }
+        this.notifyListener(this.listener::onConnected);
+        ws.request(1);
+    }
+
+    @Nullable
+    @Override
+    public CompletionStage<?> onBinary(@NonNull WebSocket ws, @NonNull ByteBuffer data, boolean last) {
+        if (this.binaryFragments == null && last) {
+            final byte[] message = new byte[data.remaining()];
+            data.get(message);
+            this.notifyListener(() -> this.listener.onBinaryMessage(message));
+        } else {
+            if (this.binaryFragments == null) {
+                this.binaryFragments = new ByteArrayOutputStream();
+            }
+            if (this.binaryFragments.size() + data.remaining() > MAX_MESSAGE_SIZE) {
+                this.messageTooBig(ws);
+                return null;
+            }
+            final byte[] fragment = new byte[data.remaining()];
+            data.get(fragment);
+            this.binaryFragments.write(fragment, 0, fragment.length);
+            if (last) {
+                final byte[] message = this.binaryFragments.toByteArray();
+                this.binaryFragments = null;
+                this.notifyListener(() -> this.listener.onBinaryMessage(message));
+            }
+        }
+        // Only request the next message once this one has been handled
+        ws.request(1);
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public CompletionStage<?> onText(@NonNull WebSocket ws, @NonNull CharSequence data, boolean last) {
+        if (this.textFragments == null && last) {
+            final String message = data.toString();
+            this.notifyListener(() -> this.listener.onTextMessage(message));
+        } else {
+            if (this.textFragments == null) {
+                this.textFragments = new StringBuilder();
+            }
+            if (this.textFragments.length() + data.length() > MAX_MESSAGE_SIZE) {
+                this.messageTooBig(ws);
+                return null;
+            }
+            this.textFragments.append(data);
+            if (last) {
+                final String message = this.textFragments.toString();
+                this.textFragments = null;
+                this.notifyListener(() -> this.listener.onTextMessage(message));
+            }
+        }
+        ws.request(1);
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public CompletionStage<?> onPing(@NonNull WebSocket ws, @NonNull ByteBuffer message) {
+        // Answered by the WebSocket
+        ws.request(1);
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public CompletionStage<?> onPong(@NonNull WebSocket ws, @NonNull ByteBuffer message) {
+        ws.request(1);
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public CompletionStage<?> onClose(@NonNull WebSocket ws, int statusCode, @NonNull String reason) {
+        if (this.closeRequested.get()) {
+            this.finish(this.closeCode, null, false);
+        } else {
+            // The close frame is echoed by the WebSocket
+            this.finish(statusCode, reason.isEmpty() ? null : reason, true);
+        }
+        return null;
+    }
+
+    @Override
+    public void onError(@NonNull WebSocket ws, @NonNull Throwable error) {
+        if (this.finished.get()) {
+            return;
+        }
+        final Exception e = unwrap(error);
+        this.notifyListener(() -> this.listener.onError(e));
+        this.finish(0, null, true);
+    }
+
+    private void messageTooBig(@NonNull final WebSocket ws) {
+        this.binaryFragments = null;
+        this.textFragments = null;
+        final String reason = "Message too big";
+        this.notifyListener(() -> this.listener.onError(new IOException(reason)));
+        ws.sendClose(CLOSE_TOO_BIG, reason).whenComplete((socket, error) -> ws.abort());
+        this.finish(CLOSE_TOO_BIG, reason, false);
+    }
+
+    private void connectFailed(@NonNull final Exception e) {
+        if (this.finished.compareAndSet(false, true)) {
+            this.notifyListener(() -> this.listener.onConnectError(e));
+        }
+    }
+
+    /**
+     * Cancel the timers and notify the listener, once.
+     */
+    private void finish(final int closeCode, @Nullable final String closeReason, final boolean closedByServer) {
+        if (!this.finished.compareAndSet(false, true)) {
+            return;
+        }
+        final ScheduledFuture<?> pingTask = this.pingTask;
+        if (pingTask != null) {
+            pingTask.cancel(false);
+        }
+        final ScheduledFuture<?> closeTimeout = this.closeTimeout;
+        if (closeTimeout != null) {
+            closeTimeout.cancel(false);
+        }
+        this.notifyListener(() -> this.listener.onDisconnected(closeCode, closeReason, closedByServer));
+    }
+
+    /**
+     * Call a listener or send callback. Exceptions are passed to `handleCallbackError`.
+     */
+    private void notifyListener(@NonNull Runnable callback) {
+        try {
+            callback.run();
+        } catch (RuntimeException e) {
+            try {
+                this.listener.handleCallbackError(e);
+            } catch (RuntimeException ee) {
+                LOG.error("Uncaught exception in callback error handler", ee);
+            }
+        }
+    }
+
+    @NonNull
+    private static Exception unwrap(@NonNull Throwable error) {
+        final Throwable cause = error instanceof CompletionException && error.getCause() != null
+            ? error.getCause() : error;
+        return cause instanceof Exception ? (Exception) cause : new IOException(cause);
+    }
+}
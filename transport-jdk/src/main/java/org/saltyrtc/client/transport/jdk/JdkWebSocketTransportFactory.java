@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.transport.jdk;
+
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.transport.Transport;
+import org.saltyrtc.client.transport.TransportConfig;
+import org.saltyrtc.client.transport.TransportFactory;
+import org.saltyrtc.client.transport.TransportListener;
+
+import javax.net.ssl.SSLContext;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Creates transports based on `java.net.http.WebSocket` (Java 11 and later).
+ *
+ * Messages are sent asynchronously, and the next message is only requested from the socket
+ * once the listener has returned from the previous one.
+ *
+ * One `HttpClient` is created per `SSLContext` and shared by all transports using it. The
+ * client manages its own threads, so the thread factory and the dual stack mode of the
+ * configuration are not used. Secure connections require an `SSLContext`.
+ */
+public class JdkWebSocketTransportFactory implements TransportFactory, Closeable {
+    @Nullable private final Executor executor;
+    @NonNull private final ConcurrentHashMap<SSLContext, HttpClient> clients = new ConcurrentHashMap<>();
+    @NonNull private final ScheduledExecutorService scheduler;
+
+    public JdkWebSocketTransportFactory() {
+        this(null);
+    }
+
+    /**
+     * Create a factory whose HTTP clients run their tasks (including the listener callbacks)
+     * on `executor`.
+     */
+    public JdkWebSocketTransportFactory(@Nullable Executor executor) {
+        this.executor = executor;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "SaltyRTC-WebSocket-Timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @NonNull
+    @Override
+    public Transport create(@NonNull TransportConfig config, @NonNull TransportListener listener) throws IOException {
+        if (config.getSslContext() == null && config.getSslSocketFactory() != null) {
+            throw new IOException("The JDK WebSocket transport requires an SSLContext");
+        }
+        return new JdkWebSocketTransport(this.getClient(config.getSslContext()), this.scheduler, config, listener);
+    }
+
+    /**
+     * Stop the timers for pings and close timeouts.
+     */
+    @Override
+    public void close() {
+        this.scheduler.shutdownNow();
+    }
+
+    @NonNull
+    private HttpClient getClient(@Nullable SSLContext sslContext) throws IOException {
+        final SSLContext context;
+        try {
+            context = sslContext != null ? sslContext : SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("No default SSLContext available", e);
+        }
+        return this.clients.computeIfAbsent(context, key -> {
+            final HttpClient.Builder builder = HttpClient.newBuilder().sslContext(key);
+            if (this.executor != null) {
+                builder.executor(this.executor);
+            }
+            return builder.build();
+        });
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2021 Threema GmbH
+ *
+ * Licensed under the Apache License, Version 2.0, <see LICENSE-APACHE file>
+ * or the MIT license <see LICENSE-MIT file>, at your option. This file may not be
+ * copied, modified, or distributed except according to those terms.
+ */
+
+package org.saltyrtc.client.tests.transport.jdk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.saltyrtc.client.SaltyRTCBuilder;
+import org.saltyrtc.client.annotations.NonNull;
+import org.saltyrtc.client.annotations.Nullable;
+import org.saltyrtc.client.signaling.SendCallback;
+import org.saltyrtc.client.transport.Transport;
+import org.saltyrtc.client.transport.TransportConfig;
+import org.saltyrtc.client.transport.TransportListener;
+import org.saltyrtc.client.transport.jdk.JdkWebSocketTransportFactory;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the JDK WebSocket transport against a minimal (plain) WebSocket echo server.
+ */
+public class JdkWebSocketTransportTest {
+    private static final String SUBPROTOCOL = "v1.saltyrtc.org";
+
+    private JdkWebSocketTransportFactory factory;
+    private ServerSocket server;
+    private Thread serverThread;
+
+    /**
+     * Collects the events of a transport.
+     */
+    private static class Listener implements TransportListener {
+        final CountDownLatch connected = new CountDownLatch(1);
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        final BlockingQueue<byte[]> messages = new LinkedBlockingQueue<>();
+        volatile Exception error;
+        volatile int closeCode = -1;
+        volatile boolean closedByServer;
+
+        @Override
+        public void onConnected() {
+            this.connected.countDown();
+        }
+
+        @Override
+        public void onConnectError(@NonNull Exception e) {
+            this.error = e;
+            this.disconnected.countDown();
+        }
+
+        @Override
+        public void onBinaryMessage(@NonNull byte[] payload) {
+            this.messages.add(payload);
+        }
+
+        @Override
+        public void onTextMessage(@NonNull String text) {
+        }
+
+        @Override
+        public void onDisconnected(int closeCode, @Nullable String reason, boolean closedByServer) {
+            this.closeCode = closeCode;
+            this.closedByServer = closedByServer;
+            this.disconnected.countDown();
+        }
+
+        @Override
+        public void onError(@NonNull Exception e) {
+            this.error = e;
+        }
+
+        @Override
+        public void handleCallbackError(@NonNull Throwable t) {
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        this.factory = new JdkWebSocketTransportFactory();
+        this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.server.close();
+        if (this.serverThread != null) {
+            this.serverThread.join(5000);
+        }
+        this.factory.close();
+    }
+
+    /**
+     * Accept one connection, echo binary messages and answer close frames.
+     *
+     * @param protocol The subprotocol to confirm.
+     */
+    private void startServer(@NonNull final String protocol) {
+        this.serverThread = new Thread(() -> {
+            try (Socket socket = this.server.accept()) {
+                final InputStream in = socket.getInputStream();
+                final OutputStream out = socket.getOutputStream();
+                final String request = readHead(in);
+                String key = null;
+                for (String line : request.split("\r\n")) {
+                    if (line.toLowerCase().startsWith("sec-websocket-key:")) {
+                        key = line.substring(line.indexOf(':') + 1).trim();
+                    }
+                }
+                final MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+                final String accept = Base64.getEncoder().encodeToString(sha1.digest(
+                    (key + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes(StandardCharsets.US_ASCII)));
+                out.write(("HTTP/1.1 101 Switching Protocols\r\n" +
+                    "Upgrade: websocket\r\nConnection: Upgrade\r\n" +
+                    "Sec-WebSocket-Accept: " + accept + "\r\n" +
+                    "Sec-WebSocket-Protocol: " + protocol + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+
+                final DataInputStream data = new DataInputStream(in);
+                while (true) {
+                    final int b0 = data.readUnsignedByte();
+                    final int b1 = data.readUnsignedByte();
+                    long length = b1 & 0x7F;
+                    if (length == 126) {
+                        length = data.readUnsignedShort();
+                    } else if (length == 127) {
+                        length = data.readLong();
+                    }
+                    final byte[] mask = new byte[4];
+                    data.readFully(mask);
+                    final byte[] payload = new byte[(int) length];
+                    data.readFully(payload);
+                    for (int i = 0; i < payload.length; i++) {
+                        payload[i] ^= mask[i & 3];
+                    }
+                    out.write(frame(b0, payload));
+                    out.flush();
+                    if ((b0 & 0x0F) == 0x8) {
+                        return;
+                    }
+                }
+            } catch (Exception e) {
+                // Connection closed
+            }
+        });
+        this.serverThread.start();
+    }
+
+    @NonNull
+    private static String readHead(@NonNull InputStream in) throws IOException {
+        final StringBuilder head = new StringBuilder();
+        while (!head.toString().endsWith("\r\n\r\n")) {
+            final int b = in.read();
+            if (b < 0) {
+                throw new IOException("EOF");
+            }
+            head.append((char) b);
+        }
+        return head.toString();
+    }
+
+    /**
+     * Return an unmasked server frame.
+     */
+    @NonNull
+    private static byte[] frame(int b0, @NonNull byte[] payload) {
+        final int header = payload.length <= 125 ? 2 : payload.length <= 0xFFFF ? 4 : 10;
+        final byte[] frame = new byte[header + payload.length];
+        frame[0] = (byte) b0;
+        if (header == 2) {
+            frame[1] = (byte) payload.length;
+        } else if (header == 4) {
+            frame[1] = 126;
+            frame[2] = (byte) (payload.length >>> 8);
+            frame[3] = (byte) payload.length;
+        } else {
+            frame[1] = 127;
+            for (int i = 0; i < 8; i++) {
+                frame[2 + i] = (byte) ((long) payload.length >>> (56 - 8 * i));
+            }
+        }
+        System.arraycopy(payload, 0, frame, header, payload.length);
+        return frame;
+    }
+
+    @NonNull
+    private Transport connect(@NonNull Listener listener) throws IOException {
+        final TransportConfig config = new TransportConfig(
+            URI.create("ws://127.0.0.1:" + this.server.getLocalPort() + "/abcd"), SUBPROTOCOL,
+            null, null, SaltyRTCBuilder.DualStackMode.BOTH, 5000, 0, null);
+        final Transport transport = this.factory.create(config, listener);
+        transport.connect();
+        return transport;
+    }
+
+    @Test
+    public void testEcho() throws Exception {
+        this.startServer(SUBPROTOCOL);
+        final Listener listener = new Listener();
+        final Transport transport = this.connect(listener);
+        assertTrue(listener.connected.await(5, TimeUnit.SECONDS));
+
+        final byte[] small = new byte[] { 1, 2, 3 };
+        final byte[] large = new byte[100000];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) i;
+        }
+        final CountDownLatch sent = new CountDownLatch(2);
+        final SendCallback callback = new SendCallback() {
+            @Override
+            public void onSent() {
+                sent.countDown();
+            }
+
+            @Override
+            public void onFailed(@NonNull Exception e) {
+            }
+        };
+        transport.send(small, callback);
+        transport.send(large, callback);
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        assertArrayEquals(small, listener.messages.poll(5, TimeUnit.SECONDS));
+        assertTrue(Arrays.equals(large, listener.messages.poll(5, TimeUnit.SECONDS)));
+
+        transport.close(1001);
+        assertTrue(listener.disconnected.await(7, TimeUnit.SECONDS));
+        assertEquals(1001, listener.closeCode);
+        assertFalse(listener.closedByServer);
+        assertNull(listener.error);
+    }
+
+    @Test
+    public void testSubprotocolMismatch() throws Exception {
+        this.startServer("v0.saltyrtc.org");
+        final Listener listener = new Listener();
+        this.connect(listener);
+        assertTrue(listener.disconnected.await(5, TimeUnit.SECONDS));
+        assertEquals(1, listener.connected.getCount());
+        assertNotNull(listener.error);
+    }
+
+    @Test
+    public void testSendBeforeConnectedFailsOnClose() throws Exception {
+        final Listener listener = new Listener();
+        final TransportConfig config = new TransportConfig(
+            URI.create("ws://127.0.0.1:" + this.server.getLocalPort() + "/"), SUBPROTOCOL,
+            null, null, SaltyRTCBuilder.DualStackMode.BOTH, 5000, 0, null);
+        final Transport transport = this.factory.create(config, listener);
+        final CountDownLatch failed = new CountDownLatch(1);
+        transport.send(new byte[] { 1 }, new SendCallback() {
+            @Override
+            public void onSent() {
+            }
+
+            @Override
+            public void onFailed(@NonNull Exception e) {
+                failed.countDown();
+            }
+        });
+        transport.close(1000);
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        assertTrue(listener.disconnected.await(5, TimeUnit.SECONDS));
+        assertEquals(1000, listener.closeCode);
+    }
+}